@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.MutableTypedSupplier;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.ImmutableTypedMap;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Measures building a map with {@link ImmutableTypedMap.Builder} and {@link SuppliedTypedMap.Builder}, against
+ * building a {@link java.util.HashMap} and an {@link ImmutableMap} of the same entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuilderBenchmark {
+
+	@Param({ "1", "10", "100" })
+	int size;
+
+	@Param({ Fixtures.RAW, Fixtures.GENERIC })
+	String keyKind;
+
+	List<ImmutableTypedKey<Object, String>> keys;
+	Object[] values;
+
+	@Setup
+	public void setUp() {
+		keys = Fixtures.keys(size, keyKind);
+		values = new Object[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = Fixtures.value(i, keyKind);
+		}
+	}
+
+	@Benchmark
+	public ImmutableTypedMap<String> immutableBuilder() {
+		ImmutableTypedMap.Builder<String> builder = ImmutableTypedMap.builder();
+		for (int i = 0; i < size; i++) {
+			builder.put(keys.get(i), values[i]);
+		}
+		return builder.build();
+	}
+
+	@Benchmark
+	public SuppliedTypedMap<String> suppliedBuilder() {
+		SuppliedTypedMap.Builder<String> builder = SuppliedTypedMap.builder();
+		for (int i = 0; i < size; i++) {
+			ImmutableTypedKey<Object, String> key = keys.get(i);
+			builder.put(key.getId(), MutableTypedSupplier.of(key.getType(), values[i]));
+		}
+		return builder.build();
+	}
+
+	@Benchmark
+	public Map<String, Object> hashMap() {
+		Map<String, Object> map = Maps.newHashMapWithExpectedSize(size);
+		for (int i = 0; i < size; i++) {
+			map.put(keys.get(i).getId(), values[i]);
+		}
+		return map;
+	}
+
+	@Benchmark
+	public ImmutableMap<String, Object> immutableMapBuilder() {
+		ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+		for (int i = 0; i < size; i++) {
+			builder.put(keys.get(i).getId(), values[i]);
+		}
+		return builder.build();
+	}
+
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+import karlkfi.jtyped.map.TypedKey;
+import karlkfi.jtyped.map.TypedKeyGroup;
+import karlkfi.jtyped.map.TypedMap;
+import karlkfi.jtyped.map.TypedMapSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Compares reading a group of keys one {@link TypedMap#get(TypedKey)} at a time with a single
+ * {@link TypedMap#getAll(TypedKeyGroup, Object[])}, for unbound and layout-bound key groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkLookupBenchmark {
+
+	@Param({ "10", "40" })
+	int keyCount;
+
+	@Param({ "supplied", "schema" })
+	String impl;
+
+	List<TypedKey<?, String>> keys;
+	TypedMap<String> map;
+	TypedKeyGroup<String> group;
+	TypedKeyGroup<String> boundGroup;
+	Object[] values;
+
+	@Setup
+	public void setUp() {
+		keys = Lists.newArrayList();
+		for (int i = 0; i < keyCount; i++) {
+			keys.add((i % 2 == 0) ? ImmutableTypedKey.of(String.class, "key" + i) : ImmutableTypedKey.of(Long.class, "key" + i));
+		}
+		TypedMapSchema<String> schema = TypedMapSchema.of(keys);
+		MutableTypedMap<String> mutable;
+		if ("supplied".equals(impl)) {
+			mutable = SuppliedTypedMap.of();
+		} else if ("schema".equals(impl)) {
+			mutable = schema.newMap();
+		} else {
+			throw new IllegalArgumentException("unknown impl: " + impl);
+		}
+		for (int i = 0; i < keyCount; i++) {
+			@SuppressWarnings("unchecked")
+			TypedKey<Object, String> key = (TypedKey<Object, String>) keys.get(i);
+			mutable.put(key, (i % 2 == 0) ? "value" + i : Long.valueOf(i));
+		}
+		map = mutable;
+		group = TypedKeyGroup.of(keys);
+		boundGroup = group.bind(schema.getLayout());
+		values = new Object[keyCount];
+	}
+
+	@Benchmark
+	public Object[] getEach() {
+		for (int i = 0; i < keys.size(); i++) {
+			values[i] = map.get(keys.get(i));
+		}
+		return values;
+	}
+
+	@Benchmark
+	public Object[] getAll() {
+		map.getAll(group, values);
+		return values;
+	}
+
+	@Benchmark
+	public Object[] getAllBound() {
+		map.getAll(boundGroup, values);
+		return values;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.map.ConcurrentTypedMap;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.ImmutableTypedMap;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+import karlkfi.jtyped.map.TypedMap;
+import karlkfi.jtyped.map.TypedMapSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link TypedMap#get(Class, Object)} and {@link TypedMap#contains(Class, Object)} against the
+ * {@link TypedMap#get(karlkfi.jtyped.map.TypedKey)} baseline, for each map implementation.
+ * 
+ * Run with the GC profiler to check allocation; the class lookups should report a <code>gc.alloc.rate.norm</code> of
+ * 0 B/op:
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar ClassLookupBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLookupBenchmark {
+
+	static final ImmutableTypedKey<String, String> NAME = ImmutableTypedKey.of(String.class, "name");
+	static final ImmutableTypedKey<Long, String> COUNT = ImmutableTypedKey.of(Long.class, "count");
+
+	@Param({ "immutable", "supplied", "concurrent", "schema" })
+	String impl;
+
+	TypedMap<String> map;
+
+	@Setup
+	public void setUp() {
+		MutableTypedMap<String> mutable;
+		if ("immutable".equals(impl)) {
+			map = ImmutableTypedMap.of(NAME, "a", COUNT, Long.valueOf(1L));
+			return;
+		} else if ("supplied".equals(impl)) {
+			mutable = SuppliedTypedMap.of();
+		} else if ("concurrent".equals(impl)) {
+			mutable = ConcurrentTypedMap.of();
+		} else if ("schema".equals(impl)) {
+			mutable = TypedMapSchema.of(NAME, COUNT).newMap();
+		} else {
+			throw new IllegalArgumentException("unknown impl: " + impl);
+		}
+		mutable.put(NAME, "a");
+		mutable.put(COUNT, Long.valueOf(1L));
+		map = mutable;
+	}
+
+	@Benchmark
+	public String getByKey() {
+		return map.get(NAME);
+	}
+
+	@Benchmark
+	public String getByClass() {
+		return map.get(String.class, "name");
+	}
+
+	@Benchmark
+	public Number getBySuperclass() {
+		return map.get(Number.class, "count");
+	}
+
+	@Benchmark
+	public boolean containsByClass() {
+		return map.contains(CharSequence.class, "name");
+	}
+
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark;
+
+import java.util.List;
+import java.util.Map;
+
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.map.ConcurrentTypedMap;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.ImmutableTypedMap;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+import karlkfi.jtyped.map.TypedMap;
+import karlkfi.jtyped.map.TypedMapSchema;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Keys, values and maps shared by the benchmarks, parameterized by map size, key kind and map implementation.
+ * 
+ * Raw keys have a <code>String</code> type. Generic keys have a <code>List&lt;String&gt;</code> type, whose
+ * {@link TypeToken} equality and assignability checks are more expensive.
+ */
+final class Fixtures {
+
+	static final String RAW = "raw";
+	static final String GENERIC = "generic";
+
+	private static final TypeToken<List<String>> STRING_LIST = TypeTokens.listOf(String.class);
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @return the keys <code>key0</code> to <code>key(size-1)</code>, of the specified kind
+	 */
+	@SuppressWarnings("unchecked")
+	static List<ImmutableTypedKey<Object, String>> keys(int size, String keyKind) {
+		List<ImmutableTypedKey<Object, String>> keys = Lists.newArrayListWithCapacity(size);
+		for (int i = 0; i < size; i++) {
+			if (RAW.equals(keyKind)) {
+				keys.add((ImmutableTypedKey<Object, String>) (ImmutableTypedKey<?, String>) ImmutableTypedKey.of(String.class, "key" + i));
+			} else if (GENERIC.equals(keyKind)) {
+				keys.add((ImmutableTypedKey<Object, String>) (ImmutableTypedKey<?, String>) ImmutableTypedKey.of(STRING_LIST, "key" + i));
+			} else {
+				throw new IllegalArgumentException("unknown key kind: " + keyKind);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * @return the value of the key with the specified index, of the specified kind
+	 */
+	static Object value(int i, String keyKind) {
+		return RAW.equals(keyKind) ? "value" + i : ImmutableList.of("value" + i);
+	}
+
+	/**
+	 * @return a new typed map of the specified implementation, with a value for every key
+	 */
+	static TypedMap<String> newMap(String impl, List<ImmutableTypedKey<Object, String>> keys, String keyKind) {
+		if ("immutable".equals(impl)) {
+			ImmutableTypedMap.Builder<String> builder = ImmutableTypedMap.builder();
+			for (int i = 0; i < keys.size(); i++) {
+				builder.put(keys.get(i), value(i, keyKind));
+			}
+			return builder.build();
+		}
+		MutableTypedMap<String> map;
+		if ("supplied".equals(impl)) {
+			map = SuppliedTypedMap.of();
+		} else if ("concurrent".equals(impl)) {
+			map = ConcurrentTypedMap.of();
+		} else if ("schema".equals(impl)) {
+			map = TypedMapSchema.of(keys).newMap();
+		} else {
+			throw new IllegalArgumentException("unknown impl: " + impl);
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			map.put(keys.get(i), value(i, keyKind));
+		}
+		return map;
+	}
+
+	/**
+	 * @return a new hash map of key IDs to values, with a value for every key
+	 */
+	static Map<String, Object> newHashMap(List<ImmutableTypedKey<Object, String>> keys, String keyKind) {
+		Map<String, Object> map = Maps.newHashMap();
+		for (int i = 0; i < keys.size(); i++) {
+			map.put(keys.get(i).getId(), value(i, keyKind));
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.map.ImmutableTypedKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the operations of {@link TypedMapBenchmark} on a plain {@link java.util.HashMap} of key IDs to values, as
+ * the baseline cost without type checks. Class lookups cast with the raw key class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashMapBaselineBenchmark {
+
+	@Param({ "1", "10", "100" })
+	int size;
+
+	@Param({ Fixtures.RAW, Fixtures.GENERIC })
+	String keyKind;
+
+	Map<String, Object> map;
+	Map<String, Object> equalMap;
+	String id;
+	Class<?> keyClass;
+
+	@Setup
+	public void setUp() {
+		List<ImmutableTypedKey<Object, String>> keys = Fixtures.keys(size, keyKind);
+		map = Fixtures.newHashMap(keys, keyKind);
+		equalMap = Fixtures.newHashMap(keys, keyKind);
+		id = keys.get(size / 2).getId();
+		keyClass = keys.get(size / 2).getType().getRawType();
+	}
+
+	@Benchmark
+	public Object getByKey() {
+		return map.get(id);
+	}
+
+	@Benchmark
+	public Object getByClass() {
+		return keyClass.cast(map.get(id));
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return map.containsKey(id);
+	}
+
+	@Benchmark
+	public void iterateEntries(Blackhole blackhole) {
+		for (Entry<String, Object> entry : map.entrySet()) {
+			blackhole.consume(entry.getValue());
+		}
+	}
+
+	@Benchmark
+	public void iterateKeys(Blackhole blackhole) {
+		for (String key : map.keySet()) {
+			blackhole.consume(key);
+		}
+	}
+
+	@Benchmark
+	public int hashCodeOfMap() {
+		return map.hashCode();
+	}
+
+	@Benchmark
+	public boolean equalsOfMap() {
+		return map.equals(equalMap);
+	}
+
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SuppliedTypedMap#put} and {@link SuppliedTypedMap#remove} of an existing entry, against the same
+ * calls on a plain {@link java.util.HashMap}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MutationBenchmark {
+
+	@Param({ "1", "10", "100" })
+	int size;
+
+	@Param({ Fixtures.RAW, Fixtures.GENERIC })
+	String keyKind;
+
+	SuppliedTypedMap<String> map;
+	Map<String, Object> hashMap;
+	ImmutableTypedKey<Object, String> key;
+	Object value;
+
+	@Setup
+	public void setUp() {
+		List<ImmutableTypedKey<Object, String>> keys = Fixtures.keys(size, keyKind);
+		map = (SuppliedTypedMap<String>) Fixtures.newMap("supplied", keys, keyKind);
+		hashMap = Fixtures.newHashMap(keys, keyKind);
+		key = keys.get(size / 2);
+		value = Fixtures.value(size / 2, keyKind);
+	}
+
+	@Benchmark
+	public Object put() {
+		return map.put(key, value);
+	}
+
+	@Benchmark
+	public Object putRemove() {
+		map.put(key, value);
+		return map.remove(key);
+	}
+
+	@Benchmark
+	public Object hashMapPut() {
+		return hashMap.put(key.getId(), value);
+	}
+
+	@Benchmark
+	public Object hashMapPutRemove() {
+		hashMap.put(key.getId(), value);
+		return hashMap.remove(key.getId());
+	}
+
+}
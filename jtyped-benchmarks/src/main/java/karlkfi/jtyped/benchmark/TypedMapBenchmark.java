@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.TypedKey;
+import karlkfi.jtyped.map.TypedMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the read paths of each typed map implementation: lookups, type checks, iteration, hashing and equality.
+ * {@link HashMapBaselineBenchmark} measures the same operations on a plain hash map.
+ * 
+ * Lookups read the key in the middle of the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypedMapBenchmark {
+
+	@Param({ "1", "10", "100" })
+	int size;
+
+	@Param({ Fixtures.RAW, Fixtures.GENERIC })
+	String keyKind;
+
+	@Param({ "immutable", "supplied", "concurrent", "schema" })
+	String impl;
+
+	TypedMap<String> map;
+	TypedMap<String> equalMap;
+	ImmutableTypedKey<Object, String> key;
+	Class<?> keyClass;
+
+	@Setup
+	public void setUp() {
+		List<ImmutableTypedKey<Object, String>> keys = Fixtures.keys(size, keyKind);
+		map = Fixtures.newMap(impl, keys, keyKind);
+		equalMap = Fixtures.newMap(impl, keys, keyKind);
+		key = keys.get(size / 2);
+		keyClass = key.getType().getRawType();
+	}
+
+	@Benchmark
+	public Object getByKey() {
+		return map.get(key);
+	}
+
+	@Benchmark
+	public Object getByClass() {
+		return map.get(keyClass, key.getId());
+	}
+
+	@Benchmark
+	public boolean contains() {
+		return map.contains(key);
+	}
+
+	@Benchmark
+	public void checkType() {
+		map.checkType(key);
+	}
+
+	@Benchmark
+	public void iterateEntries(Blackhole blackhole) {
+		for (Entry<? extends TypedKey<Object, ? extends String>, Object> entry : map.entries()) {
+			blackhole.consume(entry.getValue());
+		}
+	}
+
+	@Benchmark
+	public void iterateKeys(Blackhole blackhole) {
+		for (TypedKey<Object, ? extends String> typedKey : map.keys()) {
+			blackhole.consume(typedKey);
+		}
+	}
+
+	@Benchmark
+	public int hashCodeOfMap() {
+		return map.hashCode();
+	}
+
+	@Benchmark
+	public boolean equalsOfMap() {
+		return map.equals(equalMap);
+	}
+
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.map.ImmutableTypedKey;
+
+import org.HdrHistogram.Histogram;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Multi-threaded throughput and latency harness for the typed map implementations.
+ * 
+ * For each {@link LoadTarget target} and thread count, worker threads share one map and run a closed loop of reads
+ * and writes for a fixed time, after a warmup of the same length. Keys are drawn with Zipf-distributed popularity, so
+ * a few hot keys see most of the traffic. Every operation is timed and recorded in a per-thread
+ * {@link Histogram}; latencies are service times, since a closed loop does not account for coordinated omission.
+ * 
+ * Results are printed and written to <code>results.csv</code> in the output directory, along with the percentile
+ * distribution of every run as <code>&lt;target&gt;-&lt;threads&gt;.hgrm</code>, in microseconds. Read-only targets
+ * only run reads.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar karlkfi.jtyped.benchmark.load.LoadHarness --threads=1,16,256 --reads=0.95
+ * </pre>
+ * 
+ * Options, with their defaults:
+ * <ul>
+ * <li><code>--targets=immutable,supplied-synchronized,schema-synchronized,concurrent,copy-on-write</code></li>
+ * <li><code>--threads=1,2,4,8,16,32,64,128,256</code></li>
+ * <li><code>--reads=0.9</code>: the fraction of operations that are reads</li>
+ * <li><code>--keys=1000</code>: the number of entries in the map</li>
+ * <li><code>--zipf=0.99</code>: the Zipf exponent of key popularity, where 0 is uniform</li>
+ * <li><code>--warmup=5</code> and <code>--duration=10</code>: seconds per run</li>
+ * <li><code>--out=load-results</code>: the output directory</li>
+ * </ul>
+ */
+public final class LoadHarness {
+
+	static final String CSV_HEADER = "target,threads,reads,ops,opsPerSec,p50Us,p99Us,p999Us,maxUs";
+
+	private final List<String> targets;
+	private final List<Integer> threadCounts;
+	private final double reads;
+	private final int keyCount;
+	private final double zipfExponent;
+	private final long warmupNanos;
+	private final long durationNanos;
+	private final File outDir;
+
+	private final List<ImmutableTypedKey<Long, String>> keys;
+	private final ZipfDistribution popularity;
+
+	LoadHarness(Map<String, String> options) {
+		this.targets = ImmutableList.copyOf(Splitter.on(',').split(option(options, "targets", Joiner.on(',').join(LoadTarget.NAMES))));
+		this.threadCounts = Lists.newArrayList();
+		for (String threads : Splitter.on(',').split(option(options, "threads", "1,2,4,8,16,32,64,128,256"))) {
+			threadCounts.add(Integer.valueOf(threads));
+		}
+		this.reads = Double.parseDouble(option(options, "reads", "0.9"));
+		this.keyCount = Integer.parseInt(option(options, "keys", "1000"));
+		this.zipfExponent = Double.parseDouble(option(options, "zipf", "0.99"));
+		this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "warmup", "5")));
+		this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "duration", "10")));
+		this.outDir = new File(option(options, "out", "load-results"));
+		if (!options.isEmpty()) {
+			throw new IllegalArgumentException("unknown options: " + options.keySet());
+		}
+
+		this.keys = Lists.newArrayListWithCapacity(keyCount);
+		for (int i = 0; i < keyCount; i++) {
+			keys.add(ImmutableTypedKey.of(Long.class, "key" + i));
+		}
+		this.popularity = new ZipfDistribution(keyCount, zipfExponent);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		new LoadHarness(parse(args)).run();
+	}
+
+	/**
+	 * Parses <code>--name=value</code> arguments.
+	 * 
+	 * @throws IllegalArgumentException if an argument is malformed
+	 */
+	static Map<String, String> parse(String[] args) {
+		Map<String, String> options = Maps.newHashMap();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				throw new IllegalArgumentException("expected --name=value but found: " + arg);
+			}
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		return options;
+	}
+
+	/**
+	 * Removes and returns an option, so that unknown options can be reported.
+	 */
+	private static String option(Map<String, String> options, String name, String defaultValue) {
+		String value = options.remove(name);
+		return (value == null) ? defaultValue : value;
+	}
+
+	void run() throws IOException, InterruptedException {
+		if (!outDir.isDirectory() && !outDir.mkdirs()) {
+			throw new IOException("Cannot create output directory: " + outDir);
+		}
+		PrintStream csv = new PrintStream(new FileOutputStream(new File(outDir, "results.csv")), true, "UTF-8");
+		try {
+			csv.println(CSV_HEADER);
+			System.out.println(CSV_HEADER);
+			for (String name : targets) {
+				for (int threads : threadCounts) {
+					LoadTarget target = LoadTarget.create(name, keys);
+					double targetReads = target.isWritable() ? reads : 1.0;
+					runPhase(target, threads, targetReads, warmupNanos);
+					Result result = runPhase(target, threads, targetReads, durationNanos);
+					String row = result.toCsv(name, threads, targetReads);
+					csv.println(row);
+					System.out.println(row);
+					writeHistogram(new File(outDir, name + "-" + threads + ".hgrm"), result.histogram);
+				}
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	private static void writeHistogram(File file, Histogram histogram) throws IOException {
+		PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+		try {
+			// recorded in nanoseconds, written in microseconds
+			histogram.outputPercentileDistribution(out, Double.valueOf(1000.0));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Runs the workers against the target for the specified time.
+	 */
+	Result runPhase(LoadTarget target, int threads, double targetReads, long nanos) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		Worker[] workers = new Worker[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Worker(target, targetReads, new Random(31L * t + threads), start);
+			workers[t].start();
+		}
+		long startNanos = System.nanoTime();
+		start.countDown();
+		TimeUnit.NANOSECONDS.sleep(nanos);
+		for (Worker worker : workers) {
+			worker.running = false;
+		}
+		Histogram histogram = new Histogram(3);
+		for (Worker worker : workers) {
+			worker.join();
+			histogram.add(worker.histogram);
+		}
+		return new Result(histogram, System.nanoTime() - startNanos);
+	}
+
+	private final class Worker extends Thread {
+
+		private final LoadTarget target;
+		private final double targetReads;
+		private final Random random;
+		private final CountDownLatch start;
+
+		/**
+		 * Latencies in nanoseconds, only read after the worker is joined.
+		 */
+		final Histogram histogram = new Histogram(3);
+		volatile boolean running = true;
+		volatile long checksum;
+
+		Worker(LoadTarget target, double targetReads, Random random, CountDownLatch start) {
+			this.target = target;
+			this.targetReads = targetReads;
+			this.random = random;
+			this.start = start;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				start.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			long sink = 0;
+			while (running) {
+				ImmutableTypedKey<Long, String> key = keys.get(popularity.sample(random));
+				boolean read = random.nextDouble() < targetReads;
+				Long value = Long.valueOf(random.nextInt(keyCount));
+				long before = System.nanoTime();
+				if (read) {
+					Long result = target.read(key);
+					sink += (result == null) ? 0 : result.longValue();
+				} else {
+					target.write(key, value);
+				}
+				histogram.recordValue(System.nanoTime() - before);
+			}
+			// keeps reads from being optimized away
+			checksum = sink;
+		}
+
+	}
+
+	static final class Result {
+
+		final Histogram histogram;
+		final long elapsedNanos;
+
+		Result(Histogram histogram, long elapsedNanos) {
+			this.histogram = histogram;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		String toCsv(String target, int threads, double reads) {
+			long ops = histogram.getTotalCount();
+			double opsPerSec = ops * 1e9 / elapsedNanos;
+			return Joiner.on(',').join(target, Integer.valueOf(threads), Double.valueOf(reads), Long.valueOf(ops),
+					String.format("%.0f", Double.valueOf(opsPerSec)),
+					micros(histogram.getValueAtPercentile(50.0)),
+					micros(histogram.getValueAtPercentile(99.0)),
+					micros(histogram.getValueAtPercentile(99.9)),
+					micros(histogram.getMaxValue()));
+		}
+
+		private static String micros(long nanos) {
+			return String.format("%.3f", Double.valueOf(nanos / 1000.0));
+		}
+
+	}
+
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark.load;
+
+import java.util.List;
+
+import karlkfi.jtyped.map.ConcurrentTypedMap;
+import karlkfi.jtyped.map.CopyOnWriteTypedMap;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.ImmutableTypedMap;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+import karlkfi.jtyped.map.TypedMap;
+import karlkfi.jtyped.map.TypedMapSchema;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A typed map implementation under load, shared by every worker thread.
+ * 
+ * Maps that are not thread-safe are guarded by synchronizing on the map, as callers would. Read-only maps do not
+ * support writes, so they are only loaded with reads.
+ */
+abstract class LoadTarget {
+
+	/**
+	 * Names of the available targets, in the default run order.
+	 */
+	static final List<String> NAMES = ImmutableList.of("immutable", "supplied-synchronized", "schema-synchronized",
+			"concurrent", "copy-on-write");
+
+	/**
+	 * @return true if the target supports {@link #write(ImmutableTypedKey, Long)}
+	 */
+	abstract boolean isWritable();
+
+	abstract Long read(ImmutableTypedKey<Long, String> key);
+
+	abstract void write(ImmutableTypedKey<Long, String> key, Long value);
+
+	/**
+	 * Creates a target with a value for every key.
+	 * 
+	 * @throws IllegalArgumentException if the name is not one of {@link #NAMES}
+	 */
+	static LoadTarget create(String name, List<ImmutableTypedKey<Long, String>> keys) {
+		if ("immutable".equals(name)) {
+			ImmutableTypedMap.Builder<String> builder = ImmutableTypedMap.builder();
+			for (int i = 0; i < keys.size(); i++) {
+				builder.put(keys.get(i), Long.valueOf(i));
+			}
+			return new ReadOnly(builder.build());
+		} else if ("supplied-synchronized".equals(name)) {
+			return new Synchronized(fill(SuppliedTypedMap.<String>of(), keys));
+		} else if ("schema-synchronized".equals(name)) {
+			return new Synchronized(fill(TypedMapSchema.of(keys).newMap(), keys));
+		} else if ("concurrent".equals(name)) {
+			return new ThreadSafe(fill(ConcurrentTypedMap.<String>of(), keys));
+		} else if ("copy-on-write".equals(name)) {
+			return new ThreadSafe(fill(CopyOnWriteTypedMap.<String>of(), keys));
+		}
+		throw new IllegalArgumentException("unknown target: " + name + ", expected one of " + NAMES);
+	}
+
+	private static MutableTypedMap<String> fill(MutableTypedMap<String> map, List<ImmutableTypedKey<Long, String>> keys) {
+		for (int i = 0; i < keys.size(); i++) {
+			map.put(keys.get(i), Long.valueOf(i));
+		}
+		return map;
+	}
+
+	private static final class ReadOnly extends LoadTarget {
+
+		private final TypedMap<String> map;
+
+		ReadOnly(TypedMap<String> map) {
+			this.map = map;
+		}
+
+		@Override
+		boolean isWritable() {
+			return false;
+		}
+
+		@Override
+		Long read(ImmutableTypedKey<Long, String> key) {
+			return map.get(key);
+		}
+
+		@Override
+		void write(ImmutableTypedKey<Long, String> key, Long value) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	private static final class Synchronized extends LoadTarget {
+
+		private final MutableTypedMap<String> map;
+
+		Synchronized(MutableTypedMap<String> map) {
+			this.map = map;
+		}
+
+		@Override
+		boolean isWritable() {
+			return true;
+		}
+
+		@Override
+		Long read(ImmutableTypedKey<Long, String> key) {
+			synchronized (map) {
+				return map.get(key);
+			}
+		}
+
+		@Override
+		void write(ImmutableTypedKey<Long, String> key, Long value) {
+			synchronized (map) {
+				map.put(key, value);
+			}
+		}
+
+	}
+
+	private static final class ThreadSafe extends LoadTarget {
+
+		private final MutableTypedMap<String> map;
+
+		ThreadSafe(MutableTypedMap<String> map) {
+			this.map = map;
+		}
+
+		@Override
+		boolean isWritable() {
+			return true;
+		}
+
+		@Override
+		Long read(ImmutableTypedKey<Long, String> key) {
+			return map.get(key);
+		}
+
+		@Override
+		void write(ImmutableTypedKey<Long, String> key, Long value) {
+			map.put(key, value);
+		}
+
+	}
+
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.benchmark.load;
+
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Samples ranks <code>0</code> to <code>n-1</code> with Zipf-distributed popularity: the probability of rank
+ * <code>k</code> is proportional to <code>1 / (k + 1)^exponent</code>, so a few low ranks are drawn most of the time.
+ * An exponent of 0 is uniform.
+ * 
+ * Sampling is a binary search of the precomputed cumulative distribution, so it is thread-safe and does not
+ * allocate.
+ */
+final class ZipfDistribution {
+
+	private final double[] cumulative;
+
+	ZipfDistribution(int n, double exponent) {
+		Preconditions.checkArgument(n > 0, "n must be positive");
+		Preconditions.checkArgument(exponent >= 0, "exponent must be non-negative");
+		cumulative = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += 1 / Math.pow(k + 1, exponent);
+			cumulative[k] = sum;
+		}
+		for (int k = 0; k < n; k++) {
+			cumulative[k] /= sum;
+		}
+	}
+
+	/**
+	 * @return a rank, drawn with the random number generator
+	 */
+	int sample(Random random) {
+		double u = random.nextDouble();
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] < u) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A typed map lookup that threw an EntryNotFoundException.
+ */
+@Name("karlkfi.jtyped.EntryNotFound")
+@Label("Entry Not Found")
+@Category({ "jTyped", "Typed Map" })
+@Description("A typed map lookup that threw an EntryNotFoundException.")
+final class EntryNotFoundEvent extends TypedMapEvent {
+
+}
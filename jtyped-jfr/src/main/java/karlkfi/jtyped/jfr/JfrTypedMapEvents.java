@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.jfr;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import karlkfi.jtyped.map.TypedMapEvents;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Records {@link TypedMapEvents} as Java Flight Recorder events, tagged with the key ID and the type.
+ * 
+ * Either install the recorder for the life of the application with {@link #install(long, TimeUnit)}, or use
+ * {@link #installWhileRecording(long, TimeUnit)} to only install it while a flight recording is running, so that
+ * typed maps pay no timing overhead otherwise.
+ */
+@ThreadSafe
+public final class JfrTypedMapEvents implements TypedMapEvents.Listener {
+
+	private static final JfrTypedMapEvents INSTANCE = new JfrTypedMapEvents();
+
+	@Nullable
+	private static RecordingStateListener recordingStateListener;
+
+	private JfrTypedMapEvents() {
+	}
+
+	/**
+	 * Installs the recorder, replacing any installed {@link TypedMapEvents.Listener}.
+	 * 
+	 * @param threshold the minimum supplier duration to record as slow
+	 * @param unit the unit of the threshold
+	 */
+	public static void install(long threshold, @Nonnull TimeUnit unit) {
+		setRecordingStateListener(null);
+		TypedMapEvents.install(INSTANCE, threshold, unit);
+	}
+
+	/**
+	 * Installs the recorder whenever a flight recording starts running, and uninstalls it when no recording is
+	 * running.
+	 * 
+	 * @param threshold the minimum supplier duration to record as slow
+	 * @param unit the unit of the threshold
+	 */
+	public static void installWhileRecording(long threshold, @Nonnull TimeUnit unit) {
+		RecordingStateListener listener = new RecordingStateListener(unit.toNanos(threshold));
+		setRecordingStateListener(listener);
+		FlightRecorder.addListener(listener);
+		if (FlightRecorder.isInitialized()) {
+			listener.update();
+		}
+	}
+
+	/**
+	 * Uninstalls the recorder, if it is installed.
+	 */
+	public static void uninstall() {
+		setRecordingStateListener(null);
+		TypedMapEvents.uninstall(INSTANCE);
+	}
+
+	/**
+	 * Replaces the recording state listener. The flight recorder is called outside of the lock, since it notifies
+	 * listeners while holding its own.
+	 */
+	private static void setRecordingStateListener(@Nullable RecordingStateListener listener) {
+		RecordingStateListener previous;
+		synchronized (JfrTypedMapEvents.class) {
+			previous = recordingStateListener;
+			recordingStateListener = listener;
+		}
+		if (previous != null) {
+			FlightRecorder.removeListener(previous);
+		}
+	}
+
+	@Override
+	public void onSlowSupplier(@Nonnull Object keyId, @Nonnull TypeToken<?> type, long nanos) {
+		SlowSupplierEvent event = new SlowSupplierEvent();
+		if (event.isEnabled()) {
+			event.keyId = String.valueOf(keyId);
+			event.type = type.toString();
+			event.supplierDuration = nanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onMemoizedComputation(@Nonnull Object keyId, @Nonnull TypeToken<?> type, long nanos) {
+		MemoizedComputationEvent event = new MemoizedComputationEvent();
+		if (event.isEnabled()) {
+			event.keyId = String.valueOf(keyId);
+			event.type = type.toString();
+			event.computationDuration = nanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onEntryNotFound(@Nullable Object keyId, @Nullable TypeToken<?> type) {
+		EntryNotFoundEvent event = new EntryNotFoundEvent();
+		if (event.isEnabled()) {
+			event.keyId = (keyId == null) ? null : keyId.toString();
+			event.type = (type == null) ? null : type.toString();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onTypeMismatch(@Nullable Object keyId, @Nonnull TypeToken<?> type, @Nullable TypeToken<?> entryType) {
+		TypeMismatchEvent event = new TypeMismatchEvent();
+		if (event.isEnabled()) {
+			event.keyId = (keyId == null) ? null : keyId.toString();
+			event.type = type.toString();
+			event.entryType = (entryType == null) ? null : entryType.toString();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Installs the recorder while any flight recording is running.
+	 */
+	private static final class RecordingStateListener implements FlightRecorderListener {
+
+		private final long thresholdNanos;
+
+		RecordingStateListener(long thresholdNanos) {
+			this.thresholdNanos = thresholdNanos;
+		}
+
+		@Override
+		public void recordingStateChanged(Recording recording) {
+			update();
+		}
+
+		void update() {
+			boolean running = false;
+			for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+				if (recording.getState() == RecordingState.RUNNING) {
+					running = true;
+					break;
+				}
+			}
+			synchronized (JfrTypedMapEvents.class) {
+				if (recordingStateListener != this) {
+					return;
+				}
+				if (running) {
+					TypedMapEvents.install(INSTANCE, thresholdNanos, TimeUnit.NANOSECONDS);
+				} else {
+					TypedMapEvents.uninstall(INSTANCE);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A typed map lookup that computed, or waited for, the value of a memoizing supplier.
+ */
+@Name("karlkfi.jtyped.MemoizedComputation")
+@Label("Memoized Computation")
+@Category({ "jTyped", "Typed Map" })
+@Description("A typed map lookup that computed, or waited for, the value of a memoizing supplier.")
+final class MemoizedComputationEvent extends TypedMapEvent {
+
+	@Label("Computation Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long computationDuration;
+
+}
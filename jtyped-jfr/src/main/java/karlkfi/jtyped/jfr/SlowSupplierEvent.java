@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A typed map value supplier that took at least the installed threshold to return.
+ */
+@Name("karlkfi.jtyped.SlowSupplier")
+@Label("Slow Supplier")
+@Category({ "jTyped", "Typed Map" })
+@Description("A typed map value supplier that took at least the installed threshold to return.")
+final class SlowSupplierEvent extends TypedMapEvent {
+
+	@Label("Supplier Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long supplierDuration;
+
+}
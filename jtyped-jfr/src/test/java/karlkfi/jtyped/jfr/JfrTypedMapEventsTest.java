@@ -0,0 +1,102 @@
+package karlkfi.jtyped.jfr;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import karlkfi.jtyped.TypedSuppliers;
+import karlkfi.jtyped.map.EntryNotFoundException;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+import karlkfi.jtyped.map.TypedMapEvents;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Suppliers;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class JfrTypedMapEventsTest {
+
+	private static final ImmutableTypedKey<String, String> A = ImmutableTypedKey.of(String.class, "a");
+	private static final ImmutableTypedKey<Integer, String> A_INT = ImmutableTypedKey.of(Integer.class, "a");
+	private static final ImmutableTypedKey<String, String> B = ImmutableTypedKey.of(String.class, "b");
+
+	@After
+	public void tearDown() {
+		JfrTypedMapEvents.uninstall();
+	}
+
+	@Test
+	public void testEvents() throws IOException {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", TypedSuppliers.memoize(TypeToken.of(String.class), Suppliers.ofInstance("1")));
+		List<RecordedEvent> events;
+		try (Recording recording = new Recording()) {
+			recording.enable("karlkfi.jtyped.SlowSupplier");
+			recording.enable("karlkfi.jtyped.MemoizedComputation");
+			recording.enable("karlkfi.jtyped.EntryNotFound");
+			recording.enable("karlkfi.jtyped.TypeMismatch");
+			recording.start();
+			JfrTypedMapEvents.install(0, TimeUnit.NANOSECONDS);
+			tmap.get(A);
+			tmap.get(A);
+			try {
+				tmap.get(B);
+				fail("expected EntryNotFoundException");
+			} catch (EntryNotFoundException e) {
+				// expected
+			}
+			try {
+				tmap.get(A_INT);
+				fail("expected ClassCastException");
+			} catch (ClassCastException e) {
+				// expected
+			}
+			recording.stop();
+			File file = File.createTempFile("jtyped", ".jfr");
+			try {
+				recording.dump(file.toPath());
+				events = RecordingFile.readAllEvents(file.toPath());
+			} finally {
+				file.delete();
+			}
+		}
+		assertThat(events, hasSize(4));
+		assertEvent(events.get(0), "karlkfi.jtyped.MemoizedComputation", "a", "java.lang.String");
+		assertEvent(events.get(1), "karlkfi.jtyped.SlowSupplier", "a", "java.lang.String");
+		assertEvent(events.get(2), "karlkfi.jtyped.EntryNotFound", "b", "java.lang.String");
+		assertEvent(events.get(3), "karlkfi.jtyped.TypeMismatch", "a", "java.lang.Integer");
+		assertThat(events.get(3).getString("entryType"), equalTo("java.lang.String"));
+	}
+
+	@Test
+	public void testInstallWhileRecording() {
+		JfrTypedMapEvents.installWhileRecording(0, TimeUnit.NANOSECONDS);
+		assertThat(TypedMapEvents.getListener(), nullValue());
+		try (Recording recording = new Recording()) {
+			recording.start();
+			assertThat(TypedMapEvents.getListener(), notNullValue());
+			recording.stop();
+		}
+		assertThat(TypedMapEvents.getListener(), nullValue());
+	}
+
+	private static void assertEvent(RecordedEvent event, String name, String keyId, String type) {
+		assertThat(event.getEventType().getName(), equalTo(name));
+		assertThat(event.getString("keyId"), equalTo(keyId));
+		assertThat(event.getString("type"), equalTo(type));
+	}
+
+}
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import karlkfi.jtyped.map.TypedMapFacade;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Generates a field-backed {@link karlkfi.jtyped.map.FieldTypedMap} for each interface annotated with
+ * {@link TypedMapFacade}.
+ * 
+ * Every abstract no-argument <code>getX()</code> (or boolean <code>isX()</code>) method of the interface and its
+ * super interfaces declares a property <code>x</code>. Abstract <code>void setX(T)</code> methods must match a
+ * property. The generated class has one key constant per property, a shared layout, one field per property and direct
+ * getters and setters. Generic key types are captured once in the key constants, so the generated map never resolves
+ * types or checks them when used with its own keys.
+ */
+@SupportedAnnotationTypes("karlkfi.jtyped.map.TypedMapFacade")
+public final class TypedMapFacadeProcessor extends AbstractProcessor {
+
+	private static final Set<String> RESERVED_CONSTANTS = Sets.newHashSet("LAYOUT", "KEYS");
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(TypedMapFacade.class)) {
+			if (element.getKind() != ElementKind.INTERFACE) {
+				error(element, "@TypedMapFacade is only supported on interfaces");
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			if (!type.getTypeParameters().isEmpty()) {
+				error(element, "@TypedMapFacade is not supported on generic interfaces");
+				continue;
+			}
+			List<Property> properties = properties(type);
+			if (properties != null) {
+				generate(type, properties);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A property declared by a getter.
+	 */
+	static final class Property {
+		final String name;
+		final String fieldName;
+		final String constantName;
+		final String getterName;
+		final TypeMirror type;
+		String setterName;
+
+		Property(String name, String getterName, TypeMirror type) {
+			this.name = name;
+			this.fieldName = SourceVersion.isKeyword(name) ? name + "_" : name;
+			this.constantName = constantName(name);
+			this.getterName = getterName;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * @return the properties in declaration order, or null if errors were reported
+	 */
+	private List<Property> properties(TypeElement type) {
+		List<ExecutableElement> methods = Lists.newArrayList();
+		collectMethods(type, methods, Sets.<String>newHashSet());
+		Map<String, Property> properties = Maps.newLinkedHashMap();
+		List<ExecutableElement> setters = Lists.newArrayList();
+		boolean valid = true;
+		for (ExecutableElement method : methods) {
+			String methodName = method.getSimpleName().toString();
+			TypeMirror returnType = method.getReturnType();
+			String name = null;
+			if (method.getParameters().isEmpty() && returnType.getKind() != TypeKind.VOID) {
+				if (methodName.startsWith("get") && methodName.length() > 3) {
+					name = propertyName(methodName.substring(3));
+				} else if (methodName.startsWith("is") && methodName.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN) {
+					name = propertyName(methodName.substring(2));
+				}
+			}
+			if (name != null) {
+				if (!properties.containsKey(name)) {
+					if (returnType.getKind() == TypeKind.TYPEVAR || returnType.getKind() == TypeKind.WILDCARD) {
+						error(method, "type variables are not supported as property types");
+						valid = false;
+					}
+					Property property = new Property(name, methodName, returnType);
+					if (RESERVED_CONSTANTS.contains(property.constantName)) {
+						error(method, "property name collides with the generated constant " + property.constantName);
+						valid = false;
+					}
+					properties.put(name, property);
+				}
+			} else if (methodName.startsWith("set") && methodName.length() > 3 && method.getParameters().size() == 1 && returnType.getKind() == TypeKind.VOID) {
+				setters.add(method);
+			} else {
+				error(method, "not a getter or setter: " + methodName);
+				valid = false;
+			}
+		}
+		for (ExecutableElement setter : setters) {
+			String methodName = setter.getSimpleName().toString();
+			Property property = properties.get(propertyName(methodName.substring(3)));
+			if (property == null || !processingEnv.getTypeUtils().isSameType(property.type, setter.getParameters().get(0).asType())) {
+				error(setter, "setter does not match a getter: " + methodName);
+				valid = false;
+			} else {
+				property.setterName = methodName;
+			}
+		}
+		return valid ? Lists.newArrayList(properties.values()) : null;
+	}
+
+	/**
+	 * Collects the abstract methods of an interface and its super interfaces, in declaration order.
+	 */
+	private void collectMethods(TypeElement type, List<ExecutableElement> methods, Set<String> signatures) {
+		for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+			if (method.getModifiers().contains(Modifier.ABSTRACT) && signatures.add(method.getSimpleName() + method.getParameters().toString())) {
+				methods.add(method);
+			}
+		}
+		for (TypeMirror superInterface : type.getInterfaces()) {
+			collectMethods((TypeElement) ((DeclaredType) superInterface).asElement(), methods, signatures);
+		}
+	}
+
+	private void generate(TypeElement type, List<Property> properties) {
+		String packageName = ((PackageElement) packageOf(type)).getQualifiedName().toString();
+		String simpleName = type.getAnnotation(TypedMapFacade.class).value();
+		if (simpleName.isEmpty()) {
+			simpleName = type.getSimpleName() + "TypedMap";
+		}
+		String interfaceName = type.getQualifiedName().toString();
+		String className = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(className, type);
+			PrintWriter out = new PrintWriter(file.openWriter());
+			try {
+				write(out, packageName, simpleName, interfaceName, properties);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			error(type, "failed to write " + className + ": " + e.getMessage());
+		}
+	}
+
+	private void write(PrintWriter out, String packageName, String simpleName, String interfaceName, List<Property> properties) {
+		if (!packageName.isEmpty()) {
+			out.println("package " + packageName + ";");
+			out.println();
+		}
+		out.println("/**");
+		out.println(" * Typed map facade of {@link " + interfaceName + "}, generated by " + getClass().getName() + ". Do not edit.");
+		out.println(" */");
+		out.println("public final class " + simpleName + " extends karlkfi.jtyped.map.FieldTypedMap<String> implements " + interfaceName + " {");
+		out.println();
+		for (Property property : properties) {
+			out.println("\tpublic static final " + keyType(property) + " " + property.constantName + " = " + keyFactory(property) + ";");
+		}
+		out.println();
+		out.print("\tprivate static final com.google.common.collect.ImmutableList<karlkfi.jtyped.map.TypedKey<?, String>> KEYS = ");
+		out.print("com.google.common.collect.ImmutableList.<karlkfi.jtyped.map.TypedKey<?, String>>builder()");
+		for (Property property : properties) {
+			out.print(".add(" + property.constantName + ")");
+		}
+		out.println(".build();");
+		out.println("\tpublic static final karlkfi.jtyped.map.TypedMapLayout<String> LAYOUT = karlkfi.jtyped.map.TypedMapLayout.<String>of(KEYS);");
+		out.println();
+		for (Property property : properties) {
+			out.println("\tprivate " + property.type + " " + property.fieldName + ";");
+		}
+		out.println();
+		out.println("\tpublic " + simpleName + "() {");
+		out.println("\t\tsuper(LAYOUT, KEYS);");
+		out.println("\t}");
+		for (Property property : properties) {
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic " + property.type + " " + property.getterName + "() {");
+			out.println("\t\treturn " + property.fieldName + ";");
+			out.println("\t}");
+			out.println();
+			if (property.setterName != null) {
+				out.println("\t@Override");
+			}
+			out.println("\tpublic void " + setterName(property) + "(" + property.type + " " + property.fieldName + ") {");
+			out.println("\t\tthis." + property.fieldName + " = " + property.fieldName + ";");
+			out.println("\t}");
+		}
+		out.println();
+		out.println("\t@Override");
+		out.println("\tprotected Object getField(int slot) {");
+		out.println("\t\tswitch (slot) {");
+		for (int slot = 0; slot < properties.size(); slot++) {
+			Property property = properties.get(slot);
+			if (property.type.getKind().isPrimitive()) {
+				out.println("\t\tcase " + slot + ": return " + boxedName(property.type) + ".valueOf(" + property.fieldName + ");");
+			} else {
+				out.println("\t\tcase " + slot + ": return " + property.fieldName + ";");
+			}
+		}
+		out.println("\t\tdefault: throw new IndexOutOfBoundsException(String.valueOf(slot));");
+		out.println("\t\t}");
+		out.println("\t}");
+		out.println();
+		out.println("\t@Override");
+		out.println("\t@SuppressWarnings(\"unchecked\")");
+		out.println("\tprotected void setField(int slot, Object value) {");
+		out.println("\t\tswitch (slot) {");
+		for (int slot = 0; slot < properties.size(); slot++) {
+			Property property = properties.get(slot);
+			if (property.type.getKind().isPrimitive()) {
+				out.println("\t\tcase " + slot + ": " + property.fieldName + " = (value == null) ? " + defaultValue(property.type) + " : ((" + boxedName(property.type) + ") value)." + property.type + "Value(); break;");
+			} else {
+				out.println("\t\tcase " + slot + ": " + property.fieldName + " = (" + property.type + ") value; break;");
+			}
+		}
+		out.println("\t\tdefault: throw new IndexOutOfBoundsException(String.valueOf(slot));");
+		out.println("\t\t}");
+		out.println("\t}");
+		writePrimitiveAccessors(out, properties, TypeKind.INT, "Int");
+		writePrimitiveAccessors(out, properties, TypeKind.LONG, "Long");
+		writePrimitiveAccessors(out, properties, TypeKind.DOUBLE, "Double");
+		writePrimitiveAccessors(out, properties, TypeKind.BOOLEAN, "Boolean");
+		out.println();
+		out.println("}");
+	}
+
+	/**
+	 * Writes getX/putX overrides that read and write primitive fields directly when called with the key constants.
+	 */
+	private void writePrimitiveAccessors(PrintWriter out, List<Property> properties, TypeKind kind, String suffix) {
+		List<Property> matching = Lists.newArrayList();
+		for (Property property : properties) {
+			if (property.type.getKind() == kind) {
+				matching.add(property);
+			}
+		}
+		if (matching.isEmpty()) {
+			return;
+		}
+		String primitive = suffix.toLowerCase();
+		String keyType = "karlkfi.jtyped.map." + suffix + "TypedKey<? extends String>";
+		out.println();
+		out.println("\t@Override");
+		out.println("\tpublic " + primitive + " get" + suffix + "(" + keyType + " key) {");
+		for (Property property : matching) {
+			out.println("\t\tif (key == " + property.constantName + ") {");
+			out.println("\t\t\treturn " + property.fieldName + ";");
+			out.println("\t\t}");
+		}
+		out.println("\t\treturn super.get" + suffix + "(key);");
+		out.println("\t}");
+		out.println();
+		out.println("\t@Override");
+		out.println("\tpublic void put" + suffix + "(" + keyType + " key, " + primitive + " value) {");
+		for (Property property : matching) {
+			out.println("\t\tif (key == " + property.constantName + ") {");
+			out.println("\t\t\t" + property.fieldName + " = value;");
+			out.println("\t\t\treturn;");
+			out.println("\t\t}");
+		}
+		out.println("\t\tsuper.put" + suffix + "(key, value);");
+		out.println("\t}");
+	}
+
+	private String keyType(Property property) {
+		switch (property.type.getKind()) {
+		case INT:
+			return "karlkfi.jtyped.map.IntTypedKey<String>";
+		case LONG:
+			return "karlkfi.jtyped.map.LongTypedKey<String>";
+		case DOUBLE:
+			return "karlkfi.jtyped.map.DoubleTypedKey<String>";
+		case BOOLEAN:
+			return "karlkfi.jtyped.map.BooleanTypedKey<String>";
+		default:
+			return "karlkfi.jtyped.map.ImmutableTypedKey<" + boxedName(property.type) + ", String>";
+		}
+	}
+
+	private String keyFactory(Property property) {
+		String id = "\"" + property.name + "\"";
+		TypeMirror type = property.type;
+		switch (type.getKind()) {
+		case INT:
+			return "karlkfi.jtyped.map.IntTypedKey.of(" + id + ")";
+		case LONG:
+			return "karlkfi.jtyped.map.LongTypedKey.of(" + id + ")";
+		case DOUBLE:
+			return "karlkfi.jtyped.map.DoubleTypedKey.of(" + id + ")";
+		case BOOLEAN:
+			return "karlkfi.jtyped.map.BooleanTypedKey.of(" + id + ")";
+		default:
+			if (isRaw(type)) {
+				return "karlkfi.jtyped.map.ImmutableTypedKey.of(" + boxedName(type) + ".class, " + id + ")";
+			}
+			return "karlkfi.jtyped.map.ImmutableTypedKey.of(new com.google.common.reflect.TypeToken<" + type + ">() {\n"
+					+ "\t\tprivate static final long serialVersionUID = 1L;\n"
+					+ "\t}, " + id + ")";
+		}
+	}
+
+	/**
+	 * @return true if the type can be expressed with a class literal
+	 */
+	private boolean isRaw(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return true;
+		}
+		if (type.getKind() == TypeKind.ARRAY) {
+			return isRaw(((javax.lang.model.type.ArrayType) type).getComponentType());
+		}
+		return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).getTypeArguments().isEmpty();
+	}
+
+	private String boxedName(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+		}
+		return type.toString();
+	}
+
+	private static String defaultValue(TypeMirror type) {
+		switch (type.getKind()) {
+		case BOOLEAN:
+			return "false";
+		case CHAR:
+			return "'\\0'";
+		case LONG:
+			return "0L";
+		case FLOAT:
+			return "0f";
+		case DOUBLE:
+			return "0d";
+		default:
+			return "(" + type + ") 0";
+		}
+	}
+
+	private static String setterName(Property property) {
+		return property.setterName != null ? property.setterName : "set" + Character.toUpperCase(property.name.charAt(0)) + property.name.substring(1);
+	}
+
+	/**
+	 * Decapitalizes a property name like {@link java.beans.Introspector#decapitalize(String)}.
+	 */
+	static String propertyName(String suffix) {
+		if (suffix.length() > 1 && Character.isUpperCase(suffix.charAt(1)) && Character.isUpperCase(suffix.charAt(0))) {
+			return suffix;
+		}
+		return Character.toLowerCase(suffix.charAt(0)) + suffix.substring(1);
+	}
+
+	/**
+	 * Converts a camel case property name to upper snake case, e.g. <code>maxHttpURLCount</code> to
+	 * <code>MAX_HTTP_URL_COUNT</code>.
+	 */
+	static String constantName(String name) {
+		StringBuilder builder = new StringBuilder(name.length() + 8);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (i > 0 && Character.isUpperCase(c)) {
+				char previous = name.charAt(i - 1);
+				boolean nextLower = i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1));
+				if (!Character.isUpperCase(previous) || nextLower) {
+					builder.append('_');
+				}
+			}
+			builder.append(Character.toUpperCase(c));
+		}
+		return builder.toString();
+	}
+
+	private static Element packageOf(Element element) {
+		while (element.getKind() != ElementKind.PACKAGE) {
+			element = element.getEnclosingElement();
+		}
+		return element;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+}
@@ -0,0 +1,218 @@
+package karlkfi.jtyped.processor;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.LongTypedKey;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+import karlkfi.jtyped.map.TypedKey;
+import karlkfi.jtyped.map.TypedMap;
+import karlkfi.jtyped.map.TypedMapEvents;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class TypedMapFacadeProcessorTest {
+
+	static final String SOURCE = Joiner.on('\n').join(
+			"package example;",
+			"@karlkfi.jtyped.map.TypedMapFacade",
+			"public interface RequestContext {",
+			"	String getName();",
+			"	void setName(String name);",
+			"	long getCount();",
+			"	boolean isEnabled();",
+			"	java.util.List<String> getTags();",
+			"}");
+
+	static class StringSource extends SimpleJavaFileObject {
+		final String source;
+
+		StringSource(String className, String source) {
+			super(java.net.URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	private static String classPathOf(Class<?>... classes) throws Exception {
+		List<String> paths = Lists.newArrayList();
+		for (Class<?> type : classes) {
+			paths.add(new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+		}
+		return Joiner.on(File.pathSeparator).join(paths);
+	}
+
+	/**
+	 * Compiles the source with the processor and loads the generated class.
+	 */
+	private static Class<?> compile(String className, String source) throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		File output = Files.createTempDir();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		try {
+			fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(output));
+			fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Arrays.asList(output));
+			DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+			JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+					Arrays.asList("-classpath", classPathOf(TypedMap.class, TypeToken.class, Nonnull.class)),
+					null, Arrays.<JavaFileObject>asList(new StringSource(className, source)));
+			task.setProcessors(Arrays.asList(new TypedMapFacadeProcessor()));
+			boolean success = task.call();
+			assertTrue(diagnostics.getDiagnostics().toString(), success);
+		} finally {
+			fileManager.close();
+		}
+		URLClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, TypedMapFacadeProcessorTest.class.getClassLoader());
+		return loader.loadClass(className + "TypedMap");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGeneratedMap() throws Exception {
+		Class<?> type = compile("example.RequestContext", SOURCE);
+		MutableTypedMap<String> tmap = (MutableTypedMap<String>) type.newInstance();
+		ImmutableTypedKey<String, String> name = (ImmutableTypedKey<String, String>) type.getField("NAME").get(null);
+		LongTypedKey<String> count = (LongTypedKey<String>) type.getField("COUNT").get(null);
+		TypedKey<List<String>, String> tags = (TypedKey<List<String>, String>) type.getField("TAGS").get(null);
+
+		assertThat(tmap.size(), equalTo(4));
+		assertThat(tags.getType(), equalTo((Object) new TypeToken<List<String>>() {
+			private static final long serialVersionUID = 1L;
+		}));
+
+		tmap.put(name, "a");
+		tmap.putLong(count, 3L);
+		tmap.put(tags, Lists.newArrayList("x"));
+		Method getName = type.getMethod("getName");
+		assertThat(getName.invoke(tmap), equalTo((Object) "a"));
+		assertThat(type.getMethod("getCount").invoke(tmap), equalTo((Object) Long.valueOf(3L)));
+		assertThat(tmap.getLong(count), equalTo(3L));
+		assertThat(tmap.get(ImmutableTypedKey.of(Long.class, "count")), equalTo(3L));
+		assertThat(tmap.get(tags), contains("x"));
+
+		type.getMethod("setName", String.class).invoke(tmap, "b");
+		assertThat(tmap.get(name), equalTo("b"));
+		assertThat(tmap.keys().size(), equalTo(4));
+		assertThat(tmap.entries().size(), equalTo(4));
+
+		assertThat(tmap.remove(count), equalTo(3L));
+		assertThat(tmap.getLong(count), equalTo(0L));
+	}
+
+	@Test(expected=ClassCastException.class)
+	@SuppressWarnings("unchecked")
+	public void testGeneratedMapTypeMismatch() throws Exception {
+		Class<?> type = compile("example.RequestContext", SOURCE);
+		TypedMap<String> tmap = (TypedMap<String>) type.newInstance();
+		tmap.get(ImmutableTypedKey.of(Integer.class, "count"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGeneratedMapPutAll() throws Exception {
+		Class<?> type = compile("example.RequestContext", SOURCE);
+		MutableTypedMap<String> tmap = (MutableTypedMap<String>) type.newInstance();
+		ImmutableTypedKey<String, String> name = (ImmutableTypedKey<String, String>) type.getField("NAME").get(null);
+
+		SuppliedTypedMap<String> source = SuppliedTypedMap.of();
+		source.put(name, "a");
+		source.setType(ImmutableTypedKey.of(Long.class, "count"));
+		tmap.putAll(source);
+		assertThat(tmap.get(name), equalTo("a"));
+		assertThat(tmap.get(ImmutableTypedKey.of(Long.class, "count")), equalTo(0L));
+
+		source.put(name, "b");
+		source.put(ImmutableTypedKey.of(Object.class, "enabled"), "yes");
+		try {
+			tmap.putAll(source);
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			assertThat(tmap.get(name), equalTo("a"));
+		}
+	}
+
+	@Test
+	public void testGeneratedMapPutChecksValueType() throws Exception {
+		Class<?> type = compile("example.RequestContext", SOURCE);
+		MutableTypedMap<String> tmap = (MutableTypedMap<String>) type.newInstance();
+		ImmutableTypedKey<Long, String> count = ImmutableTypedKey.of(Long.class, "count");
+		tmap.put(count, 1L);
+		final List<Object> mismatches = Lists.newArrayList();
+		TypedMapEvents.install(new TypedMapEvents.Listener() {
+			public void onSlowSupplier(Object keyId, TypeToken<?> type, long nanos) {
+			}
+
+			public void onMemoizedComputation(Object keyId, TypeToken<?> type, long nanos) {
+			}
+
+			public void onEntryNotFound(@Nullable Object keyId, @Nullable TypeToken<?> type) {
+			}
+
+			public void onTypeMismatch(@Nullable Object keyId, TypeToken<?> type, @Nullable TypeToken<?> entryType) {
+				mismatches.add(keyId);
+			}
+		}, 1, TimeUnit.HOURS);
+		try {
+			tmap.put(ImmutableTypedKey.of(Object.class, "count"), "one");
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			assertThat(e.getMessage(), containsString("count"));
+			assertThat(tmap.get(count), equalTo(1L));
+		} finally {
+			TypedMapEvents.uninstall();
+		}
+		assertThat(mismatches, contains((Object) "count"));
+	}
+
+	@Test
+	public void testInvalidInterface() throws Exception {
+		try {
+			compile("example.Invalid", "package example; @karlkfi.jtyped.map.TypedMapFacade public interface Invalid { void run(); }");
+			fail("expected compile error");
+		} catch (AssertionError e) {
+			assertThat(e.getMessage(), containsString("not a getter or setter: run"));
+		}
+	}
+
+	@Test
+	public void testConstantName() {
+		assertThat(TypedMapFacadeProcessor.constantName("name"), equalTo("NAME"));
+		assertThat(TypedMapFacadeProcessor.constantName("maxHttpURLCount"), equalTo("MAX_HTTP_URL_COUNT"));
+		assertThat(TypedMapFacadeProcessor.propertyName("URL"), equalTo("URL"));
+		assertThat(TypedMapFacadeProcessor.propertyName("Name"), equalTo("name"));
+	}
+
+}
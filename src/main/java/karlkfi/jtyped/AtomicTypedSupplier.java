@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A typed supplier whose value may be updated atomically. Reads are volatile and updates are lock-free.
+ * 
+ * @param <T> the value type
+ */
+@ThreadSafe
+public final class AtomicTypedSupplier<T> implements TypedSupplier<T> {
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<AtomicTypedSupplier, Object> VALUE_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(AtomicTypedSupplier.class, Object.class, "value");
+
+	private final TypeToken<T> type;
+	private volatile T value;
+
+	public AtomicTypedSupplier(@Nonnull TypeToken<T> type) {
+		this.type = Preconditions.checkNotNull(type, "type is null");
+	}
+
+	public AtomicTypedSupplier(@Nonnull TypeToken<T> type, T value) {
+		this.type = Preconditions.checkNotNull(type, "type is null");
+		this.value = value;
+	}
+
+	@Nonnull
+	public TypeToken<T> getType() {
+		return type;
+	}
+
+	public T get() {
+		return value;
+	}
+
+	public void set(T newValue) {
+		this.value = newValue;
+	}
+
+	/**
+	 * Atomically sets the value to <code>newValue</code> if the current value is <code>expect</code> (by identity).
+	 * 
+	 * @return true if successful
+	 */
+	public boolean compareAndSet(T expect, T newValue) {
+		return VALUE_UPDATER.compareAndSet(this, expect, newValue);
+	}
+
+	/**
+	 * Atomically sets the value to <code>newValue</code> and returns the old value.
+	 */
+	public T getAndSet(T newValue) {
+		@SuppressWarnings("unchecked")
+		T oldValue = (T) VALUE_UPDATER.getAndSet(this, newValue);
+		return oldValue;
+	}
+
+	/**
+	 * Atomically replaces the value with the result of applying <code>updateFunction</code> to it and returns the new
+	 * value. The function may be applied more than once under contention, so it should be side-effect-free.
+	 */
+	public T updateAndGet(@Nonnull Function<? super T, ? extends T> updateFunction) {
+		T prev, next;
+		do {
+			prev = value;
+			next = updateFunction.apply(prev);
+		} while (!compareAndSet(prev, next));
+		return next;
+	}
+
+	/**
+	 * Atomically replaces the value with the result of applying <code>accumulatorFunction</code> to it and
+	 * <code>x</code> and returns the new value. The function may be applied more than once under contention, so it
+	 * should be side-effect-free.
+	 */
+	public T accumulateAndGet(T x, @Nonnull Accumulator<T> accumulatorFunction) {
+		T prev, next;
+		do {
+			prev = value;
+			next = accumulatorFunction.apply(prev, x);
+		} while (!compareAndSet(prev, next));
+		return next;
+	}
+
+	@Nonnull
+	public static <VV> AtomicTypedSupplier<VV> of(@Nonnull TypeToken<VV> type, VV value) {
+		return new AtomicTypedSupplier<VV>(type, value);
+	}
+
+	@Nonnull
+	public static <VV> AtomicTypedSupplier<VV> nonnull(@Nonnull TypeToken<VV> type, @Nonnull VV value) {
+		return new AtomicTypedSupplier<VV>(type, Preconditions.checkNotNull(value, "value is null"));
+	}
+
+	/**
+	 * Combines the current value of an {@link AtomicTypedSupplier} with a given value.
+	 * 
+	 * @param <T> the value type
+	 */
+	public interface Accumulator<T> {
+
+		/**
+		 * @param current the current value
+		 * @param x the value given to {@link AtomicTypedSupplier#accumulateAndGet}
+		 * @return the new value
+		 */
+		@Nullable
+		T apply(@Nullable T current, @Nullable T x);
+
+	}
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Typed supplier of {@link Boolean} values backed by a primitive <code>boolean</code> field.
+ */
+@NotThreadSafe
+public final class BooleanTypedSupplier extends PrimitiveTypedSupplier<Boolean> {
+
+	private static final TypeToken<Boolean> TYPE = TypeTokens.of(Boolean.class);
+
+	private boolean value;
+	private boolean present;
+
+	public BooleanTypedSupplier() {
+	}
+
+	public BooleanTypedSupplier(boolean value) {
+		this.value = value;
+		this.present = true;
+	}
+
+	@Nonnull
+	public TypeToken<Boolean> getType() {
+		return TYPE;
+	}
+
+	@Override
+	public boolean isPresent() {
+		return present;
+	}
+
+	@Override
+	@Nullable
+	public Boolean get() {
+		return present ? Boolean.valueOf(value) : null;
+	}
+
+	@Override
+	public void set(@Nullable Boolean newValue) {
+		if (newValue == null) {
+			this.value = false;
+			this.present = false;
+		} else {
+			setBoolean(newValue.booleanValue());
+		}
+	}
+
+	/**
+	 * @return the value, or <code>false</code> if no value is set
+	 */
+	public boolean getBoolean() {
+		return value;
+	}
+
+	public void setBoolean(boolean newValue) {
+		this.value = newValue;
+		this.present = true;
+	}
+
+	@Nonnull
+	public static BooleanTypedSupplier of(boolean value) {
+		return new BooleanTypedSupplier(value);
+	}
+
+}
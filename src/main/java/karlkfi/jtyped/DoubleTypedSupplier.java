@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Typed supplier of {@link Double} values backed by a primitive <code>double</code> field.
+ */
+@NotThreadSafe
+public final class DoubleTypedSupplier extends PrimitiveTypedSupplier<Double> {
+
+	private static final TypeToken<Double> TYPE = TypeTokens.of(Double.class);
+
+	private double value;
+	private boolean present;
+
+	public DoubleTypedSupplier() {
+	}
+
+	public DoubleTypedSupplier(double value) {
+		this.value = value;
+		this.present = true;
+	}
+
+	@Nonnull
+	public TypeToken<Double> getType() {
+		return TYPE;
+	}
+
+	@Override
+	public boolean isPresent() {
+		return present;
+	}
+
+	@Override
+	@Nullable
+	public Double get() {
+		return present ? Double.valueOf(value) : null;
+	}
+
+	@Override
+	public void set(@Nullable Double newValue) {
+		if (newValue == null) {
+			this.value = 0.0d;
+			this.present = false;
+		} else {
+			setDouble(newValue.doubleValue());
+		}
+	}
+
+	/**
+	 * @return the value, or <code>0.0d</code> if no value is set
+	 */
+	public double getDouble() {
+		return value;
+	}
+
+	public void setDouble(double newValue) {
+		this.value = newValue;
+		this.present = true;
+	}
+
+	@Nonnull
+	public static DoubleTypedSupplier of(double value) {
+		return new DoubleTypedSupplier(value);
+	}
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Typed supplier of {@link Integer} values backed by a primitive <code>int</code> field.
+ */
+@NotThreadSafe
+public final class IntTypedSupplier extends PrimitiveTypedSupplier<Integer> {
+
+	private static final TypeToken<Integer> TYPE = TypeTokens.of(Integer.class);
+
+	private int value;
+	private boolean present;
+
+	public IntTypedSupplier() {
+	}
+
+	public IntTypedSupplier(int value) {
+		this.value = value;
+		this.present = true;
+	}
+
+	@Nonnull
+	public TypeToken<Integer> getType() {
+		return TYPE;
+	}
+
+	@Override
+	public boolean isPresent() {
+		return present;
+	}
+
+	@Override
+	@Nullable
+	public Integer get() {
+		return present ? Integer.valueOf(value) : null;
+	}
+
+	@Override
+	public void set(@Nullable Integer newValue) {
+		if (newValue == null) {
+			this.value = 0;
+			this.present = false;
+		} else {
+			setInt(newValue.intValue());
+		}
+	}
+
+	/**
+	 * @return the value, or <code>0</code> if no value is set
+	 */
+	public int getInt() {
+		return value;
+	}
+
+	public void setInt(int newValue) {
+		this.value = newValue;
+		this.present = true;
+	}
+
+	@Nonnull
+	public static IntTypedSupplier of(int value) {
+		return new IntTypedSupplier(value);
+	}
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Typed supplier of {@link Long} values backed by a primitive <code>long</code> field.
+ */
+@NotThreadSafe
+public final class LongTypedSupplier extends PrimitiveTypedSupplier<Long> {
+
+	private static final TypeToken<Long> TYPE = TypeTokens.of(Long.class);
+
+	private long value;
+	private boolean present;
+
+	public LongTypedSupplier() {
+	}
+
+	public LongTypedSupplier(long value) {
+		this.value = value;
+		this.present = true;
+	}
+
+	@Nonnull
+	public TypeToken<Long> getType() {
+		return TYPE;
+	}
+
+	@Override
+	public boolean isPresent() {
+		return present;
+	}
+
+	@Override
+	@Nullable
+	public Long get() {
+		return present ? Long.valueOf(value) : null;
+	}
+
+	@Override
+	public void set(@Nullable Long newValue) {
+		if (newValue == null) {
+			this.value = 0L;
+			this.present = false;
+		} else {
+			setLong(newValue.longValue());
+		}
+	}
+
+	/**
+	 * @return the value, or <code>0L</code> if no value is set
+	 */
+	public long getLong() {
+		return value;
+	}
+
+	public void setLong(long newValue) {
+		this.value = newValue;
+		this.present = true;
+	}
+
+	@Nonnull
+	public static LongTypedSupplier of(long value) {
+		return new LongTypedSupplier(value);
+	}
+
+}
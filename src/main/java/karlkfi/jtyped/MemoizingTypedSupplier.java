@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Supplier;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A delegating typed supplier that computes its value on the first call to {@link #get()} and returns the same value
+ * on every call after that.
+ * 
+ * @param <T> the value type
+ */
+@ThreadSafe
+public final class MemoizingTypedSupplier<T> extends DelegatingTypedSupplier<T> {
+
+	private volatile boolean computed;
+	private T value;
+
+	public MemoizingTypedSupplier(@Nonnull TypeToken<T> type, @Nonnull Supplier<T> valueSupplier) {
+		super(type, valueSupplier);
+	}
+
+	@Override
+	public T get() {
+		if (!computed) {
+			synchronized (this) {
+				if (!computed) {
+					T t = super.get();
+					value = t;
+					computed = true;
+					return t;
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return true if the value has been computed
+	 */
+	public boolean isComputed() {
+		return computed;
+	}
+
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped;
+
+import javax.annotation.Nullable;
+
+/**
+ * A mutable typed supplier that stores its value in a primitive field, so that updating and reading the value through
+ * the primitive accessors of a subclass does not box.
+ * 
+ * The boxed {@link #get()} and {@link #set(Object)} are provided for generic access, for example by
+ * {@link karlkfi.jtyped.map.TypedMap#entries()}.
+ * 
+ * @param <T> the boxed value type
+ */
+public abstract class PrimitiveTypedSupplier<T> implements TypedSupplier<T> {
+
+	PrimitiveTypedSupplier() {
+	}
+
+	/**
+	 * @return true if a value is set, false if the value is null
+	 */
+	public abstract boolean isPresent();
+
+	/**
+	 * @return the boxed value, or null if no value is set
+	 */
+	@Nullable
+	public abstract T get();
+
+	/**
+	 * Sets the value from a boxed value.
+	 * 
+	 * @param newValue the new value, or null to unset the value
+	 */
+	public abstract void set(@Nullable T newValue);
+
+}
@@ -15,76 +15,351 @@
  ******************************************************************************/
 package karlkfi.jtyped;
 
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Multimap;
 import com.google.common.reflect.TypeParameter;
+import com.google.common.reflect.TypeResolver;
 import com.google.common.reflect.TypeToken;
 
 /**
  * Static utilities for constructing TypeTokens of standard collections.
+ * 
+ * All factories are canonicalizing: equal types return the same TypeToken instance for as long as that instance is
+ * strongly reachable, so repeat calls neither allocate new TypeTokens nor re-run generic type resolution. Canonical
+ * instances also let identity checks (like {@link TypeToken#equals} or assignability fast paths) succeed early.
+ * 
+ * Factories compose, so nested generics like <code>mapOf(of(String.class), listOf(Integer.class))</code> are
+ * canonicalized at every level.
  */
+@ThreadSafe
 public final class TypeTokens {
 
 	private TypeTokens() {
 
 	}
 
+	/**
+	 * Canonical raw TypeTokens, weakly keyed by class identity so that class loaders can still be unloaded.
+	 */
+	private static final LoadingCache<Class<?>, TypeToken<?>> RAW_TYPES = CacheBuilder.newBuilder()
+			.weakKeys()
+			.weakValues()
+			.build(new CacheLoader<Class<?>, TypeToken<?>>() {
+				@Override
+				public TypeToken<?> load(Class<?> key) {
+					return intern(TypeToken.of(key));
+				}
+			});
+
+	/**
+	 * Canonical instances of all TypeTokens produced or interned by this class.
+	 */
+	private static final Interner<TypeToken<?>> INTERNER = Interners.newWeakInterner();
+
+	/**
+	 * Parameterized type constructors, each with its own cache of resolved types keyed by the type arguments.
+	 */
+	private enum Shape {
+		LIST {
+			@Override
+			TypeToken<?> resolve(ImmutableList<TypeToken<?>> args) {
+				return newListOf(args.get(0));
+			}
+		},
+		SET {
+			@Override
+			TypeToken<?> resolve(ImmutableList<TypeToken<?>> args) {
+				return newSetOf(args.get(0));
+			}
+		},
+		COLLECTION {
+			@Override
+			TypeToken<?> resolve(ImmutableList<TypeToken<?>> args) {
+				return newCollectionOf(args.get(0));
+			}
+		},
+		ARRAY {
+			@Override
+			TypeToken<?> resolve(ImmutableList<TypeToken<?>> args) {
+				return newArrayOf(args.get(0));
+			}
+		},
+		OPTIONAL {
+			@Override
+			TypeToken<?> resolve(ImmutableList<TypeToken<?>> args) {
+				return newOptionalOf(args.get(0));
+			}
+		},
+		MAP {
+			@Override
+			TypeToken<?> resolve(ImmutableList<TypeToken<?>> args) {
+				return newMapOf(args.get(0), args.get(1));
+			}
+		},
+		MULTIMAP {
+			@Override
+			TypeToken<?> resolve(ImmutableList<TypeToken<?>> args) {
+				return newMultimapOf(args.get(0), args.get(1));
+			}
+		};
+
+		private final LoadingCache<TypeToken<?>, TypeToken<?>> cache = CacheBuilder.newBuilder()
+				.weakValues()
+				.build(new CacheLoader<TypeToken<?>, TypeToken<?>>() {
+					@Override
+					public TypeToken<?> load(TypeToken<?> arg) {
+						return intern(resolve(ImmutableList.<TypeToken<?>>of(arg)));
+					}
+				});
+
+		/**
+		 * Two type argument lookups go through a cache per canonical first argument, keyed by the second argument, so
+		 * that they do not allocate a key either. Each cache goes away with its first argument.
+		 */
+		private final LoadingCache<TypeToken<?>, Cache<TypeToken<?>, TypeToken<?>>> pairCaches = CacheBuilder.newBuilder()
+				.weakKeys()
+				.build(new CacheLoader<TypeToken<?>, Cache<TypeToken<?>, TypeToken<?>>>() {
+					@Override
+					public Cache<TypeToken<?>, TypeToken<?>> load(TypeToken<?> arg1) {
+						return CacheBuilder.newBuilder().weakValues().build();
+					}
+				});
+
+		abstract TypeToken<?> resolve(ImmutableList<TypeToken<?>> args);
+
+		/**
+		 * Single type argument lookups are keyed by the argument itself to avoid allocating a key.
+		 */
+		@SuppressWarnings("unchecked")
+		<T> TypeToken<T> of(TypeToken<?> arg) {
+			return (TypeToken<T>) cache.getUnchecked(Preconditions.checkNotNull(arg, "type argument is null"));
+		}
+
+		@SuppressWarnings("unchecked")
+		<T> TypeToken<T> of(TypeToken<?> arg1, TypeToken<?> arg2) {
+			TypeToken<?> first = intern(Preconditions.checkNotNull(arg1, "first type argument is null"));
+			Cache<TypeToken<?>, TypeToken<?>> pairs = pairCaches.getUnchecked(first);
+			TypeToken<?> result = pairs.getIfPresent(Preconditions.checkNotNull(arg2, "second type argument is null"));
+			if (result == null) {
+				// concurrent misses may both resolve, but interning makes them agree
+				result = intern(resolve(ImmutableList.<TypeToken<?>>of(first, arg2)));
+				pairs.put(arg2, result);
+			}
+			return (TypeToken<T>) result;
+		}
+	}
+
+	/**
+	 * Gets the canonical instance of a TypeToken equal to the provided one.
+	 * 
+	 * @param type the type
+	 * @return the canonical instance equal to <code>type</code>
+	 */
+	@Nonnull
+	public static <T> TypeToken<T> intern(@Nonnull TypeToken<T> type) {
+		@SuppressWarnings("unchecked")
+		TypeToken<T> canonical = (TypeToken<T>) INTERNER.intern(Preconditions.checkNotNull(type, "type is null"));
+		return canonical;
+	}
+
+	/**
+	 * Gets the canonical TypeToken of a class. Prefer this over {@link TypeToken#of(Class)} on hot paths.
+	 * 
+	 * @param type the class
+	 * @return the canonical TypeToken of <code>type</code>
+	 */
+	@Nonnull
+	public static <T> TypeToken<T> of(@Nonnull Class<T> type) {
+		@SuppressWarnings("unchecked")
+		TypeToken<T> canonical = (TypeToken<T>) RAW_TYPES.getUnchecked(Preconditions.checkNotNull(type, "type is null"));
+		return canonical;
+	}
+
+	/**
+	 * Gets the canonical TypeToken of a type.
+	 * 
+	 * @param type the type
+	 * @return the canonical TypeToken of <code>type</code>
+	 */
+	@Nonnull
+	public static TypeToken<?> of(@Nonnull Type type) {
+		if (type instanceof Class) {
+			return of((Class<?>) type);
+		}
+		return intern(TypeToken.of(type));
+	}
+
 	@SuppressWarnings("unchecked")
 	public static TypeToken<Object> raw(@Nonnull Object v1) {
 		Preconditions.checkNotNull(v1, "v1 is null");
-		return TypeToken.of((Class<Object>) v1.getClass());
+		return of((Class<Object>) v1.getClass());
 	}
 
 	public static TypeToken<?> listOf(Type elementType) {
-		return listOf(TypeToken.of(elementType));
+		return listOf(of(elementType));
 	}
 
 	public static <T> TypeToken<List<T>> listOf(Class<T> elementType) {
-		return listOf(TypeToken.of(elementType));
+		return listOf(of(elementType));
 	}
 
-	@SuppressWarnings("serial")
 	public static <T> TypeToken<List<T>> listOf(TypeToken<T> elementType) {
-		return new TypeToken<List<T>>() {
-		}.where(new TypeParameter<T>() {
-		}, elementType);
+		return Shape.LIST.of(elementType);
 	}
 
 	public static TypeToken<?> setOf(Type elementType) {
-		return setOf(TypeToken.of(elementType));
+		return setOf(of(elementType));
 	}
 
 	public static <T> TypeToken<Set<T>> setOf(Class<T> elementType) {
-		return setOf(TypeToken.of(elementType));
+		return setOf(of(elementType));
 	}
 
-	@SuppressWarnings("serial")
 	public static <T> TypeToken<Set<T>> setOf(TypeToken<T> elementType) {
+		return Shape.SET.of(elementType);
+	}
+
+	public static TypeToken<?> collectionOf(Type elementType) {
+		return collectionOf(of(elementType));
+	}
+
+	public static <T> TypeToken<Collection<T>> collectionOf(Class<T> elementType) {
+		return collectionOf(of(elementType));
+	}
+
+	public static <T> TypeToken<Collection<T>> collectionOf(TypeToken<T> elementType) {
+		return Shape.COLLECTION.of(elementType);
+	}
+
+	public static TypeToken<?> arrayOf(Type componentType) {
+		return arrayOf(of(componentType));
+	}
+
+	public static <T> TypeToken<T[]> arrayOf(Class<T> componentType) {
+		return arrayOf(of(componentType));
+	}
+
+	public static <T> TypeToken<T[]> arrayOf(TypeToken<T> componentType) {
+		return Shape.ARRAY.of(componentType);
+	}
+
+	public static TypeToken<?> optionalOf(Type elementType) {
+		return optionalOf(of(elementType));
+	}
+
+	public static <T> TypeToken<Optional<T>> optionalOf(Class<T> elementType) {
+		return optionalOf(of(elementType));
+	}
+
+	public static <T> TypeToken<Optional<T>> optionalOf(TypeToken<T> elementType) {
+		return Shape.OPTIONAL.of(elementType);
+	}
+
+	public static TypeToken<?> mapOf(Type keyType, Type valueType) {
+		return mapOf(of(keyType), of(valueType));
+	}
+
+	public static <K, V> TypeToken<Map<K, V>> mapOf(Class<K> keyType, Class<V> valueType) {
+		return mapOf(of(keyType), of(valueType));
+	}
+
+	public static <K, V> TypeToken<Map<K, V>> mapOf(TypeToken<K> keyType, TypeToken<V> valueType) {
+		return Shape.MAP.of(keyType, valueType);
+	}
+
+	public static TypeToken<?> multimapOf(Type keyType, Type valueType) {
+		return multimapOf(of(keyType), of(valueType));
+	}
+
+	public static <K, V> TypeToken<Multimap<K, V>> multimapOf(Class<K> keyType, Class<V> valueType) {
+		return multimapOf(of(keyType), of(valueType));
+	}
+
+	public static <K, V> TypeToken<Multimap<K, V>> multimapOf(TypeToken<K> keyType, TypeToken<V> valueType) {
+		return Shape.MULTIMAP.of(keyType, valueType);
+	}
+
+	@SuppressWarnings("serial")
+	static <T> TypeToken<List<T>> newListOf(TypeToken<T> elementType) {
+		return new TypeToken<List<T>>() {
+		}.where(new TypeParameter<T>() {
+		}, elementType);
+	}
+
+	@SuppressWarnings("serial")
+	static <T> TypeToken<Set<T>> newSetOf(TypeToken<T> elementType) {
 		return new TypeToken<Set<T>>() {
 		}.where(new TypeParameter<T>() {
 		}, elementType);
 	}
 
-	public static TypeToken<?> mapOf(Type keyType, Type valueType) {
-		return mapOf(TypeToken.of(keyType), TypeToken.of(valueType));
+	@SuppressWarnings("serial")
+	static <T> TypeToken<Collection<T>> newCollectionOf(TypeToken<T> elementType) {
+		return new TypeToken<Collection<T>>() {
+		}.where(new TypeParameter<T>() {
+		}, elementType);
 	}
 
-	public static <K, V> TypeToken<Map<K, V>> mapOf(Class<K> keyType, Class<V> valueType) {
-		return mapOf(TypeToken.of(keyType), TypeToken.of(valueType));
+	@SuppressWarnings("serial")
+	static <T> TypeToken<T[]> newArrayOf(TypeToken<T> componentType) {
+		return new TypeToken<T[]>() {
+		}.where(new TypeParameter<T>() {
+		}, componentType);
 	}
 
 	@SuppressWarnings("serial")
-	public static <K, V> TypeToken<Map<K, V>> mapOf(TypeToken<K> keyType, TypeToken<V> valueType) {
-		return new TypeToken<Map<K, V>>() {
-		}.where(new TypeParameter<K>() {
-		}, keyType).where(new TypeParameter<V>() {
-		}, valueType);
+	static <T> TypeToken<Optional<T>> newOptionalOf(TypeToken<T> elementType) {
+		return new TypeToken<Optional<T>>() {
+		}.where(new TypeParameter<T>() {
+		}, elementType);
+	}
+
+	@SuppressWarnings("serial")
+	static <K, V> TypeToken<Map<K, V>> newMapOf(TypeToken<K> keyType, TypeToken<V> valueType) {
+		return where(new TypeToken<Map<K, V>>() {
+		}, keyType, valueType);
+	}
+
+	@SuppressWarnings("serial")
+	static <K, V> TypeToken<Multimap<K, V>> newMultimapOf(TypeToken<K> keyType, TypeToken<V> valueType) {
+		return where(new TypeToken<Multimap<K, V>>() {
+		}, keyType, valueType);
+	}
+
+	/**
+	 * Resolves all type arguments of a parameterized TypeToken in a single pass.
+	 * 
+	 * Chaining {@link TypeToken#where} does not work for more than one type parameter, because the first resolution
+	 * replaces the remaining type variables with instances that are not equal to those captured by a
+	 * {@link TypeParameter}.
+	 */
+	private static <T> TypeToken<T> where(TypeToken<T> generic, TypeToken<?>... typeArguments) {
+		Type[] typeVariables = ((ParameterizedType) generic.getType()).getActualTypeArguments();
+		TypeResolver resolver = new TypeResolver();
+		for (int i = 0; i < typeVariables.length; i++) {
+			resolver = resolver.where(typeVariables[i], typeArguments[i].getType());
+		}
+		@SuppressWarnings("unchecked")
+		TypeToken<T> resolved = (TypeToken<T>) TypeToken.of(resolver.resolveType(generic.getType()));
+		return resolved;
 	}
 
 }
@@ -18,7 +18,6 @@ package karlkfi.jtyped;
 import javax.annotation.Nonnull;
 
 import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import com.google.common.reflect.TypeToken;
 
 public class TypedSuppliers {
@@ -30,7 +29,7 @@ public class TypedSuppliers {
 
 	@Nonnull
 	public static <TT> DelegatingTypedSupplier<TT> memoize(@Nonnull TypeToken<TT> type, @Nonnull Supplier<TT> delegate) {
-		return delegate(type, Suppliers.memoize(delegate));
+		return new MemoizingTypedSupplier<TT>(type, delegate);
 	}
 
 }
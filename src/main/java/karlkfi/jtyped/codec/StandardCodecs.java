@@ -0,0 +1,505 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import karlkfi.jtyped.TypeTokens;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Built-in codecs for boxed primitives, strings and byte arrays, and for the collection shapes described by
+ * {@link TypeTokens}.
+ */
+final class StandardCodecs {
+
+	private StandardCodecs() {
+	}
+
+	/**
+	 * Type descriptor tags of the collection shapes. A registered codec is described by {@link #REGISTERED} followed by
+	 * its type name; a shape by its tag followed by the descriptors of its component codecs.
+	 */
+	static final byte REGISTERED = 0;
+	static final byte LIST = 1;
+	static final byte SET = 2;
+	static final byte COLLECTION = 3;
+	static final byte OPTIONAL = 4;
+	static final byte MAP = 5;
+	static final byte MULTIMAP = 6;
+	static final byte ARRAY = 7;
+
+	/**
+	 * The largest capacity allocated for a length read from the input before its elements are read.
+	 */
+	static final int MAX_INITIAL_CAPACITY = 8192;
+
+	/**
+	 * @return the codecs registered in every {@link TypedCodecRegistry}
+	 */
+	static ImmutableList<TypedCodec<?>> leafCodecs() {
+		return ImmutableList.<TypedCodec<?>>of(
+				new BaseCodec<Boolean>(Boolean.class) {
+					public void write(Boolean value, DataOutput out) throws IOException {
+						out.writeBoolean(value.booleanValue());
+					}
+
+					public Boolean read(DataInput in) throws IOException {
+						return Boolean.valueOf(in.readBoolean());
+					}
+				},
+				new BaseCodec<Byte>(Byte.class) {
+					public void write(Byte value, DataOutput out) throws IOException {
+						out.writeByte(value.byteValue());
+					}
+
+					public Byte read(DataInput in) throws IOException {
+						return Byte.valueOf(in.readByte());
+					}
+				},
+				new BaseCodec<Short>(Short.class) {
+					public void write(Short value, DataOutput out) throws IOException {
+						out.writeShort(value.shortValue());
+					}
+
+					public Short read(DataInput in) throws IOException {
+						return Short.valueOf(in.readShort());
+					}
+				},
+				new BaseCodec<Character>(Character.class) {
+					public void write(Character value, DataOutput out) throws IOException {
+						out.writeChar(value.charValue());
+					}
+
+					public Character read(DataInput in) throws IOException {
+						return Character.valueOf(in.readChar());
+					}
+				},
+				new BaseCodec<Integer>(Integer.class) {
+					public void write(Integer value, DataOutput out) throws IOException {
+						out.writeInt(value.intValue());
+					}
+
+					public Integer read(DataInput in) throws IOException {
+						return Integer.valueOf(in.readInt());
+					}
+				},
+				new BaseCodec<Long>(Long.class) {
+					public void write(Long value, DataOutput out) throws IOException {
+						out.writeLong(value.longValue());
+					}
+
+					public Long read(DataInput in) throws IOException {
+						return Long.valueOf(in.readLong());
+					}
+				},
+				new BaseCodec<Float>(Float.class) {
+					public void write(Float value, DataOutput out) throws IOException {
+						out.writeFloat(value.floatValue());
+					}
+
+					public Float read(DataInput in) throws IOException {
+						return Float.valueOf(in.readFloat());
+					}
+				},
+				new BaseCodec<Double>(Double.class) {
+					public void write(Double value, DataOutput out) throws IOException {
+						out.writeDouble(value.doubleValue());
+					}
+
+					public Double read(DataInput in) throws IOException {
+						return Double.valueOf(in.readDouble());
+					}
+				},
+				new BaseCodec<String>(String.class) {
+					public void write(String value, DataOutput out) throws IOException {
+						writeString(value, out);
+					}
+
+					public String read(DataInput in) throws IOException {
+						return readString(in);
+					}
+				},
+				new BaseCodec<byte[]>(byte[].class) {
+					public void write(byte[] value, DataOutput out) throws IOException {
+						out.writeInt(value.length);
+						out.write(value);
+					}
+
+					public byte[] read(DataInput in) throws IOException {
+						return readBytes(in);
+					}
+				});
+	}
+
+	/**
+	 * Writes a string as its UTF-8 length and bytes. Unlike {@link DataOutput#writeUTF(String)}, the length is not
+	 * limited to 64KB.
+	 */
+	static void writeString(String value, DataOutput out) throws IOException {
+		byte[] bytes = value.getBytes(Charsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInput in) throws IOException {
+		return new String(readBytes(in), Charsets.UTF_8);
+	}
+
+	/**
+	 * Reads a length-prefixed byte array. Long arrays are grown as their bytes are read, so that a corrupt length fails
+	 * at the end of the input rather than allocating its full size up front.
+	 * 
+	 * @throws java.io.EOFException if the input ends before the array
+	 */
+	static byte[] readBytes(DataInput in) throws IOException {
+		int length = readLength(in);
+		byte[] bytes = new byte[initialCapacity(length)];
+		int read = 0;
+		while (true) {
+			in.readFully(bytes, read, bytes.length - read);
+			read = bytes.length;
+			if (read == length) {
+				return bytes;
+			}
+			bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+		}
+	}
+
+	/**
+	 * Lengths are read from untrusted input, so the capacity allocated before any element is read is limited.
+	 * 
+	 * @return the capacity to allocate for a length read from the input
+	 */
+	static int initialCapacity(int length) {
+		return Math.min(length, MAX_INITIAL_CAPACITY);
+	}
+
+	static int readLength(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Negative length: " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Writes a nullable collection element as a presence flag followed by the value.
+	 */
+	static <T> void writeNullable(TypedCodec<T> codec, @Nullable T value, DataOutput out) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			codec.write(value, out);
+		}
+	}
+
+	@Nullable
+	static <T> T readNullable(TypedCodec<T> codec, DataInput in) throws IOException {
+		return in.readBoolean() ? codec.read(in) : null;
+	}
+
+	/**
+	 * Creates the codec of a collection shape from the codecs of its components.
+	 * 
+	 * @throws IllegalArgumentException if the tag is not a shape tag
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static ShapeCodec<?> shape(byte tag, TypedCodec<?>... components) {
+		switch (tag) {
+		case LIST:
+			return new ListCodec(components[0]);
+		case SET:
+			return new SetCodec(components[0]);
+		case COLLECTION:
+			return new CollectionCodec(components[0]);
+		case OPTIONAL:
+			return new OptionalCodec(components[0]);
+		case MAP:
+			return new MapCodec(components[0], components[1]);
+		case MULTIMAP:
+			return new MultimapCodec(components[0], components[1]);
+		case ARRAY:
+			return new ArrayCodec(components[0]);
+		default:
+			throw new IllegalArgumentException("Unknown shape tag: " + tag);
+		}
+	}
+
+	/**
+	 * @return the number of component codecs of a shape
+	 */
+	static int arity(byte tag) {
+		return (tag == MAP || tag == MULTIMAP) ? 2 : 1;
+	}
+
+	@Immutable
+	abstract static class BaseCodec<T> implements TypedCodec<T> {
+
+		private final TypeToken<T> type;
+
+		BaseCodec(Class<T> type) {
+			this(TypeTokens.of(type));
+		}
+
+		BaseCodec(TypeToken<T> type) {
+			this.type = type;
+		}
+
+		public TypeToken<T> getType() {
+			return type;
+		}
+
+		@Override
+		public String toString() {
+			return getClass().getSimpleName() + "<" + type + ">";
+		}
+
+	}
+
+	/**
+	 * Codec of a collection shape, described in streams by its tag and the descriptors of its component codecs.
+	 */
+	@Immutable
+	abstract static class ShapeCodec<T> extends BaseCodec<T> {
+
+		final byte tag;
+		final TypedCodec<?>[] components;
+
+		ShapeCodec(TypeToken<T> type, byte tag, TypedCodec<?>... components) {
+			super(type);
+			this.tag = tag;
+			this.components = components;
+		}
+
+	}
+
+	abstract static class ElementsCodec<C extends Collection<E>, E> extends ShapeCodec<C> {
+
+		final TypedCodec<E> elementCodec;
+
+		ElementsCodec(TypeToken<C> type, byte tag, TypedCodec<E> elementCodec) {
+			super(type, tag, elementCodec);
+			this.elementCodec = elementCodec;
+		}
+
+		abstract C newCollection(int size);
+
+		public void write(C value, DataOutput out) throws IOException {
+			out.writeInt(value.size());
+			for (E element : value) {
+				writeNullable(elementCodec, element, out);
+			}
+		}
+
+		public C read(DataInput in) throws IOException {
+			int size = readLength(in);
+			C value = newCollection(initialCapacity(size));
+			for (int i = 0; i < size; i++) {
+				value.add(readNullable(elementCodec, in));
+			}
+			return value;
+		}
+
+	}
+
+	/**
+	 * Reads lists as {@link java.util.ArrayList}s.
+	 */
+	static final class ListCodec<E> extends ElementsCodec<List<E>, E> {
+
+		ListCodec(TypedCodec<E> elementCodec) {
+			super(TypeTokens.listOf(elementCodec.getType()), LIST, elementCodec);
+		}
+
+		@Override
+		List<E> newCollection(int size) {
+			return Lists.newArrayListWithCapacity(size);
+		}
+
+	}
+
+	/**
+	 * Reads sets as {@link java.util.LinkedHashSet}s, preserving the written iteration order.
+	 */
+	static final class SetCodec<E> extends ElementsCodec<Set<E>, E> {
+
+		SetCodec(TypedCodec<E> elementCodec) {
+			super(TypeTokens.setOf(elementCodec.getType()), SET, elementCodec);
+		}
+
+		@Override
+		Set<E> newCollection(int size) {
+			return Sets.newLinkedHashSetWithExpectedSize(size);
+		}
+
+	}
+
+	/**
+	 * Reads collections as {@link java.util.ArrayList}s.
+	 */
+	static final class CollectionCodec<E> extends ElementsCodec<Collection<E>, E> {
+
+		CollectionCodec(TypedCodec<E> elementCodec) {
+			super(TypeTokens.collectionOf(elementCodec.getType()), COLLECTION, elementCodec);
+		}
+
+		@Override
+		Collection<E> newCollection(int size) {
+			return Lists.newArrayListWithCapacity(size);
+		}
+
+	}
+
+	static final class OptionalCodec<E> extends ShapeCodec<Optional<E>> {
+
+		private final TypedCodec<E> elementCodec;
+
+		OptionalCodec(TypedCodec<E> elementCodec) {
+			super(TypeTokens.optionalOf(elementCodec.getType()), OPTIONAL, elementCodec);
+			this.elementCodec = elementCodec;
+		}
+
+		public void write(Optional<E> value, DataOutput out) throws IOException {
+			writeNullable(elementCodec, value.orNull(), out);
+		}
+
+		public Optional<E> read(DataInput in) throws IOException {
+			return Optional.fromNullable(readNullable(elementCodec, in));
+		}
+
+	}
+
+	/**
+	 * Reads maps as {@link java.util.LinkedHashMap}s, preserving the written iteration order.
+	 */
+	static final class MapCodec<K, V> extends ShapeCodec<Map<K, V>> {
+
+		private final TypedCodec<K> keyCodec;
+		private final TypedCodec<V> valueCodec;
+
+		MapCodec(TypedCodec<K> keyCodec, TypedCodec<V> valueCodec) {
+			super(TypeTokens.mapOf(keyCodec.getType(), valueCodec.getType()), MAP, keyCodec, valueCodec);
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+		}
+
+		public void write(Map<K, V> value, DataOutput out) throws IOException {
+			out.writeInt(value.size());
+			for (Entry<K, V> entry : value.entrySet()) {
+				writeNullable(keyCodec, entry.getKey(), out);
+				writeNullable(valueCodec, entry.getValue(), out);
+			}
+		}
+
+		public Map<K, V> read(DataInput in) throws IOException {
+			int size = readLength(in);
+			Map<K, V> value = Maps.newLinkedHashMap();
+			for (int i = 0; i < size; i++) {
+				value.put(readNullable(keyCodec, in), readNullable(valueCodec, in));
+			}
+			return value;
+		}
+
+	}
+
+	/**
+	 * Reads multimaps as {@link ArrayListMultimap}s.
+	 */
+	static final class MultimapCodec<K, V> extends ShapeCodec<Multimap<K, V>> {
+
+		private final TypedCodec<K> keyCodec;
+		private final TypedCodec<V> valueCodec;
+
+		MultimapCodec(TypedCodec<K> keyCodec, TypedCodec<V> valueCodec) {
+			super(TypeTokens.multimapOf(keyCodec.getType(), valueCodec.getType()), MULTIMAP, keyCodec, valueCodec);
+			this.keyCodec = keyCodec;
+			this.valueCodec = valueCodec;
+		}
+
+		public void write(Multimap<K, V> value, DataOutput out) throws IOException {
+			out.writeInt(value.size());
+			for (Entry<K, V> entry : value.entries()) {
+				writeNullable(keyCodec, entry.getKey(), out);
+				writeNullable(valueCodec, entry.getValue(), out);
+			}
+		}
+
+		public Multimap<K, V> read(DataInput in) throws IOException {
+			int size = readLength(in);
+			Multimap<K, V> value = ArrayListMultimap.create();
+			for (int i = 0; i < size; i++) {
+				value.put(readNullable(keyCodec, in), readNullable(valueCodec, in));
+			}
+			return value;
+		}
+
+	}
+
+	/**
+	 * Object arrays are created by copying an empty prototype, so that reads do not reflect on the component type.
+	 */
+	static final class ArrayCodec<E> extends ShapeCodec<E[]> {
+
+		private final TypedCodec<E> componentCodec;
+		private final E[] prototype;
+
+		@SuppressWarnings("unchecked")
+		ArrayCodec(TypedCodec<E> componentCodec) {
+			super(TypeTokens.arrayOf(componentCodec.getType()), ARRAY, componentCodec);
+			this.componentCodec = componentCodec;
+			this.prototype = ObjectArrays.newArray((Class<E>) componentCodec.getType().getRawType(), 0);
+		}
+
+		public void write(E[] value, DataOutput out) throws IOException {
+			out.writeInt(value.length);
+			for (E element : value) {
+				writeNullable(componentCodec, element, out);
+			}
+		}
+
+		public E[] read(DataInput in) throws IOException {
+			int length = readLength(in);
+			List<E> elements = Lists.newArrayListWithCapacity(initialCapacity(length));
+			for (int i = 0; i < length; i++) {
+				elements.add(readNullable(componentCodec, in));
+			}
+			return elements.toArray(prototype);
+		}
+
+	}
+
+}
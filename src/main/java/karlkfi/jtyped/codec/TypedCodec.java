@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Binary encoding of values of a single type.
+ * 
+ * Codecs are registered with, and resolved by, a {@link TypedCodecRegistry}. Implementations must be thread safe and
+ * should not use reflection, since they are called once per value.
+ * 
+ * @param <T> the value type
+ */
+public interface TypedCodec<T> {
+
+	/**
+	 * @return the type of values written and read by this codec
+	 */
+	@Nonnull
+	TypeToken<T> getType();
+
+	/**
+	 * Writes a value.
+	 * 
+	 * @param value the value, never null
+	 * @param out the output
+	 * @throws IOException if the output cannot be written
+	 */
+	void write(@Nonnull T value, @Nonnull DataOutput out) throws IOException;
+
+	/**
+	 * Reads a value written by {@link #write(Object, DataOutput)}.
+	 * 
+	 * @param in the input
+	 * @return the value, never null
+	 * @throws IOException if the input cannot be read or is malformed
+	 */
+	@Nonnull
+	T read(@Nonnull DataInput in) throws IOException;
+
+}
@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.codec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.codec.StandardCodecs.ShapeCodec;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.ImmutableTypedMap;
+import karlkfi.jtyped.map.TypedKey;
+import karlkfi.jtyped.map.TypedMap;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Immutable registry of {@link TypedCodec}s that resolves codecs by TypeToken and encodes typed maps with them.
+ * 
+ * A type resolves to, in order of preference:
+ * <ol>
+ * <li>the codec registered for exactly that type</li>
+ * <li>a codec composed from the codecs of its type arguments, for the shapes described by
+ * {@link karlkfi.jtyped.TypeTokens}: lists, sets, collections, optionals, maps, multimaps and object arrays</li>
+ * <li>the registered codec of the most specific type that is assignable from it</li>
+ * </ol>
+ * Resolutions, including failed ones, are cached per type.
+ * 
+ * Boxed primitives, strings and byte arrays are always registered.
+ * 
+ * <h3>Stream format</h3>
+ * A typed map is written as a version byte and an entry count, then per entry its key ID, a type reference and its
+ * value. The first entry of each type is followed by a descriptor of its codec: registered codecs are described by the
+ * name of their type, shapes by a tag and the descriptors of their components. Later entries of the same type only
+ * refer back to it, so the per-entry cost is one codec call with no type resolution or reflection. Entries are read
+ * back with the type of their codec, which is the entry type unless it resolved to the codec of a supertype. Entries
+ * with null values are not written.
+ */
+@ThreadSafe
+public final class TypedCodecRegistry {
+
+	static final byte VERSION = 1;
+
+	/**
+	 * Maximum number of type resolutions to retain.
+	 */
+	static final int MAXIMUM_SIZE = 1024;
+
+	private static final TypedCodecRegistry STANDARD = builder().build();
+
+	private final ImmutableMap<TypeToken<?>, TypedCodec<?>> codecs;
+	private final ImmutableMap<String, TypedCodec<?>> codecsByName;
+
+	private final LoadingCache<TypeToken<?>, Optional<TypedCodec<?>>> resolved = CacheBuilder.newBuilder()
+			.maximumSize(MAXIMUM_SIZE)
+			.build(new CacheLoader<TypeToken<?>, Optional<TypedCodec<?>>>() {
+				@Override
+				public Optional<TypedCodec<?>> load(TypeToken<?> type) {
+					return Optional.<TypedCodec<?>>fromNullable(findCodec(type));
+				}
+			});
+
+	private TypedCodecRegistry(Map<TypeToken<?>, TypedCodec<?>> codecs) {
+		this.codecs = ImmutableMap.copyOf(codecs);
+		ImmutableMap.Builder<String, TypedCodec<?>> byName = ImmutableMap.builder();
+		for (Entry<TypeToken<?>, TypedCodec<?>> entry : codecs.entrySet()) {
+			byName.put(entry.getKey().toString(), entry.getValue());
+		}
+		this.codecsByName = byName.build();
+	}
+
+	/**
+	 * @return the registry of the built-in codecs
+	 */
+	@Nonnull
+	public static TypedCodecRegistry standard() {
+		return STANDARD;
+	}
+
+	/**
+	 * @return a new builder, with the built-in codecs already registered
+	 */
+	@Nonnull
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builder of codec registries.
+	 */
+	public static final class Builder {
+
+		private final Map<TypeToken<?>, TypedCodec<?>> codecs = Maps.newLinkedHashMap();
+
+		Builder() {
+			for (TypedCodec<?> codec : StandardCodecs.leafCodecs()) {
+				codecs.put(codec.getType(), codec);
+			}
+		}
+
+		/**
+		 * Registers a codec for its type, replacing any codec registered for the same type. The type name, as given by
+		 * {@link TypeToken#toString()}, identifies the codec in streams, so it must be registered under the same type
+		 * by the reader.
+		 */
+		@Nonnull
+		public Builder register(@Nonnull TypedCodec<?> codec) {
+			Preconditions.checkNotNull(codec, "codec is null");
+			codecs.put(Preconditions.checkNotNull(codec.getType(), "type is null for codec=%s", codec), codec);
+			return this;
+		}
+
+		@Nonnull
+		public TypedCodecRegistry build() {
+			return new TypedCodecRegistry(codecs);
+		}
+
+	}
+
+	/**
+	 * Resolves the codec for a type.
+	 * 
+	 * @param type the value type
+	 * @return a codec that can write any value of the type
+	 * @throws IllegalArgumentException if no codec can be resolved for the type
+	 */
+	@Nonnull
+	public <T> TypedCodec<? super T> resolve(@Nonnull TypeToken<T> type) throws IllegalArgumentException {
+		Optional<TypedCodec<?>> codec = resolved.getUnchecked(Preconditions.checkNotNull(type, "type is null"));
+		if (!codec.isPresent()) {
+			throw new IllegalArgumentException("No codec for type: " + type);
+		}
+		@SuppressWarnings("unchecked")
+		TypedCodec<? super T> result = (TypedCodec<? super T>) codec.get();
+		return result;
+	}
+
+	/**
+	 * Resolves a codec whose type is exactly the requested type, so that it can also read values of the type, like
+	 * the codec of key IDs.
+	 * 
+	 * @param type the value type
+	 * @return a codec that can write and read values of the type
+	 * @throws IllegalArgumentException if the type only resolves to the codec of a supertype, or not at all
+	 */
+	@Nonnull
+	public <T> TypedCodec<T> resolveExact(@Nonnull TypeToken<T> type) throws IllegalArgumentException {
+		TypedCodec<? super T> codec = resolve(type);
+		if (!codec.getType().equals(type)) {
+			throw new IllegalArgumentException("No codec for type: " + type + ", only for its supertype: " + codec.getType());
+		}
+		@SuppressWarnings("unchecked")
+		TypedCodec<T> result = (TypedCodec<T>) codec;
+		return result;
+	}
+
+	/**
+	 * @see #resolveExact(TypeToken)
+	 */
+	@Nonnull
+	public <T> TypedCodec<T> resolveExact(@Nonnull Class<T> type) throws IllegalArgumentException {
+		return resolveExact(TypeTokens.of(type));
+	}
+
+	private TypedCodec<?> findCodec(TypeToken<?> type) {
+		TypedCodec<?> codec = codecs.get(type);
+		if (codec != null) {
+			return codec;
+		}
+		codec = findShape(type);
+		if (codec != null) {
+			return codec;
+		}
+		for (TypedCodec<?> candidate : codecs.values()) {
+			if (candidate.getType().isAssignableFrom(type) && (codec == null || codec.getType().isAssignableFrom(candidate.getType()))) {
+				codec = candidate;
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * @return the codec composed from the codecs of the type arguments, or null if the type is not a known shape or its
+	 *         arguments cannot be resolved
+	 */
+	private TypedCodec<?> findShape(TypeToken<?> type) {
+		TypeToken<?> componentType = type.getComponentType();
+		if (componentType != null) {
+			if (componentType.getRawType().isPrimitive()) {
+				return null;
+			}
+			return composeShape(StandardCodecs.ARRAY, componentType.getType());
+		}
+		Type javaType = type.getType();
+		if (!(javaType instanceof ParameterizedType)) {
+			return null;
+		}
+		Class<?> rawType = type.getRawType();
+		Type[] args = ((ParameterizedType) javaType).getActualTypeArguments();
+		if (rawType == List.class) {
+			return composeShape(StandardCodecs.LIST, args);
+		} else if (rawType == Set.class) {
+			return composeShape(StandardCodecs.SET, args);
+		} else if (rawType == Collection.class) {
+			return composeShape(StandardCodecs.COLLECTION, args);
+		} else if (rawType == Optional.class) {
+			return composeShape(StandardCodecs.OPTIONAL, args);
+		} else if (rawType == Map.class) {
+			return composeShape(StandardCodecs.MAP, args);
+		} else if (rawType == Multimap.class) {
+			return composeShape(StandardCodecs.MULTIMAP, args);
+		}
+		return null;
+	}
+
+	private TypedCodec<?> composeShape(byte tag, Type... args) {
+		TypedCodec<?>[] components = new TypedCodec<?>[args.length];
+		for (int i = 0; i < args.length; i++) {
+			Optional<TypedCodec<?>> component = resolved.getUnchecked(TypeToken.of(args[i]));
+			if (!component.isPresent() || !component.get().getType().equals(TypeToken.of(args[i]))) {
+				// a supertype codec would change the type arguments, which are invariant
+				return null;
+			}
+			components[i] = component.get();
+		}
+		return StandardCodecs.shape(tag, components);
+	}
+
+	/**
+	 * Writes the entries of a typed map.
+	 * 
+	 * @param map the typed map
+	 * @param idCodec the codec of the key IDs
+	 * @param out the output
+	 * @throws IllegalArgumentException if no codec can be resolved for the type of an entry
+	 * @throws IOException if the output cannot be written
+	 */
+	public <ID> void writeTo(@Nonnull TypedMap<ID> map, @Nonnull TypedCodec<? super ID> idCodec, @Nonnull DataOutput out) throws IllegalArgumentException, IOException {
+		// snapshot the entries once, so that suppliers are evaluated once and the count matches the entries written
+		List<Entry<TypedKey<Object, ID>, Object>> entries = Lists.newArrayListWithCapacity(map.size());
+		for (Entry<TypedKey<Object, ID>, Object> entry : map.entries()) {
+			Object value = entry.getValue();
+			if (value != null) {
+				entries.add(Maps.immutableEntry(entry.getKey(), value));
+			}
+		}
+		out.writeByte(VERSION);
+		out.writeInt(entries.size());
+		Map<TypeToken<?>, Integer> typeRefs = Maps.newHashMap();
+		List<TypedCodec<? super Object>> typeCodecs = Lists.newArrayList();
+		for (Entry<TypedKey<Object, ID>, Object> entry : entries) {
+			TypedKey<Object, ID> key = entry.getKey();
+			idCodec.write(key.getId(), out);
+			Integer typeRef = typeRefs.get(key.getType());
+			TypedCodec<? super Object> codec;
+			if (typeRef == null) {
+				codec = resolve(key.getType());
+				typeRefs.put(key.getType(), Integer.valueOf(typeCodecs.size()));
+				out.writeInt(typeCodecs.size());
+				writeDescriptor(codec, out);
+				typeCodecs.add(codec);
+			} else {
+				codec = typeCodecs.get(typeRef.intValue());
+				out.writeInt(typeRef.intValue());
+			}
+			codec.write(entry.getValue(), out);
+		}
+	}
+
+	/**
+	 * Writes the entries of a typed map to a stream, buffering and then flushing the output.
+	 * 
+	 * @see #writeTo(TypedMap, TypedCodec, DataOutput)
+	 */
+	public <ID> void writeTo(@Nonnull TypedMap<ID> map, @Nonnull TypedCodec<? super ID> idCodec, @Nonnull OutputStream out) throws IllegalArgumentException, IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		writeTo(map, idCodec, (DataOutput) data);
+		data.flush();
+	}
+
+	/**
+	 * Writes the entries of a typed map to a buffer, starting at its position.
+	 * 
+	 * @throws java.nio.BufferOverflowException if the buffer has too little remaining space
+	 * @see #writeTo(TypedMap, TypedCodec, DataOutput)
+	 */
+	public <ID> void writeTo(@Nonnull TypedMap<ID> map, @Nonnull TypedCodec<? super ID> idCodec, @Nonnull ByteBuffer out) throws IllegalArgumentException, IOException {
+		writeTo(map, idCodec, (DataOutput) new DataOutputStream(ByteBufferStreams.output(out)));
+	}
+
+	/**
+	 * Reads a typed map written by {@link #writeTo(TypedMap, TypedCodec, DataOutput)}.
+	 * 
+	 * @param idCodec the codec of the key IDs
+	 * @param in the input
+	 * @return a new immutable typed map
+	 * @throws IOException if the input cannot be read or is malformed, or refers to a codec that is not registered
+	 */
+	@Nonnull
+	public <ID> ImmutableTypedMap<ID> readFrom(@Nonnull TypedCodec<ID> idCodec, @Nonnull DataInput in) throws IOException {
+		byte version = in.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version: " + version);
+		}
+		int count = StandardCodecs.readLength(in);
+		ImmutableTypedMap.Builder<ID> builder = ImmutableTypedMap.builder();
+		List<TypedCodec<Object>> typeCodecs = Lists.newArrayList();
+		for (int i = 0; i < count; i++) {
+			ID id = idCodec.read(in);
+			int typeRef = in.readInt();
+			if (typeRef == typeCodecs.size()) {
+				@SuppressWarnings("unchecked")
+				TypedCodec<Object> codec = (TypedCodec<Object>) readDescriptor(in);
+				typeCodecs.add(codec);
+			} else if (typeRef < 0 || typeRef > typeCodecs.size()) {
+				throw new IOException("Invalid type reference: " + typeRef);
+			}
+			TypedCodec<Object> codec = typeCodecs.get(typeRef);
+			builder.put(ImmutableTypedKey.of(codec.getType(), id), codec.read(in));
+		}
+		try {
+			return builder.build();
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Duplicate key ID", e);
+		}
+	}
+
+	/**
+	 * Reads a typed map from a stream. No more bytes are read than were written, so the stream may be buffered by the
+	 * caller.
+	 * 
+	 * @see #readFrom(TypedCodec, DataInput)
+	 */
+	@Nonnull
+	public <ID> ImmutableTypedMap<ID> readFrom(@Nonnull TypedCodec<ID> idCodec, @Nonnull InputStream in) throws IOException {
+		return readFrom(idCodec, (DataInput) new DataInputStream(in));
+	}
+
+	/**
+	 * Reads a typed map from a buffer, starting at its position.
+	 * 
+	 * @see #readFrom(TypedCodec, DataInput)
+	 */
+	@Nonnull
+	public <ID> ImmutableTypedMap<ID> readFrom(@Nonnull TypedCodec<ID> idCodec, @Nonnull ByteBuffer in) throws IOException {
+		return readFrom(idCodec, (DataInput) new DataInputStream(ByteBufferStreams.input(in)));
+	}
+
+	/**
+	 * Writes the descriptor of a codec resolved by this registry, as written once per entry type by
+	 * {@link #writeTo(TypedMap, TypedCodec, DataOutput)}.
+	 * 
+	 * @param codec the codec
+	 * @param out the output
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeDescriptor(@Nonnull TypedCodec<?> codec, @Nonnull DataOutput out) throws IOException {
+		if (codec instanceof ShapeCodec) {
+			ShapeCodec<?> shape = (ShapeCodec<?>) codec;
+			out.writeByte(shape.tag);
+			for (TypedCodec<?> component : shape.components) {
+				writeDescriptor(component, out);
+			}
+		} else {
+			out.writeByte(StandardCodecs.REGISTERED);
+			StandardCodecs.writeString(codec.getType().toString(), out);
+		}
+	}
+
+	/**
+	 * Reads a codec descriptor written by {@link #writeDescriptor(TypedCodec, DataOutput)}.
+	 * 
+	 * @param in the input
+	 * @return the described codec
+	 * @throws IOException if the input cannot be read or is malformed, or refers to a codec that is not registered
+	 */
+	@Nonnull
+	public TypedCodec<?> readDescriptor(@Nonnull DataInput in) throws IOException {
+		byte tag = in.readByte();
+		if (tag == StandardCodecs.REGISTERED) {
+			String name = StandardCodecs.readString(in);
+			TypedCodec<?> codec = codecsByName.get(name);
+			if (codec == null) {
+				throw new IOException("No codec registered for type: " + name);
+			}
+			return codec;
+		}
+		if (tag < StandardCodecs.LIST || tag > StandardCodecs.ARRAY) {
+			throw new IOException("Invalid type descriptor tag: " + tag);
+		}
+		TypedCodec<?>[] components = new TypedCodec<?>[StandardCodecs.arity(tag)];
+		for (int i = 0; i < components.length; i++) {
+			components[i] = readDescriptor(in);
+		}
+		return StandardCodecs.shape(tag, components);
+	}
+
+}
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package karlkfi.jtyped.map;
 
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -22,12 +24,18 @@ import java.util.Set;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import karlkfi.jtyped.BooleanTypedSupplier;
+import karlkfi.jtyped.DoubleTypedSupplier;
+import karlkfi.jtyped.IntTypedSupplier;
+import karlkfi.jtyped.LongTypedSupplier;
+import karlkfi.jtyped.PrimitiveTypedSupplier;
 import karlkfi.jtyped.TypedSupplier;
 
 import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
 import com.google.common.reflect.TypeToken;
 
 /**
@@ -49,6 +57,91 @@ public abstract class AbstractTypedMap<ID> implements TypedMap<ID> {
 	 */
 	protected abstract Map<ID, TypedSupplier<Object>> delegate();
 
+	/**
+	 * Gets the value supplier for a key ID. Lookup accessor used by the read methods, which subclasses with a faster
+	 * index than {@link #delegate()} may override.
+	 * 
+	 * @return the value supplier, or null if there is no entry for the key ID
+	 */
+	@Nullable
+	TypedSupplier<?> getSupplier(@Nonnull Object keyId) {
+		return delegate().get(keyId);
+	}
+
+	/**
+	 * Gets the value supplier for a primitive key ID, if the map may store it in primitive form. Subclasses that never
+	 * store {@link PrimitiveTypedSupplier}s may return null to skip creating a supplier.
+	 * 
+	 * @return the value supplier, or null to fall back to {@link #get(TypedKey)}
+	 */
+	@Nullable
+	TypedSupplier<?> getPrimitiveSupplier(@Nonnull Object keyId) {
+		return getSupplier(keyId);
+	}
+
+	/**
+	 * Gets the slot layout of this map, if it is backed by a {@link TypedMapLayout}.
+	 * 
+	 * @return the layout, or null if this map is not slotted
+	 */
+	@Nullable
+	TypedMapLayout<ID> layout() {
+		return null;
+	}
+
+	/**
+	 * Gets the value supplier in a slot of this map's {@link #layout()}. Only called on slotted maps, which must override
+	 * it.
+	 * 
+	 * @return the value supplier, or null if the slot is empty
+	 */
+	@Nullable
+	TypedSupplier<?> getSlot(int slot) {
+		throw new UnsupportedOperationException("not a slotted map");
+	}
+
+	/**
+	 * Marks a missing entry in slot value lookups, since a mutable entry may hold a null value.
+	 */
+	static final Object NO_ENTRY = new Object();
+
+	/**
+	 * Marks an entry whose type is not assignable to the requested key type in bulk lookups.
+	 */
+	private static final Object TYPE_MISMATCH = new Object();
+
+	/**
+	 * Gets the value in a slot of this map's {@link #layout()}. Only called on slotted maps. Subclasses that store
+	 * values directly may override this to skip creating a supplier.
+	 * 
+	 * @return the value, or {@link #NO_ENTRY} if the slot is empty
+	 */
+	@Nullable
+	Object getSlotValue(int slot) {
+		TypedSupplier<?> valueSupplier = getSlot(slot);
+		return (valueSupplier == null) ? NO_ENTRY : TypedMapEvents.supply(layout().getId(slot), valueSupplier);
+	}
+
+	/**
+	 * Receives the entries of a typed map, straight from its internal storage.
+	 * 
+	 * @param <ID> the key ID type
+	 */
+	interface EntryVisitor<ID> {
+		void visit(@Nonnull ID id, @Nonnull TypeToken<Object> type, @Nullable Object value);
+	}
+
+	/**
+	 * Visits every entry of this map, in iteration order, without building an entry set. Subclasses with a faster
+	 * internal storage than {@link #entrySuppliers()} may override this.
+	 */
+	void visitEntries(@Nonnull EntryVisitor<? super ID> visitor) {
+		for (Entry<ID, TypedSupplier<Object>> entry : entrySuppliers()) {
+			TypedSupplier<Object> valueSupplier = entry.getValue();
+			visitor.visit(entry.getKey(), valueSupplier.getType(), valueSupplier.get());
+		}
+	}
+
 	/**
 	 * @return the number of entries in this typed map (up to Integer.MAX_VALUE)
 	 */
@@ -67,79 +160,353 @@ public abstract class AbstractTypedMap<ID> implements TypedMap<ID> {
 	 * @returns true for all keys().contains(typedKey) where the provided key type is assignable from the contained key type.
 	 */
 	public <T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey) {
-		TypedSupplier<?> valueSupplier = delegate().get(typedKey.getId());
+		TypedSupplier<?> valueSupplier = getSupplier(typedKey.getId());
 		if (valueSupplier == null) {
 			return false;
 		}
-		return typedKey.getType().isAssignableFrom(valueSupplier.getType());
+		return AssignabilityCache.isAssignable(typedKey.getType(), valueSupplier.getType());
+	}
+	
+	/**
+	 * @returns true if there exists a key in the map with the provided ID whose type is assignable to the provided class.
+	 */
+	public <T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		TypedSupplier<?> valueSupplier = getSupplier(keyId);
+		if (valueSupplier == null) {
+			return false;
+		}
+		return AssignabilityCache.isAssignable(valueType, valueSupplier.getType());
 	}
 	
 	/**
 	 * @returns true if there exists a key in the map with the provided ID.
 	 */
 	public <T> boolean contains(@Nonnull ID id) {
-		TypedSupplier<?> valueSupplier = delegate().get(id);
+		TypedSupplier<?> valueSupplier = getSupplier(id);
 		return valueSupplier != null;
 	}
 	
 	/** {@inheritDoc} */
 	public <TT> void checkType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException {
-		TypedSupplier<?> valueSupplier = delegate().get(typedKey.getId());
+		TypedSupplier<?> valueSupplier = getSupplier(typedKey.getId());
 		if (valueSupplier == null) {
-			throw new EntryNotFoundException("Value does not exist for the key: " + typedKey);
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
 		}
-		checkValueType(typedKey.getType(), valueSupplier);
+		checkValueType(typedKey.getType(), valueSupplier, typedKey.getId());
 	}
 	
+	/**
+	 * Checks that the value supplier type is assignable to the requested type, consulting the
+	 * {@link AssignabilityCache} to avoid re-resolving generic type hierarchies.
+	 * 
+	 * @return the value supplier cast to the requested type
+	 * @throws ClassCastException if the requested type is not assignable from the value supplier type
+	 */
 	@Nonnull
 	public static <TT> TypedSupplier<TT> checkValueType(@Nonnull TypeToken<TT> type, @Nonnull TypedSupplier<?> valueSupplier) throws ClassCastException {
-		if (!type.isAssignableFrom(valueSupplier.getType())) {
-			throw new ClassCastException("Key type is not assignable from the existing value type.");
-		}
+		return checkValueType(type, valueSupplier, null);
+	}
+
+	/**
+	 * Checks that the value supplier type is assignable to the requested type, reporting the key ID of the entry to
+	 * {@link TypedMapEvents} if it is not.
+	 * 
+	 * @return the value supplier cast to the requested type
+	 * @throws ClassCastException if the requested type is not assignable from the value supplier type
+	 */
+	@Nonnull
+	static <TT> TypedSupplier<TT> checkValueType(@Nonnull TypeToken<TT> type, @Nonnull TypedSupplier<?> valueSupplier, @Nullable Object keyId) throws ClassCastException {
+		checkAssignable(type, valueSupplier.getType(), keyId);
 		@SuppressWarnings("unchecked")
 		TypedSupplier<TT> typedSupplier = (TypedSupplier<TT>) valueSupplier;
 		return typedSupplier;
 	}
 
+	/**
+	 * @param keyId the key ID of the entry, for {@link TypedMapEvents}
+	 * @throws ClassCastException if the requested type is not assignable from the value type
+	 */
+	static void checkAssignable(@Nonnull TypeToken<?> type, @Nonnull TypeToken<?> valueType, @Nullable Object keyId) throws ClassCastException {
+		if (!AssignabilityCache.isAssignable(type, valueType)) {
+			TypedMapEvents.typeMismatch(keyId, type, valueType);
+			throw new ClassCastException("Key type is not assignable from the existing value type.");
+		}
+	}
+
+	/**
+	 * Checks a raw class against the value type without creating a {@link TypeToken} for it.
+	 * 
+	 * @param keyId the key ID of the entry, for {@link TypedMapEvents}
+	 * @throws ClassCastException if the requested class is not assignable from the value type
+	 */
+	static void checkAssignable(@Nonnull Class<?> type, @Nonnull TypeToken<?> valueType, @Nullable Object keyId) throws ClassCastException {
+		if (!AssignabilityCache.isAssignable(type, valueType)) {
+			TypedMapEvents.typeMismatch(keyId, type, valueType);
+			throw new ClassCastException("Key type is not assignable from the existing value type.");
+		}
+	}
+
 	/** {@inheritDoc} */
 	@Nonnull
 	public <TT> TT get(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
-		TypedSupplier<?> valueSupplier = delegate().get(typedKey.getId());
+		TypedSupplier<?> valueSupplier = getSupplier(typedKey.getId());
 		if (valueSupplier == null) {
-			throw new EntryNotFoundException("Value does not exist for the key: " + typedKey);
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
 		}
-		TypedSupplier<TT> typedSupplier = checkValueType(typedKey.getType(), valueSupplier);
-		return typedSupplier.get();
+		TypedSupplier<TT> typedSupplier = checkValueType(typedKey.getType(), valueSupplier, typedKey.getId());
+		return TypedMapEvents.supply(typedKey.getId(), typedSupplier);
+	}
+	
+	/** {@inheritDoc} */
+	@Nonnull
+	public <TT> TT get(@Nonnull BoundTypedKey<TT, ? extends ID> boundKey) throws EntryNotFoundException, ClassCastException {
+		if (boundKey.layout == layout()) {
+			// type was checked when the key was bound to the shared layout
+			@SuppressWarnings("unchecked")
+			TypedSupplier<TT> typedSupplier = (TypedSupplier<TT>) getSlot(boundKey.slot);
+			if (typedSupplier != null) {
+				return TypedMapEvents.supply(boundKey.id, typedSupplier);
+			}
+		}
+		return get((TypedKey<TT, ? extends ID>) boundKey);
 	}
 	
 	/** {@inheritDoc} */
 	@Nonnull
 	public <TT> TT get(@Nonnull Class<TT> valueType, ID keyId) throws EntryNotFoundException, ClassCastException {
-		TypedSupplier<?> valueSupplier = delegate().get(keyId);
+		TypedSupplier<?> valueSupplier = getSupplier(keyId);
+		if (valueSupplier == null) {
+			TypedMapEvents.entryNotFound(keyId, valueType);
+			throw EntryNotFoundException.of("Value does not exist for the id: %s", keyId);
+		}
+		checkAssignable(valueType, valueSupplier.getType(), keyId);
+		@SuppressWarnings("unchecked")
+		TypedSupplier<TT> typedSupplier = (TypedSupplier<TT>) valueSupplier;
+		return TypedMapEvents.supply(keyId, typedSupplier);
+	}
+	
+	/** {@inheritDoc} */
+	@Nullable
+	public <TT> TT getIfPresent(@Nonnull TypedKey<TT, ? extends ID> typedKey) {
+		TypedSupplier<?> valueSupplier;
+		if (typedKey instanceof BoundTypedKey && ((BoundTypedKey<?, ?>) typedKey).layout == layout()) {
+			// type was checked when the key was bound to the shared layout
+			valueSupplier = getSlot(((BoundTypedKey<?, ?>) typedKey).slot);
+		} else {
+			valueSupplier = getSupplier(typedKey.getId());
+			if (valueSupplier == null || !AssignabilityCache.isAssignable(typedKey.getType(), valueSupplier.getType())) {
+				return null;
+			}
+		}
 		if (valueSupplier == null) {
-			throw new EntryNotFoundException("Value does not exist for the id: " + keyId);
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		TypedSupplier<TT> typedSupplier = (TypedSupplier<TT>) valueSupplier;
+		return TypedMapEvents.supply(typedKey.getId(), typedSupplier);
+	}
+	
+	/** {@inheritDoc} */
+	@Nullable
+	public <TT> TT getIfPresent(@Nonnull Class<TT> valueType, @Nonnull ID keyId) {
+		TypedSupplier<?> valueSupplier = getSupplier(keyId);
+		if (valueSupplier == null || !AssignabilityCache.isAssignable(valueType, valueSupplier.getType())) {
+			return null;
 		}
-		TypedSupplier<TT> typedSupplier = checkValueType(TypeToken.of(valueType), valueSupplier);
-		return typedSupplier.get();
+		@SuppressWarnings("unchecked")
+		TypedSupplier<TT> typedSupplier = (TypedSupplier<TT>) valueSupplier;
+		return TypedMapEvents.supply(keyId, typedSupplier);
+	}
+	
+	/** {@inheritDoc} */
+	@Nullable
+	public <TT> TT getOrDefault(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nullable TT defaultValue) {
+		TT value = getIfPresent(typedKey);
+		return (value == null) ? defaultValue : value;
+	}
+	
+	/** {@inheritDoc} */
+	@Nonnull
+	public <TT> Optional<TT> find(@Nonnull TypedKey<TT, ? extends ID> typedKey) {
+		return Optional.fromNullable(getIfPresent(typedKey));
 	}
 	
 	/** {@inheritDoc} */
 	@Nonnull
 	public Object get(@Nonnull ID keyId) throws EntryNotFoundException {
-		TypedSupplier<?> valueSupplier = delegate().get(keyId);
+		TypedSupplier<?> valueSupplier = getSupplier(keyId);
+		if (valueSupplier == null) {
+			TypedMapEvents.entryNotFound(keyId);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		return TypedMapEvents.supply(keyId, valueSupplier);
+	}
+	
+	/** {@inheritDoc} */
+	@Nonnull
+	public Object[] getAll(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException {
+		Object[] result = new Object[keys.size()];
+		getAll(keys, result);
+		return result;
+	}
+	
+	/** {@inheritDoc} */
+	public void getAll(@Nonnull TypedKeyGroup<? extends ID> keys, @Nonnull Object[] result) throws IllegalArgumentException, EntryNotFoundException, ClassCastException {
+		Preconditions.checkArgument(result.length >= keys.size(), "expected at least %s result slots but found %s", keys.size(), result.length);
+		TypedMapLayout<ID> layout = layout();
+		int[] slots = keys.slotsIn(layout);
+		for (int i = 0; i < keys.size(); i++) {
+			Object value = lookup(keys, i, layout, slots);
+			if (value == NO_ENTRY) {
+				TypedMapEvents.entryNotFound(keys.getId(i), keys.getKey(i).getType());
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", keys.getKey(i));
+			} else if (value == TYPE_MISMATCH) {
+				TypedMapEvents.typeMismatch(keys.getId(i), keys.getKey(i).getType(), null);
+				throw new ClassCastException("Key type is not assignable from the existing value type.");
+			}
+			result[i] = value;
+		}
+	}
+	
+	/** {@inheritDoc} */
+	public boolean containsAll(@Nonnull TypedKeyGroup<? extends ID> keys) {
+		TypedMapLayout<ID> layout = layout();
+		int[] slots = keys.slotsIn(layout);
+		for (int i = 0; i < keys.size(); i++) {
+			Object value = lookup(keys, i, layout, slots);
+			if (value == NO_ENTRY || value == TYPE_MISMATCH) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** {@inheritDoc} */
+	public void checkTypes(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException {
+		TypedMapLayout<ID> layout = layout();
+		int[] slots = keys.slotsIn(layout);
+		for (int i = 0; i < keys.size(); i++) {
+			Object value = lookup(keys, i, layout, slots);
+			if (value == NO_ENTRY) {
+				TypedMapEvents.entryNotFound(keys.getId(i), keys.getKey(i).getType());
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", keys.getKey(i));
+			} else if (value == TYPE_MISMATCH) {
+				TypedMapEvents.typeMismatch(keys.getId(i), keys.getKey(i).getType(), null);
+				throw new ClassCastException("Key type is not assignable from the existing value type.");
+			}
+		}
+	}
+	
+	/**
+	 * Looks up the value of one key of a group, using the slots the group resolved for this map's layout if any.
+	 * 
+	 * @param layout this map's layout, or null if it is not slotted
+	 * @param slots the slots bound to the layout, or null to resolve them by ID
+	 * @return the value, {@link #NO_ENTRY} or {@link #TYPE_MISMATCH}
+	 */
+	@Nullable
+	private Object lookup(TypedKeyGroup<? extends ID> keys, int i, @Nullable TypedMapLayout<ID> layout, @Nullable int[] slots) {
+		if (layout != null) {
+			int slot = (slots != null) ? slots[i] : layout.indexOf(keys.getId(i));
+			if (slot == TypedKeyGroup.MISMATCH) {
+				return TYPE_MISMATCH;
+			}
+			if (slot >= 0) {
+				if (slots == null && !keys.isAssignable(i, layout.getType(slot))) {
+					return TYPE_MISMATCH;
+				}
+				return getSlotValue(slot);
+			}
+		}
+		TypedSupplier<?> valueSupplier = getSupplier(keys.getId(i));
 		if (valueSupplier == null) {
-			throw new EntryNotFoundException("Value does not exist for the key ID: " + keyId);
+			return NO_ENTRY;
+		}
+		if (!keys.isAssignable(i, valueSupplier.getType())) {
+			return TYPE_MISMATCH;
 		}
-		return valueSupplier.get();
+		return TypedMapEvents.supply(keys.getId(i), valueSupplier);
+	}
+	
+	/** {@inheritDoc} */
+	public int getInt(@Nonnull IntTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		TypedSupplier<?> valueSupplier = getPrimitiveSupplier(key.getId());
+		if (valueSupplier instanceof IntTypedSupplier) {
+			IntTypedSupplier supplier = (IntTypedSupplier) valueSupplier;
+			if (!supplier.isPresent()) {
+				TypedMapEvents.entryNotFound(key.getId(), key.getType());
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", key);
+			}
+			return supplier.getInt();
+		}
+		return checkPresent(get(key), key).intValue();
+	}
+	
+	/** {@inheritDoc} */
+	public long getLong(@Nonnull LongTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		TypedSupplier<?> valueSupplier = getPrimitiveSupplier(key.getId());
+		if (valueSupplier instanceof LongTypedSupplier) {
+			LongTypedSupplier supplier = (LongTypedSupplier) valueSupplier;
+			if (!supplier.isPresent()) {
+				TypedMapEvents.entryNotFound(key.getId(), key.getType());
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", key);
+			}
+			return supplier.getLong();
+		}
+		return checkPresent(get(key), key).longValue();
+	}
+	
+	/** {@inheritDoc} */
+	public double getDouble(@Nonnull DoubleTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		TypedSupplier<?> valueSupplier = getPrimitiveSupplier(key.getId());
+		if (valueSupplier instanceof DoubleTypedSupplier) {
+			DoubleTypedSupplier supplier = (DoubleTypedSupplier) valueSupplier;
+			if (!supplier.isPresent()) {
+				TypedMapEvents.entryNotFound(key.getId(), key.getType());
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", key);
+			}
+			return supplier.getDouble();
+		}
+		return checkPresent(get(key), key).doubleValue();
+	}
+	
+	/** {@inheritDoc} */
+	public boolean getBoolean(@Nonnull BooleanTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		TypedSupplier<?> valueSupplier = getPrimitiveSupplier(key.getId());
+		if (valueSupplier instanceof BooleanTypedSupplier) {
+			BooleanTypedSupplier supplier = (BooleanTypedSupplier) valueSupplier;
+			if (!supplier.isPresent()) {
+				TypedMapEvents.entryNotFound(key.getId(), key.getType());
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", key);
+			}
+			return supplier.getBoolean();
+		}
+		return checkPresent(get(key), key).booleanValue();
+	}
+	
+	/**
+	 * @throws EntryNotFoundException if the value is null, because it cannot be unboxed
+	 */
+	@Nonnull
+	static <T> T checkPresent(@Nullable T value, @Nonnull TypedKey<?, ?> key) throws EntryNotFoundException {
+		if (value == null) {
+			TypedMapEvents.entryNotFound(key.getId(), key.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", key);
+		}
+		return value;
 	}
 	
 	private transient Set<Entry<TypedKey<Object, ID>, Object>> entrySet;
 
 	/**
-	 * Gets the immutable set of all typed key value pairs.
+	 * Gets a live, read-only view of all typed key value pairs.
 	 * This only includes keys with the types as set, not all assignable types.
 	 * 
-	 * @return the immutable set of typed key value pairs
+	 * Values are only read from their suppliers by {@link Entry#getValue()}.
+	 * 
+	 * @return the set of typed key value pairs
 	 */
 	@Nonnull
 	public Set<Entry<TypedKey<Object, ID>, Object>> entries() {
@@ -148,18 +515,109 @@ public abstract class AbstractTypedMap<ID> implements TypedMap<ID> {
 	}
 	
 	@Nonnull
-	ImmutableSet<Entry<TypedKey<Object, ID>, Object>> createEntrySet() {
-		//based on the cachable entrySupplierSet
-		return ImmutableSet.copyOf(Collections2.transform(entrySuppliers(), new EntryToKeyedEntryTransform()));
+	Set<Entry<TypedKey<Object, ID>, Object>> createEntrySet() {
+		return new EntryView();
+	}
+
+	/**
+	 * Live view of the entries, iterating over {@link #entrySuppliers()} on demand.
+	 */
+	final class EntryView extends AbstractSet<Entry<TypedKey<Object, ID>, Object>> {
+
+		@Override
+		public Iterator<Entry<TypedKey<Object, ID>, Object>> iterator() {
+			return Iterators.unmodifiableIterator(Iterators.transform(entrySuppliers().iterator(), new EntryToKeyedEntryTransform()));
+		}
+
+		@Override
+		public int size() {
+			return AbstractTypedMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return AbstractTypedMap.this.isEmpty();
+		}
+
+		@Override
+		public boolean contains(@Nullable Object object) {
+			if (!(object instanceof Entry) || !(((Entry<?, ?>) object).getKey() instanceof TypedKey)) {
+				return false;
+			}
+			Entry<?, ?> entry = (Entry<?, ?>) object;
+			TypedSupplier<?> valueSupplier = getSupplierOf((TypedKey<?, ?>) entry.getKey());
+			return valueSupplier != null && Objects.equal(valueSupplier.get(), entry.getValue());
+		}
+
 	}
 	
 	class EntryToKeyedEntryTransform implements Function<Entry<? extends ID, ? extends TypedSupplier<?>>, Entry<TypedKey<Object, ID>, Object>> {
 		public Entry<TypedKey<Object, ID>, Object> apply(Entry<? extends ID, ? extends TypedSupplier<?>> input) {
 			@SuppressWarnings("unchecked")
 			TypedSupplier<Object> valueSupplier = (TypedSupplier<Object>) input.getValue();
-			return Maps.immutableEntry((TypedKey<Object, ID>) ImmutableTypedKey.of(valueSupplier.getType(), (ID) input.getKey()), valueSupplier.get());
+			return new SupplierEntry<ID>(ImmutableTypedKey.of(valueSupplier.getType(), (ID) input.getKey()), valueSupplier);
 		}
 	};
+
+	/**
+	 * Read-only entry that gets its value from the supplier on every call to {@link #getValue()}.
+	 */
+	static final class SupplierEntry<ID> implements Entry<TypedKey<Object, ID>, Object> {
+
+		private final TypedKey<Object, ID> key;
+		private final TypedSupplier<Object> valueSupplier;
+
+		SupplierEntry(TypedKey<Object, ID> key, TypedSupplier<Object> valueSupplier) {
+			this.key = key;
+			this.valueSupplier = valueSupplier;
+		}
+
+		public TypedKey<Object, ID> getKey() {
+			return key;
+		}
+
+		public Object getValue() {
+			return TypedMapEvents.supply(key.getId(), valueSupplier);
+		}
+
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(@Nullable Object object) {
+			if (object instanceof Entry) {
+				Entry<?, ?> o = (Entry<?, ?>) object;
+				return key.equals(o.getKey()) && Objects.equal(getValue(), o.getValue());
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = getValue();
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+
+	}
+
+	/**
+	 * @return the supplier of the entry with exactly the type and ID of the key, or null if there is none
+	 */
+	@Nullable
+	private TypedSupplier<?> getSupplierOf(TypedKey<?, ?> typedKey) {
+		Object id = typedKey.getId();
+		if (id == null) {
+			return null;
+		}
+		TypedSupplier<?> valueSupplier = getSupplier(id);
+		return (valueSupplier != null && valueSupplier.getType().equals(typedKey.getType())) ? valueSupplier : null;
+	}
 	
 	private transient Set<Entry<ID, TypedSupplier<Object>>> entrySupplierSet;
 
@@ -182,10 +640,12 @@ public abstract class AbstractTypedMap<ID> implements TypedMap<ID> {
 	private transient Set<TypedKey<Object, ID>> typedKeySet;
 
 	/**
-	 * Gets the immutable set of typed keys that have corresponding values in this map.
+	 * Gets a live, read-only view of the typed keys that have corresponding values in this map.
 	 * This only includes keys with the types as set, not all assignable types.
 	 * 
-	 * @return the immutable set of typed keys that have corresponding values in this map
+	 * Iterating over the keys never reads values from their suppliers.
+	 * 
+	 * @return the set of typed keys that have corresponding values in this map
 	 */
 	@Nonnull
 	public Set<TypedKey<Object, ID>> keys() {
@@ -194,9 +654,35 @@ public abstract class AbstractTypedMap<ID> implements TypedMap<ID> {
 	}
 
 	@Nonnull
-	ImmutableSet<TypedKey<Object, ID>> createKeySet() {
-		//based on the cachable entrySupplierSet
-		return ImmutableSet.copyOf(Collections2.transform(entrySuppliers(), new EntryToTypedKeyTransform()));
+	Set<TypedKey<Object, ID>> createKeySet() {
+		return new KeyView();
+	}
+
+	/**
+	 * Live view of the keys, iterating over {@link #entrySuppliers()} on demand.
+	 */
+	final class KeyView extends AbstractSet<TypedKey<Object, ID>> {
+
+		@Override
+		public Iterator<TypedKey<Object, ID>> iterator() {
+			return Iterators.unmodifiableIterator(Iterators.transform(entrySuppliers().iterator(), new EntryToTypedKeyTransform()));
+		}
+
+		@Override
+		public int size() {
+			return AbstractTypedMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return AbstractTypedMap.this.isEmpty();
+		}
+
+		@Override
+		public boolean contains(@Nullable Object object) {
+			return object instanceof TypedKey && getSupplierOf((TypedKey<?, ?>) object) != null;
+		}
+
 	}
 
 	class EntryToTypedKeyTransform implements Function<Entry<? extends ID, ? extends TypedSupplier<?>>, TypedKey<Object, ID>> {
@@ -218,7 +704,24 @@ public abstract class AbstractTypedMap<ID> implements TypedMap<ID> {
 	@Override
 	public int hashCode() {
 		// not caching hash code since it could change if map values are mutable in a way that modifies their hash codes
-		return entries().hashCode();
+		return computeHashCode();
+	}
+
+	/**
+	 * Computes the hash code of the entry set by visiting the entries, without allocating keys or entries.
+	 */
+	final int computeHashCode() {
+		HashCodeVisitor visitor = new HashCodeVisitor();
+		visitEntries(visitor);
+		return visitor.hashCode;
+	}
+
+	private static final class HashCodeVisitor implements EntryVisitor<Object> {
+		int hashCode;
+
+		public void visit(Object id, TypeToken<Object> type, @Nullable Object value) {
+			hashCode += TypedMaps.entryHashCode(id, type, value);
+		}
 	}
 
 	/**
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.TypeTokens;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Bounded, thread-safe cache of {@link TypeToken#isAssignableFrom(TypeToken)} decisions.
+ * 
+ * Resolving assignability walks the generic type hierarchy, which is expensive for parameterized types. Since
+ * TypeTokens are immutable the decision for a given (key type, value type) pair never changes and can be cached.
+ * 
+ * Identical TypeToken instances are always assignable and skip the cache entirely. Raw class key types are checked
+ * with {@link Class#isAssignableFrom(Class)} and skip the cache as well.
+ */
+@ThreadSafe
+public final class AssignabilityCache {
+
+	/**
+	 * Maximum number of (key type, value type) decisions to retain.
+	 */
+	static final int MAXIMUM_SIZE = 4096;
+
+	private static final LoadingCache<TypePair, Boolean> CACHE = CacheBuilder.newBuilder()
+			.maximumSize(MAXIMUM_SIZE)
+			.recordStats()
+			.build(new AssignabilityLoader());
+
+	private AssignabilityCache() {
+	}
+
+	/**
+	 * Checks whether a value of <code>valueType</code> can be requested as <code>keyType</code>.
+	 * 
+	 * @param keyType the requested type
+	 * @param valueType the stored value type
+	 * @return true if the key type is assignable from the value type
+	 */
+	public static boolean isAssignable(@Nonnull TypeToken<?> keyType, @Nonnull TypeToken<?> valueType) {
+		if (keyType == valueType) {
+			return true;
+		}
+		return CACHE.getUnchecked(new TypePair(keyType, valueType)).booleanValue();
+	}
+
+	/**
+	 * Checks whether a value of <code>valueType</code> can be requested as the raw class <code>keyType</code>.
+	 * 
+	 * A raw class is assignable from a class or parameterized type exactly when it is assignable from its raw type, so
+	 * those value types are checked directly, without allocating. Other value types fall back to the cache.
+	 * 
+	 * @param keyType the requested class
+	 * @param valueType the stored value type
+	 * @return true if the key type is assignable from the value type
+	 */
+	public static boolean isAssignable(@Nonnull Class<?> keyType, @Nonnull TypeToken<?> valueType) {
+		Type type = valueType.getType();
+		if (type instanceof Class) {
+			return keyType.isAssignableFrom((Class<?>) type);
+		}
+		if (type instanceof ParameterizedType) {
+			return keyType.isAssignableFrom((Class<?>) ((ParameterizedType) type).getRawType());
+		}
+		return isAssignable(TypeTokens.of(keyType), valueType);
+	}
+
+	/**
+	 * Gets a snapshot of the cache hit and miss counters. Identity matches are not recorded.
+	 * 
+	 * @return the cache statistics
+	 */
+	@Nonnull
+	public static CacheStats stats() {
+		return CACHE.stats();
+	}
+
+	/**
+	 * @return the number of decisions currently cached
+	 */
+	public static long size() {
+		return CACHE.size();
+	}
+
+	/**
+	 * Discards all cached decisions. Statistics are not reset.
+	 */
+	public static void invalidateAll() {
+		CACHE.invalidateAll();
+	}
+
+	static final class AssignabilityLoader extends CacheLoader<TypePair, Boolean> {
+		@Override
+		public Boolean load(TypePair key) {
+			return Boolean.valueOf(key.keyType.isAssignableFrom(key.valueType));
+		}
+	}
+
+	@Immutable
+	static final class TypePair {
+		final TypeToken<?> keyType;
+		final TypeToken<?> valueType;
+		private final int hash;
+
+		TypePair(TypeToken<?> keyType, TypeToken<?> valueType) {
+			this.keyType = Preconditions.checkNotNull(keyType, "keyType is null");
+			this.valueType = Preconditions.checkNotNull(valueType, "valueType is null");
+			this.hash = 31 * keyType.hashCode() + valueType.hashCode();
+		}
+
+		@Override
+		public boolean equals(@Nullable Object object) {
+			if (this == object) {
+				return true;
+			}
+			if (object instanceof TypePair) {
+				TypePair o = (TypePair) object;
+				return hash == o.hash && keyType.equals(o.keyType) && valueType.equals(o.valueType);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
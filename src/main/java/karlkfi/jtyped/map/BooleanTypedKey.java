@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import karlkfi.jtyped.BooleanTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+
+/**
+ * A typed key for <code>boolean</code> values, for use with {@link TypedMap#getBoolean} and {@link MutableTypedMap#putBoolean}.
+ * 
+ * @param <ID> the key id type
+ */
+@Immutable
+public final class BooleanTypedKey<ID> extends PrimitiveTypedKey<Boolean, ID> {
+
+	BooleanTypedKey(ID id) {
+		super(TypeTokens.of(Boolean.class), id);
+	}
+
+	@Nonnull
+	public static <I> BooleanTypedKey<I> of(@Nonnull I id) {
+		return new BooleanTypedKey<I>(id);
+	}
+
+	@Override
+	@Nonnull
+	BooleanTypedSupplier newSupplier() {
+		return new BooleanTypedSupplier();
+	}
+
+}
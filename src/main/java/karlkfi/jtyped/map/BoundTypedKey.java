@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A typed key that has been resolved to a slot of a {@link TypedMapLayout}.
+ * 
+ * Its type has already been checked against the slot type, so maps sharing the layout can return the slot value
+ * directly. Maps with a different layout treat it as an ordinary {@link TypedKey}.
+ * 
+ * Bound keys are created by {@link TypedMapLayout#bind(TypedKey)}.
+ * 
+ * @param <T> the key type
+ * @param <ID> the key id type
+ */
+@Immutable
+public final class BoundTypedKey<T, ID> implements TypedKey<T, ID> {
+
+	final TypedMapLayout<?> layout;
+	final int slot;
+	final TypeToken<T> type;
+	final ID id;
+
+	BoundTypedKey(TypedMapLayout<?> layout, int slot, TypeToken<T> type, ID id) {
+		this.layout = layout;
+		this.slot = slot;
+		this.type = type;
+		this.id = id;
+	}
+
+	@Nonnull
+	public TypeToken<T> getType() {
+		return type;
+	}
+
+	@Nonnull
+	public ID getId() {
+		return id;
+	}
+
+	/**
+	 * @return the layout this key is bound to
+	 */
+	@Nonnull
+	public TypedMapLayout<?> getLayout() {
+		return layout;
+	}
+
+	/**
+	 * @return the slot index of this key in its layout
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	@Override
+	public boolean equals(@Nullable Object object) {
+		return TypedMaps.keyEqualsImpl(this, object);
+	}
+
+	@Override
+	public int hashCode() {
+		return TypedMaps.keyHashCode(id, type);
+	}
+
+}
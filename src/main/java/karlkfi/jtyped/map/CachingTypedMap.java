@@ -0,0 +1,816 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * MutableTypedMap for heterogeneous caches, bounded by a maximum number of entries or a maximum total weight and
+ * optionally expiring entries a fixed time after they were written or last read.
+ * 
+ * Entries are evicted with a segmented LRU policy. New entries enter a probation segment, and entries that are read
+ * again are promoted to a protected segment, which holds up to 80% of the maximum weight. When the map is over its
+ * maximum weight, the least recently used probation entry is evicted first, so a scan of one-time reads cannot flush
+ * the entries that are read repeatedly.
+ * 
+ * Expired entries are removed when they are looked up, when the entries are iterated and by {@link #cleanUp()}, so
+ * {@link #size()} may include expired entries until then. Expiry can be set for every entry and overridden for single
+ * key IDs.
+ * 
+ * Like {@link CopyOnWriteTypedMap}, removing a value removes its entry, {@link #clear()} empties the map, and
+ * {@link #setType(TypedKey)} only checks the type of an existing entry. The type of an entry is kept while it is
+ * cached, but a key ID may be reused with another type after its entry has been evicted.
+ * 
+ * All operations lock the map, but values are read from their suppliers outside of the lock, so a slow
+ * {@link karlkfi.jtyped.DelegatingTypedSupplier} does not block other threads. Every lookup by key ID is counted as a
+ * hit or a miss in the {@link #stats()}.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+public final class CachingTypedMap<ID> extends AbstractTypedMap<ID> implements MutableTypedMap<ID> {
+
+	/**
+	 * Calculates the weight of cache entries. Called while the map is locked, so it must be fast and must not read
+	 * values from slow suppliers.
+	 * 
+	 * @param <ID> the key ID type
+	 */
+	public interface Weigher<ID> {
+
+		/**
+		 * @param keyId the key ID of the entry
+		 * @param supplier the value supplier of the entry
+		 * @return the weight of the entry, which must be non-negative
+		 */
+		int weigh(@Nonnull ID keyId, @Nonnull TypedSupplier<?> supplier);
+
+	}
+
+	/**
+	 * Marks an unset limit or expiry.
+	 */
+	static final long UNSET = -1;
+
+	/**
+	 * Percent of the maximum weight that can be held by the protected segment.
+	 */
+	static final int PROTECTED_PERCENT = 80;
+
+	private final long maximumWeight;
+	private final long protectedMaximumWeight;
+	@Nullable
+	private final Weigher<? super ID> weigher;
+	private final long expireAfterWriteNanos;
+	private final long expireAfterAccessNanos;
+	private final ImmutableMap<ID, Long> expireAfterWriteOverrides;
+	private final ImmutableMap<ID, Long> expireAfterAccessOverrides;
+	private final boolean expires;
+	private final Ticker ticker;
+
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Map<ID, Node<ID>> nodes = Maps.newHashMap();
+
+	/**
+	 * Sentinels of the circular probation and protected lists, from least to most recently used.
+	 */
+	@GuardedBy("lock")
+	private final Node<ID> probation = Node.sentinel();
+	@GuardedBy("lock")
+	private final Node<ID> protectedSegment = Node.sentinel();
+
+	@GuardedBy("lock")
+	private long weightedSize;
+	@GuardedBy("lock")
+	private long protectedWeight;
+	@GuardedBy("lock")
+	private long hitCount;
+	@GuardedBy("lock")
+	private long missCount;
+	@GuardedBy("lock")
+	private long evictionCount;
+
+	private CachingTypedMap(Builder<ID> builder) {
+		this.maximumWeight = (builder.maximumWeight == UNSET) ? Long.MAX_VALUE : builder.maximumWeight;
+		this.protectedMaximumWeight = (maximumWeight == Long.MAX_VALUE) ? Long.MAX_VALUE : maximumWeight / 100 * PROTECTED_PERCENT
+				+ maximumWeight % 100 * PROTECTED_PERCENT / 100;
+		this.weigher = builder.weigher;
+		this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+		this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+		this.expireAfterWriteOverrides = ImmutableMap.copyOf(builder.expireAfterWriteOverrides);
+		this.expireAfterAccessOverrides = ImmutableMap.copyOf(builder.expireAfterAccessOverrides);
+		this.expires = expireAfterWriteNanos != UNSET || expireAfterAccessNanos != UNSET
+				|| !expireAfterWriteOverrides.isEmpty() || !expireAfterAccessOverrides.isEmpty();
+		this.ticker = builder.ticker;
+	}
+
+	/**
+	 * Returns a new builder. Without a maximum size or weight, the map is only bounded by expiry.
+	 */
+	@Nonnull
+	public static <I> Builder<I> builder() {
+		return new Builder<I>();
+	}
+
+	/**
+	 * Builds caching typed maps. The maximum size and the maximum weight are mutually exclusive, and a weigher
+	 * requires a maximum weight.
+	 * 
+	 * @param <K> the key ID type
+	 */
+	public static class Builder<K> {
+		long maximumWeight = UNSET;
+		boolean weighted = false;
+		Weigher<? super K> weigher;
+		long expireAfterWriteNanos = UNSET;
+		long expireAfterAccessNanos = UNSET;
+		final Map<K, Long> expireAfterWriteOverrides = Maps.newHashMap();
+		final Map<K, Long> expireAfterAccessOverrides = Maps.newHashMap();
+		Ticker ticker = Ticker.systemTicker();
+
+		/**
+		 * Creates a new builder. The returned builder is equivalent to the builder generated by
+		 * {@link CachingTypedMap#builder}.
+		 */
+		public Builder() {
+		}
+
+		/**
+		 * Limits the number of entries in the built map.
+		 * 
+		 * @throws IllegalArgumentException if the size is negative
+		 * @throws IllegalStateException if a maximum size or weight was already set
+		 */
+		public Builder<K> maximumSize(long maximumSize) {
+			Preconditions.checkState(maximumWeight == UNSET, "maximum size or weight was already set");
+			Preconditions.checkArgument(maximumSize >= 0, "maximum size is negative: %s", maximumSize);
+			this.maximumWeight = maximumSize;
+			return this;
+		}
+
+		/**
+		 * Limits the total weight of the entries in the built map, as calculated by the {@link #weigher(Weigher)}.
+		 * 
+		 * @throws IllegalArgumentException if the weight is negative
+		 * @throws IllegalStateException if a maximum size or weight was already set
+		 */
+		public Builder<K> maximumWeight(long maximumWeight) {
+			Preconditions.checkState(this.maximumWeight == UNSET, "maximum size or weight was already set");
+			Preconditions.checkArgument(maximumWeight >= 0, "maximum weight is negative: %s", maximumWeight);
+			this.maximumWeight = maximumWeight;
+			this.weighted = true;
+			return this;
+		}
+
+		/**
+		 * Sets the weigher of the entries, which is called whenever an entry is written.
+		 * 
+		 * @throws IllegalStateException if a weigher was already set
+		 */
+		public Builder<K> weigher(@Nonnull Weigher<? super K> weigher) {
+			Preconditions.checkState(this.weigher == null, "weigher was already set");
+			this.weigher = Preconditions.checkNotNull(weigher, "weigher is null");
+			return this;
+		}
+
+		/**
+		 * Expires every entry a fixed duration after it was last written.
+		 * 
+		 * @throws IllegalArgumentException if the duration is negative
+		 */
+		public Builder<K> expireAfterWrite(long duration, @Nonnull TimeUnit unit) {
+			this.expireAfterWriteNanos = toNanos(duration, unit);
+			return this;
+		}
+
+		/**
+		 * Expires every entry a fixed duration after it was last written or read.
+		 * 
+		 * @throws IllegalArgumentException if the duration is negative
+		 */
+		public Builder<K> expireAfterAccess(long duration, @Nonnull TimeUnit unit) {
+			this.expireAfterAccessNanos = toNanos(duration, unit);
+			return this;
+		}
+
+		/**
+		 * Expires the entry of a key ID a fixed duration after it was last written, overriding
+		 * {@link #expireAfterWrite(long, TimeUnit)}.
+		 * 
+		 * @throws IllegalArgumentException if the duration is negative
+		 */
+		public Builder<K> expireAfterWrite(@Nonnull K keyId, long duration, @Nonnull TimeUnit unit) {
+			expireAfterWriteOverrides.put(Preconditions.checkNotNull(keyId, "keyId is null"), toNanos(duration, unit));
+			return this;
+		}
+
+		/**
+		 * Expires the entry of a key ID a fixed duration after it was last written or read, overriding
+		 * {@link #expireAfterAccess(long, TimeUnit)}.
+		 * 
+		 * @throws IllegalArgumentException if the duration is negative
+		 */
+		public Builder<K> expireAfterAccess(@Nonnull K keyId, long duration, @Nonnull TimeUnit unit) {
+			expireAfterAccessOverrides.put(Preconditions.checkNotNull(keyId, "keyId is null"), toNanos(duration, unit));
+			return this;
+		}
+
+		/**
+		 * Sets the time source for expiry, for testing.
+		 */
+		public Builder<K> ticker(@Nonnull Ticker ticker) {
+			this.ticker = Preconditions.checkNotNull(ticker, "ticker is null");
+			return this;
+		}
+
+		/**
+		 * Returns a new, empty caching typed map.
+		 * 
+		 * @throws IllegalStateException if a weigher was set without a maximum weight, or the other way around
+		 */
+		@Nonnull
+		public CachingTypedMap<K> build() {
+			Preconditions.checkState(weighted == (weigher != null), weighted ? "maximum weight requires a weigher" : "weigher requires a maximum weight");
+			return new CachingTypedMap<K>(this);
+		}
+
+		private static long toNanos(long duration, TimeUnit unit) {
+			Preconditions.checkArgument(duration >= 0, "duration is negative: %s", duration);
+			return unit.toNanos(duration);
+		}
+	}
+
+	/**
+	 * Delegate accessor (read-only). Only used for iteration, so it is built on demand as a snapshot, in eviction order.
+	 * Expired entries are removed first.
+	 * 
+	 * @return a new map of the current entries
+	 */
+	@Override
+	protected Map<ID, TypedSupplier<Object>> delegate() {
+		synchronized (lock) {
+			if (expires) {
+				expireEntries(ticker.read());
+			}
+			Map<ID, TypedSupplier<Object>> delegate = Maps.newLinkedHashMap();
+			copySuppliers(probation, delegate);
+			copySuppliers(protectedSegment, delegate);
+			return delegate;
+		}
+	}
+
+	private static <I> void copySuppliers(Node<I> sentinel, Map<I, TypedSupplier<Object>> delegate) {
+		for (Node<I> node = sentinel.next; node != sentinel; node = node.next) {
+			delegate.put(node.id, node.supplier);
+		}
+	}
+
+	@Override
+	@Nonnull
+	Set<Entry<ID, TypedSupplier<Object>>> entrySuppliers() {
+		return createEntrySupplierSet();
+	}
+
+	/**
+	 * Looks up a live entry, recording a hit or a miss and the access.
+	 */
+	@Override
+	@Nullable
+	TypedSupplier<?> getSupplier(@Nonnull Object keyId) {
+		synchronized (lock) {
+			Node<ID> node = nodes.get(keyId);
+			if (node != null && expires) {
+				long now = ticker.read();
+				if (node.isExpired(now)) {
+					removeNode(node);
+					evictionCount++;
+					node = null;
+				} else {
+					node.accessTime = now;
+				}
+			}
+			if (node == null) {
+				missCount++;
+				return null;
+			}
+			hitCount++;
+			recordAccess(node);
+			return node.supplier;
+		}
+	}
+
+	/**
+	 * Existence checks are not reads: they neither record a hit or a miss nor promote the entry, so that probing for
+	 * entries cannot flush the protected segment.
+	 */
+	@Override
+	public <T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(typedKey.getId());
+			return node != null && AssignabilityCache.isAssignable(typedKey.getType(), node.supplier.getType());
+		}
+	}
+
+	/**
+	 * @see #contains(TypedKey)
+	 */
+	@Override
+	public <T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(keyId);
+			return node != null && AssignabilityCache.isAssignable(valueType, node.supplier.getType());
+		}
+	}
+
+	/**
+	 * @see #contains(TypedKey)
+	 */
+	@Override
+	public <T> boolean contains(@Nonnull ID id) {
+		synchronized (lock) {
+			return getLiveNode(id) != null;
+		}
+	}
+
+	/**
+	 * @see #contains(TypedKey)
+	 */
+	@Override
+	public boolean containsAll(@Nonnull TypedKeyGroup<? extends ID> keys) {
+		for (int i = 0; i < keys.size(); i++) {
+			if (!contains(keys.getKey(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of cached entries, which may include expired entries that have not been removed yet
+	 */
+	@Override
+	public int size() {
+		synchronized (lock) {
+			return nodes.size();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		synchronized (lock) {
+			return nodes.isEmpty();
+		}
+	}
+
+	/**
+	 * Checks the type of an existing entry. Entries cannot be cached without a value, so this does not add one.
+	 */
+	@Override
+	public <TT> void setType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException {
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(typedKey.getId());
+			if (node != null) {
+				checkValueType(typedKey.getType(), node.supplier, typedKey.getId());
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public <TT> TT put(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException, ClassCastException {
+		Preconditions.checkNotNull(value, "value is null");
+		ID id = typedKey.getId();
+		TypedSupplier<?> oldValueSupplier;
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(id);
+			@SuppressWarnings("unchecked")
+			TypeToken<Object> type = (TypeToken<Object>) typedKey.getType();
+			if (node != null) {
+				checkValueType(typedKey.getType(), node.supplier, id);
+				// keep the original entry type, which may be more specific than the key type
+				type = node.supplier.getType();
+			}
+			oldValueSupplier = write(id, node, ImmutableTypedSupplier.of(type, (Object) value));
+		}
+		@SuppressWarnings("unchecked")
+		TypedSupplier<TT> typedSupplier = (TypedSupplier<TT>) oldValueSupplier;
+		return (typedSupplier == null) ? null : typedSupplier.get();
+	}
+
+	/**
+	 * Caches a value supplier, which may compute its value on demand, like a {@link karlkfi.jtyped.TypedSuppliers#memoize memoizing}
+	 * supplier. An existing entry is replaced if its type is assignable from the supplier type.
+	 * 
+	 * @param keyId the key ID
+	 * @param supplier the value supplier
+	 * @throws NullPointerException if the key ID or supplier is null
+	 * @throws ClassCastException if the type of the existing entry is not assignable from the supplier type
+	 */
+	public void putSupplier(@Nonnull ID keyId, @Nonnull TypedSupplier<?> supplier) throws NullPointerException, ClassCastException {
+		Preconditions.checkNotNull(keyId, "keyId is null");
+		Preconditions.checkNotNull(supplier, "supplier is null");
+		@SuppressWarnings("unchecked")
+		TypedSupplier<Object> typedSupplier = (TypedSupplier<Object>) supplier;
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(keyId);
+			if (node != null) {
+				checkAssignable(node.supplier.getType(), supplier.getType(), keyId);
+			}
+			write(keyId, node, typedSupplier);
+		}
+	}
+
+	/**
+	 * The map stores values as immutable suppliers, so the value is boxed.
+	 */
+	@Override
+	public void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException {
+		put(key, Integer.valueOf(value));
+	}
+
+	/**
+	 * The map stores values as immutable suppliers, so the value is boxed.
+	 */
+	@Override
+	public void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException {
+		put(key, Long.valueOf(value));
+	}
+
+	/**
+	 * The map stores values as immutable suppliers, so the value is boxed.
+	 */
+	@Override
+	public void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException {
+		put(key, Double.valueOf(value));
+	}
+
+	/**
+	 * The map stores values as immutable suppliers, so the value is boxed.
+	 */
+	@Override
+	public void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException {
+		put(key, Boolean.valueOf(value));
+	}
+
+	/**
+	 * Puts every entry of <code>m</code>. Each entry is updated atomically, but the map as a whole is not, and entries
+	 * put first may be evicted by the later ones.
+	 */
+	@Override
+	@Nullable
+	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException {
+		for (Entry<? extends TypedKey<Object, ? extends ID>, Object> entry : m.entries()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Removes the entry of the key.
+	 * 
+	 * @throws EntryNotFoundException if there is no entry for the key
+	 */
+	@Override
+	@Nullable
+	public <TT> TT remove(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException {
+		TypedSupplier<?> oldValueSupplier;
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(typedKey.getId());
+			if (node == null) {
+				TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+			}
+			checkValueType(typedKey.getType(), node.supplier, typedKey.getId());
+			removeNode(node);
+			oldValueSupplier = node.supplier;
+		}
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) oldValueSupplier.get();
+		return oldValue;
+	}
+
+	/**
+	 * Removes the entry of the key ID.
+	 * 
+	 * @throws EntryNotFoundException if there is no entry for the key ID
+	 */
+	@Override
+	@Nullable
+	public <TT> TT remove(@Nonnull Class<TT> valueType, @Nonnull ID keyId) throws NullPointerException, EntryNotFoundException, ClassCastException {
+		TypedSupplier<?> oldValueSupplier;
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(keyId);
+			if (node == null) {
+				TypedMapEvents.entryNotFound(keyId, valueType);
+				throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+			}
+			checkAssignable(valueType, node.supplier.getType(), keyId);
+			removeNode(node);
+			oldValueSupplier = node.supplier;
+		}
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) oldValueSupplier.get();
+		return oldValue;
+	}
+
+	/**
+	 * Removes the entry of the key ID.
+	 * 
+	 * @throws EntryNotFoundException if there is no entry for the key ID
+	 */
+	@Override
+	@Nullable
+	public Object remove(@Nonnull ID keyId) throws NullPointerException, EntryNotFoundException {
+		TypedSupplier<?> oldValueSupplier;
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(keyId);
+			if (node == null) {
+				TypedMapEvents.entryNotFound(keyId);
+				throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+			}
+			removeNode(node);
+			oldValueSupplier = node.supplier;
+		}
+		return oldValueSupplier.get();
+	}
+
+	/**
+	 * Discards the entry of a key ID, if any, without reading its value.
+	 * 
+	 * @return true if an entry was discarded
+	 */
+	public boolean invalidate(@Nonnull ID keyId) {
+		synchronized (lock) {
+			Node<ID> node = getLiveNode(keyId);
+			if (node == null) {
+				return false;
+			}
+			removeNode(node);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes every entry. Unlike the other typed maps, entry types are not preserved.
+	 */
+	@Override
+	public void clear() {
+		synchronized (lock) {
+			nodes.clear();
+			probation.prev = probation.next = probation;
+			protectedSegment.prev = protectedSegment.next = protectedSegment;
+			weightedSize = 0;
+			protectedWeight = 0;
+		}
+	}
+
+	/**
+	 * Removes every expired entry. Expired entries are otherwise only removed when they are looked up or when the
+	 * entries are iterated.
+	 */
+	public void cleanUp() {
+		if (!expires) {
+			return;
+		}
+		synchronized (lock) {
+			expireEntries(ticker.read());
+		}
+	}
+
+	/**
+	 * Gets the statistics of this map. Evictions include expired entries; loads are not tracked.
+	 * 
+	 * @return a snapshot of the hit, miss and eviction counts
+	 */
+	@Nonnull
+	public CacheStats stats() {
+		synchronized (lock) {
+			return new CacheStats(hitCount, missCount, 0, 0, 0, evictionCount);
+		}
+	}
+
+	/**
+	 * @return the total weight of the cached entries, or their number if the map has no weigher
+	 */
+	public long weightedSize() {
+		synchronized (lock) {
+			return weightedSize;
+		}
+	}
+
+	/**
+	 * Gets the node of a key ID without recording a hit or miss, removing it if it has expired.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private Node<ID> getLiveNode(Object keyId) {
+		Node<ID> node = nodes.get(keyId);
+		if (node != null && expires && node.isExpired(ticker.read())) {
+			removeNode(node);
+			evictionCount++;
+			return null;
+		}
+		return node;
+	}
+
+	/**
+	 * Replaces the supplier of an existing node or adds a new node, then evicts entries until the map is within its
+	 * maximum weight. Only the write time of an existing node is updated, so writes do not count as reads for
+	 * promotion or expiry after access.
+	 * 
+	 * @return the previous value supplier, or null if the node is new
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private TypedSupplier<Object> write(ID keyId, @Nullable Node<ID> node, TypedSupplier<Object> supplier) {
+		int weight = weigh(keyId, supplier);
+		long now = expires ? ticker.read() : 0;
+		TypedSupplier<Object> oldValueSupplier = null;
+		if (node == null) {
+			node = new Node<ID>(keyId, supplier, weight);
+			node.expireAfterWriteNanos = expiry(expireAfterWriteOverrides, keyId, expireAfterWriteNanos);
+			node.expireAfterAccessNanos = expiry(expireAfterAccessOverrides, keyId, expireAfterAccessNanos);
+			nodes.put(keyId, node);
+			node.linkBefore(probation);
+			weightedSize += weight;
+		} else {
+			oldValueSupplier = node.supplier;
+			node.supplier = supplier;
+			weightedSize += weight - node.weight;
+			if (node.isProtected) {
+				protectedWeight += weight - node.weight;
+			}
+			node.weight = weight;
+			// a write is not a read: the entry becomes the most recently used of its segment, without promotion
+			node.unlink();
+			node.linkBefore(node.isProtected ? protectedSegment : probation);
+		}
+		node.writeTime = now;
+		if (oldValueSupplier == null) {
+			node.accessTime = now;
+		}
+		evict();
+		return oldValueSupplier;
+	}
+
+	private int weigh(ID keyId, TypedSupplier<?> supplier) {
+		if (weigher == null) {
+			return 1;
+		}
+		int weight = weigher.weigh(keyId, supplier);
+		Preconditions.checkState(weight >= 0, "weight is negative for id=%s: %s", keyId, weight);
+		return weight;
+	}
+
+	private static <I> long expiry(ImmutableMap<I, Long> overrides, I keyId, long defaultNanos) {
+		Long nanos = overrides.get(keyId);
+		return (nanos == null) ? defaultNanos : nanos.longValue();
+	}
+
+	/**
+	 * Moves a node to the most recently used end of the protected segment, promoting it from probation and demoting
+	 * the least recently used protected nodes if the protected segment is over its maximum weight.
+	 */
+	@GuardedBy("lock")
+	private void recordAccess(Node<ID> node) {
+		node.unlink();
+		node.linkBefore(protectedSegment);
+		if (!node.isProtected) {
+			node.isProtected = true;
+			protectedWeight += node.weight;
+			while (protectedWeight > protectedMaximumWeight) {
+				Node<ID> demoted = protectedSegment.next;
+				demoted.unlink();
+				demoted.linkBefore(probation);
+				demoted.isProtected = false;
+				protectedWeight -= demoted.weight;
+			}
+		}
+	}
+
+	/**
+	 * Evicts the least recently used probation nodes, then the least recently used protected nodes, until the map is
+	 * within its maximum weight.
+	 */
+	@GuardedBy("lock")
+	private void evict() {
+		while (weightedSize > maximumWeight) {
+			Node<ID> victim = (probation.next != probation) ? probation.next : protectedSegment.next;
+			removeNode(victim);
+			evictionCount++;
+		}
+	}
+
+	@GuardedBy("lock")
+	private void expireEntries(long now) {
+		expireEntries(probation, now);
+		expireEntries(protectedSegment, now);
+	}
+
+	@GuardedBy("lock")
+	private void expireEntries(Node<ID> sentinel, long now) {
+		Node<ID> node = sentinel.next;
+		while (node != sentinel) {
+			Node<ID> next = node.next;
+			if (node.isExpired(now)) {
+				removeNode(node);
+				evictionCount++;
+			}
+			node = next;
+		}
+	}
+
+	@GuardedBy("lock")
+	private void removeNode(Node<ID> node) {
+		nodes.remove(node.id);
+		node.unlink();
+		weightedSize -= node.weight;
+		if (node.isProtected) {
+			protectedWeight -= node.weight;
+		}
+	}
+
+	/**
+	 * Cache entry, linked into the probation or protected list.
+	 */
+	private static final class Node<ID> {
+
+		final ID id;
+		TypedSupplier<Object> supplier;
+		int weight;
+		boolean isProtected;
+		long writeTime;
+		long accessTime;
+		long expireAfterWriteNanos = UNSET;
+		long expireAfterAccessNanos = UNSET;
+		Node<ID> prev;
+		Node<ID> next;
+
+		Node(ID id, TypedSupplier<Object> supplier, int weight) {
+			this.id = id;
+			this.supplier = supplier;
+			this.weight = weight;
+		}
+
+		static <I> Node<I> sentinel() {
+			Node<I> sentinel = new Node<I>(null, null, 0);
+			sentinel.prev = sentinel.next = sentinel;
+			return sentinel;
+		}
+
+		boolean isExpired(long now) {
+			return (expireAfterWriteNanos != UNSET && now - writeTime >= expireAfterWriteNanos)
+					|| (expireAfterAccessNanos != UNSET && now - accessTime >= expireAfterAccessNanos);
+		}
+
+		/**
+		 * Links this node at the most recently used end of a list.
+		 */
+		void linkBefore(Node<ID> sentinel) {
+			prev = sentinel.prev;
+			next = sentinel;
+			prev.next = this;
+			sentinel.prev = this;
+		}
+
+		void unlink() {
+			prev.next = next;
+			next.prev = prev;
+			prev = next = null;
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * ImmutableTypedMap implementation that stores key IDs, value types and values in flat parallel arrays.
+ * 
+ * IDs and types live in a private {@link TypedMapLayout} (open addressing index, one canonical TypeToken reference
+ * per distinct type) and values in an array indexed by slot. No per-entry supplier objects are retained; they are only
+ * created when requested, for example by {@link #entrySuppliers()}.
+ * 
+ * Approximate retained heap per entry on a 64-bit JVM with compressed references, excluding keys and values:
+ * <ul>
+ * <li>{@link StandardImmutableTypedMap}: ~60 bytes (hash table bucket, ImmutableMap entry object,
+ * ImmutableTypedSupplier object and entry array reference)</li>
+ * <li>CompactImmutableTypedMap: ~20 bytes (ID, type and value references plus two open addressing buckets)</li>
+ * </ul>
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+final class CompactImmutableTypedMap<ID> extends ImmutableTypedMap<ID> {
+
+	private final TypedMapLayout<ID> layout;
+	private final Object[] values;
+
+	private transient ImmutableMap<ID, TypedSupplier<Object>> delegate;
+
+	/**
+	 * Constructs a new CompactImmutableTypedMap that takes ownership of the provided arrays.
+	 * 
+	 * @param ids the key IDs
+	 * @param types the value types, in ID order
+	 * @param values the values, in ID order
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	CompactImmutableTypedMap(Object[] ids, TypeToken<?>[] types, Object[] values) {
+		this.layout = TypedMapLayout.create(ids, types);
+		this.values = values;
+	}
+
+	/**
+	 * Constructs a new CompactImmutableTypedMap sharing a layout, so that keys bound to it are read without hashing.
+	 * 
+	 * @param layout the shared layout
+	 * @param values the values, in slot order, already type checked against the layout
+	 */
+	CompactImmutableTypedMap(TypedMapLayout<ID> layout, Object[] values) {
+		this.layout = layout;
+		this.values = values;
+	}
+
+	/**
+	 * Delegate accessor (read-only). Only used for iteration, so it is built lazily.
+	 * 
+	 * @return the immutable map that this typed map delegates to
+	 */
+	@Override
+	protected ImmutableMap<ID, TypedSupplier<Object>> delegate() {
+		ImmutableMap<ID, TypedSupplier<Object>> result = delegate;
+		return (result == null) ? delegate = createDelegate() : result;
+	}
+
+	private ImmutableMap<ID, TypedSupplier<Object>> createDelegate() {
+		ImmutableMap.Builder<ID, TypedSupplier<Object>> builder = ImmutableMap.builder();
+		for (int slot = 0; slot < values.length; slot++) {
+			builder.put(layout.getId(slot), getSlot(slot));
+		}
+		return builder.build();
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return values.length == 0;
+	}
+
+	@Override
+	Object getSlotValue(int slot) {
+		return values[slot];
+	}
+
+	@Override
+	void visitEntries(@Nonnull EntryVisitor<? super ID> visitor) {
+		for (int slot = 0; slot < values.length; slot++) {
+			visitor.visit(layout.getId(slot), layout.getType(slot), values[slot]);
+		}
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		int slot = layout.indexOf(typedKey.getId());
+		return slot >= 0 && AssignabilityCache.isAssignable(typedKey.getType(), layout.getType(slot));
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		int slot = layout.indexOf(keyId);
+		return slot >= 0 && AssignabilityCache.isAssignable(valueType, layout.getType(slot));
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull ID id) {
+		return layout.indexOf(id) >= 0;
+	}
+
+	@Override
+	public <TT> void checkType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException {
+		int slot = layout.indexOf(typedKey.getId());
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+		checkAssignable(typedKey.getType(), layout.getType(slot), typedKey.getId());
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
+		int slot = layout.indexOf(typedKey.getId());
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+		checkAssignable(typedKey.getType(), layout.getType(slot), typedKey.getId());
+		@SuppressWarnings("unchecked")
+		TT value = (TT) values[slot];
+		return value;
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull BoundTypedKey<TT, ? extends ID> boundKey) throws EntryNotFoundException, ClassCastException {
+		if (boundKey.layout == layout) {
+			// type was checked when the key was bound to this map's layout
+			@SuppressWarnings("unchecked")
+			TT value = (TT) values[boundKey.slot];
+			return value;
+		}
+		return get((TypedKey<TT, ? extends ID>) boundKey);
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull Class<TT> valueType, ID keyId) throws EntryNotFoundException, ClassCastException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(keyId, valueType);
+			throw EntryNotFoundException.of("Value does not exist for the id: %s", keyId);
+		}
+		checkAssignable(valueType, layout.getType(slot), keyId);
+		@SuppressWarnings("unchecked")
+		TT value = (TT) values[slot];
+		return value;
+	}
+
+	@Override
+	public <TT> TT getIfPresent(@Nonnull TypedKey<TT, ? extends ID> typedKey) {
+		if (typedKey instanceof BoundTypedKey && ((BoundTypedKey<?, ?>) typedKey).layout == layout) {
+			@SuppressWarnings("unchecked")
+			TT value = (TT) values[((BoundTypedKey<?, ?>) typedKey).slot];
+			return value;
+		}
+		int slot = layout.indexOf(typedKey.getId());
+		if (slot < 0 || !AssignabilityCache.isAssignable(typedKey.getType(), layout.getType(slot))) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		TT value = (TT) values[slot];
+		return value;
+	}
+
+	@Override
+	public <TT> TT getIfPresent(@Nonnull Class<TT> valueType, @Nonnull ID keyId) {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0 || !AssignabilityCache.isAssignable(valueType, layout.getType(slot))) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		TT value = (TT) values[slot];
+		return value;
+	}
+
+	@Override
+	public Object get(@Nonnull ID keyId) throws EntryNotFoundException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(keyId);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		return values[slot];
+	}
+
+	/**
+	 * Creates a supplier for the entry on demand.
+	 */
+	@Override
+	TypedSupplier<?> getSupplier(Object keyId) {
+		int slot = layout.indexOf(keyId);
+		return (slot < 0) ? null : getSlot(slot);
+	}
+
+	/**
+	 * Values are never stored in primitive form, so primitive gets use the allocation-free {@link #get(TypedKey)}.
+	 */
+	@Override
+	TypedSupplier<?> getPrimitiveSupplier(Object keyId) {
+		return null;
+	}
+
+	@Override
+	TypedMapLayout<ID> layout() {
+		return layout;
+	}
+
+	/**
+	 * Creates a supplier for the slot on demand.
+	 */
+	@Override
+	TypedSupplier<Object> getSlot(int slot) {
+		return ImmutableTypedSupplier.of(layout.getType(slot), values[slot]);
+	}
+
+}
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.MutableTypedSupplier;
+import karlkfi.jtyped.PrimitiveTypedSupplier;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * MutableTypedMap that is backed by a {@link ConcurrentHashMap}.
+ * 
+ * Entries created by this map are stored as immutable value suppliers that are replaced with compare-and-set on every
+ * update, so {@link #put}, {@link #setType} and the remove methods are atomic per entry and reads never lock.
+ * Suppliers provided at construction are treated like in {@link SuppliedTypedMap}: {@link MutableTypedSupplier}
+ * and {@link PrimitiveTypedSupplier} values are copied into mutable entries and any other supplier is an immutable
+ * entry.
+ * 
+ * Bulk operations ({@link #putAll}, {@link #clear}) are atomic per entry, not as a whole.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+public final class ConcurrentTypedMap<ID> extends AbstractTypedMap<ID> implements MutableTypedMap<ID> {
+
+	private final ConcurrentMap<ID, TypedSupplier<Object>> delegate;
+
+	private ConcurrentTypedMap(ConcurrentMap<ID, TypedSupplier<Object>> delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Returns a new empty concurrent typed map.
+	 */
+	@Nonnull
+	public static <I> ConcurrentTypedMap<I> of() {
+		return new ConcurrentTypedMap<I>(new ConcurrentHashMap<I, TypedSupplier<Object>>());
+	}
+
+	/**
+	 * Returns a new concurrent typed map containing the given entries.
+	 * 
+	 * @throws NullPointerException if any key or value in {@code m} is null
+	 */
+	@Nonnull
+	public static <I> ConcurrentTypedMap<I> copyOf(@Nonnull Map<? extends I, ? extends TypedSupplier<?>> m) {
+		ConcurrentMap<I, TypedSupplier<Object>> delegate = new ConcurrentHashMap<I, TypedSupplier<Object>>(Math.max(16, m.size() * 2));
+		for (Entry<? extends I, ? extends TypedSupplier<?>> entry : m.entrySet()) {
+			TypedSupplier<?> supplier = Preconditions.checkNotNull(entry.getValue(), "value is null for id=%s", entry.getKey());
+			@SuppressWarnings("unchecked")
+			TypeToken<Object> type = (TypeToken<Object>) supplier.getType();
+			if (supplier instanceof MutableTypedSupplier || supplier instanceof PrimitiveTypedSupplier) {
+				delegate.put(entry.getKey(), new EntryValue(type, supplier.get()));
+			} else {
+				@SuppressWarnings("unchecked")
+				TypedSupplier<Object> typedSupplier = (TypedSupplier<Object>) supplier;
+				delegate.put(entry.getKey(), typedSupplier);
+			}
+		}
+		return new ConcurrentTypedMap<I>(delegate);
+	}
+
+	/**
+	 * Delegate accessor for production AND consumption methods (like getters & setters).
+	 * 
+	 * @return the concurrent map that this typed map delegates to
+	 */
+	@Override
+	protected ConcurrentMap<ID, TypedSupplier<Object>> delegate() {
+		return delegate;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public <TT> void setType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException {
+		@SuppressWarnings("unchecked")
+		TypeToken<Object> type = (TypeToken<Object>) typedKey.getType();
+		TypedSupplier<?> oldValueSupplier = delegate.putIfAbsent(typedKey.getId(), new EntryValue(type, null));
+		if (oldValueSupplier != null) {
+			checkValueType(typedKey.getType(), oldValueSupplier, typedKey.getId());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public <TT> TT put(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		Preconditions.checkNotNull(value, "value is null");
+		ID id = typedKey.getId();
+		while (true) {
+			TypedSupplier<Object> oldValueSupplier = delegate.get(id);
+			if (oldValueSupplier == null) {
+				@SuppressWarnings("unchecked")
+				TypeToken<Object> type = (TypeToken<Object>) typedKey.getType();
+				oldValueSupplier = delegate.putIfAbsent(id, new EntryValue(type, value));
+				if (oldValueSupplier == null) {
+					return null;
+				}
+			}
+			TypedSupplier<TT> typedSupplier = checkValueType(typedKey.getType(), oldValueSupplier, typedKey.getId());
+			if (!(oldValueSupplier instanceof EntryValue)) {
+				throw ImmutableEntryException.of("Entry is immutable for the key: %s", typedKey);
+			}
+			// keep the original entry type, which may be more specific than the key type
+			if (delegate.replace(id, oldValueSupplier, new EntryValue(oldValueSupplier.getType(), value))) {
+				return typedSupplier.get();
+			}
+		}
+	}
+
+	/**
+	 * Entries are replaced atomically as immutable values, so the value is boxed.
+	 */
+	@Override
+	public void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Integer.valueOf(value));
+	}
+
+	/**
+	 * Entries are replaced atomically as immutable values, so the value is boxed.
+	 */
+	@Override
+	public void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Long.valueOf(value));
+	}
+
+	/**
+	 * Entries are replaced atomically as immutable values, so the value is boxed.
+	 */
+	@Override
+	public void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Double.valueOf(value));
+	}
+
+	/**
+	 * Entries are replaced atomically as immutable values, so the value is boxed.
+	 */
+	@Override
+	public void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Boolean.valueOf(value));
+	}
+
+	/**
+	 * Puts every entry of <code>m</code> that has a value; entries without a value are skipped. Every entry is checked
+	 * against the existing entries before any is updated, so a type mismatch or immutable entry leaves this map
+	 * unchanged, unless a concurrent update changes an entry after it is checked. Each entry is updated atomically, but
+	 * the map as a whole is not.
+	 */
+	@Override
+	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException, ImmutableEntryException {
+		List<Entry<TypedKey<Object, ? extends ID>, Object>> entries = Lists.newArrayListWithCapacity(m.size());
+		for (Entry<? extends TypedKey<Object, ? extends ID>, Object> entry : m.entries()) {
+			Object value = entry.getValue();
+			if (value == null) {
+				continue;
+			}
+			TypedKey<Object, ? extends ID> typedKey = entry.getKey();
+			TypedSupplier<Object> oldValueSupplier = delegate.get(typedKey.getId());
+			if (oldValueSupplier != null) {
+				checkValueType(typedKey.getType(), oldValueSupplier, typedKey.getId());
+				if (!(oldValueSupplier instanceof EntryValue)) {
+					throw ImmutableEntryException.of("Entry is immutable for the key: %s", typedKey);
+				}
+			}
+			entries.add(Maps.<TypedKey<Object, ? extends ID>, Object>immutableEntry(typedKey, value));
+		}
+		for (Entry<TypedKey<Object, ? extends ID>, Object> entry : entries) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public <TT> TT remove(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		return removeValue(typedKey.getId(), typedKey.getType(), null, typedKey);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public <TT> TT remove(@Nonnull Class<TT> valueType, @Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		return removeValue(keyId, null, valueType, keyId);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public Object remove(@Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		return removeValue(keyId, null, null, keyId);
+	}
+
+	/**
+	 * Atomically nulls out the value of an entry, preserving its type.
+	 * 
+	 * @param type the type to check the existing value against, or null to skip the check
+	 * @param rawType the raw class to check the existing value against, or null to skip the check
+	 * @param key the key or key ID, for error messages
+	 */
+	@Nullable
+	private <TT> TT removeValue(ID keyId, @Nullable TypeToken<TT> type, @Nullable Class<TT> rawType, Object key) throws EntryNotFoundException, ClassCastException, ImmutableEntryException {
+		while (true) {
+			TypedSupplier<Object> oldValueSupplier = delegate.get(keyId);
+			if (oldValueSupplier == null) {
+				if (rawType != null) {
+					TypedMapEvents.entryNotFound(keyId, rawType);
+				} else if (type != null) {
+					TypedMapEvents.entryNotFound(keyId, type);
+				} else {
+					TypedMapEvents.entryNotFound(keyId);
+				}
+				throw EntryNotFoundException.of("Value does not exist for the key: %s", key);
+			}
+			if (type != null) {
+				checkValueType(type, oldValueSupplier, keyId);
+			} else if (rawType != null) {
+				checkAssignable(rawType, oldValueSupplier.getType(), keyId);
+			}
+			if (!(oldValueSupplier instanceof EntryValue)) {
+				throw ImmutableEntryException.of("Entry is immutable for the key: %s", key);
+			}
+			if (delegate.replace(keyId, oldValueSupplier, new EntryValue(oldValueSupplier.getType(), null))) {
+				@SuppressWarnings("unchecked")
+				TT oldValue = (TT) oldValueSupplier.get();
+				return oldValue;
+			}
+		}
+	}
+
+	/**
+	 * Nulls out the value of every entry, preserving types. Each entry is updated atomically, but the map as a whole is
+	 * not.
+	 * 
+	 * @throws ImmutableEntryException if the map contains an immutable entry; no entries are modified in that case
+	 *             unless another thread adds the immutable entry concurrently
+	 */
+	@Override
+	public void clear() {
+		for (Entry<ID, TypedSupplier<Object>> entry : delegate.entrySet()) {
+			if (!(entry.getValue() instanceof EntryValue)) {
+				throw ImmutableEntryException.of("Entry is immutable for the key ID: %s", entry.getKey());
+			}
+		}
+		for (ID keyId : delegate.keySet()) {
+			removeValue(keyId, null, null, keyId);
+		}
+	}
+
+	/**
+	 * Value of a mutable entry owned by this map. Immutable, so it can be swapped with compare-and-set.
+	 */
+	@Immutable
+	static final class EntryValue implements TypedSupplier<Object> {
+
+		private final TypeToken<Object> type;
+		private final Object value;
+
+		EntryValue(TypeToken<Object> type, @Nullable Object value) {
+			this.type = type;
+			this.value = value;
+		}
+
+		@Nonnull
+		public TypeToken<Object> getType() {
+			return type;
+		}
+
+		public Object get() {
+			return value;
+		}
+
+	}
+
+}
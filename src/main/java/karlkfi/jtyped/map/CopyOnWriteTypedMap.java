@@ -0,0 +1,366 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * MutableTypedMap for read-mostly data, like shared configuration, that holds a volatile {@link ImmutableTypedMap}
+ * snapshot and replaces it on every write.
+ * 
+ * Reads are wait-free: each read dereferences the current snapshot once and never locks. Writes are serialized and copy
+ * the whole map, so several changes should be batched into a single copy with {@link #update(Mutation)}. Every write is
+ * all or nothing: readers see either the previous or the next snapshot.
+ * 
+ * Snapshots cannot hold entries without values, so removing a value removes its entry, {@link #clear()} empties the
+ * map, and {@link #setType(TypedKey)} only checks the type of an existing entry.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+public final class CopyOnWriteTypedMap<ID> implements MutableTypedMap<ID> {
+
+	/**
+	 * A batch of changes applied to a private working copy of the map, which is then published as a single snapshot.
+	 * 
+	 * @param <ID> the key ID type
+	 */
+	public interface Mutation<ID> {
+
+		/**
+		 * Applies the changes. If this throws, no changes are published.
+		 * 
+		 * @param map the working copy, which must not be used after this returns
+		 */
+		void apply(@Nonnull MutableTypedMap<ID> map);
+
+	}
+
+	private final Object writeLock = new Object();
+
+	private volatile ImmutableTypedMap<ID> snapshot;
+
+	private CopyOnWriteTypedMap(ImmutableTypedMap<ID> snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Returns a new empty copy-on-write typed map.
+	 */
+	@Nonnull
+	public static <I> CopyOnWriteTypedMap<I> of() {
+		return new CopyOnWriteTypedMap<I>(ImmutableTypedMap.<I>of());
+	}
+
+	/**
+	 * Returns a new copy-on-write typed map whose first snapshot is the given map. The map is not copied.
+	 */
+	@Nonnull
+	public static <I> CopyOnWriteTypedMap<I> of(@Nonnull ImmutableTypedMap<I> initial) {
+		return new CopyOnWriteTypedMap<I>(Preconditions.checkNotNull(initial, "initial is null"));
+	}
+
+	/**
+	 * Gets the current contents of this map without copying. The snapshot never changes; later writes to this map
+	 * replace it.
+	 * 
+	 * @return the current snapshot
+	 */
+	@Nonnull
+	public ImmutableTypedMap<ID> snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Applies a batch of changes with a single copy, then publishes them as one snapshot.
+	 * 
+	 * @param mutation the changes to apply
+	 */
+	public void update(@Nonnull Mutation<ID> mutation) {
+		synchronized (writeLock) {
+			SuppliedTypedMap<ID> working = edit();
+			mutation.apply(working);
+			publish(working);
+		}
+	}
+
+	/**
+	 * @return a mutable working copy of the current snapshot
+	 */
+	private SuppliedTypedMap<ID> edit() {
+		SuppliedTypedMap<ID> working = SuppliedTypedMap.of();
+		working.putAll(snapshot);
+		return working;
+	}
+
+	/**
+	 * Replaces the snapshot with the entries of the working copy that have values.
+	 */
+	private void publish(SuppliedTypedMap<ID> working) {
+		final List<Object> ids = Lists.newArrayListWithCapacity(working.size());
+		final List<TypeToken<?>> types = Lists.newArrayListWithCapacity(working.size());
+		final List<Object> values = Lists.newArrayListWithCapacity(working.size());
+		working.visitEntries(new AbstractTypedMap.EntryVisitor<ID>() {
+			public void visit(ID id, TypeToken<Object> type, Object value) {
+				if (value != null) {
+					ids.add(id);
+					types.add(type);
+					values.add(value);
+				}
+			}
+		});
+		if (ids.isEmpty()) {
+			snapshot = ImmutableTypedMap.of();
+		} else {
+			snapshot = new CompactImmutableTypedMap<ID>(ids.toArray(), types.toArray(new TypeToken<?>[ids.size()]), values.toArray());
+		}
+	}
+
+	public int size() {
+		return snapshot.size();
+	}
+
+	public boolean isEmpty() {
+		return snapshot.isEmpty();
+	}
+
+	public <T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		return snapshot.contains(typedKey);
+	}
+
+	public <T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		return snapshot.contains(valueType, keyId);
+	}
+
+	public <T> boolean contains(@Nonnull ID keyId) {
+		return snapshot.contains(keyId);
+	}
+
+	public <TT> void checkType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException {
+		snapshot.checkType(typedKey);
+	}
+
+	@Nonnull
+	public <T> T get(@Nonnull TypedKey<T, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
+		return snapshot.get(typedKey);
+	}
+
+	@Nonnull
+	public <T> T get(@Nonnull BoundTypedKey<T, ? extends ID> boundKey) throws EntryNotFoundException, ClassCastException {
+		return snapshot.get(boundKey);
+	}
+
+	@Nonnull
+	public <T> T get(@Nonnull Class<T> valueType, @Nonnull ID keyId) throws EntryNotFoundException, ClassCastException {
+		return snapshot.get(valueType, keyId);
+	}
+
+	@Nonnull
+	public Object get(@Nonnull ID keyId) throws EntryNotFoundException {
+		return snapshot.get(keyId);
+	}
+
+	@Nullable
+	public <T> T getIfPresent(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		return snapshot.getIfPresent(typedKey);
+	}
+
+	@Nullable
+	public <T> T getIfPresent(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		return snapshot.getIfPresent(valueType, keyId);
+	}
+
+	@Nullable
+	public <T> T getOrDefault(@Nonnull TypedKey<T, ? extends ID> typedKey, @Nullable T defaultValue) {
+		return snapshot.getOrDefault(typedKey, defaultValue);
+	}
+
+	@Nonnull
+	public <T> Optional<T> find(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		return snapshot.find(typedKey);
+	}
+
+	@Nonnull
+	public Object[] getAll(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException {
+		return snapshot.getAll(keys);
+	}
+
+	public void getAll(@Nonnull TypedKeyGroup<? extends ID> keys, @Nonnull Object[] result) throws IllegalArgumentException, EntryNotFoundException, ClassCastException {
+		snapshot.getAll(keys, result);
+	}
+
+	public boolean containsAll(@Nonnull TypedKeyGroup<? extends ID> keys) {
+		return snapshot.containsAll(keys);
+	}
+
+	public void checkTypes(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException {
+		snapshot.checkTypes(keys);
+	}
+
+	public int getInt(@Nonnull IntTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		return snapshot.getInt(key);
+	}
+
+	public long getLong(@Nonnull LongTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		return snapshot.getLong(key);
+	}
+
+	public double getDouble(@Nonnull DoubleTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		return snapshot.getDouble(key);
+	}
+
+	public boolean getBoolean(@Nonnull BooleanTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		return snapshot.getBoolean(key);
+	}
+
+	@Nonnull
+	public Set<TypedKey<Object, ID>> keys() {
+		return snapshot.keys();
+	}
+
+	@Nonnull
+	public Set<Entry<TypedKey<Object, ID>, Object>> entries() {
+		return snapshot.entries();
+	}
+
+	/**
+	 * Checks the type of an existing entry. Does nothing for a missing entry, since snapshots cannot hold entries
+	 * without values.
+	 */
+	public <TT> void setType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException {
+		ImmutableTypedMap<ID> current = snapshot;
+		if (current.contains(typedKey.getId())) {
+			current.checkType(typedKey);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Nullable
+	public <TT> TT put(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		synchronized (writeLock) {
+			TT oldValue = snapshot.getIfPresent(typedKey);
+			SuppliedTypedMap<ID> working = edit();
+			working.put(typedKey, value);
+			publish(working);
+			return oldValue;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Integer.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	public void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Long.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	public void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Double.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	public void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Boolean.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	@Nullable
+	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException {
+		synchronized (writeLock) {
+			SuppliedTypedMap<ID> working = edit();
+			working.putAll(m);
+			publish(working);
+		}
+	}
+
+	/**
+	 * Removes the entry of the specified key.
+	 */
+	@Nullable
+	public <TT> TT remove(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		synchronized (writeLock) {
+			SuppliedTypedMap<ID> working = edit();
+			TT oldValue = working.remove(typedKey);
+			publish(working);
+			return oldValue;
+		}
+	}
+
+	/**
+	 * Removes the entry of the specified key ID.
+	 */
+	@Nullable
+	public <TT> TT remove(@Nonnull Class<TT> valueType, @Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		synchronized (writeLock) {
+			SuppliedTypedMap<ID> working = edit();
+			TT oldValue = working.remove(valueType, keyId);
+			publish(working);
+			return oldValue;
+		}
+	}
+
+	/**
+	 * Removes the entry of the specified key ID.
+	 */
+	@Nullable
+	public Object remove(@Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		synchronized (writeLock) {
+			SuppliedTypedMap<ID> working = edit();
+			Object oldValue = working.remove(keyId);
+			publish(working);
+			return oldValue;
+		}
+	}
+
+	/**
+	 * Removes all entries. Unlike other mutable maps, value types are not preserved.
+	 */
+	public void clear() {
+		synchronized (writeLock) {
+			snapshot = ImmutableTypedMap.of();
+		}
+	}
+
+	@Override
+	public boolean equals(@Nullable Object object) {
+		return TypedMaps.equalsImpl(this, object);
+	}
+
+	@Override
+	public int hashCode() {
+		return snapshot.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return snapshot.toString();
+	}
+
+}
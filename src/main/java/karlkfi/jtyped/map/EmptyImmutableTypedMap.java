@@ -58,7 +58,8 @@ final class EmptyImmutableTypedMap<ID> extends ImmutableTypedMap<ID> {
 
 	@Override
 	public <T> T get(TypedKey<T, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
-		throw new EntryNotFoundException("Value does not exist for the key: " + typedKey);
+		TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+		throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
 	}
 
 	@Override
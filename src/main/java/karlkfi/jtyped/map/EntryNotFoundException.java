@@ -15,8 +15,15 @@
  ******************************************************************************/
 package karlkfi.jtyped.map;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 /**
  * Exception indicating that no entry was found matching the specified query.
+ * 
+ * Exceptions created by {@link #of(String, Object...)} format their message only when it is requested, and skip
+ * filling in the stack trace if the <code>karlkfi.jtyped.stacklessExceptions</code> system property is true. Callers
+ * that probe for optional entries should prefer the non-throwing lookups, like {@link TypedMap#getIfPresent(TypedKey)}.
  */
 public class EntryNotFoundException extends RuntimeException {
 
@@ -25,20 +32,80 @@ public class EntryNotFoundException extends RuntimeException {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	@Nullable
+	private final LazyMessage lazyMessage;
+
 	public EntryNotFoundException() {
 		super();
+		this.lazyMessage = null;
 	}
 
 	public EntryNotFoundException(String message, Throwable cause) {
 		super(message, cause);
+		this.lazyMessage = null;
 	}
 
 	public EntryNotFoundException(String message) {
 		super(message);
+		this.lazyMessage = null;
 	}
 
 	public EntryNotFoundException(Throwable cause) {
 		super(cause);
+		this.lazyMessage = null;
+	}
+
+	private EntryNotFoundException(LazyMessage lazyMessage) {
+		super();
+		this.lazyMessage = lazyMessage;
+	}
+
+	/**
+	 * Creates an exception whose message is formatted only when it is requested. The stack trace is filled in unless
+	 * the <code>karlkfi.jtyped.stacklessExceptions</code> system property is true.
+	 * 
+	 * @param template the message template, with <code>%s</code> placeholders
+	 * @param args the arguments to substitute into the template
+	 * @return a new exception
+	 */
+	@Nonnull
+	public static EntryNotFoundException of(@Nonnull String template, @Nullable Object... args) {
+		LazyMessage lazyMessage = new LazyMessage(template, args);
+		return LazyMessage.STACKLESS ? new Stackless(lazyMessage) : new EntryNotFoundException(lazyMessage);
+	}
+
+	/**
+	 * Creates an exception without a stack trace whose message is formatted only when it is requested.
+	 * 
+	 * @param template the message template, with <code>%s</code> placeholders
+	 * @param args the arguments to substitute into the template
+	 * @return a new exception
+	 */
+	@Nonnull
+	public static EntryNotFoundException stackless(@Nonnull String template, @Nullable Object... args) {
+		return new Stackless(new LazyMessage(template, args));
+	}
+
+	@Override
+	public String getMessage() {
+		return (lazyMessage == null) ? super.getMessage() : lazyMessage.get();
+	}
+
+	/**
+	 * Lazily formatted exception that does not fill in its stack trace.
+	 */
+	private static final class Stackless extends EntryNotFoundException {
+
+		private static final long serialVersionUID = 1L;
+
+		Stackless(LazyMessage lazyMessage) {
+			super(lazyMessage);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
 	}
 
 }
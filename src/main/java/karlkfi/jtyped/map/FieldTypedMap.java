@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Base class of the typed maps generated for {@link TypedMapFacade} interfaces, which store each entry in its own
+ * field.
+ * 
+ * Every key of the layout always has an entry; removing a value resets the field to null, or to the default value of
+ * a primitive field. Lookups with the generated key constants are checked by identity, so they skip the
+ * {@link com.google.common.reflect.TypeToken} type check. Other keys are checked like in any other typed map.
+ * 
+ * @param <ID> the key ID type
+ */
+@NotThreadSafe
+public abstract class FieldTypedMap<ID> extends AbstractTypedMap<ID> implements MutableTypedMap<ID> {
+
+	private final TypedMapLayout<ID> layout;
+	private final List<? extends TypedKey<?, ID>> keys;
+
+	/**
+	 * @param layout the layout, with one slot per field
+	 * @param keys the key constants, in slot order
+	 * @throws IllegalArgumentException if the keys do not match the layout
+	 */
+	protected FieldTypedMap(@Nonnull TypedMapLayout<ID> layout, @Nonnull ImmutableList<? extends TypedKey<?, ID>> keys) {
+		Preconditions.checkArgument(layout.size() == keys.size(), "expected %s keys but found %s", layout.size(), keys.size());
+		for (int slot = 0; slot < keys.size(); slot++) {
+			Preconditions.checkArgument(layout.getId(slot).equals(keys.get(slot).getId()), "key does not match the layout slot %s", slot);
+		}
+		this.layout = layout;
+		this.keys = keys;
+	}
+
+	/**
+	 * Reads a field.
+	 * 
+	 * @param slot the layout slot of the field
+	 * @return the boxed field value
+	 */
+	@Nullable
+	protected abstract Object getField(int slot);
+
+	/**
+	 * Writes a field. The value has already been type checked.
+	 * 
+	 * @param slot the layout slot of the field
+	 * @param value the boxed field value, or null to reset the field
+	 */
+	protected abstract void setField(int slot, @Nullable Object value);
+
+	/**
+	 * Delegate accessor (read-only). Only used for iteration, so it is built on demand as a snapshot.
+	 * 
+	 * @return a new map of the current entries
+	 */
+	@Override
+	protected Map<ID, TypedSupplier<Object>> delegate() {
+		Map<ID, TypedSupplier<Object>> delegate = Maps.newLinkedHashMap();
+		for (int slot = 0; slot < keys.size(); slot++) {
+			delegate.put(layout.getId(slot), ImmutableTypedSupplier.of(layout.getType(slot), getField(slot)));
+		}
+		return delegate;
+	}
+
+	@Override
+	@Nonnull
+	Set<Entry<ID, TypedSupplier<Object>>> entrySuppliers() {
+		return createEntrySupplierSet();
+	}
+
+	@Override
+	public int size() {
+		return keys.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return keys.isEmpty();
+	}
+
+	@Override
+	TypedMapLayout<ID> layout() {
+		return layout;
+	}
+
+	@Override
+	@Nullable
+	TypedSupplier<?> getSupplier(Object keyId) {
+		int slot = layout.indexOf(keyId);
+		return (slot < 0) ? null : getSlot(slot);
+	}
+
+	/**
+	 * Fields are stored unboxed or as plain references, so primitive gets use the allocation-free
+	 * {@link #get(TypedKey)}.
+	 */
+	@Override
+	@Nullable
+	TypedSupplier<?> getPrimitiveSupplier(Object keyId) {
+		return null;
+	}
+
+	/**
+	 * Creates a supplier for the slot on demand.
+	 */
+	@Override
+	TypedSupplier<?> getSlot(int slot) {
+		return ImmutableTypedSupplier.of(layout.getType(slot), getField(slot));
+	}
+
+	/**
+	 * Resolves and type checks the slot of a key.
+	 * 
+	 * @return the slot index, or -1 if the key ID is not part of the layout
+	 * @throws ClassCastException if the key type is not assignable from the field type
+	 */
+	private int checkedSlotOf(TypedKey<?, ?> typedKey) throws ClassCastException {
+		if (typedKey instanceof BoundTypedKey && ((BoundTypedKey<?, ?>) typedKey).layout == layout) {
+			return ((BoundTypedKey<?, ?>) typedKey).slot;
+		}
+		int slot = layout.indexOf(typedKey.getId());
+		if (slot >= 0 && typedKey != keys.get(slot)) {
+			checkAssignable(typedKey.getType(), layout.getType(slot), typedKey.getId());
+		}
+		return slot;
+	}
+
+	/**
+	 * Resolves and type checks the slot of a key ID, without creating a key.
+	 * 
+	 * @return the slot index, or -1 if the key ID is not part of the layout
+	 * @throws ClassCastException if the value type is not assignable from the field type
+	 */
+	private int checkedSlotOf(Class<?> valueType, Object keyId) throws ClassCastException {
+		int slot = layout.indexOf(keyId);
+		if (slot >= 0) {
+			checkAssignable(valueType, layout.getType(slot), keyId);
+		}
+		return slot;
+	}
+
+	@Override
+	Object getSlotValue(int slot) {
+		return getField(slot);
+	}
+
+	@Override
+	void visitEntries(@Nonnull EntryVisitor<? super ID> visitor) {
+		for (int slot = 0; slot < keys.size(); slot++) {
+			visitor.visit(layout.getId(slot), layout.getType(slot), getField(slot));
+		}
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		int slot = layout.indexOf(typedKey.getId());
+		return slot >= 0 && (typedKey == keys.get(slot) || AssignabilityCache.isAssignable(typedKey.getType(), layout.getType(slot)));
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		int slot = layout.indexOf(keyId);
+		return slot >= 0 && AssignabilityCache.isAssignable(valueType, layout.getType(slot));
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull ID id) {
+		return layout.indexOf(id) >= 0;
+	}
+
+	@Override
+	public <TT> void checkType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException {
+		if (checkedSlotOf(typedKey) < 0) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
+		int slot = checkedSlotOf(typedKey);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+		@SuppressWarnings("unchecked")
+		TT value = (TT) getField(slot);
+		return value;
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull BoundTypedKey<TT, ? extends ID> boundKey) throws EntryNotFoundException, ClassCastException {
+		return get((TypedKey<TT, ? extends ID>) boundKey);
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull Class<TT> valueType, ID keyId) throws EntryNotFoundException, ClassCastException {
+		int slot = checkedSlotOf(valueType, keyId);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(keyId, valueType);
+			throw EntryNotFoundException.of("Value does not exist for the id: %s", keyId);
+		}
+		@SuppressWarnings("unchecked")
+		TT value = (TT) getField(slot);
+		return value;
+	}
+
+	@Override
+	public <TT> TT getIfPresent(@Nonnull TypedKey<TT, ? extends ID> typedKey) {
+		int slot;
+		if (typedKey instanceof BoundTypedKey && ((BoundTypedKey<?, ?>) typedKey).layout == layout) {
+			slot = ((BoundTypedKey<?, ?>) typedKey).slot;
+		} else {
+			slot = layout.indexOf(typedKey.getId());
+			if (slot < 0 || (typedKey != keys.get(slot) && !AssignabilityCache.isAssignable(typedKey.getType(), layout.getType(slot)))) {
+				return null;
+			}
+		}
+		@SuppressWarnings("unchecked")
+		TT value = (TT) getField(slot);
+		return value;
+	}
+
+	@Override
+	public <TT> TT getIfPresent(@Nonnull Class<TT> valueType, @Nonnull ID keyId) {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0 || !AssignabilityCache.isAssignable(valueType, layout.getType(slot))) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		TT value = (TT) getField(slot);
+		return value;
+	}
+
+	@Override
+	public Object get(@Nonnull ID keyId) throws EntryNotFoundException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(keyId);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		return getField(slot);
+	}
+
+	/**
+	 * Checks the type of a field. Fields always have a type, so this never adds an entry.
+	 * 
+	 * @throws IllegalArgumentException if the key ID is not one of the fields
+	 */
+	public <TT> void setType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException {
+		Preconditions.checkArgument(checkedSlotOf(typedKey) >= 0, "Key is not a field of this map: %s", typedKey);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the key ID is not one of the fields
+	 */
+	@Nullable
+	public <TT> TT put(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		Preconditions.checkNotNull(value, "value is null");
+		int slot = checkedSlotOf(typedKey);
+		Preconditions.checkArgument(slot >= 0, "Key is not a field of this map: %s", typedKey);
+		SchemaTypedMap.checkInstance(layout, slot, value);
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) getField(slot);
+		setField(slot, value);
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	public void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Integer.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	public void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Long.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	public void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Double.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	public void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Boolean.valueOf(value));
+	}
+
+	/**
+	 * Puts every entry of <code>m</code> that has a value; entries without a value are skipped. Every entry is checked
+	 * before any field is written, so a failure leaves this map unchanged.
+	 * 
+	 * @throws IllegalArgumentException if a key ID is not one of the fields
+	 */
+	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException {
+		List<Entry<Integer, Object>> updates = Lists.newArrayList();
+		for (Entry<? extends TypedKey<Object, ? extends ID>, Object> entry : m.entries()) {
+			Object value = entry.getValue();
+			if (value == null) {
+				continue;
+			}
+			TypedKey<Object, ? extends ID> typedKey = entry.getKey();
+			int slot = checkedSlotOf(typedKey);
+			Preconditions.checkArgument(slot >= 0, "Key is not a field of this map: %s", typedKey);
+			SchemaTypedMap.checkInstance(layout, slot, value);
+			updates.add(Maps.immutableEntry(Integer.valueOf(slot), value));
+		}
+		for (Entry<Integer, Object> update : updates) {
+			setField(update.getKey().intValue(), update.getValue());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Nullable
+	public <TT> TT remove(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		int slot = checkedSlotOf(typedKey);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) getField(slot);
+		setField(slot, null);
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	@Nullable
+	public <TT> TT remove(@Nonnull Class<TT> valueType, @Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		int slot = checkedSlotOf(valueType, keyId);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(keyId, valueType);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) getField(slot);
+		setField(slot, null);
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	@Nullable
+	public Object remove(@Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0) {
+			TypedMapEvents.entryNotFound(keyId);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		Object oldValue = getField(slot);
+		setField(slot, null);
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	public void clear() {
+		for (int slot = 0; slot < keys.size(); slot++) {
+			setField(slot, null);
+		}
+	}
+
+}
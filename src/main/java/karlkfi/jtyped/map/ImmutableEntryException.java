@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Exception indicating that an entry cannot be modified, because its value supplier is immutable.
+ * 
+ * Exceptions created by {@link #of(String, Object...)} format their message only when it is requested, and skip
+ * filling in the stack trace if the <code>karlkfi.jtyped.stacklessExceptions</code> system property is true.
+ */
+public class ImmutableEntryException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	@Nullable
+	private final LazyMessage lazyMessage;
+
+	public ImmutableEntryException() {
+		super();
+		this.lazyMessage = null;
+	}
+
+	public ImmutableEntryException(String message, Throwable cause) {
+		super(message, cause);
+		this.lazyMessage = null;
+	}
+
+	public ImmutableEntryException(String message) {
+		super(message);
+		this.lazyMessage = null;
+	}
+
+	public ImmutableEntryException(Throwable cause) {
+		super(cause);
+		this.lazyMessage = null;
+	}
+
+	private ImmutableEntryException(LazyMessage lazyMessage) {
+		super();
+		this.lazyMessage = lazyMessage;
+	}
+
+	/**
+	 * Creates an exception whose message is formatted only when it is requested. The stack trace is filled in unless
+	 * the <code>karlkfi.jtyped.stacklessExceptions</code> system property is true.
+	 * 
+	 * @param template the message template, with <code>%s</code> placeholders
+	 * @param args the arguments to substitute into the template
+	 * @return a new exception
+	 */
+	@Nonnull
+	public static ImmutableEntryException of(@Nonnull String template, @Nullable Object... args) {
+		LazyMessage lazyMessage = new LazyMessage(template, args);
+		return LazyMessage.STACKLESS ? new Stackless(lazyMessage) : new ImmutableEntryException(lazyMessage);
+	}
+
+	/**
+	 * Creates an exception without a stack trace whose message is formatted only when it is requested.
+	 * 
+	 * @param template the message template, with <code>%s</code> placeholders
+	 * @param args the arguments to substitute into the template
+	 * @return a new exception
+	 */
+	@Nonnull
+	public static ImmutableEntryException stackless(@Nonnull String template, @Nullable Object... args) {
+		return new Stackless(new LazyMessage(template, args));
+	}
+
+	@Override
+	public String getMessage() {
+		return (lazyMessage == null) ? super.getMessage() : lazyMessage.get();
+	}
+
+	/**
+	 * Lazily formatted exception that does not fill in its stack trace.
+	 */
+	private static final class Stackless extends ImmutableEntryException {
+
+		private static final long serialVersionUID = 1L;
+
+		Stackless(LazyMessage lazyMessage) {
+			super(lazyMessage);
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+}
@@ -15,8 +15,11 @@
  ******************************************************************************/
 package karlkfi.jtyped.map;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
+import karlkfi.jtyped.TypeTokens;
+
 import com.google.common.base.Preconditions;
 import com.google.common.reflect.TypeToken;
 
@@ -36,7 +39,7 @@ public final class ImmutableTypedKey<T, ID> implements TypedKey<T, ID> {
 	}
 	
 	public static <TT, I> ImmutableTypedKey<TT, I> of(Class<TT> type, I id) {
-		return new ImmutableTypedKey<TT, I>(TypeToken.of(type), id);
+		return new ImmutableTypedKey<TT, I>(TypeTokens.of(type), id);
 	}
 
 	public TypeToken<T> getType() {
@@ -47,4 +50,14 @@ public final class ImmutableTypedKey<T, ID> implements TypedKey<T, ID> {
 		return id;
 	}
 
+	@Override
+	public boolean equals(@Nullable Object object) {
+		return TypedMaps.keyEqualsImpl(this, object);
+	}
+
+	@Override
+	public int hashCode() {
+		return TypedMaps.keyHashCode(id, type);
+	}
+
 }
@@ -16,6 +16,7 @@
 package karlkfi.jtyped.map;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -29,6 +30,8 @@ import karlkfi.jtyped.TypedSupplier;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
 
 /**
  * Immutable TypedMap that is backed by an {@link ImmutableMap}.
@@ -62,8 +65,11 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 	public static <I, T1> ImmutableTypedMap<I> of(
 			@Nonnull TypedKey<T1, I> k1, @Nonnull T1 v1) {
 		Preconditions.checkNotNull(k1, "k1 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				k1.getId(), ImmutableTypedSupplier.nonnull(k1.getType(), v1)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { k1.getId() },
+				new TypeToken<?>[] { k1.getType() },
+				new Object[] {
+					Preconditions.checkNotNull(v1, "v1 is null") });
 	}
 
 	/**
@@ -76,9 +82,12 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 			@Nonnull TypedKey<T2, I> k2, @Nonnull T2 v2) {
 		Preconditions.checkNotNull(k1, "k1 is null");
 		Preconditions.checkNotNull(k2, "k2 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				k1.getId(), ImmutableTypedSupplier.nonnull(k1.getType(), v1),
-				k2.getId(), ImmutableTypedSupplier.nonnull(k2.getType(), v2)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { k1.getId(), k2.getId() },
+				new TypeToken<?>[] { k1.getType(), k2.getType() },
+				new Object[] {
+					Preconditions.checkNotNull(v1, "v1 is null"),
+					Preconditions.checkNotNull(v2, "v2 is null") });
 	}
 
 	/**
@@ -93,10 +102,13 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		Preconditions.checkNotNull(k1, "k1 is null");
 		Preconditions.checkNotNull(k2, "k2 is null");
 		Preconditions.checkNotNull(k3, "k3 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				k1.getId(), ImmutableTypedSupplier.nonnull(k1.getType(), v1),
-				k2.getId(), ImmutableTypedSupplier.nonnull(k2.getType(), v2),
-				k3.getId(), ImmutableTypedSupplier.nonnull(k3.getType(), v3)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { k1.getId(), k2.getId(), k3.getId() },
+				new TypeToken<?>[] { k1.getType(), k2.getType(), k3.getType() },
+				new Object[] {
+					Preconditions.checkNotNull(v1, "v1 is null"),
+					Preconditions.checkNotNull(v2, "v2 is null"),
+					Preconditions.checkNotNull(v3, "v3 is null") });
 	}
 
 	/**
@@ -113,11 +125,14 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		Preconditions.checkNotNull(k2, "k2 is null");
 		Preconditions.checkNotNull(k3, "k3 is null");
 		Preconditions.checkNotNull(k4, "k4 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				k1.getId(), ImmutableTypedSupplier.nonnull(k1.getType(), v1),
-				k2.getId(), ImmutableTypedSupplier.nonnull(k2.getType(), v2),
-				k3.getId(), ImmutableTypedSupplier.nonnull(k3.getType(), v3),
-				k4.getId(), ImmutableTypedSupplier.nonnull(k4.getType(), v4)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { k1.getId(), k2.getId(), k3.getId(), k4.getId() },
+				new TypeToken<?>[] { k1.getType(), k2.getType(), k3.getType(), k4.getType() },
+				new Object[] {
+					Preconditions.checkNotNull(v1, "v1 is null"),
+					Preconditions.checkNotNull(v2, "v2 is null"),
+					Preconditions.checkNotNull(v3, "v3 is null"),
+					Preconditions.checkNotNull(v4, "v4 is null") });
 	}
 
 	/**
@@ -136,12 +151,15 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		Preconditions.checkNotNull(k3, "k3 is null");
 		Preconditions.checkNotNull(k4, "k4 is null");
 		Preconditions.checkNotNull(k5, "k5 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				k1.getId(), ImmutableTypedSupplier.nonnull(k1.getType(), v1),
-				k2.getId(), ImmutableTypedSupplier.nonnull(k2.getType(), v2),
-				k3.getId(), ImmutableTypedSupplier.nonnull(k3.getType(), v3),
-				k4.getId(), ImmutableTypedSupplier.nonnull(k4.getType(), v4),
-				k5.getId(), ImmutableTypedSupplier.nonnull(k5.getType(), v5)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { k1.getId(), k2.getId(), k3.getId(), k4.getId(), k5.getId() },
+				new TypeToken<?>[] { k1.getType(), k2.getType(), k3.getType(), k4.getType(), k5.getType() },
+				new Object[] {
+					Preconditions.checkNotNull(v1, "v1 is null"),
+					Preconditions.checkNotNull(v2, "v2 is null"),
+					Preconditions.checkNotNull(v3, "v3 is null"),
+					Preconditions.checkNotNull(v4, "v4 is null"),
+					Preconditions.checkNotNull(v5, "v5 is null") });
 	}
 
 	// looking for of() with > 5 entries? Use the builder instead.
@@ -154,8 +172,10 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 	public static <I> ImmutableTypedMap<I> ofRaw(
 			@Nonnull I id1, @Nonnull Object v1) {
 		Preconditions.checkNotNull(id1, "id1 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				id1, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { id1 },
+				new TypeToken<?>[] { TypeTokens.raw(v1) },
+				new Object[] { v1 });
 	}
 
 	/**
@@ -168,9 +188,10 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 			@Nonnull I id2, @Nonnull Object v2) {
 		Preconditions.checkNotNull(id1, "id1 is null");
 		Preconditions.checkNotNull(id2, "id2 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				id1, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1),
-				id2, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { id1, id2 },
+				new TypeToken<?>[] { TypeTokens.raw(v1), TypeTokens.raw(v2) },
+				new Object[] { v1, v2 });
 	}
 
 	/**
@@ -185,10 +206,10 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		Preconditions.checkNotNull(id1, "id1 is null");
 		Preconditions.checkNotNull(id2, "id2 is null");
 		Preconditions.checkNotNull(id3, "id3 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				id1, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1),
-				id2, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2),
-				id3, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v3), v3)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { id1, id2, id3 },
+				new TypeToken<?>[] { TypeTokens.raw(v1), TypeTokens.raw(v2), TypeTokens.raw(v3) },
+				new Object[] { v1, v2, v3 });
 	}
 
 	/**
@@ -205,11 +226,10 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		Preconditions.checkNotNull(id2, "id2 is null");
 		Preconditions.checkNotNull(id3, "id3 is null");
 		Preconditions.checkNotNull(id4, "id4 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				id1, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1),
-				id2, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2),
-				id3, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v3), v3),
-				id4, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v4), v4)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { id1, id2, id3, id4 },
+				new TypeToken<?>[] { TypeTokens.raw(v1), TypeTokens.raw(v2), TypeTokens.raw(v3), TypeTokens.raw(v4) },
+				new Object[] { v1, v2, v3, v4 });
 	}
 
 	/**
@@ -228,12 +248,10 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		Preconditions.checkNotNull(id3, "id3 is null");
 		Preconditions.checkNotNull(id4, "id4 is null");
 		Preconditions.checkNotNull(id5, "id5 is null");
-		return new StandardImmutableTypedMap<I>(ImmutableMap.of(
-				id1, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1),
-				id2, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2),
-				id3, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v3), v3),
-				id4, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v4), v4),
-				id5, ImmutableTypedSupplier.nonnull(TypeTokens.raw(v5), v5)));
+		return new CompactImmutableTypedMap<I>(
+				new Object[] { id1, id2, id3, id4, id5 },
+				new TypeToken<?>[] { TypeTokens.raw(v1), TypeTokens.raw(v2), TypeTokens.raw(v3), TypeTokens.raw(v4), TypeTokens.raw(v5) },
+				new Object[] { v1, v2, v3, v4, v5 });
 	}
 	
 
@@ -247,7 +265,14 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 	}
 
 	public static class Builder<K> {
-		final ImmutableMap.Builder<K, TypedSupplier<?>> builder = ImmutableMap.builder();
+		final List<Object> ids = Lists.newArrayList();
+		final List<TypeToken<?>> types = Lists.newArrayList();
+		final List<Object> values = Lists.newArrayList();
+		/**
+		 * Suppliers that are not {@link ImmutableTypedSupplier}s, or null for entries with known values.
+		 */
+		final List<TypedSupplier<?>> suppliers = Lists.newArrayList();
+		boolean supplied = false;
 
 		/**
 		 * Creates a new builder. The returned builder is equivalent to the builder generated by
@@ -261,7 +286,7 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		 * allowed, and will cause {@link #build} to fail.
 		 */
 		public <TT> Builder<K> put(TypedKey<TT, K> key, TT value) {
-			builder.put(key.getId(), ImmutableTypedSupplier.of(key.getType(), value));
+			add(key.getId(), key.getType(), value, null);
 			return this;
 		}
 		
@@ -272,7 +297,7 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		 * Recommended for raw value types only!
 		 */
 		public Builder<K> putRaw(K id, Object value) throws IllegalArgumentException {
-			builder.put(id, ImmutableTypedSupplier.of(TypeTokens.raw(value), value));
+			add(id, TypeTokens.raw(value), value, null);
 			return this;
 		}
 
@@ -283,57 +308,128 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		 * Note: there is no {@code putAll} for a {@code Map<TypedKey<?>, Object>} because the required generic type
 		 * checking cannot be done at runtime.
 		 * 
+		 * Suppliers other than {@link ImmutableTypedSupplier}s are retained as is, so that lazy or memoized values are
+		 * not forced.
+		 * 
 		 * @throws NullPointerException if any key or value in {@code map} is null
 		 */
 		public Builder<K> putAll(Map<K, ? extends TypedSupplier<?>> map) {
-			builder.putAll(map);
+			for (Entry<K, ? extends TypedSupplier<?>> entry : map.entrySet()) {
+				TypedSupplier<?> supplier = Preconditions.checkNotNull(entry.getValue(), "value is null for id=%s", entry.getKey());
+				if (supplier instanceof ImmutableTypedSupplier) {
+					add(entry.getKey(), supplier.getType(), supplier.get(), null);
+				} else {
+					add(entry.getKey(), supplier.getType(), null, supplier);
+					supplied = true;
+				}
+			}
 			return this;
 		}
 
+		private void add(Object id, TypeToken<?> type, Object value, TypedSupplier<?> supplier) {
+			ids.add(Preconditions.checkNotNull(id, "id is null"));
+			types.add(Preconditions.checkNotNull(type, "type is null for id=%s", id));
+			values.add(value);
+			suppliers.add(supplier);
+		}
+
 		/**
 		 * Returns a newly-created immutable map.
 		 * 
+		 * Maps whose values are all known are stored compactly without per-entry suppliers.
+		 * 
 		 * @throws IllegalArgumentException if duplicate keys were added
 		 */
 		public ImmutableTypedMap<K> build() {
-			return fromEntryList(builder.build());
-		}
-
-		private static <I> ImmutableTypedMap<I> fromEntryList(Map<I, TypedSupplier<?>> m) {
-			int size = m.size();
+			int size = ids.size();
 			switch (size) {
 			case 0:
 				return of();
 			default:
-				return new StandardImmutableTypedMap<I>(m);
+				if (supplied) {
+					return new StandardImmutableTypedMap<K>(toSupplierMap());
+				}
+				return new CompactImmutableTypedMap<K>(ids.toArray(), types.toArray(new TypeToken<?>[size]), values.toArray());
+			}
+		}
+
+		private ImmutableMap<K, TypedSupplier<?>> toSupplierMap() {
+			ImmutableMap.Builder<K, TypedSupplier<?>> builder = ImmutableMap.builder();
+			for (int i = 0; i < ids.size(); i++) {
+				@SuppressWarnings("unchecked")
+				K id = (K) ids.get(i);
+				@SuppressWarnings("unchecked")
+				TypeToken<Object> type = (TypeToken<Object>) types.get(i);
+				TypedSupplier<?> supplier = suppliers.get(i);
+				builder.put(id, (supplier != null) ? supplier : ImmutableTypedSupplier.of(type, values.get(i)));
 			}
+			return builder.build();
 		}
 
 	}
 
 	/**
-	 * Delegate accessor (read-only).
+	 * Returns a map with the same entries as this map, except that the typed {@code key} is associated with
+	 * {@code value}, replacing any entry with the same key ID regardless of its type. This map is not modified.
 	 * 
-	 * @return the immutable map that this typed map delegates to
+	 * The first change copies this map into a persistent trie in O(n); the maps it returns share structure, so further
+	 * changes to them take O(log n).
+	 * 
+	 * @throws NullPointerException if the key ID or value is null
 	 */
-	protected abstract ImmutableMap<ID, TypedSupplier<Object>> delegate();
-	
-	private transient ImmutableSet<Entry<TypedKey<Object, ID>, Object>> entrySet;
+	@Nonnull
+	public <TT> ImmutableTypedMap<ID> with(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException {
+		return PersistentTypedMap.copyOf(this).with(typedKey, value);
+	}
 
 	/**
-	 * Gets the immutable set of all typed key value pairs.
-	 * This only includes keys with the types as set, not all assignable types.
+	 * Returns a map with the same entries as this map, except for the entry of the specified key ID. This map is not
+	 * modified, and is returned as is if it has no such entry.
 	 * 
-	 * @return the immutable set of typed key value pairs
+	 * @see #with(TypedKey, Object)
 	 */
 	@Nonnull
-	public ImmutableSet<Entry<TypedKey<Object, ID>, Object>> entries() {
-		ImmutableSet<Entry<TypedKey<Object, ID>, Object>> result = entrySet;
-		return (result == null) ? entrySet = ImmutableSet.copyOf(createEntrySet()) : result;
+	public ImmutableTypedMap<ID> without(@Nonnull ID keyId) {
+		if (!contains(keyId)) {
+			return this;
+		}
+		return PersistentTypedMap.copyOf(this).without(keyId);
 	}
+
+	/**
+	 * Returns a map with the same entries as this map, except for the entry of the specified typed key.
+	 * 
+	 * @throws ClassCastException if the key type is not assignable from the type of the entry
+	 * @see #without(Object)
+	 */
+	@Nonnull
+	public <TT> ImmutableTypedMap<ID> without(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws ClassCastException {
+		if (!contains(typedKey.getId())) {
+			return this;
+		}
+		checkType(typedKey);
+		return without(typedKey.getId());
+	}
+
+	/**
+	 * Delegate accessor (read-only).
+	 * 
+	 * @return the immutable map that this typed map delegates to
+	 */
+	protected abstract ImmutableMap<ID, TypedSupplier<Object>> delegate();
 	
 	private transient ImmutableSet<Entry<ID,TypedSupplier<Object>>> entrySupplierSet;
 
+	/**
+	 * Lazily computed hash code, where 0 means not yet computed.
+	 */
+	private transient int hashCode;
+
+	/**
+	 * Whether every value supplier holds its value, where 0 means not yet checked, 1 means yes and 2 means no.
+	 */
+	private transient byte valueBacked;
+
 	/**
 	 * Returns an immutable set of the mappings in this map. The entries are in the same order as the parameters used to
 	 * build this map.
@@ -345,18 +441,39 @@ public abstract class ImmutableTypedMap<ID> extends AbstractTypedMap<ID> {
 		return (result == null) ? entrySupplierSet = ImmutableSet.copyOf(createEntrySupplierSet()) : result;
 	}
 
-	private transient ImmutableSet<TypedKey<Object, ID>> typedKeySet;
-
 	/**
-	 * Gets the immutable set of typed keys that have corresponding values in this map.
-	 * This only includes keys with the types as set, not all assignable types.
+	 * Returns the hash code of the entry set. If every value supplier holds a fixed value, the hash code is computed
+	 * once and then cached, assuming that the values are immutable too, or at least that their hash codes never change.
+	 * Maps with mutable suppliers, which the caller may still update, or suppliers that compute their value on demand
+	 * recompute it on every call.
 	 * 
-	 * @return the immutable set of typed keys that have corresponding values in this map
+	 * @return the hash code of the entry set
 	 */
-	@Nonnull
-	public ImmutableSet<TypedKey<Object, ID>> keys() {
-		ImmutableSet<TypedKey<Object, ID>> result = typedKeySet;
-		return (result == null) ? typedKeySet = ImmutableSet.copyOf(createKeySet()) : result;
+	@Override
+	public int hashCode() {
+		if (!isHashCodeCached()) {
+			return computeHashCode();
+		}
+		int result = hashCode;
+		return (result == 0) ? hashCode = computeHashCode() : result;
+	}
+
+	/**
+	 * @return true if the hash code is cached, since every value supplier holds a fixed value
+	 */
+	boolean isHashCodeCached() {
+		byte result = valueBacked;
+		if (result == 0) {
+			result = 1;
+			for (Entry<ID, TypedSupplier<Object>> entry : entrySuppliers()) {
+				if (!TypedMaps.isValueFixed(entry.getValue())) {
+					result = 2;
+					break;
+				}
+			}
+			valueBacked = result;
+		}
+		return result == 1;
 	}
 
 }
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import karlkfi.jtyped.IntTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+
+/**
+ * A typed key for <code>int</code> values, for use with {@link TypedMap#getInt} and {@link MutableTypedMap#putInt}.
+ * 
+ * @param <ID> the key id type
+ */
+@Immutable
+public final class IntTypedKey<ID> extends PrimitiveTypedKey<Integer, ID> {
+
+	IntTypedKey(ID id) {
+		super(TypeTokens.of(Integer.class), id);
+	}
+
+	@Nonnull
+	public static <I> IntTypedKey<I> of(@Nonnull I id) {
+		return new IntTypedKey<I>(id);
+	}
+
+	@Override
+	@Nonnull
+	IntTypedSupplier newSupplier() {
+		return new IntTypedSupplier();
+	}
+
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Exception message that is formatted from a template only when it is requested, shared by the exceptions of this
+ * package.
+ * 
+ * The arguments, which may be arbitrary keys, are not serialized: the message is formatted before it is written.
+ */
+final class LazyMessage implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Whether exceptions with lazy messages skip filling in the stack trace.
+	 */
+	static final boolean STACKLESS = Boolean.getBoolean("karlkfi.jtyped.stacklessExceptions");
+
+	private final String template;
+	private transient Object[] args;
+	private String message;
+
+	LazyMessage(@Nonnull String template, @Nullable Object[] args) {
+		this.template = template;
+		this.args = args;
+	}
+
+	/**
+	 * Formats the message on first use, then releases the arguments.
+	 * 
+	 * @return the formatted message
+	 */
+	@Nonnull
+	synchronized String get() {
+		if (message == null) {
+			message = format(template, args);
+			args = null;
+		}
+		return message;
+	}
+
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		get();
+		out.defaultWriteObject();
+	}
+
+	/**
+	 * Substitutes each <code>%s</code> in the template with the string value of the next argument, like
+	 * {@link com.google.common.base.Preconditions}. Extra arguments are appended in square brackets.
+	 */
+	@Nonnull
+	static String format(@Nonnull String template, @Nullable Object[] args) {
+		if (args == null) {
+			return template;
+		}
+		StringBuilder builder = new StringBuilder(template.length() + 16 * args.length);
+		int templateStart = 0;
+		int i = 0;
+		while (i < args.length) {
+			int placeholderStart = template.indexOf("%s", templateStart);
+			if (placeholderStart == -1) {
+				break;
+			}
+			builder.append(template, templateStart, placeholderStart);
+			builder.append(args[i++]);
+			templateStart = placeholderStart + 2;
+		}
+		builder.append(template, templateStart, template.length());
+		if (i < args.length) {
+			builder.append(" [");
+			builder.append(args[i++]);
+			while (i < args.length) {
+				builder.append(", ");
+				builder.append(args[i++]);
+			}
+			builder.append(']');
+		}
+		return builder.toString();
+	}
+
+}
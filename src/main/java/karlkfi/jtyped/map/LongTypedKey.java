@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import karlkfi.jtyped.LongTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+
+/**
+ * A typed key for <code>long</code> values, for use with {@link TypedMap#getLong} and {@link MutableTypedMap#putLong}.
+ * 
+ * @param <ID> the key id type
+ */
+@Immutable
+public final class LongTypedKey<ID> extends PrimitiveTypedKey<Long, ID> {
+
+	LongTypedKey(ID id) {
+		super(TypeTokens.of(Long.class), id);
+	}
+
+	@Nonnull
+	public static <I> LongTypedKey<I> of(@Nonnull I id) {
+		return new LongTypedKey<I>(id);
+	}
+
+	@Override
+	@Nonnull
+	LongTypedSupplier newSupplier() {
+		return new LongTypedSupplier();
+	}
+
+}
@@ -0,0 +1,516 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.TypedSupplier;
+import karlkfi.jtyped.codec.ByteBufferStreams;
+import karlkfi.jtyped.codec.TypedCodec;
+import karlkfi.jtyped.codec.TypedCodecRegistry;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Read-only ImmutableTypedMap backed by a memory-mapped file, whose entries are decoded on first access.
+ * 
+ * Opening a file only reads its header and type table, and {@link #size()}, {@link #contains(Object)} and type checks
+ * are answered from the index and type table without decoding any values. Values are decoded by the
+ * {@link TypedCodec}s of a {@link TypedCodecRegistry} the first time they are read and, optionally, cached.
+ * Iterating over the entries decodes all of them.
+ * 
+ * <h3>File layout</h3>
+ * All numbers are big-endian. Offsets are from the start of the file, which is limited to 2GB.
+ * <ol>
+ * <li>Header (32 bytes): int magic {@value #MAGIC}, int version, int entry count <i>n</i>, int index bucket count
+ * <i>b</i> (a power of two), long type table offset, long unused (0)</li>
+ * <li>Index (<i>b</i> &times; 4 bytes): open addressing table of entry number + 1, 0 marking an empty bucket, probed
+ * linearly from the smeared hash code of the key ID</li>
+ * <li>Entry table (<i>n</i> &times; 24 bytes): int smeared ID hash code, int type table index, long ID offset, long
+ * value offset</li>
+ * <li>Records: per entry, the ID written by the ID codec, followed by the value written by the codec of its type</li>
+ * <li>Type table: int type count, then one codec descriptor per type as written by
+ * {@link TypedCodecRegistry#writeDescriptor(TypedCodec, java.io.DataOutput)}</li>
+ * </ol>
+ * 
+ * Since the index is keyed by {@link Object#hashCode()}, key IDs must have hash codes that are stable across JVMs, like
+ * strings and boxed primitives. Lookups without cached IDs compare the encoded form of key IDs, so the ID codec must
+ * encode equal IDs identically.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+public final class MappedTypedMap<ID> extends ImmutableTypedMap<ID> {
+
+	static final int MAGIC = 0x4A54594D;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int ENTRY_SIZE = 24;
+
+	/**
+	 * Buffers that key IDs are encoded into by uncached lookups.
+	 */
+	private static final ThreadLocal<IdBuffer> ID_BUFFERS = new ThreadLocal<IdBuffer>() {
+		@Override
+		protected IdBuffer initialValue() {
+			return new IdBuffer();
+		}
+	};
+
+	private final ByteBuffer buffer;
+	private final TypedCodec<ID> idCodec;
+	private final List<TypedCodec<Object>> codecs;
+	private final int size;
+	private final int mask;
+	private final int entriesOffset;
+
+	/**
+	 * Decoded IDs and values by entry number, or null if they are not cached.
+	 */
+	private final AtomicReferenceArray<Object> ids;
+	private final AtomicReferenceArray<Object> values;
+
+	private transient ImmutableMap<ID, TypedSupplier<Object>> delegate;
+
+	private MappedTypedMap(ByteBuffer buffer, TypedCodec<ID> idCodec, List<TypedCodec<Object>> codecs, boolean cache) {
+		this.buffer = buffer;
+		this.idCodec = idCodec;
+		this.codecs = codecs;
+		this.size = buffer.getInt(8);
+		int buckets = buffer.getInt(12);
+		this.mask = buckets - 1;
+		this.entriesOffset = HEADER_SIZE + buckets * 4;
+		this.ids = cache ? new AtomicReferenceArray<Object>(size) : null;
+		this.values = cache ? new AtomicReferenceArray<Object>(size) : null;
+	}
+
+	/**
+	 * Opens a typed map file, caching decoded values.
+	 * 
+	 * @see #open(File, TypedCodec, TypedCodecRegistry, boolean)
+	 */
+	@Nonnull
+	public static <I> MappedTypedMap<I> open(@Nonnull File file, @Nonnull TypedCodec<I> idCodec, @Nonnull TypedCodecRegistry codecs) throws IOException {
+		return open(file, idCodec, codecs, true);
+	}
+
+	/**
+	 * Opens a typed map file written by {@link #write(TypedMap, TypedCodec, TypedCodecRegistry, File)}. The file is
+	 * mapped read-only and must not be modified while the map is in use.
+	 * 
+	 * @param file the file
+	 * @param idCodec the codec of the key IDs
+	 * @param codecs the registry that resolves the codecs described in the type table
+	 * @param cache whether to keep decoded IDs and values, rather than decode them on every access
+	 * @return a new mapped typed map
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	@Nonnull
+	public static <I> MappedTypedMap<I> open(@Nonnull File file, @Nonnull TypedCodec<I> idCodec, @Nonnull TypedCodecRegistry codecs, boolean cache) throws IOException {
+		MappedByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE) {
+				throw new IOException("Typed map file exceeds 2GB: " + file);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			// the mapping remains valid after the channel is closed
+			raf.close();
+		}
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a typed map file: " + file);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported version: " + buffer.getInt(4));
+		}
+		int count = buffer.getInt(8);
+		int buckets = buffer.getInt(12);
+		long typesOffset = buffer.getLong(16);
+		// an empty bucket must remain to terminate probing
+		if (count < 0 || buckets <= count || Integer.bitCount(buckets) != 1) {
+			throw new IOException("Malformed typed map header: " + file);
+		}
+		long recordsOffset = HEADER_SIZE + buckets * 4L + count * (long) ENTRY_SIZE;
+		if (typesOffset < recordsOffset || typesOffset > buffer.limit() - 4) {
+			throw new IOException("Malformed typed map header: " + file);
+		}
+
+		ByteBuffer types = buffer.duplicate();
+		types.position((int) typesOffset);
+		DataInputStream in = new DataInputStream(ByteBufferStreams.input(types));
+		int typeCount = in.readInt();
+		if (typeCount < 0 || typeCount > count) {
+			throw new IOException("Malformed typed map type table: " + file);
+		}
+		List<TypedCodec<Object>> typeCodecs = Lists.newArrayListWithCapacity(typeCount);
+		for (int i = 0; i < typeCount; i++) {
+			@SuppressWarnings("unchecked")
+			TypedCodec<Object> codec = (TypedCodec<Object>) codecs.readDescriptor(in);
+			typeCodecs.add(codec);
+		}
+		checkIndex(buffer, count, buckets, typeCount, recordsOffset, typesOffset, file);
+		return new MappedTypedMap<I>(buffer, idCodec, typeCodecs, cache);
+	}
+
+	/**
+	 * Checks that the index only refers to entries, and that the entries only refer to types and records in the file, so
+	 * that lookups cannot read outside the file.
+	 * 
+	 * @throws IOException if the index or entry table is malformed
+	 */
+	private static void checkIndex(ByteBuffer buffer, int count, int buckets, int typeCount, long recordsOffset, long typesOffset, File file) throws IOException {
+		for (int b = 0; b < buckets; b++) {
+			int entry = buffer.getInt(HEADER_SIZE + b * 4);
+			if (entry < 0 || entry > count) {
+				throw new IOException("Malformed typed map index at bucket " + b + ": " + file);
+			}
+		}
+		int entriesOffset = HEADER_SIZE + buckets * 4;
+		for (int e = 0; e < count; e++) {
+			int entry = entriesOffset + e * ENTRY_SIZE;
+			int typeRef = buffer.getInt(entry + 4);
+			long idOffset = buffer.getLong(entry + 8);
+			long valueOffset = buffer.getLong(entry + 16);
+			if (typeRef < 0 || typeRef >= typeCount || idOffset < recordsOffset || valueOffset < idOffset || valueOffset > typesOffset) {
+				throw new IOException("Malformed typed map entry " + e + ": " + file);
+			}
+		}
+	}
+
+	/**
+	 * Writes the entries of a typed map to a file in the layout read by
+	 * {@link #open(File, TypedCodec, TypedCodecRegistry, boolean)}, replacing its contents. Entries with null values are
+	 * not written.
+	 * 
+	 * @param map the typed map
+	 * @param idCodec the codec of the key IDs
+	 * @param codecs the registry that resolves the codecs of the entry types
+	 * @param file the file
+	 * @throws IllegalArgumentException if no codec can be resolved for the type of an entry
+	 * @throws IOException if the file cannot be written
+	 */
+	public static <I> void write(@Nonnull TypedMap<I> map, @Nonnull TypedCodec<? super I> idCodec, @Nonnull TypedCodecRegistry codecs, @Nonnull File file) throws IllegalArgumentException, IOException {
+		List<Entry<TypedKey<Object, I>, Object>> entries = Lists.newArrayListWithCapacity(map.size());
+		for (Entry<TypedKey<Object, I>, Object> entry : map.entries()) {
+			Object value = entry.getValue();
+			if (value != null) {
+				entries.add(Maps.immutableEntry(entry.getKey(), value));
+			}
+		}
+		int n = entries.size();
+		int buckets = TypedMapLayout.tableSize(n);
+		long recordsOffset = checkOffset(HEADER_SIZE + buckets * 4L + n * (long) ENTRY_SIZE, file);
+		ByteBuffer index = ByteBuffer.allocate((int) recordsOffset - HEADER_SIZE);
+		Map<TypeToken<?>, Integer> typeRefs = Maps.newHashMap();
+		List<TypedCodec<? super Object>> typeCodecs = Lists.newArrayList();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			channel.position(recordsOffset);
+			CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			DataOutputStream out = new DataOutputStream(counter);
+			for (int e = 0; e < n; e++) {
+				TypedKey<Object, I> key = entries.get(e).getKey();
+				Integer typeRef = typeRefs.get(key.getType());
+				if (typeRef == null) {
+					typeRef = Integer.valueOf(typeCodecs.size());
+					typeRefs.put(key.getType(), typeRef);
+					typeCodecs.add(codecs.resolve(key.getType()));
+				}
+				int hash = TypedMapLayout.smear(key.getId().hashCode());
+				int bucket = hash & (buckets - 1);
+				while (index.getInt(bucket * 4) != 0) {
+					bucket = (bucket + 1) & (buckets - 1);
+				}
+				index.putInt(bucket * 4, e + 1);
+				int entry = buckets * 4 + e * ENTRY_SIZE;
+				index.putInt(entry, hash);
+				index.putInt(entry + 4, typeRef.intValue());
+				index.putLong(entry + 8, checkOffset(recordsOffset + counter.getCount(), file));
+				idCodec.write(key.getId(), out);
+				index.putLong(entry + 16, checkOffset(recordsOffset + counter.getCount(), file));
+				typeCodecs.get(typeRef.intValue()).write(entries.get(e).getValue(), out);
+			}
+			long typesOffset = checkOffset(recordsOffset + counter.getCount(), file);
+			out.writeInt(typeCodecs.size());
+			for (TypedCodec<?> codec : typeCodecs) {
+				codecs.writeDescriptor(codec, out);
+			}
+			out.flush();
+			checkOffset(recordsOffset + counter.getCount(), file);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(buckets).putLong(typesOffset).putLong(0L);
+			header.flip();
+			writeFully(channel, header, 0);
+			index.rewind();
+			writeFully(channel, index, HEADER_SIZE);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the offset, if it is within the 2GB file size limit
+	 * @throws IOException if the offset exceeds the file size limit
+	 */
+	private static long checkOffset(long offset, File file) throws IOException {
+		if (offset > Integer.MAX_VALUE) {
+			throw new IOException("Typed map file exceeds 2GB: " + file);
+		}
+		return offset;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+		while (source.hasRemaining()) {
+			position += channel.write(source, position);
+		}
+	}
+
+	/**
+	 * Delegate accessor (read-only). Only used for iteration, so it is built lazily, with suppliers that decode their
+	 * values on first access.
+	 * 
+	 * @return the immutable map that this typed map delegates to
+	 */
+	@Override
+	protected ImmutableMap<ID, TypedSupplier<Object>> delegate() {
+		ImmutableMap<ID, TypedSupplier<Object>> result = delegate;
+		return (result == null) ? delegate = createDelegate() : result;
+	}
+
+	private ImmutableMap<ID, TypedSupplier<Object>> createDelegate() {
+		ImmutableMap.Builder<ID, TypedSupplier<Object>> builder = ImmutableMap.builder();
+		for (int e = 0; e < size; e++) {
+			builder.put(getId(e), new EntrySupplier(e));
+		}
+		return builder.build();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull ID id) {
+		return indexOf(id) >= 0;
+	}
+
+	/**
+	 * Creates a supplier for the entry on demand. Its type is read from the type table; its value is only decoded when
+	 * requested.
+	 */
+	@Override
+	TypedSupplier<?> getSupplier(@Nonnull Object keyId) {
+		int e = indexOf(keyId);
+		return (e < 0) ? null : new EntrySupplier(e);
+	}
+
+	/**
+	 * Values are never stored in primitive form, so primitive gets use {@link #get(TypedKey)}.
+	 */
+	@Override
+	TypedSupplier<?> getPrimitiveSupplier(@Nonnull Object keyId) {
+		return null;
+	}
+
+	/**
+	 * Finds the entry of a key ID among the entries with the same hash code. When IDs are cached, the key ID is compared
+	 * with the decoded ID of each candidate, which is decoded once. Otherwise it is encoded into a per-thread buffer and
+	 * compared with the ID records in place, so that lookups neither decode IDs nor allocate.
+	 * 
+	 * @return the entry number of the key ID, or -1 if absent
+	 */
+	private int indexOf(Object id) {
+		int hash = TypedMapLayout.smear(id.hashCode());
+		int bucket = hash & mask;
+		IdBuffer encoded = null;
+		int entry;
+		while ((entry = buffer.getInt(HEADER_SIZE + bucket * 4)) != 0) {
+			int e = entry - 1;
+			int offset = entriesOffset + e * ENTRY_SIZE;
+			if (buffer.getInt(offset) == hash) {
+				if (ids != null) {
+					if (id.equals(getId(e))) {
+						return e;
+					}
+				} else {
+					if (encoded == null) {
+						encoded = encode(id);
+						if (encoded == null) {
+							return -1;
+						}
+					}
+					if (encoded.matches(buffer, (int) buffer.getLong(offset + 8), (int) buffer.getLong(offset + 16))) {
+						return e;
+					}
+				}
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the per-thread buffer holding the key ID written by the ID codec, or null if the ID codec cannot write it,
+	 *         so that no entry has it
+	 */
+	private IdBuffer encode(Object id) {
+		if (!idCodec.getType().getRawType().isInstance(id)) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		ID typedId = (ID) id;
+		IdBuffer encoded = ID_BUFFERS.get();
+		encoded.reset();
+		try {
+			idCodec.write(typedId, encoded.out);
+		} catch (IOException e) {
+			return null;
+		}
+		return encoded;
+	}
+
+	private ID getId(int e) {
+		if (ids == null) {
+			return decode(idCodec, buffer.getLong(entriesOffset + e * ENTRY_SIZE + 8));
+		}
+		@SuppressWarnings("unchecked")
+		ID id = (ID) ids.get(e);
+		if (id == null) {
+			ids.compareAndSet(e, null, decode(idCodec, buffer.getLong(entriesOffset + e * ENTRY_SIZE + 8)));
+			@SuppressWarnings("unchecked")
+			ID cached = (ID) ids.get(e);
+			id = cached;
+		}
+		return id;
+	}
+
+	private TypedCodec<Object> getCodec(int e) {
+		return codecs.get(buffer.getInt(entriesOffset + e * ENTRY_SIZE + 4));
+	}
+
+	private Object getValue(int e) {
+		if (values == null) {
+			return decode(getCodec(e), buffer.getLong(entriesOffset + e * ENTRY_SIZE + 16));
+		}
+		Object value = values.get(e);
+		if (value == null) {
+			values.compareAndSet(e, null, decode(getCodec(e), buffer.getLong(entriesOffset + e * ENTRY_SIZE + 16)));
+			value = values.get(e);
+		}
+		return value;
+	}
+
+	/**
+	 * @throws IllegalStateException if the record cannot be decoded
+	 */
+	private <T> T decode(TypedCodec<T> codec, long offset) {
+		ByteBuffer record = buffer.duplicate();
+		record.position((int) offset);
+		try {
+			return codec.read(new DataInputStream(ByteBufferStreams.input(record)));
+		} catch (IOException e) {
+			throw new IllegalStateException("Corrupt typed map record at offset " + offset, e);
+		}
+	}
+
+	/**
+	 * Supplier of one entry, decoding its value on demand.
+	 */
+	final class EntrySupplier implements TypedSupplier<Object> {
+
+		private final int e;
+
+		EntrySupplier(int e) {
+			this.e = e;
+		}
+
+		public TypeToken<Object> getType() {
+			return getCodec(e).getType();
+		}
+
+		public Object get() {
+			return getValue(e);
+		}
+
+		/**
+		 * @return true if the value has been decoded and cached, so that reading it is cheap
+		 */
+		boolean isDecoded() {
+			return values != null && values.get(e) != null;
+		}
+
+	}
+
+	/**
+	 * Reusable buffer that key IDs are encoded into for lookups.
+	 */
+	private static final class IdBuffer extends ByteArrayOutputStream {
+
+		final DataOutputStream out = new DataOutputStream(this);
+
+		IdBuffer() {
+			super(32);
+		}
+
+		/**
+		 * @return true if the record between the offsets has the encoded bytes
+		 */
+		boolean matches(ByteBuffer buffer, int start, int end) {
+			if (end - start != count) {
+				return false;
+			}
+			for (int i = 0; i < count; i++) {
+				if (buffer.get(start + i) != buf[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
@@ -64,6 +64,54 @@ public interface MutableTypedMap<ID> extends TypedMap<ID> {
 	@Nullable
 	<TT> TT put(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException, ClassCastException, ImmutableEntryException;
 
+	/**
+	 * Associates the specified <code>int</code> value with the specified key in this map. New entries store the value
+	 * in primitive form, so updating them does not box.
+	 * 
+	 * @param key the int typed key
+	 * @param value a new value to be associated with the specified key
+	 * @throws NullPointerException if the specified <code>key</code> is null
+	 * @throws ClassCastException if the key corresponds to a value but the new key type does not match the value type
+	 * @throws ImmutableEntryException if key corresponds to an immutable entry
+	 */
+	void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException, ImmutableEntryException;
+
+	/**
+	 * Associates the specified <code>long</code> value with the specified key in this map. New entries store the value
+	 * in primitive form, so updating them does not box.
+	 * 
+	 * @param key the long typed key
+	 * @param value a new value to be associated with the specified key
+	 * @throws NullPointerException if the specified <code>key</code> is null
+	 * @throws ClassCastException if the key corresponds to a value but the new key type does not match the value type
+	 * @throws ImmutableEntryException if key corresponds to an immutable entry
+	 */
+	void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException, ImmutableEntryException;
+
+	/**
+	 * Associates the specified <code>double</code> value with the specified key in this map. New entries store the value
+	 * in primitive form, so updating them does not box.
+	 * 
+	 * @param key the double typed key
+	 * @param value a new value to be associated with the specified key
+	 * @throws NullPointerException if the specified <code>key</code> is null
+	 * @throws ClassCastException if the key corresponds to a value but the new key type does not match the value type
+	 * @throws ImmutableEntryException if key corresponds to an immutable entry
+	 */
+	void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException, ImmutableEntryException;
+
+	/**
+	 * Associates the specified <code>boolean</code> value with the specified key in this map. New entries store the value
+	 * in primitive form, so updating them does not box.
+	 * 
+	 * @param key the boolean typed key
+	 * @param value a new value to be associated with the specified key
+	 * @throws NullPointerException if the specified <code>key</code> is null
+	 * @throws ClassCastException if the key corresponds to a value but the new key type does not match the value type
+	 * @throws ImmutableEntryException if key corresponds to an immutable entry
+	 */
+	void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException, ImmutableEntryException;
+
 	@Nullable
 	void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException;
 
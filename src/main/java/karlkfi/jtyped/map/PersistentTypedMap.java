@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.Map.Entry;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * ImmutableTypedMap implementation backed by a persistent hash array mapped trie.
+ * 
+ * {@link #with(TypedKey, Object)} and {@link #without(Object)} copy only the O(log n) path of trie nodes leading to the
+ * changed entry and share every other node with the original map, so long chains of slightly modified maps are cheap
+ * to derive. Each level of the trie indexes 5 bits of the smeared key ID hash code in a 32-way bitmap node; IDs with
+ * equal hash codes share a collision node.
+ * 
+ * Iteration order follows the trie, not insertion order.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+final class PersistentTypedMap<ID> extends ImmutableTypedMap<ID> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	/**
+	 * The root node, or null if the map is empty.
+	 */
+	private final Node root;
+	private final int size;
+
+	private transient ImmutableMap<ID, TypedSupplier<Object>> delegate;
+
+	private PersistentTypedMap(@Nullable Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Returns a persistent map with the same entries as the specified map. Suppliers are retained as is, so that lazy
+	 * or memoized values are not forced.
+	 */
+	static <I> PersistentTypedMap<I> copyOf(@Nonnull ImmutableTypedMap<I> map) {
+		if (map instanceof PersistentTypedMap) {
+			return (PersistentTypedMap<I>) map;
+		}
+		Node root = null;
+		for (Entry<I, TypedSupplier<Object>> entry : map.entrySuppliers()) {
+			Leaf leaf = new Leaf(entry.getKey(), entry.getValue());
+			root = (root == null) ? leaf : root.assoc(0, leaf);
+		}
+		return new PersistentTypedMap<I>(root, map.size());
+	}
+
+	/**
+	 * Delegate accessor (read-only). Only used for iteration, so it is built lazily.
+	 * 
+	 * @return the immutable map that this typed map delegates to
+	 */
+	@Override
+	protected ImmutableMap<ID, TypedSupplier<Object>> delegate() {
+		ImmutableMap<ID, TypedSupplier<Object>> result = delegate;
+		return (result == null) ? delegate = createDelegate() : result;
+	}
+
+	private ImmutableMap<ID, TypedSupplier<Object>> createDelegate() {
+		final ImmutableMap.Builder<ID, TypedSupplier<Object>> builder = ImmutableMap.builder();
+		if (root != null) {
+			root.visit(new LeafVisitor() {
+				public void visit(Leaf leaf) {
+					@SuppressWarnings("unchecked")
+					ID id = (ID) leaf.id;
+					builder.put(id, leaf.supplier);
+				}
+			});
+		}
+		return builder.build();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	TypedSupplier<?> getSupplier(@Nonnull Object keyId) {
+		return (root == null) ? null : root.find(0, hash(keyId), keyId);
+	}
+
+	@Override
+	void visitEntries(@Nonnull final EntryVisitor<? super ID> visitor) {
+		if (root != null) {
+			root.visit(new LeafVisitor() {
+				public void visit(Leaf leaf) {
+					@SuppressWarnings("unchecked")
+					ID id = (ID) leaf.id;
+					visitor.visit(id, leaf.supplier.getType(), leaf.supplier.get());
+				}
+			});
+		}
+	}
+
+	@Override
+	@Nonnull
+	public <TT> ImmutableTypedMap<ID> with(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException {
+		Object id = Preconditions.checkNotNull(typedKey.getId(), "id is null");
+		Preconditions.checkNotNull(value, "value is null for id=%s", id);
+		@SuppressWarnings("unchecked")
+		TypedSupplier<Object> supplier = (TypedSupplier<Object>) ImmutableTypedSupplier.of(typedKey.getType(), value);
+		Leaf leaf = new Leaf(id, supplier);
+		if (root == null) {
+			return new PersistentTypedMap<ID>(leaf, 1);
+		}
+		int newSize = (root.find(0, leaf.hash, id) == null) ? size + 1 : size;
+		return new PersistentTypedMap<ID>(root.assoc(0, leaf), newSize);
+	}
+
+	@Override
+	@Nonnull
+	public ImmutableTypedMap<ID> without(@Nonnull ID keyId) {
+		if (root == null) {
+			return this;
+		}
+		Node newRoot = root.dissoc(0, hash(keyId), keyId);
+		if (newRoot == root) {
+			return this;
+		}
+		if (newRoot == null) {
+			return of();
+		}
+		return new PersistentTypedMap<ID>(newRoot, size - 1);
+	}
+
+	static int hash(Object id) {
+		return TypedMapLayout.smear(id.hashCode());
+	}
+
+	static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	interface LeafVisitor {
+		void visit(Leaf leaf);
+	}
+
+	/**
+	 * Immutable trie node. Updates return a new node, sharing unchanged children.
+	 */
+	abstract static class Node {
+
+		/**
+		 * @return the supplier for the key ID, or null if absent
+		 */
+		@Nullable
+		abstract TypedSupplier<Object> find(int shift, int hash, Object id);
+
+		/**
+		 * @return a node containing the leaf, replacing any leaf with an equal key ID
+		 */
+		@Nonnull
+		abstract Node assoc(int shift, Leaf leaf);
+
+		/**
+		 * @return a node without the key ID, this node if the ID is absent, or null if the node would be empty
+		 */
+		@Nullable
+		abstract Node dissoc(int shift, int hash, Object id);
+
+		abstract void visit(LeafVisitor visitor);
+
+	}
+
+	/**
+	 * A single entry.
+	 */
+	static final class Leaf extends Node {
+
+		final Object id;
+		final int hash;
+		final TypedSupplier<Object> supplier;
+
+		Leaf(Object id, TypedSupplier<Object> supplier) {
+			this.id = id;
+			this.hash = hash(id);
+			this.supplier = supplier;
+		}
+
+		@Override
+		TypedSupplier<Object> find(int shift, int hash, Object id) {
+			return (this.hash == hash && this.id.equals(id)) ? supplier : null;
+		}
+
+		@Override
+		Node assoc(int shift, Leaf leaf) {
+			if (hash == leaf.hash) {
+				if (id.equals(leaf.id)) {
+					return leaf;
+				}
+				return new CollisionNode(hash, new Leaf[] { this, leaf });
+			}
+			return BitmapNode.merge(shift, this, leaf);
+		}
+
+		@Override
+		Node dissoc(int shift, int hash, Object id) {
+			return (this.hash == hash && this.id.equals(id)) ? null : this;
+		}
+
+		@Override
+		void visit(LeafVisitor visitor) {
+			visitor.visit(this);
+		}
+
+	}
+
+	/**
+	 * Branch node with up to 32 children, indexed by a bitmap of the occupied hash fragments.
+	 */
+	static final class BitmapNode extends Node {
+
+		final int bitmap;
+		final Node[] children;
+
+		BitmapNode(int bitmap, Node[] children) {
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+
+		/**
+		 * Creates the smallest subtrie holding two nodes with different hashes.
+		 */
+		static Node merge(int shift, Leaf a, Node b, int bHash) {
+			int aFragment = (a.hash >>> shift) & MASK;
+			int bFragment = (bHash >>> shift) & MASK;
+			if (aFragment == bFragment) {
+				return new BitmapNode(1 << aFragment, new Node[] { merge(shift + BITS, a, b, bHash) });
+			}
+			Node[] children = (aFragment < bFragment) ? new Node[] { a, b } : new Node[] { b, a };
+			return new BitmapNode((1 << aFragment) | (1 << bFragment), children);
+		}
+
+		static Node merge(int shift, Leaf a, Leaf b) {
+			return merge(shift, a, b, b.hash);
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		TypedSupplier<Object> find(int shift, int hash, Object id) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+			return children[index(bit)].find(shift + BITS, hash, id);
+		}
+
+		@Override
+		Node assoc(int shift, Leaf leaf) {
+			int bit = bit(leaf.hash, shift);
+			int index = index(bit);
+			if ((bitmap & bit) == 0) {
+				Node[] newChildren = new Node[children.length + 1];
+				System.arraycopy(children, 0, newChildren, 0, index);
+				newChildren[index] = leaf;
+				System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+				return new BitmapNode(bitmap | bit, newChildren);
+			}
+			Node child = children[index];
+			Node newChild = child.assoc(shift + BITS, leaf);
+			if (newChild == child) {
+				return this;
+			}
+			Node[] newChildren = children.clone();
+			newChildren[index] = newChild;
+			return new BitmapNode(bitmap, newChildren);
+		}
+
+		@Override
+		Node dissoc(int shift, int hash, Object id) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int index = index(bit);
+			Node child = children[index];
+			Node newChild = child.dissoc(shift + BITS, hash, id);
+			if (newChild == child) {
+				return this;
+			}
+			if (newChild == null) {
+				if (children.length == 1) {
+					return null;
+				}
+				Node[] newChildren = new Node[children.length - 1];
+				System.arraycopy(children, 0, newChildren, 0, index);
+				System.arraycopy(children, index + 1, newChildren, index, newChildren.length - index);
+				if (newChildren.length == 1 && !(newChildren[0] instanceof BitmapNode)) {
+					// a lone leaf or collision node does not depend on its depth, so it moves up to the parent
+					return newChildren[0];
+				}
+				return new BitmapNode(bitmap & ~bit, newChildren);
+			}
+			if (children.length == 1 && !(newChild instanceof BitmapNode)) {
+				return newChild;
+			}
+			Node[] newChildren = children.clone();
+			newChildren[index] = newChild;
+			return new BitmapNode(bitmap, newChildren);
+		}
+
+		@Override
+		void visit(LeafVisitor visitor) {
+			for (Node child : children) {
+				child.visit(visitor);
+			}
+		}
+
+	}
+
+	/**
+	 * Leaves whose key IDs have equal hash codes.
+	 */
+	static final class CollisionNode extends Node {
+
+		final int hash;
+		final Leaf[] leaves;
+
+		CollisionNode(int hash, Leaf[] leaves) {
+			this.hash = hash;
+			this.leaves = leaves;
+		}
+
+		private int indexOf(Object id) {
+			for (int i = 0; i < leaves.length; i++) {
+				if (leaves[i].id.equals(id)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		TypedSupplier<Object> find(int shift, int hash, Object id) {
+			if (this.hash != hash) {
+				return null;
+			}
+			int index = indexOf(id);
+			return (index < 0) ? null : leaves[index].supplier;
+		}
+
+		@Override
+		Node assoc(int shift, Leaf leaf) {
+			if (hash != leaf.hash) {
+				return BitmapNode.merge(shift, leaf, this, hash);
+			}
+			int index = indexOf(leaf.id);
+			Leaf[] newLeaves;
+			if (index < 0) {
+				newLeaves = new Leaf[leaves.length + 1];
+				System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+				newLeaves[leaves.length] = leaf;
+			} else {
+				newLeaves = leaves.clone();
+				newLeaves[index] = leaf;
+			}
+			return new CollisionNode(hash, newLeaves);
+		}
+
+		@Override
+		Node dissoc(int shift, int hash, Object id) {
+			if (this.hash != hash) {
+				return this;
+			}
+			int index = indexOf(id);
+			if (index < 0) {
+				return this;
+			}
+			if (leaves.length == 2) {
+				return leaves[1 - index];
+			}
+			Leaf[] newLeaves = new Leaf[leaves.length - 1];
+			System.arraycopy(leaves, 0, newLeaves, 0, index);
+			System.arraycopy(leaves, index + 1, newLeaves, index, newLeaves.length - index);
+			return new CollisionNode(hash, newLeaves);
+		}
+
+		@Override
+		void visit(LeafVisitor visitor) {
+			for (Leaf leaf : leaves) {
+				visitor.visit(leaf);
+			}
+		}
+
+	}
+
+}
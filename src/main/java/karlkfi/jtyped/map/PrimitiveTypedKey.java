@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import karlkfi.jtyped.PrimitiveTypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A typed key for a primitive value type. Mutable typed maps store the values of primitive keys in
+ * {@link PrimitiveTypedSupplier}s, so that they can be read and written without boxing.
+ * 
+ * @param <T> the boxed value type
+ * @param <ID> the key id type
+ */
+@Immutable
+public abstract class PrimitiveTypedKey<T, ID> implements TypedKey<T, ID> {
+
+	final TypeToken<T> type;
+	final ID id;
+
+	PrimitiveTypedKey(TypeToken<T> type, ID id) {
+		this.type = type;
+		this.id = Preconditions.checkNotNull(id, "id is null for type=%s", type);
+	}
+
+	@Nonnull
+	public TypeToken<T> getType() {
+		return type;
+	}
+
+	@Nonnull
+	public ID getId() {
+		return id;
+	}
+
+	@Override
+	public boolean equals(@Nullable Object object) {
+		return TypedMaps.keyEqualsImpl(this, object);
+	}
+
+	@Override
+	public int hashCode() {
+		return TypedMaps.keyHashCode(id, type);
+	}
+
+	/**
+	 * @return a new supplier with no value, to store values for this key
+	 */
+	@Nonnull
+	abstract PrimitiveTypedSupplier<T> newSupplier();
+
+}
@@ -0,0 +1,502 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import karlkfi.jtyped.MutableTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * MutableTypedMap created by a {@link TypedMapSchema}, backed by an array of values indexed by the slots of the schema
+ * layout. Keys outside of the schema are stored in an overflow {@link SuppliedTypedMap}, if the schema allows it.
+ * 
+ * Like {@link SuppliedTypedMap}, removing a value keeps the entry and its type. Slot types are fixed by the schema.
+ * 
+ * @param <ID> the key ID type
+ */
+@NotThreadSafe
+final class SchemaTypedMap<ID> extends AbstractTypedMap<ID> implements MutableTypedMap<ID> {
+
+	/**
+	 * Marks a slot without an entry. A null value is an entry whose value was removed.
+	 */
+	private static final Object ABSENT = NO_ENTRY;
+
+	private final TypedMapLayout<ID> layout;
+	private final Object[] values;
+	private final boolean allowOverflow;
+
+	private int slotCount;
+	@Nullable
+	private SuppliedTypedMap<ID> overflow;
+
+	SchemaTypedMap(TypedMapLayout<ID> layout, boolean allowOverflow) {
+		this.layout = layout;
+		this.values = new Object[layout.size()];
+		this.allowOverflow = allowOverflow;
+		Arrays.fill(values, ABSENT);
+	}
+
+	/**
+	 * Checks that a value can be written to a slot with a key. A key whose type is a supertype of the slot type can
+	 * read the slot, but can only write values that are instances of the slot type.
+	 * 
+	 * @throws ClassCastException if the key type is not related to the slot type, or the value does not fit the slot
+	 */
+	private void checkWritable(int slot, TypedKey<?, ?> typedKey, Object value) throws ClassCastException {
+		TypeToken<Object> slotType = layout.getType(slot);
+		if (!AssignabilityCache.isAssignable(slotType, typedKey.getType())) {
+			checkAssignable(typedKey.getType(), slotType, typedKey.getId());
+			checkInstance(layout, slot, value);
+		}
+	}
+
+	/**
+	 * @throws ClassCastException if the value is not an instance of the raw slot type
+	 */
+	static void checkInstance(TypedMapLayout<?> layout, int slot, Object value) throws ClassCastException {
+		if (!layout.getType(slot).getRawType().isInstance(value)) {
+			TypedMapEvents.typeMismatch(layout.getId(slot), layout.getType(slot), (value == null) ? null : TypeTokens.raw(value));
+			throw new ClassCastException("Value type is not assignable to the slot type for the id: " + layout.getId(slot));
+		}
+	}
+
+	/**
+	 * Delegate accessor (read-only). Only used for iteration, so it is built on demand as a snapshot.
+	 * 
+	 * @return a new map of the current entries
+	 */
+	@Override
+	protected Map<ID, TypedSupplier<Object>> delegate() {
+		Map<ID, TypedSupplier<Object>> delegate = Maps.newLinkedHashMap();
+		for (int slot = 0; slot < values.length; slot++) {
+			if (values[slot] != ABSENT) {
+				delegate.put(layout.getId(slot), MutableTypedSupplier.of(layout.getType(slot), values[slot]));
+			}
+		}
+		if (overflow != null) {
+			delegate.putAll(overflow.delegate());
+		}
+		return delegate;
+	}
+
+	@Override
+	@Nonnull
+	Set<Entry<ID, TypedSupplier<Object>>> entrySuppliers() {
+		return createEntrySupplierSet();
+	}
+
+	@Override
+	public int size() {
+		return (overflow == null) ? slotCount : slotCount + overflow.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Resolves the slot of a key, using the bound slot if the key is bound to this map's layout.
+	 * 
+	 * @return the slot index, or -1 if the key is not part of the schema
+	 */
+	private int slotOf(TypedKey<?, ?> typedKey) {
+		if (isBound(typedKey)) {
+			return ((BoundTypedKey<?, ?>) typedKey).slot;
+		}
+		return layout.indexOf(typedKey.getId());
+	}
+
+	/**
+	 * @return true if the key is bound to this map's layout, so its type has already been checked
+	 */
+	private boolean isBound(TypedKey<?, ?> typedKey) {
+		return typedKey instanceof BoundTypedKey && ((BoundTypedKey<?, ?>) typedKey).layout == layout;
+	}
+
+	/**
+	 * @return the overflow map, created on demand
+	 * @throws IllegalArgumentException if the schema does not allow overflow
+	 */
+	private SuppliedTypedMap<ID> overflow(Object key) throws IllegalArgumentException {
+		if (overflow == null) {
+			Preconditions.checkArgument(allowOverflow, "Key is not part of the schema: %s", key);
+			overflow = SuppliedTypedMap.of();
+		}
+		return overflow;
+	}
+
+	@Override
+	@Nullable
+	TypedSupplier<?> getSupplier(Object keyId) {
+		int slot = layout.indexOf(keyId);
+		if (slot >= 0) {
+			return getSlot(slot);
+		}
+		return (overflow == null) ? null : overflow.getSupplier(keyId);
+	}
+
+	/**
+	 * Schema values are stored boxed, so primitive gets use the allocation-free {@link #get(TypedKey)}.
+	 */
+	@Override
+	@Nullable
+	TypedSupplier<?> getPrimitiveSupplier(Object keyId) {
+		return (layout.indexOf(keyId) >= 0) ? null : getSupplier(keyId);
+	}
+
+	@Override
+	TypedMapLayout<ID> layout() {
+		return layout;
+	}
+
+	/**
+	 * Creates a supplier for the slot on demand.
+	 */
+	@Override
+	@Nullable
+	TypedSupplier<?> getSlot(int slot) {
+		Object value = values[slot];
+		return (value == ABSENT) ? null : MutableTypedSupplier.of(layout.getType(slot), value);
+	}
+
+	@Override
+	Object getSlotValue(int slot) {
+		return values[slot];
+	}
+
+	@Override
+	void visitEntries(@Nonnull EntryVisitor<? super ID> visitor) {
+		for (int slot = 0; slot < values.length; slot++) {
+			if (values[slot] != ABSENT) {
+				visitor.visit(layout.getId(slot), layout.getType(slot), values[slot]);
+			}
+		}
+		if (overflow != null) {
+			overflow.visitEntries(visitor);
+		}
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		int slot = slotOf(typedKey);
+		if (slot >= 0) {
+			return values[slot] != ABSENT && AssignabilityCache.isAssignable(typedKey.getType(), layout.getType(slot));
+		}
+		return overflow != null && overflow.contains(typedKey);
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		int slot = layout.indexOf(keyId);
+		if (slot >= 0) {
+			return values[slot] != ABSENT && AssignabilityCache.isAssignable(valueType, layout.getType(slot));
+		}
+		return overflow != null && overflow.contains(valueType, keyId);
+	}
+
+	@Override
+	public <T> boolean contains(@Nonnull ID id) {
+		int slot = layout.indexOf(id);
+		if (slot >= 0) {
+			return values[slot] != ABSENT;
+		}
+		return overflow != null && overflow.contains(id);
+	}
+
+	@Override
+	public <TT> void checkType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException {
+		int slot = slotOf(typedKey);
+		if (slot < 0 && overflow != null) {
+			overflow.checkType(typedKey);
+			return;
+		}
+		if (slot < 0 || values[slot] == ABSENT) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+		checkAssignable(typedKey.getType(), layout.getType(slot), typedKey.getId());
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
+		int slot = slotOf(typedKey);
+		if (slot < 0 && overflow != null) {
+			return overflow.get(typedKey);
+		}
+		if (slot < 0 || values[slot] == ABSENT) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+		if (!isBound(typedKey)) {
+			checkAssignable(typedKey.getType(), layout.getType(slot), typedKey.getId());
+		}
+		@SuppressWarnings("unchecked")
+		TT value = (TT) values[slot];
+		return value;
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull BoundTypedKey<TT, ? extends ID> boundKey) throws EntryNotFoundException, ClassCastException {
+		return get((TypedKey<TT, ? extends ID>) boundKey);
+	}
+
+	@Override
+	public <TT> TT get(@Nonnull Class<TT> valueType, ID keyId) throws EntryNotFoundException, ClassCastException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0 && overflow != null) {
+			return overflow.get(valueType, keyId);
+		}
+		if (slot < 0 || values[slot] == ABSENT) {
+			TypedMapEvents.entryNotFound(keyId, valueType);
+			throw EntryNotFoundException.of("Value does not exist for the id: %s", keyId);
+		}
+		checkAssignable(valueType, layout.getType(slot), keyId);
+		@SuppressWarnings("unchecked")
+		TT value = (TT) values[slot];
+		return value;
+	}
+
+	@Override
+	public <TT> TT getIfPresent(@Nonnull TypedKey<TT, ? extends ID> typedKey) {
+		int slot = slotOf(typedKey);
+		if (slot < 0) {
+			return (overflow == null) ? null : overflow.getIfPresent(typedKey);
+		}
+		Object value = values[slot];
+		if (value == ABSENT || (!isBound(typedKey) && !AssignabilityCache.isAssignable(typedKey.getType(), layout.getType(slot)))) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		TT typedValue = (TT) value;
+		return typedValue;
+	}
+
+	@Override
+	public <TT> TT getIfPresent(@Nonnull Class<TT> valueType, @Nonnull ID keyId) {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0) {
+			return (overflow == null) ? null : overflow.getIfPresent(valueType, keyId);
+		}
+		Object value = values[slot];
+		if (value == ABSENT || !AssignabilityCache.isAssignable(valueType, layout.getType(slot))) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		TT typedValue = (TT) value;
+		return typedValue;
+	}
+
+	@Override
+	public Object get(@Nonnull ID keyId) throws EntryNotFoundException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0 && overflow != null) {
+			return overflow.get(keyId);
+		}
+		if (slot < 0 || values[slot] == ABSENT) {
+			TypedMapEvents.entryNotFound(keyId);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		return values[slot];
+	}
+
+	/**
+	 * Slot types are fixed by the schema, so the key type of a slot entry must be the slot type, which the key can
+	 * both read and write.
+	 */
+	@Override
+	public <TT> void setType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException {
+		int slot = slotOf(typedKey);
+		if (slot < 0) {
+			overflow(typedKey).setType(typedKey);
+			return;
+		}
+		TypeToken<Object> slotType = layout.getType(slot);
+		checkAssignable(typedKey.getType(), slotType, typedKey.getId());
+		if (!AssignabilityCache.isAssignable(slotType, typedKey.getType())) {
+			TypedMapEvents.typeMismatch(typedKey.getId(), typedKey.getType(), slotType);
+			throw new ClassCastException("Key type is not assignable to the slot type for the id: " + typedKey.getId());
+		}
+		if (values[slot] == ABSENT) {
+			values[slot] = null;
+			slotCount++;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public <TT> TT put(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		Preconditions.checkNotNull(value, "value is null");
+		int slot = slotOf(typedKey);
+		if (slot < 0) {
+			return overflow(typedKey).put(typedKey, value);
+		}
+		checkWritable(slot, typedKey, value);
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) values[slot];
+		values[slot] = value;
+		if (oldValue == ABSENT) {
+			slotCount++;
+			return null;
+		}
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Integer.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Long.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Double.valueOf(value));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		put(key, Boolean.valueOf(value));
+	}
+
+	/**
+	 * Puts all entries of another typed map, all or nothing: every entry is validated before any is updated, so a
+	 * failure leaves this map unchanged. Entries without a value are skipped.
+	 */
+	@Override
+	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException {
+		List<Entry<TypedKey<Object, ? extends ID>, Object>> slotEntries = Lists.newArrayList();
+		SuppliedTypedMap<ID> overflowEntries = null;
+		for (Entry<? extends TypedKey<Object, ? extends ID>, Object> entry : m.entries()) {
+			Object value = entry.getValue();
+			if (value == null) {
+				continue;
+			}
+			TypedKey<Object, ? extends ID> typedKey = entry.getKey();
+			int slot = slotOf(typedKey);
+			if (slot >= 0) {
+				checkWritable(slot, typedKey, value);
+				slotEntries.add(Maps.<TypedKey<Object, ? extends ID>, Object>immutableEntry(typedKey, value));
+			} else {
+				Preconditions.checkArgument(allowOverflow, "Key is not part of the schema: %s", typedKey);
+				if (overflowEntries == null) {
+					overflowEntries = SuppliedTypedMap.of();
+				}
+				overflowEntries.put(typedKey, value);
+			}
+		}
+		if (overflowEntries != null) {
+			// validates every entry before updating any
+			overflow(overflowEntries).putAll(overflowEntries);
+		}
+		for (Entry<TypedKey<Object, ? extends ID>, Object> entry : slotEntries) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public <TT> TT remove(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		int slot = slotOf(typedKey);
+		if (slot < 0 && overflow != null) {
+			return overflow.remove(typedKey);
+		}
+		if (slot < 0 || values[slot] == ABSENT) {
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
+		}
+		checkAssignable(typedKey.getType(), layout.getType(slot), typedKey.getId());
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) values[slot];
+		values[slot] = null;
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public <TT> TT remove(@Nonnull Class<TT> valueType, @Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0 && overflow != null) {
+			return overflow.remove(valueType, keyId);
+		}
+		if (slot < 0 || values[slot] == ABSENT) {
+			TypedMapEvents.entryNotFound(keyId, valueType);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		checkAssignable(valueType, layout.getType(slot), keyId);
+		@SuppressWarnings("unchecked")
+		TT oldValue = (TT) values[slot];
+		values[slot] = null;
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	@Nullable
+	public Object remove(@Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		int slot = layout.indexOf(keyId);
+		if (slot < 0 && overflow != null) {
+			return overflow.remove(keyId);
+		}
+		if (slot < 0 || values[slot] == ABSENT) {
+			TypedMapEvents.entryNotFound(keyId);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
+		}
+		Object oldValue = values[slot];
+		values[slot] = null;
+		return oldValue;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clear() {
+		if (overflow != null) {
+			overflow.clear();
+		}
+		for (int slot = 0; slot < values.length; slot++) {
+			if (values[slot] != ABSENT) {
+				values[slot] = null;
+			}
+		}
+	}
+
+}
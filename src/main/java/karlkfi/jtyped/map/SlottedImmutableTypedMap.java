@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * ImmutableTypedMap implementation backed by a shared {@link TypedMapLayout} and an array of value suppliers, one per
+ * layout slot.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+final class SlottedImmutableTypedMap<ID> extends ImmutableTypedMap<ID> {
+
+	private final TypedMapLayout<ID> layout;
+	private final TypedSupplier<?>[] slots;
+
+	private transient ImmutableMap<ID, TypedSupplier<Object>> delegate;
+
+	/**
+	 * @param layout the shared layout
+	 * @param slots the value suppliers, already type checked against the layout
+	 */
+	SlottedImmutableTypedMap(TypedMapLayout<ID> layout, TypedSupplier<?>[] slots) {
+		this.layout = layout;
+		this.slots = slots;
+	}
+
+	/**
+	 * Delegate accessor (read-only). Only used for iteration, so it is built lazily.
+	 * 
+	 * @return the immutable map that this typed map delegates to
+	 */
+	@Override
+	protected ImmutableMap<ID, TypedSupplier<Object>> delegate() {
+		ImmutableMap<ID, TypedSupplier<Object>> result = delegate;
+		return (result == null) ? delegate = createDelegate() : result;
+	}
+
+	private ImmutableMap<ID, TypedSupplier<Object>> createDelegate() {
+		ImmutableMap.Builder<ID, TypedSupplier<Object>> builder = ImmutableMap.builder();
+		for (int slot = 0; slot < slots.length; slot++) {
+			@SuppressWarnings("unchecked")
+			TypedSupplier<Object> supplier = (TypedSupplier<Object>) slots[slot];
+			builder.put(layout.getId(slot), supplier);
+		}
+		return builder.build();
+	}
+
+	@Override
+	public int size() {
+		return slots.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return slots.length == 0;
+	}
+
+	@Override
+	TypedSupplier<?> getSupplier(Object keyId) {
+		int slot = layout.indexOf(keyId);
+		return (slot < 0) ? null : slots[slot];
+	}
+
+	@Override
+	TypedMapLayout<ID> layout() {
+		return layout;
+	}
+
+	@Override
+	TypedSupplier<?> getSlot(int slot) {
+		return slots[slot];
+	}
+
+}
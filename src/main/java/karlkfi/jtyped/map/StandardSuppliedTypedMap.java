@@ -38,9 +38,11 @@ final class StandardSuppliedTypedMap<ID> extends SuppliedTypedMap<ID> {
 	 * {@link ImmutableMap} it will be used as the delegate map instead of being copied.
 	 * 
 	 * @param m the map
+	 * @param ownsSuppliers true if the suppliers of the map were created for this typed map, rather than by the caller
 	 */
 	@SuppressWarnings("unchecked")
-	StandardSuppliedTypedMap(Map<? extends ID, ? extends TypedSupplier<?>> m) {
+	StandardSuppliedTypedMap(Map<? extends ID, ? extends TypedSupplier<?>> m, boolean ownsSuppliers) {
+		super(ownsSuppliers);
 		this.delegate = HashMaps.copyOf((Map<ID, TypedSupplier<Object>>) m);
 	}
 
@@ -17,6 +17,7 @@ package karlkfi.jtyped.map;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -24,29 +25,64 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import karlkfi.jtyped.AtomicTypedSupplier;
+import karlkfi.jtyped.BooleanTypedSupplier;
+import karlkfi.jtyped.DoubleTypedSupplier;
+import karlkfi.jtyped.IntTypedSupplier;
+import karlkfi.jtyped.LongTypedSupplier;
 import karlkfi.jtyped.MutableTypedSupplier;
+import karlkfi.jtyped.PrimitiveTypedSupplier;
 import karlkfi.jtyped.TypeTokens;
 import karlkfi.jtyped.TypedSupplier;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.reflect.TypeToken;
 
 /**
  * TypedMap that is backed by a {@link HashMap} with TypedSupplier values.
  * 
- * Because it is backed by a HashMap, it is NOT thread-safe.
+ * Because it is backed by a HashMap, it is NOT thread-safe. However, updating an existing entry backed by an
+ * {@link AtomicTypedSupplier} is an atomic, lock-free operation, so such values may be updated concurrently as long as
+ * no entries are added.
  * 
  * @param <ID> the key ID type
  */
 @NotThreadSafe
 public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implements MutableTypedMap<ID> {
 
+	/**
+	 * Running hash code of the entry set, only valid once computed by {@link #hashCode()}.
+	 */
+	private int hash;
+	private boolean hashValid;
+
+	/**
+	 * True if every supplier of this map was created by it, so that mutable suppliers only change when this map updates
+	 * them. Suppliers provided by the caller may be updated without this map observing it.
+	 */
+	private final boolean ownsSuppliers;
+
+	/**
+	 * Constructs a map whose suppliers may be provided by the caller.
+	 */
+	protected SuppliedTypedMap() {
+		this(false);
+	}
+
+	/**
+	 * @param ownsSuppliers true if every supplier of the delegate map was created for this map
+	 */
+	SuppliedTypedMap(boolean ownsSuppliers) {
+		this.ownsSuppliers = ownsSuppliers;
+	}
+
 	/**
 	 * Returns the empty typed map.
 	 */
 	public static <I> SuppliedTypedMap<I> of() {
-		return new StandardSuppliedTypedMap<I>(HashMaps.<I, TypedSupplier<?>>of());
+		return new StandardSuppliedTypedMap<I>(HashMaps.<I, TypedSupplier<?>>of(), true);
 	}
 
 	/**
@@ -55,7 +91,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	 * and maintainability of your code.
 	 */
 	public static <I> SuppliedTypedMap<I> of(I k1, TypedSupplier<?> v1) {
-		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1));
+		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1), false);
 	}
 
 	/**
@@ -64,7 +100,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	 * @throws IllegalArgumentException if duplicate keys are provided
 	 */
 	public static <I> SuppliedTypedMap<I> of(I k1, TypedSupplier<?> v1, I k2, TypedSupplier<?> v2) {
-		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2));
+		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2), false);
 	}
 
 	/**
@@ -74,7 +110,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	 */
 	public static <I> SuppliedTypedMap<I> of(I k1, TypedSupplier<?> v1, I k2, TypedSupplier<?> v2, I k3,
 			TypedSupplier<?> v3) {
-		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2, k3, v3));
+		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2, k3, v3), false);
 	}
 
 	/**
@@ -84,7 +120,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	 */
 	public static <I> SuppliedTypedMap<I> of(I k1, TypedSupplier<?> v1, I k2, TypedSupplier<?> v2, I k3,
 			TypedSupplier<?> v3, I k4, TypedSupplier<?> v4) {
-		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2, k3, v3, k4, v4));
+		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2, k3, v3, k4, v4), false);
 	}
 
 	/**
@@ -94,7 +130,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	 */
 	public static <I> SuppliedTypedMap<I> of(I k1, TypedSupplier<?> v1, I k2, TypedSupplier<?> v2, I k3,
 			TypedSupplier<?> v3, I k4, TypedSupplier<?> v4, I k5, TypedSupplier<?> v5) {
-		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5));
+		return new StandardSuppliedTypedMap<I>(HashMaps.of(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5), false);
 	}
 
 	// looking for of() with > 5 entries? Use the builder instead.
@@ -109,7 +145,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 			@Nonnull I id1, @Nonnull Object v1) {
 		Preconditions.checkNotNull(id1, "id1 is null");
 		return new StandardSuppliedTypedMap<I>(HashMaps.of(
-				id1, MutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1)));
+				id1, MutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1)), true);
 	}
 
 	/**
@@ -124,7 +160,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		Preconditions.checkNotNull(id2, "id2 is null");
 		return new StandardSuppliedTypedMap<I>(HashMaps.of(
 				id1, MutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1),
-				id2, MutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2)));
+				id2, MutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2)), true);
 	}
 
 	/**
@@ -142,7 +178,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		return new StandardSuppliedTypedMap<I>(HashMaps.of(
 				id1, MutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1),
 				id2, MutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2),
-				id3, MutableTypedSupplier.nonnull(TypeTokens.raw(v3), v3)));
+				id3, MutableTypedSupplier.nonnull(TypeTokens.raw(v3), v3)), true);
 	}
 
 	/**
@@ -163,7 +199,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 				id1, MutableTypedSupplier.nonnull(TypeTokens.raw(v1), v1),
 				id2, MutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2),
 				id3, MutableTypedSupplier.nonnull(TypeTokens.raw(v3), v3),
-				id4, MutableTypedSupplier.nonnull(TypeTokens.raw(v4), v4)));
+				id4, MutableTypedSupplier.nonnull(TypeTokens.raw(v4), v4)), true);
 	}
 
 	/**
@@ -187,7 +223,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 				id2, MutableTypedSupplier.nonnull(TypeTokens.raw(v2), v2),
 				id3, MutableTypedSupplier.nonnull(TypeTokens.raw(v3), v3),
 				id4, MutableTypedSupplier.nonnull(TypeTokens.raw(v4), v4),
-				id5, MutableTypedSupplier.nonnull(TypeTokens.raw(v5), v5)));
+				id5, MutableTypedSupplier.nonnull(TypeTokens.raw(v5), v5)), true);
 	}
 
 	/**
@@ -201,6 +237,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 
 	public static class Builder<K> {
 		final ImmutableMap.Builder<K, TypedSupplier<?>> builder = ImmutableMap.builder();
+		private boolean suppliersProvided;
 
 		/**
 		 * Creates a new builder. The returned builder is equivalent to the builder generated by
@@ -215,6 +252,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		 */
 		public Builder<K> put(K key, TypedSupplier<?> value) {
 			builder.put(key, value);
+			suppliersProvided = true;
 			return this;
 		}
 
@@ -224,6 +262,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		 */
 		public Builder<K> put(Entry<K, ? extends TypedSupplier<?>> entry) {
 			builder.put(entry);
+			suppliersProvided = true;
 			return this;
 		}
 		
@@ -249,6 +288,7 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		 */
 		public Builder<K> putAll(Map<K, ? extends TypedSupplier<?>> map) {
 			builder.putAll(map);
+			suppliersProvided = true;
 			return this;
 		}
 
@@ -258,21 +298,113 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		 * @throws IllegalArgumentException if duplicate keys were added
 		 */
 		public SuppliedTypedMap<K> build() {
-			return fromEntryList(builder.build());
+			return fromEntryList(builder.build(), !suppliersProvided);
 		}
 
-		private static <I> SuppliedTypedMap<I> fromEntryList(Map<I, TypedSupplier<?>> m) {
+		private static <I> SuppliedTypedMap<I> fromEntryList(Map<I, TypedSupplier<?>> m, boolean ownsSuppliers) {
 			int size = m.size();
 			switch (size) {
 			case 0:
 				return of();
 			default:
-				return new StandardSuppliedTypedMap<I>(m);
+				return new StandardSuppliedTypedMap<I>(m, ownsSuppliers);
 			}
 		}
 		
 	}
 	
+	/**
+	 * Creates a supplier for a new entry: a primitive supplier for primitive keys, otherwise a mutable one.
+	 */
+	@Nonnull
+	private static TypedSupplier<Object> newSupplier(@Nonnull TypedKey<?, ?> typedKey, @Nullable Object value) {
+		if (typedKey instanceof PrimitiveTypedKey) {
+			@SuppressWarnings("unchecked")
+			PrimitiveTypedSupplier<Object> supplier = (PrimitiveTypedSupplier<Object>) ((PrimitiveTypedKey<?, ?>) typedKey).newSupplier();
+			supplier.set(value);
+			return supplier;
+		}
+		@SuppressWarnings("unchecked")
+		TypeToken<Object> type = (TypeToken<Object>) typedKey.getType();
+		return MutableTypedSupplier.of(type, value);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		Map<ID, TypedSupplier<Object>> delegate = delegate();
+		TypedSupplier<?> oldValueSupplier = delegate.get(key.getId());
+		if (oldValueSupplier == null) {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			TypedSupplier<Object> supplier = (TypedSupplier) IntTypedSupplier.of(value);
+			delegate.put(key.getId(), supplier);
+			rehash(key.getId(), supplier, 0);
+		} else if (oldValueSupplier instanceof IntTypedSupplier) {
+			int oldEntryHash = entryHashIfValid(key.getId(), oldValueSupplier);
+			((IntTypedSupplier) oldValueSupplier).setInt(value);
+			rehash(key.getId(), oldValueSupplier, oldEntryHash);
+		} else {
+			put(key, Integer.valueOf(value));
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		Map<ID, TypedSupplier<Object>> delegate = delegate();
+		TypedSupplier<?> oldValueSupplier = delegate.get(key.getId());
+		if (oldValueSupplier == null) {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			TypedSupplier<Object> supplier = (TypedSupplier) LongTypedSupplier.of(value);
+			delegate.put(key.getId(), supplier);
+			rehash(key.getId(), supplier, 0);
+		} else if (oldValueSupplier instanceof LongTypedSupplier) {
+			int oldEntryHash = entryHashIfValid(key.getId(), oldValueSupplier);
+			((LongTypedSupplier) oldValueSupplier).setLong(value);
+			rehash(key.getId(), oldValueSupplier, oldEntryHash);
+		} else {
+			put(key, Long.valueOf(value));
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		Map<ID, TypedSupplier<Object>> delegate = delegate();
+		TypedSupplier<?> oldValueSupplier = delegate.get(key.getId());
+		if (oldValueSupplier == null) {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			TypedSupplier<Object> supplier = (TypedSupplier) DoubleTypedSupplier.of(value);
+			delegate.put(key.getId(), supplier);
+			rehash(key.getId(), supplier, 0);
+		} else if (oldValueSupplier instanceof DoubleTypedSupplier) {
+			int oldEntryHash = entryHashIfValid(key.getId(), oldValueSupplier);
+			((DoubleTypedSupplier) oldValueSupplier).setDouble(value);
+			rehash(key.getId(), oldValueSupplier, oldEntryHash);
+		} else {
+			put(key, Double.valueOf(value));
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		Map<ID, TypedSupplier<Object>> delegate = delegate();
+		TypedSupplier<?> oldValueSupplier = delegate.get(key.getId());
+		if (oldValueSupplier == null) {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			TypedSupplier<Object> supplier = (TypedSupplier) BooleanTypedSupplier.of(value);
+			delegate.put(key.getId(), supplier);
+			rehash(key.getId(), supplier, 0);
+		} else if (oldValueSupplier instanceof BooleanTypedSupplier) {
+			int oldEntryHash = entryHashIfValid(key.getId(), oldValueSupplier);
+			((BooleanTypedSupplier) oldValueSupplier).setBoolean(value);
+			rehash(key.getId(), oldValueSupplier, oldEntryHash);
+		} else {
+			put(key, Boolean.valueOf(value));
+		}
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public <TT> void setType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException {
@@ -280,13 +412,14 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		TypedSupplier<?> oldValueSupplier = delegate.get(typedKey.getId());
 		if (oldValueSupplier == null) {
 			//supplier is missing, replace it with a mutable one
-			@SuppressWarnings("unchecked")
-			TypeToken<Object> type = (TypeToken<Object>) typedKey.getType();
-			delegate.put(typedKey.getId(), MutableTypedSupplier.of(type, null));
+			TypedSupplier<Object> supplier = newSupplier(typedKey, null);
+			delegate.put(typedKey.getId(), supplier);
+			rehash(typedKey.getId(), supplier, 0);
 			//TODO: do we care that we may have lost some intermediate TypedSupplier populated by an unsynchronized put call?
+			return;
 		}
 		
-		checkValueType(typedKey.getType(), oldValueSupplier);
+		checkValueType(typedKey.getType(), oldValueSupplier, typedKey.getId());
 	}
 		
 	/** {@inheritDoc} */
@@ -297,58 +430,143 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 		TypedSupplier<?> oldValueSupplier = delegate.get(typedKey.getId());
 		if (oldValueSupplier == null) {
 			//supplier is missing, replace it with a mutable one
-			@SuppressWarnings("unchecked")
-			TypeToken<Object> type = (TypeToken<Object>) typedKey.getType();
-			delegate.put(typedKey.getId(), MutableTypedSupplier.of(type, value));
+			TypedSupplier<Object> supplier = newSupplier(typedKey, value);
+			delegate.put(typedKey.getId(), supplier);
+			rehash(typedKey.getId(), supplier, 0);
 			//TODO: do we care that we may have lost some intermediate TypedSupplier populated by an unsynchronized put call?
 			return null;
 		}
 		
-		TypedSupplier<TT> typedSupplier = checkValueType(typedKey.getType(), oldValueSupplier);
+		TypedSupplier<TT> typedSupplier = checkValueType(typedKey.getType(), oldValueSupplier, typedKey.getId());
 		
-		if (oldValueSupplier instanceof MutableTypedSupplier) {
+		if (oldValueSupplier instanceof AtomicTypedSupplier) {
+			// if supplier is atomic, swap the value without locking
+			AtomicTypedSupplier<TT> supplier = (AtomicTypedSupplier<TT>) typedSupplier;
+			return supplier.getAndSet(value);
+		} else if (oldValueSupplier instanceof PrimitiveTypedSupplier) {
+			// if supplier is primitive, update it in place
+			PrimitiveTypedSupplier<TT> supplier = (PrimitiveTypedSupplier<TT>) typedSupplier;
+			TT oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(typedKey.getId(), supplier);
+			supplier.set(value);
+			rehash(typedKey.getId(), supplier, oldEntryHash);
+			return oldValue;
+		} else if (oldValueSupplier instanceof MutableTypedSupplier) {
 			// if supplier is mutable, update it
 			MutableTypedSupplier<TT> supplier = (MutableTypedSupplier<TT>) typedSupplier;
+			TT oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(typedKey.getId(), supplier);
 			supplier.set(value);
+			rehash(typedKey.getId(), supplier, oldEntryHash);
 			//TODO: do we care that some unsynchronized put call may have replaced this supplier?
+			return oldValue;
 		} else {
 			//supplier is immutable, can't update it
-			throw new ImmutableEntryException("Entry is immutable for the key: " + typedKey);
+			throw ImmutableEntryException.of("Entry is immutable for the key: %s", typedKey);
 		}
-		
-		return typedSupplier.get();
 	}
 	
-	/** {@inheritDoc} */
+	/**
+	 * Puts all entries of another typed map, all or nothing: every entry is validated before any is updated, so a
+	 * failure leaves this map unchanged. Each source value is read once, while validating, and the values read are
+	 * the ones put.
+	 * 
+	 * Entries of typed maps in this package are read straight from their internal storage, without building an entry
+	 * set.
+	 * 
+	 * @throws ClassCastException if an entry type is not assignable from the type of the existing entry
+	 * @throws ImmutableEntryException if an existing entry is immutable
+	 */
 	@Override
-	@Nullable
-	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException {
-		//TODO: validate that we CAN update before trying? or revert transaction?
-		Map<ID, TypedSupplier<Object>> delegate = delegate();
-		for (Entry<? extends TypedKey<Object, ? extends ID>, Object> entry : m.entries()) {
-			TypedKey<Object, ? extends ID> typedKey = entry.getKey();
-			TypeToken<Object> type = typedKey.getType();
-			Object value = entry.getValue();
-			
-			TypedSupplier<?> oldValueSupplier = delegate.get(typedKey.getId());
-			if (oldValueSupplier == null) {
-				//supplier is missing, replace it with a mutable one
-				delegate.put(typedKey.getId(), MutableTypedSupplier.of(type, value));
-				//TODO: do we care that we may have lost some intermediate TypedSupplier populated by an unsynchronized put call?
-			}
-			
-			TypedSupplier<Object> typedSupplier = checkValueType(type, oldValueSupplier);
-			
-			if (oldValueSupplier instanceof MutableTypedSupplier) {
-				// if supplier is mutable, update it
-				MutableTypedSupplier<Object> supplier = (MutableTypedSupplier<Object>) typedSupplier;
-				supplier.set(value);
-				//TODO: do we care that some unsynchronized put call may have replaced this supplier?
-			} else {
-				//supplier is immutable, can't update it
-				throw new ImmutableEntryException("Entry is immutable for the key: " + typedKey);
+	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException, ImmutableEntryException {
+		final Map<ID, TypedSupplier<Object>> delegate = delegate();
+		final List<ID> ids = Lists.newArrayListWithCapacity(m.size());
+		final List<TypeToken<Object>> types = Lists.newArrayListWithCapacity(m.size());
+		final List<Object> values = Lists.newArrayListWithCapacity(m.size());
+		// validate every entry before updating any, so that a failure leaves this map unchanged
+		if (m instanceof AbstractTypedMap) {
+			AbstractTypedMap<? extends ID> source = (AbstractTypedMap<? extends ID>) m;
+			source.visitEntries(new EntryVisitor<ID>() {
+				public void visit(ID id, TypeToken<Object> type, Object value) {
+					checkUpdatable(delegate.get(id), type, id);
+					ids.add(id);
+					types.add(type);
+					values.add(value);
+				}
+			});
+		} else {
+			for (Entry<? extends TypedKey<Object, ? extends ID>, Object> entry : m.entries()) {
+				TypedKey<Object, ? extends ID> typedKey = entry.getKey();
+				checkUpdatable(delegate.get(typedKey.getId()), typedKey.getType(), typedKey.getId());
+				ids.add(typedKey.getId());
+				types.add(typedKey.getType());
+				values.add(entry.getValue());
 			}
 		}
+		for (int i = 0; i < ids.size(); i++) {
+			update(ids.get(i), types.get(i), values.get(i));
+		}
+	}
+
+	/**
+	 * Checks that an existing entry can be updated with a value of the specified type.
+	 * 
+	 * @param oldValueSupplier the existing entry, or null to add a new one
+	 * @throws ClassCastException if the type is not assignable from the type of the existing entry
+	 * @throws ImmutableEntryException if the existing entry is immutable
+	 */
+	private static void checkUpdatable(@Nullable TypedSupplier<?> oldValueSupplier, TypeToken<?> type, Object keyId) throws ClassCastException, ImmutableEntryException {
+		if (oldValueSupplier == null) {
+			return;
+		}
+		checkAssignable(type, oldValueSupplier.getType(), keyId);
+		if (!isUpdatable(oldValueSupplier)) {
+			throw ImmutableEntryException.of("Entry is immutable for the key ID: %s", keyId);
+		}
+	}
+
+	/**
+	 * @return true if the value of the supplier can be updated in place
+	 */
+	private static boolean isUpdatable(TypedSupplier<?> valueSupplier) {
+		return valueSupplier instanceof AtomicTypedSupplier
+				|| valueSupplier instanceof PrimitiveTypedSupplier
+				|| valueSupplier instanceof MutableTypedSupplier;
+	}
+
+	/**
+	 * Updates an entry that was validated by {@link #checkUpdatable(TypedSupplier, TypeToken, Object)}, or adds a
+	 * mutable one if it is missing.
+	 */
+	private void update(ID keyId, TypeToken<Object> type, @Nullable Object value) {
+		Map<ID, TypedSupplier<Object>> delegate = delegate();
+		TypedSupplier<Object> oldValueSupplier = delegate.get(keyId);
+		if (oldValueSupplier == null) {
+			//supplier is missing, replace it with a mutable one
+			TypedSupplier<Object> supplier = MutableTypedSupplier.of(type, value);
+			delegate.put(keyId, supplier);
+			rehash(keyId, supplier, 0);
+		} else {
+			int oldEntryHash = entryHashIfValid(keyId, oldValueSupplier);
+			set(oldValueSupplier, value);
+			rehash(keyId, oldValueSupplier, oldEntryHash);
+		}
+	}
+
+	/**
+	 * Sets the value of a supplier that {@link #isUpdatable(TypedSupplier) is updatable}.
+	 */
+	private static void set(TypedSupplier<Object> valueSupplier, @Nullable Object value) {
+		if (valueSupplier instanceof AtomicTypedSupplier) {
+			// if supplier is atomic, swap the value without locking
+			((AtomicTypedSupplier<Object>) valueSupplier).set(value);
+		} else if (valueSupplier instanceof PrimitiveTypedSupplier) {
+			// if supplier is primitive, update it in place
+			((PrimitiveTypedSupplier<Object>) valueSupplier).set(value);
+		} else {
+			// supplier is mutable, update it
+			((MutableTypedSupplier<Object>) valueSupplier).set(value);
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -357,21 +575,36 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	public<TT> TT remove(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException, ImmutableEntryException {
 		TypedSupplier<?> oldValueSupplier = delegate().get(typedKey.getId());
 		if (oldValueSupplier == null) {
-			throw new EntryNotFoundException("Value does not exist for the key: " + typedKey);
+			TypedMapEvents.entryNotFound(typedKey.getId(), typedKey.getType());
+			throw EntryNotFoundException.of("Value does not exist for the key: %s", typedKey);
 		}
 		
-		TypedSupplier<TT> typedSupplier = checkValueType(typedKey.getType(), oldValueSupplier);
+		TypedSupplier<TT> typedSupplier = checkValueType(typedKey.getType(), oldValueSupplier, typedKey.getId());
 		
-		if (typedSupplier instanceof MutableTypedSupplier) {
+		if (typedSupplier instanceof AtomicTypedSupplier) {
+			// if supplier is atomic, swap the value without locking
+			AtomicTypedSupplier<TT> supplier = (AtomicTypedSupplier<TT>) typedSupplier;
+			return supplier.getAndSet(null);
+		} else if (typedSupplier instanceof PrimitiveTypedSupplier) {
+			// if supplier is primitive, update it in place
+			PrimitiveTypedSupplier<TT> supplier = (PrimitiveTypedSupplier<TT>) typedSupplier;
+			TT oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(typedKey.getId(), supplier);
+			supplier.set(null);
+			rehash(typedKey.getId(), supplier, oldEntryHash);
+			return oldValue;
+		} else if (typedSupplier instanceof MutableTypedSupplier) {
 			// if supplier is mutable, update it
 			MutableTypedSupplier<TT> supplier = (MutableTypedSupplier<TT>) typedSupplier;
+			TT oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(typedKey.getId(), supplier);
 			supplier.set(null);
+			rehash(typedKey.getId(), supplier, oldEntryHash);
+			return oldValue;
 		} else {
 			//supplier is immutable, can't update it
-			throw new ImmutableEntryException("Entry is immutable for the key: " + typedKey);
+			throw ImmutableEntryException.of("Entry is immutable for the key: %s", typedKey);
 		}
-		
-		return typedSupplier.get();
 	}
 
 	/** {@inheritDoc} */
@@ -380,21 +613,38 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	public <TT> TT remove(@Nonnull Class<TT> valueType, @Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
 		TypedSupplier<?> oldValueSupplier = delegate().get(keyId);
 		if (oldValueSupplier == null) {
-			throw new EntryNotFoundException("Value does not exist for the key ID: " + keyId);
+			TypedMapEvents.entryNotFound(keyId, valueType);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
 		}
 		
-		TypedSupplier<TT> typedSupplier = checkValueType(TypeToken.of(valueType), oldValueSupplier);
+		checkAssignable(valueType, oldValueSupplier.getType(), keyId);
+		@SuppressWarnings("unchecked")
+		TypedSupplier<TT> typedSupplier = (TypedSupplier<TT>) oldValueSupplier;
 		
-		if (typedSupplier instanceof MutableTypedSupplier) {
+		if (typedSupplier instanceof AtomicTypedSupplier) {
+			// if supplier is atomic, swap the value without locking
+			AtomicTypedSupplier<TT> supplier = (AtomicTypedSupplier<TT>) typedSupplier;
+			return supplier.getAndSet(null);
+		} else if (typedSupplier instanceof PrimitiveTypedSupplier) {
+			// if supplier is primitive, update it in place
+			PrimitiveTypedSupplier<TT> supplier = (PrimitiveTypedSupplier<TT>) typedSupplier;
+			TT oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(keyId, supplier);
+			supplier.set(null);
+			rehash(keyId, supplier, oldEntryHash);
+			return oldValue;
+		} else if (typedSupplier instanceof MutableTypedSupplier) {
 			// if supplier is mutable, update it
 			MutableTypedSupplier<TT> supplier = (MutableTypedSupplier<TT>) typedSupplier;
+			TT oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(keyId, supplier);
 			supplier.set(null);
+			rehash(keyId, supplier, oldEntryHash);
+			return oldValue;
 		} else {
 			//supplier is immutable, can't update it
-			throw new ImmutableEntryException("Entry is immutable for the key ID: " + keyId);
+			throw ImmutableEntryException.of("Entry is immutable for the key ID: %s", keyId);
 		}
-		
-		return typedSupplier.get();
 	}
 
 	/** {@inheritDoc} */
@@ -403,36 +653,155 @@ public abstract class SuppliedTypedMap<ID> extends AbstractTypedMap<ID> implemen
 	public Object remove(@Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
 		TypedSupplier<?> oldValueSupplier = delegate().get(keyId);
 		if (oldValueSupplier == null) {
-			throw new EntryNotFoundException("Value does not exist for the key ID: " + keyId);
+			TypedMapEvents.entryNotFound(keyId);
+			throw EntryNotFoundException.of("Value does not exist for the key ID: %s", keyId);
 		}
 		
-		if (oldValueSupplier instanceof MutableTypedSupplier) {
+		if (oldValueSupplier instanceof AtomicTypedSupplier) {
+			// if supplier is atomic, swap the value without locking
+			AtomicTypedSupplier<?> supplier = (AtomicTypedSupplier<?>) oldValueSupplier;
+			return supplier.getAndSet(null);
+		} else if (oldValueSupplier instanceof PrimitiveTypedSupplier) {
+			// if supplier is primitive, update it in place
+			PrimitiveTypedSupplier<?> supplier = (PrimitiveTypedSupplier<?>) oldValueSupplier;
+			Object oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(keyId, supplier);
+			supplier.set(null);
+			rehash(keyId, supplier, oldEntryHash);
+			return oldValue;
+		} else if (oldValueSupplier instanceof MutableTypedSupplier) {
 			// if supplier is mutable, update it
 			MutableTypedSupplier<?> supplier = (MutableTypedSupplier<?>) oldValueSupplier;
+			Object oldValue = supplier.get();
+			int oldEntryHash = entryHashIfValid(keyId, supplier);
 			supplier.set(null);
+			rehash(keyId, supplier, oldEntryHash);
+			return oldValue;
 		} else {
 			//supplier is immutable, can't update it
-			throw new ImmutableEntryException("Entry is immutable for the key ID: " + keyId);
+			throw ImmutableEntryException.of("Entry is immutable for the key ID: %s", keyId);
 		}
-		
-		return oldValueSupplier.get();
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public void clear() {
-		//TODO: validate that we CAN clear before trying? or revert transaction?
+		Map<ID, TypedSupplier<Object>> delegate = delegate();
+		// validate every entry before updating any, so that a failure leaves this map unchanged
+		for (Entry<ID, TypedSupplier<Object>> entry : delegate.entrySet()) {
+			if (!isUpdatable(entry.getValue())) {
+				throw ImmutableEntryException.of("Entry is immutable for the key ID: %s", entry.getKey());
+			}
+		}
+		int keysHash = 0;
+		for (Entry<ID, TypedSupplier<Object>> entry : delegate.entrySet()) {
+			TypedSupplier<Object> valueSupplier = entry.getValue();
+			set(valueSupplier, null);
+			keysHash += TypedMaps.keyHashCode(entry.getKey(), valueSupplier.getType());
+		}
+		if (hashValid) {
+			hash = keysHash;
+		}
+	}
+
+	/**
+	 * Returns the hash code of the entry set. The hash code is computed on first use and then kept up to date by every
+	 * mutation of this map, making it a constant time operation.
+	 * 
+	 * The hash code is only cached while every value is fixed or held by a supplier that this map created, so that it
+	 * only changes when this map updates it. Maps with a mutable supplier provided by the caller, an
+	 * {@link AtomicTypedSupplier} that may be updated concurrently or a {@link karlkfi.jtyped.DelegatingTypedSupplier}
+	 * that computes its value on demand never cache their hash code.
+	 * 
+	 * @return the hash code of the entry set
+	 */
+	@Override
+	public int hashCode() {
+		if (hashValid) {
+			return hash;
+		}
+		int result = 0;
+		boolean cacheable = true;
 		for (Entry<ID, TypedSupplier<Object>> entry : delegate().entrySet()) {
-			TypedSupplier<?> valueSupplier = entry.getValue();
-			if (valueSupplier instanceof MutableTypedSupplier) {
-				// if supplier is mutable, update it
-				MutableTypedSupplier<?> supplier = (MutableTypedSupplier<?>) valueSupplier;
-				supplier.set(null);
-			} else {
-				//supplier is immutable, can't update it
-				throw new ImmutableEntryException("Entry is immutable for the key ID: " + entry.getKey());
+			TypedSupplier<Object> valueSupplier = entry.getValue();
+			if (!isHashable(valueSupplier)) {
+				cacheable = false;
 			}
+			result += entryHash(entry.getKey(), valueSupplier);
+		}
+		if (cacheable) {
+			hash = result;
+			hashValid = true;
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the hash code is cached and maintained by every mutation
+	 */
+	boolean isHashCodeCached() {
+		return hashValid;
+	}
+
+	/**
+	 * @return true if the value of the supplier only changes when this map updates it, so that the hash code of its
+	 *         entry can be maintained
+	 */
+	private boolean isHashable(TypedSupplier<?> valueSupplier) {
+		return TypedMaps.isValueFixed(valueSupplier)
+				|| (ownsSuppliers && (valueSupplier instanceof MutableTypedSupplier || valueSupplier instanceof PrimitiveTypedSupplier));
+	}
+
+	/**
+	 * @return the hash code of the entry before it is updated, or 0 if the hash code of this map is not being maintained
+	 */
+	private int entryHashIfValid(Object keyId, TypedSupplier<?> valueSupplier) {
+		return hashValid ? entryHash(keyId, valueSupplier) : 0;
+	}
+
+	/**
+	 * Updates the maintained hash code after an entry is added or updated.
+	 * 
+	 * @param oldEntryHash the hash code of the entry before the update, or 0 if it was added
+	 */
+	private void rehash(Object keyId, TypedSupplier<?> valueSupplier, int oldEntryHash) {
+		if (hashValid && !isHashable(valueSupplier)) {
+			hashValid = false;
+		} else if (hashValid) {
+			hash += entryHash(keyId, valueSupplier) - oldEntryHash;
+		}
+	}
+
+	/**
+	 * @return the hash code of an entry, as defined by {@link Entry#hashCode()}, without boxing primitive values
+	 */
+	private static int entryHash(Object keyId, TypedSupplier<?> valueSupplier) {
+		return TypedMaps.keyHashCode(keyId, valueSupplier.getType()) ^ valueHash(valueSupplier);
+	}
+
+	/**
+	 * @return the hash code of the value of the supplier, matching the hash code of its boxed value
+	 */
+	private static int valueHash(TypedSupplier<?> valueSupplier) {
+		if (valueSupplier instanceof PrimitiveTypedSupplier && !((PrimitiveTypedSupplier<?>) valueSupplier).isPresent()) {
+			return 0;
+		}
+		if (valueSupplier instanceof IntTypedSupplier) {
+			return ((IntTypedSupplier) valueSupplier).getInt();
+		}
+		if (valueSupplier instanceof LongTypedSupplier) {
+			long value = ((LongTypedSupplier) valueSupplier).getLong();
+			return (int) (value ^ (value >>> 32));
+		}
+		if (valueSupplier instanceof DoubleTypedSupplier) {
+			long bits = Double.doubleToLongBits(((DoubleTypedSupplier) valueSupplier).getDouble());
+			return (int) (bits ^ (bits >>> 32));
+		}
+		if (valueSupplier instanceof BooleanTypedSupplier) {
+			return ((BooleanTypedSupplier) valueSupplier).getBoolean() ? 1231 : 1237;
 		}
+		Object value = valueSupplier.get();
+		return (value == null) ? 0 : value.hashCode();
 	}
 
 }
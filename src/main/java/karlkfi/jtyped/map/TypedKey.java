@@ -22,6 +22,9 @@ import karlkfi.jtyped.TypedReference;
 /**
  * A composite key with a generic ID and a generic type.
  * 
+ * Typed keys are equal if their IDs and types are equal, regardless of implementation, and their hash code is
+ * <code>31 * getId().hashCode() + getType().hashCode()</code>.
+ * 
  * @param <T> the key type
  * @param <ID> the key id type
  */
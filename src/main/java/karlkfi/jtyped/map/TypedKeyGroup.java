@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A prepared group of typed keys for bulk lookups, like {@link TypedMap#getAll(TypedKeyGroup)}, that read many keys
+ * from a typed map in one pass.
+ * 
+ * Type checks are resolved once per key group: each key remembers the last value type it was found to be assignable
+ * from, so repeated lookups of the same entry types skip the check. A group {@link #bind(TypedMapLayout) bound} to a
+ * layout also resolves the slot of every key up front, so maps sharing that layout are read without hashing.
+ * 
+ * Results are returned in key order; {@link #get(Object[], int, TypedKey)} reads them back with their key type.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+public final class TypedKeyGroup<ID> {
+
+	/**
+	 * Slot of a key whose ID is not part of the bound layout.
+	 */
+	static final int MISSING = -1;
+
+	/**
+	 * Slot of a key whose type is not assignable from the bound layout slot type.
+	 */
+	static final int MISMATCH = -2;
+
+	private final ImmutableList<TypedKey<?, ? extends ID>> keys;
+	private final Object[] ids;
+	private final TypeToken<?>[] types;
+
+	/**
+	 * Last value type each key was found to be assignable from. Races only cause a redundant check.
+	 */
+	private final TypeToken<?>[] checkedTypes;
+
+	@Nullable
+	private final TypedMapLayout<?> layout;
+	@Nullable
+	private final int[] slots;
+
+	private TypedKeyGroup(ImmutableList<TypedKey<?, ? extends ID>> keys, @Nullable TypedMapLayout<?> layout, @Nullable int[] slots) {
+		this.keys = keys;
+		this.ids = new Object[keys.size()];
+		this.types = new TypeToken<?>[keys.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = keys.get(i).getId();
+			types[i] = keys.get(i).getType();
+		}
+		this.checkedTypes = types.clone();
+		this.layout = layout;
+		this.slots = slots;
+	}
+
+	/**
+	 * Creates a group of keys, in iteration order.
+	 * 
+	 * @param keys the typed keys
+	 * @return a new unbound key group
+	 */
+	@Nonnull
+	public static <I> TypedKeyGroup<I> of(@Nonnull Iterable<? extends TypedKey<?, ? extends I>> keys) {
+		ImmutableList<TypedKey<?, ? extends I>> keyList = ImmutableList.<TypedKey<?, ? extends I>>copyOf(keys);
+		return new TypedKeyGroup<I>(keyList, null, null);
+	}
+
+	/**
+	 * Creates a group of a single key.
+	 */
+	@Nonnull
+	public static <I> TypedKeyGroup<I> of(@Nonnull TypedKey<?, ? extends I> k1) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1));
+	}
+
+	/**
+	 * Creates a group of keys, in argument order.
+	 */
+	@Nonnull
+	public static <I> TypedKeyGroup<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2));
+	}
+
+	/**
+	 * Creates a group of keys, in argument order.
+	 */
+	@Nonnull
+	public static <I> TypedKeyGroup<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3));
+	}
+
+	/**
+	 * Creates a group of keys, in argument order.
+	 */
+	@Nonnull
+	public static <I> TypedKeyGroup<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3, @Nonnull TypedKey<?, ? extends I> k4) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3, k4));
+	}
+
+	/**
+	 * Creates a group of keys, in argument order.
+	 * Use {@link #of(Iterable)} for more keys.
+	 */
+	@Nonnull
+	public static <I> TypedKeyGroup<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3, @Nonnull TypedKey<?, ? extends I> k4, @Nonnull TypedKey<?, ? extends I> k5) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3, k4, k5));
+	}
+
+	/**
+	 * Binds this group to a layout, resolving the slot and checking the type of every key once. Keys that are not
+	 * part of the layout are looked up by ID, so that maps with entries outside the layout still find them.
+	 * 
+	 * @param layout the layout shared by the maps to read
+	 * @return a new key group bound to the layout
+	 */
+	@Nonnull
+	public TypedKeyGroup<ID> bind(@Nonnull TypedMapLayout<?> layout) {
+		int[] boundSlots = new int[keys.size()];
+		for (int i = 0; i < boundSlots.length; i++) {
+			TypedKey<?, ? extends ID> key = keys.get(i);
+			int slot = layout.indexOf(key.getId());
+			if (slot >= 0 && !AssignabilityCache.isAssignable(key.getType(), layout.getType(slot))) {
+				slot = MISMATCH;
+			}
+			boundSlots[i] = slot;
+		}
+		return new TypedKeyGroup<ID>(keys, layout, boundSlots);
+	}
+
+	/**
+	 * @return the number of keys in this group
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return the keys of this group, in lookup order
+	 */
+	@Nonnull
+	public List<TypedKey<?, ? extends ID>> getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return the layout this group is bound to, or null if it is unbound
+	 */
+	@Nullable
+	public TypedMapLayout<?> getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Reads a result of a bulk lookup with the type of its key.
+	 * 
+	 * @param values the values filled in by {@link TypedMap#getAll(TypedKeyGroup, Object[])}
+	 * @param index the index of the key in this group
+	 * @param typedKey the key at that index
+	 * @return the value cast to the key type
+	 * @throws IllegalArgumentException if the key is not the key at that index
+	 */
+	@Nullable
+	public <T> T get(@Nonnull Object[] values, int index, @Nonnull TypedKey<T, ? extends ID> typedKey) throws IllegalArgumentException {
+		Preconditions.checkArgument(keys.get(index) == typedKey, "Key is not at index %s of this group: %s", index, typedKey);
+		@SuppressWarnings("unchecked")
+		T value = (T) values[index];
+		return value;
+	}
+
+	@Nonnull
+	TypedKey<?, ? extends ID> getKey(int index) {
+		return keys.get(index);
+	}
+
+	@Nonnull
+	Object getId(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * @return the slots resolved for the layout, or null if this group is not bound to it
+	 */
+	@Nullable
+	int[] slotsIn(@Nullable TypedMapLayout<?> mapLayout) {
+		return (mapLayout != null && mapLayout == layout) ? slots : null;
+	}
+
+	/**
+	 * Checks whether the key at an index is assignable from a value type, remembering the value type if it is.
+	 */
+	boolean isAssignable(int index, @Nonnull TypeToken<?> valueType) {
+		if (checkedTypes[index] == valueType) {
+			return true;
+		}
+		if (AssignabilityCache.isAssignable(types[index], valueType)) {
+			checkedTypes[index] = valueType;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "TypedKeyGroup" + keys;
+	}
+
+}
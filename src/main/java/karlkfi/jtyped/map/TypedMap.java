@@ -19,9 +19,12 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import karlkfi.jtyped.Sized;
 
+import com.google.common.base.Optional;
+
 /**
  * A map of unique key IDs to typed values that can be retrieved using typed keys.
  * This is similar to a standard Map except that each entry can have its own type.
@@ -42,6 +45,19 @@ public interface TypedMap<ID> extends Sized {
 	 */
 	<T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey);
 	
+	/**
+	 * Checks whether the map contains a value for the specified key ID that is assignable to the value type.
+	 * 
+	 * Unlike {@link #contains(TypedKey)}, no key or {@link com.google.common.reflect.TypeToken} is created for the
+	 * check.
+	 * 
+	 * @param valueType the value type
+	 * @param keyId the key ID
+	 * @return true if the map contains a value corresponding to the specified key ID that is assignable to the value
+	 *         type
+	 */
+	<T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId);
+	
 	/**
 	 * Checks whether the map contains a value for the specified key ID.
 	 * 
@@ -81,6 +97,21 @@ public interface TypedMap<ID> extends Sized {
 	@Nonnull
 	<T> T get(@Nonnull TypedKey<T, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException;
 	
+	/**
+	 * Gets the value to which the specified bound key is mapped.
+	 * 
+	 * If this map shares the layout the key was bound to, the value is read directly from the key's slot without
+	 * hashing or type checking. Otherwise this behaves like {@link #get(TypedKey)}.
+	 * 
+	 * @param <T> the requested type
+	 * @param boundKey the bound key
+	 * @return the corresponding value cast to the requested type
+	 * @throws EntryNotFoundException if the key does not correspond to a value
+	 * @throws ClassCastException if the key type is not assignable from the value type
+	 */
+	@Nonnull
+	<T> T get(@Nonnull BoundTypedKey<T, ? extends ID> boundKey) throws EntryNotFoundException, ClassCastException;
+	
 	/**
 	 * Gets the value to which the specified key is mapped.
 	 * 
@@ -97,6 +128,55 @@ public interface TypedMap<ID> extends Sized {
 	@Nonnull
 	<T> T get(@Nonnull Class<T> valueType, @Nonnull ID keyId) throws EntryNotFoundException, ClassCastException;
 	
+	/**
+	 * Gets the value to which the specified key is mapped, if any.
+	 * 
+	 * Unlike {@link #get(TypedKey)}, a missing entry or a type mismatch is reported by returning null instead of
+	 * throwing, so probing for optional keys does not allocate.
+	 * 
+	 * @param typedKey the typed key
+	 * @return the corresponding value, or null if there is no value or the key type is not assignable from the value
+	 *         type
+	 */
+	@Nullable
+	<T> T getIfPresent(@Nonnull TypedKey<T, ? extends ID> typedKey);
+	
+	/**
+	 * Gets the value to which the specified key ID is mapped, if any.
+	 * 
+	 * @param valueType the value type
+	 * @param keyId the key ID
+	 * @return the corresponding value, or null if there is no value or the value type is not assignable from the type
+	 *         of the entry
+	 * @see #getIfPresent(TypedKey)
+	 */
+	@Nullable
+	<T> T getIfPresent(@Nonnull Class<T> valueType, @Nonnull ID keyId);
+	
+	/**
+	 * Gets the value to which the specified key is mapped, or a default value.
+	 * 
+	 * @param typedKey the typed key
+	 * @param defaultValue the value to return if there is no value or the key type is not assignable from the value type
+	 * @return the corresponding value, or the default value
+	 * @see #getIfPresent(TypedKey)
+	 */
+	@Nullable
+	<T> T getOrDefault(@Nonnull TypedKey<T, ? extends ID> typedKey, @Nullable T defaultValue);
+	
+	/**
+	 * Finds the value to which the specified key is mapped.
+	 * 
+	 * Misses and type mismatches return the shared {@link Optional#absent()} instance, so only hits allocate.
+	 * 
+	 * @param typedKey the typed key
+	 * @return the corresponding value, or absent if there is no value or the key type is not assignable from the value
+	 *         type
+	 * @see #getIfPresent(TypedKey)
+	 */
+	@Nonnull
+	<T> Optional<T> find(@Nonnull TypedKey<T, ? extends ID> typedKey);
+	
 	/**
 	 * Gets the value to which the specified key ID is mapped.
 	 * 
@@ -111,6 +191,90 @@ public interface TypedMap<ID> extends Sized {
 	@Nonnull
 	Object get(@Nonnull ID keyId) throws EntryNotFoundException;
 
+	/**
+	 * Gets the values to which the keys of a group are mapped, in one pass.
+	 * 
+	 * @param keys the prepared key group
+	 * @return a new array of the corresponding values, in key order
+	 * @throws EntryNotFoundException if a key does not correspond to a value
+	 * @throws ClassCastException if a key type is not assignable from the value type
+	 * @see TypedKeyGroup#get(Object[], int, TypedKey)
+	 */
+	@Nonnull
+	Object[] getAll(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException;
+	
+	/**
+	 * Gets the values to which the keys of a group are mapped, in one pass, into a reusable array.
+	 * 
+	 * @param keys the prepared key group
+	 * @param result the array to fill with the corresponding values, in key order
+	 * @throws IllegalArgumentException if the array is smaller than the key group
+	 * @throws EntryNotFoundException if a key does not correspond to a value
+	 * @throws ClassCastException if a key type is not assignable from the value type
+	 */
+	void getAll(@Nonnull TypedKeyGroup<? extends ID> keys, @Nonnull Object[] result) throws IllegalArgumentException, EntryNotFoundException, ClassCastException;
+	
+	/**
+	 * Checks whether the map contains a value for every key of a group that is assignable to the key type.
+	 * 
+	 * @param keys the prepared key group
+	 * @return true if {@link #contains(TypedKey)} is true for every key of the group
+	 */
+	boolean containsAll(@Nonnull TypedKeyGroup<? extends ID> keys);
+	
+	/**
+	 * Checks that the map contains a value for every key of a group that is assignable to the key type.
+	 * 
+	 * @param keys the prepared key group
+	 * @throws EntryNotFoundException if a key does not correspond to a value
+	 * @throws ClassCastException if a key type is not assignable from the value type
+	 */
+	void checkTypes(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException;
+
+	/**
+	 * Gets the <code>int</code> value to which the specified key is mapped, without boxing if the value is stored in
+	 * primitive form.
+	 * 
+	 * @param key the int typed key
+	 * @return the corresponding value
+	 * @throws EntryNotFoundException if the key does not correspond to a value
+	 * @throws ClassCastException if the key type is not assignable from the value type
+	 */
+	int getInt(@Nonnull IntTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException;
+
+	/**
+	 * Gets the <code>long</code> value to which the specified key is mapped, without boxing if the value is stored in
+	 * primitive form.
+	 * 
+	 * @param key the long typed key
+	 * @return the corresponding value
+	 * @throws EntryNotFoundException if the key does not correspond to a value
+	 * @throws ClassCastException if the key type is not assignable from the value type
+	 */
+	long getLong(@Nonnull LongTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException;
+
+	/**
+	 * Gets the <code>double</code> value to which the specified key is mapped, without boxing if the value is stored in
+	 * primitive form.
+	 * 
+	 * @param key the double typed key
+	 * @return the corresponding value
+	 * @throws EntryNotFoundException if the key does not correspond to a value
+	 * @throws ClassCastException if the key type is not assignable from the value type
+	 */
+	double getDouble(@Nonnull DoubleTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException;
+
+	/**
+	 * Gets the <code>boolean</code> value to which the specified key is mapped, without boxing if the value is stored in
+	 * primitive form.
+	 * 
+	 * @param key the boolean typed key
+	 * @return the corresponding value
+	 * @throws EntryNotFoundException if the key does not correspond to a value
+	 * @throws ClassCastException if the key type is not assignable from the value type
+	 */
+	boolean getBoolean(@Nonnull BooleanTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException;
+
 	/**
 	 * Gets the set of typed keys that have corresponding values in this map.
 	 * This only includes keys with the types as set, not all assignable types.
@@ -0,0 +1,446 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Writes the entries of a typed map to an {@link Appendable}, one entry at a time, without building an entry set or
+ * a string of the whole map.
+ * 
+ * Output is bounded by a maximum number of entries and a maximum length, and values are written by pluggable
+ * {@link ValueFormatter}s. Unless configured to {@link #forceSuppliers(boolean) force suppliers}, values of suppliers
+ * that may compute or decode them on demand, like a {@link karlkfi.jtyped.DelegatingTypedSupplier}, are not read and
+ * are written as {@value #LAZY_VALUE}.
+ * 
+ * Like {@link com.google.common.base.Joiner}, dumpers are immutable: configuration methods return a new dumper.
+ * 
+ * <pre>
+ * TypedMapDumper.standard().limitEntries(10).appendTo(logLine, map);
+ * </pre>
+ */
+@Immutable
+public final class TypedMapDumper {
+
+	/**
+	 * Written in place of a value that was not read.
+	 */
+	public static final String LAZY_VALUE = "<lazy>";
+
+	/**
+	 * Written in place of the entries or characters that were left out.
+	 */
+	public static final String ELLIPSIS = "...";
+
+	/**
+	 * Writes values of a type.
+	 */
+	public interface ValueFormatter {
+
+		/**
+		 * @param out the appendable to write to
+		 * @param type the entry type
+		 * @param value the non-null value
+		 * @throws IOException if the appendable throws
+		 */
+		void format(@Nonnull Appendable out, @Nonnull TypeToken<?> type, @Nonnull Object value) throws IOException;
+
+	}
+
+	/**
+	 * Writes values like {@link String#valueOf(Object)}, without building the string of a large value first when only
+	 * part of it fits in the length limit.
+	 */
+	private static final ValueFormatter TO_STRING = new ValueFormatter() {
+		public void format(Appendable out, TypeToken<?> type, Object value) throws IOException {
+			appendString(out, value);
+		}
+	};
+
+	private static final TypedMapDumper UNLIMITED = new TypedMapDumper(Integer.MAX_VALUE, Integer.MAX_VALUE, true,
+			ImmutableMap.<TypeToken<?>, ValueFormatter>of());
+
+	private static final TypedMapDumper STANDARD = new TypedMapDumper(100, 4096, false,
+			ImmutableMap.<TypeToken<?>, ValueFormatter>of());
+
+	private final int maxEntries;
+	private final int maxLength;
+	private final boolean forceSuppliers;
+
+	/**
+	 * Formatters by value type, in registration order.
+	 */
+	private final ImmutableMap<TypeToken<?>, ValueFormatter> formatters;
+
+	private TypedMapDumper(int maxEntries, int maxLength, boolean forceSuppliers,
+			ImmutableMap<TypeToken<?>, ValueFormatter> formatters) {
+		this.maxEntries = maxEntries;
+		this.maxLength = maxLength;
+		this.forceSuppliers = forceSuppliers;
+		this.formatters = formatters;
+	}
+
+	/**
+	 * Returns the dumper used by {@link TypedMap#toString()}: at most 100 entries and 4096 characters, without forcing
+	 * suppliers.
+	 */
+	@Nonnull
+	public static TypedMapDumper standard() {
+		return STANDARD;
+	}
+
+	/**
+	 * Returns a dumper that writes every entry in full, forcing every supplier.
+	 */
+	@Nonnull
+	public static TypedMapDumper unlimited() {
+		return UNLIMITED;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of entries to write, after which {@value #ELLIPSIS} is written
+	 * @return a dumper like this one, with the specified entry limit
+	 */
+	@Nonnull
+	public TypedMapDumper limitEntries(int maxEntries) {
+		Preconditions.checkArgument(maxEntries >= 0, "maxEntries must be non-negative");
+		return new TypedMapDumper(maxEntries, maxLength, forceSuppliers, formatters);
+	}
+
+	/**
+	 * Limits the number of characters written for the entries. Output is cut off at the limit and followed by
+	 * {@value #ELLIPSIS} and the closing brace, which are not counted.
+	 * 
+	 * @param maxLength the maximum number of characters to write
+	 * @return a dumper like this one, with the specified length limit
+	 */
+	@Nonnull
+	public TypedMapDumper limitLength(int maxLength) {
+		Preconditions.checkArgument(maxLength >= 0, "maxLength must be non-negative");
+		return new TypedMapDumper(maxEntries, maxLength, forceSuppliers, formatters);
+	}
+
+	/**
+	 * @param forceSuppliers whether to read the values of suppliers that may compute or decode them on demand
+	 * @return a dumper like this one, with the specified supplier policy
+	 */
+	@Nonnull
+	public TypedMapDumper forceSuppliers(boolean forceSuppliers) {
+		return new TypedMapDumper(maxEntries, maxLength, forceSuppliers, formatters);
+	}
+
+	/**
+	 * Registers a formatter for values of entries whose type is a subtype of the specified type. When several
+	 * formatters apply, one registered for the exact entry type is used, otherwise the first one registered.
+	 * Values without a formatter are written with {@link Object#toString()}.
+	 * 
+	 * @param type the value type
+	 * @param formatter the formatter
+	 * @return a dumper like this one, with the additional formatter
+	 * @throws IllegalArgumentException if a formatter is already registered for the type
+	 */
+	@Nonnull
+	public TypedMapDumper withFormatter(@Nonnull TypeToken<?> type, @Nonnull ValueFormatter formatter) throws IllegalArgumentException {
+		ImmutableMap<TypeToken<?>, ValueFormatter> newFormatters = ImmutableMap.<TypeToken<?>, ValueFormatter>builder()
+				.putAll(formatters)
+				.put(Preconditions.checkNotNull(type, "type is null"), Preconditions.checkNotNull(formatter, "formatter is null"))
+				.build();
+		return new TypedMapDumper(maxEntries, maxLength, forceSuppliers, newFormatters);
+	}
+
+	/**
+	 * @see #withFormatter(TypeToken, ValueFormatter)
+	 */
+	@Nonnull
+	public TypedMapDumper withFormatter(@Nonnull Class<?> type, @Nonnull ValueFormatter formatter) throws IllegalArgumentException {
+		return withFormatter(TypeToken.of(type), formatter);
+	}
+
+	/**
+	 * Writes the entries of a typed map, like <code>{a=1, b=2}</code>.
+	 * 
+	 * @param appendable the appendable to write to
+	 * @param map the typed map
+	 * @return the appendable
+	 * @throws IOException if the appendable throws
+	 */
+	@Nonnull
+	public <A extends Appendable> A appendTo(@Nonnull A appendable, @Nonnull TypedMap<?> map) throws IOException {
+		Preconditions.checkNotNull(appendable, "appendable is null");
+		BoundedAppendable out = new BoundedAppendable(appendable, maxLength);
+		appendable.append('{');
+		Iterator<? extends Entry<?, ?>> entries = entries(map);
+		int count = 0;
+		while (entries.hasNext() && !out.isFull()) {
+			if (count == maxEntries) {
+				if (count > 0) {
+					out.append(", ");
+				}
+				out.append(ELLIPSIS);
+				break;
+			}
+			if (count > 0) {
+				out.append(", ");
+			}
+			appendEntry(out, entries.next());
+			count++;
+		}
+		if (out.isFull()) {
+			appendable.append(ELLIPSIS);
+		}
+		appendable.append('}');
+		return appendable;
+	}
+
+	/**
+	 * Writes the entries of a typed map to a {@link StringBuilder}, which does not throw {@link IOException}.
+	 * 
+	 * @see #appendTo(Appendable, TypedMap)
+	 */
+	@Nonnull
+	public StringBuilder appendTo(@Nonnull StringBuilder builder, @Nonnull TypedMap<?> map) {
+		try {
+			appendTo((Appendable) builder, map);
+		} catch (IOException impossible) {
+			throw new AssertionError(impossible);
+		}
+		return builder;
+	}
+
+	/**
+	 * @return a string of the entries of the typed map
+	 * @see #appendTo(Appendable, TypedMap)
+	 */
+	@Nonnull
+	public String toString(@Nonnull TypedMap<?> map) {
+		int capacity = (int) Math.min(Math.min(map.size(), maxEntries) * 8L + 8, maxLength + 8L);
+		return appendTo(new StringBuilder(capacity), map).toString();
+	}
+
+	/**
+	 * Iterates over entries with supplier values when the map exposes them, or else over entries with values.
+	 */
+	private static Iterator<? extends Entry<?, ?>> entries(TypedMap<?> map) {
+		if (map instanceof CopyOnWriteTypedMap) {
+			map = ((CopyOnWriteTypedMap<?>) map).snapshot();
+		}
+		if (map instanceof AbstractTypedMap) {
+			return ((AbstractTypedMap<?>) map).entrySuppliers().iterator();
+		}
+		return map.entries().iterator();
+	}
+
+	private void appendEntry(Appendable out, Entry<?, ?> entry) throws IOException {
+		Object key = entry.getKey();
+		Object value = entry.getValue();
+		if (key instanceof TypedKey) {
+			// entry with a value, which has already been read
+			TypedKey<?, ?> typedKey = (TypedKey<?, ?>) key;
+			out.append(String.valueOf(typedKey.getId())).append('=');
+			appendValue(out, typedKey.getType(), value);
+			return;
+		}
+		// entry with a supplier value
+		TypedSupplier<?> valueSupplier = (TypedSupplier<?>) value;
+		out.append(String.valueOf(key)).append('=');
+		if (forceSuppliers || TypedMaps.holdsValue(valueSupplier)) {
+			appendValue(out, valueSupplier.getType(), valueSupplier.get());
+		} else {
+			out.append(LAZY_VALUE);
+		}
+	}
+
+	private void appendValue(Appendable out, TypeToken<?> type, @Nullable Object value) throws IOException {
+		if (isFull(out)) {
+			return;
+		}
+		if (value == null) {
+			out.append("null");
+		} else {
+			getFormatter(type).format(out, type, value);
+		}
+	}
+
+	private ValueFormatter getFormatter(TypeToken<?> type) {
+		ValueFormatter formatter = formatters.get(type);
+		if (formatter != null) {
+			return formatter;
+		}
+		for (Map.Entry<TypeToken<?>, ValueFormatter> entry : formatters.entrySet()) {
+			if (AssignabilityCache.isAssignable(entry.getKey(), type)) {
+				return entry.getValue();
+			}
+		}
+		return TO_STRING;
+	}
+
+	/**
+	 * Writes the string of a value. Character sequences are written without copying them, and collections and maps
+	 * with the standard string form are written element by element, stopping once the output is full.
+	 */
+	private static void appendString(Appendable out, @Nullable Object value) throws IOException {
+		if (value instanceof CharSequence) {
+			out.append((CharSequence) value);
+		} else if (value instanceof Collection && hasToStringOf(value, AbstractCollection.class)) {
+			appendElements(out, (Collection<?>) value);
+		} else if (value instanceof Map && hasToStringOf(value, AbstractMap.class)) {
+			appendEntries(out, (Map<?, ?>) value);
+		} else {
+			out.append(String.valueOf(value));
+		}
+	}
+
+	/**
+	 * Writes a collection like {@link AbstractCollection#toString()}.
+	 */
+	private static void appendElements(Appendable out, Collection<?> collection) throws IOException {
+		out.append('[');
+		boolean first = true;
+		for (Object element : collection) {
+			if (isFull(out)) {
+				return;
+			}
+			if (!first) {
+				out.append(", ");
+			}
+			first = false;
+			if (element == collection) {
+				out.append("(this Collection)");
+			} else {
+				appendString(out, element);
+			}
+		}
+		out.append(']');
+	}
+
+	/**
+	 * Writes a map like {@link AbstractMap#toString()}.
+	 */
+	private static void appendEntries(Appendable out, Map<?, ?> map) throws IOException {
+		out.append('{');
+		boolean first = true;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (isFull(out)) {
+				return;
+			}
+			if (!first) {
+				out.append(", ");
+			}
+			first = false;
+			Object key = entry.getKey();
+			Object value = entry.getValue();
+			if (key == map) {
+				out.append("(this Map)");
+			} else {
+				appendString(out, key);
+			}
+			out.append('=');
+			if (value == map) {
+				out.append("(this Map)");
+			} else {
+				appendString(out, value);
+			}
+		}
+		out.append('}');
+	}
+
+	/**
+	 * @return true if the value inherits its {@link Object#toString()} from the specified class
+	 */
+	private static boolean hasToStringOf(Object value, Class<?> type) {
+		try {
+			return value.getClass().getMethod("toString").getDeclaringClass() == type;
+		} catch (NoSuchMethodException impossible) {
+			throw new AssertionError(impossible);
+		}
+	}
+
+	/**
+	 * @return true if the appendable is bounded and has dropped characters, so nothing more will be written
+	 */
+	private static boolean isFull(Appendable out) {
+		return out instanceof BoundedAppendable && ((BoundedAppendable) out).isFull();
+	}
+
+	/**
+	 * Appendable that passes through a limited number of characters and drops the rest.
+	 */
+	private static final class BoundedAppendable implements Appendable {
+
+		private final Appendable delegate;
+		private int remaining;
+		private boolean full;
+
+		BoundedAppendable(Appendable delegate, int maxLength) {
+			this.delegate = delegate;
+			this.remaining = maxLength;
+		}
+
+		/**
+		 * @return true if characters were dropped
+		 */
+		boolean isFull() {
+			return full;
+		}
+
+		public Appendable append(CharSequence csq) throws IOException {
+			CharSequence chars = (csq == null) ? "null" : csq;
+			return append(chars, 0, chars.length());
+		}
+
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			CharSequence chars = (csq == null) ? "null" : csq;
+			int length = end - start;
+			if (length > remaining) {
+				end = start + remaining;
+				full = true;
+			}
+			if (end > start) {
+				delegate.append(chars, start, end);
+				remaining -= end - start;
+			}
+			return this;
+		}
+
+		public Appendable append(char c) throws IOException {
+			if (remaining == 0) {
+				full = true;
+			} else {
+				delegate.append(c);
+				remaining--;
+			}
+			return this;
+		}
+
+	}
+
+}
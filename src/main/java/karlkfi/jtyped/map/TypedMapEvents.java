@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.DelegatingTypedSupplier;
+import karlkfi.jtyped.MemoizingTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Global hook for diagnostic events raised by typed maps, such as slow value suppliers and failed lookups.
+ * 
+ * At most one {@link Listener} is installed at a time. While none is installed, each hook costs a single volatile
+ * read. Event recorders that need a newer JDK, like Java Flight Recorder, live in separate modules and install
+ * themselves here.
+ * 
+ * Supplier invocations are only timed for {@link DelegatingTypedSupplier}s that are read through the
+ * {@link AbstractTypedMap} lookups; other suppliers hold their values in memory.
+ */
+@ThreadSafe
+public final class TypedMapEvents {
+
+	/**
+	 * Receives typed map events. Implementations are called on the thread that raised the event and must be fast and
+	 * thread safe.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a value supplier took at least the installed threshold to return.
+		 * 
+		 * @param keyId the key ID of the entry
+		 * @param type the value type of the supplier
+		 * @param nanos the time spent in the supplier
+		 */
+		void onSlowSupplier(@Nonnull Object keyId, @Nonnull TypeToken<?> type, long nanos);
+
+		/**
+		 * Called when a {@link MemoizingTypedSupplier} was read before its value was computed, regardless of the
+		 * threshold.
+		 * 
+		 * @param keyId the key ID of the entry
+		 * @param type the value type of the supplier
+		 * @param nanos the time spent computing or waiting for the value
+		 */
+		void onMemoizedComputation(@Nonnull Object keyId, @Nonnull TypeToken<?> type, long nanos);
+
+		/**
+		 * Called when a lookup finds no entry, before an {@link EntryNotFoundException} is thrown.
+		 * 
+		 * @param keyId the missing key ID, or null if unknown
+		 * @param type the requested type, or null if the lookup was untyped
+		 */
+		void onEntryNotFound(@Nullable Object keyId, @Nullable TypeToken<?> type);
+
+		/**
+		 * Called before a {@link ClassCastException} is thrown because a key type is not assignable from an entry type.
+		 * 
+		 * @param keyId the key ID, or null if unknown
+		 * @param type the requested type
+		 * @param entryType the type of the existing entry, or null if unknown
+		 */
+		void onTypeMismatch(@Nullable Object keyId, @Nonnull TypeToken<?> type, @Nullable TypeToken<?> entryType);
+	}
+
+	/**
+	 * Pairs the listener with its threshold, so that both change atomically.
+	 */
+	private static final class Installed {
+
+		final Listener listener;
+		final long thresholdNanos;
+
+		Installed(Listener listener, long thresholdNanos) {
+			this.listener = listener;
+			this.thresholdNanos = thresholdNanos;
+		}
+	}
+
+	@Nullable
+	private static volatile Installed installed;
+
+	private TypedMapEvents() {
+	}
+
+	/**
+	 * Installs a listener, replacing any previously installed one.
+	 * 
+	 * @param listener the listener
+	 * @param threshold the minimum supplier duration to report as slow
+	 * @param unit the unit of the threshold
+	 * @throws IllegalArgumentException if the threshold is negative
+	 */
+	public static synchronized void install(@Nonnull Listener listener, long threshold, @Nonnull TimeUnit unit) throws IllegalArgumentException {
+		Preconditions.checkNotNull(listener, "listener is null");
+		Preconditions.checkArgument(threshold >= 0, "threshold is negative: %s", threshold);
+		installed = new Installed(listener, unit.toNanos(threshold));
+	}
+
+	/**
+	 * Removes the installed listener, if any.
+	 */
+	public static synchronized void uninstall() {
+		installed = null;
+	}
+
+	/**
+	 * Removes the listener only if it is the installed one.
+	 * 
+	 * @return true if the listener was removed
+	 */
+	public static synchronized boolean uninstall(@Nonnull Listener listener) {
+		Installed current = installed;
+		if (current != null && current.listener == listener) {
+			installed = null;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the installed listener, or null if none is installed
+	 */
+	@Nullable
+	public static Listener getListener() {
+		Installed current = installed;
+		return (current == null) ? null : current.listener;
+	}
+
+	/**
+	 * Gets the value of a supplier, timing it if a listener is installed.
+	 */
+	static <T> T supply(@Nonnull Object keyId, @Nonnull TypedSupplier<T> supplier) {
+		Installed current = installed;
+		if (current == null || !(supplier instanceof DelegatingTypedSupplier)) {
+			return supplier.get();
+		}
+		boolean computing = supplier instanceof MemoizingTypedSupplier && !((MemoizingTypedSupplier<T>) supplier).isComputed();
+		long start = System.nanoTime();
+		T value = supplier.get();
+		long nanos = System.nanoTime() - start;
+		if (computing) {
+			current.listener.onMemoizedComputation(keyId, supplier.getType(), nanos);
+		} else if (nanos >= current.thresholdNanos) {
+			current.listener.onSlowSupplier(keyId, supplier.getType(), nanos);
+		}
+		return value;
+	}
+
+	/**
+	 * Reports a missing entry for an untyped lookup.
+	 */
+	static void entryNotFound(@Nullable Object keyId) {
+		Installed current = installed;
+		if (current != null) {
+			current.listener.onEntryNotFound(keyId, null);
+		}
+	}
+
+	/**
+	 * Reports a missing entry for a typed lookup.
+	 */
+	static void entryNotFound(@Nullable Object keyId, @Nonnull TypeToken<?> type) {
+		Installed current = installed;
+		if (current != null) {
+			current.listener.onEntryNotFound(keyId, type);
+		}
+	}
+
+	/**
+	 * Reports a missing entry for a lookup by raw class, creating its type token only if a listener is installed.
+	 */
+	static void entryNotFound(@Nullable Object keyId, @Nonnull Class<?> type) {
+		Installed current = installed;
+		if (current != null) {
+			current.listener.onEntryNotFound(keyId, TypeTokens.of(type));
+		}
+	}
+
+	/**
+	 * Reports a key type that is not assignable from an entry type.
+	 */
+	static void typeMismatch(@Nullable Object keyId, @Nonnull TypeToken<?> type, @Nullable TypeToken<?> entryType) {
+		Installed current = installed;
+		if (current != null) {
+			current.listener.onTypeMismatch(keyId, type, entryType);
+		}
+	}
+
+	/**
+	 * Reports a raw key class that is not assignable from an entry type, creating its type token only if a listener is
+	 * installed.
+	 */
+	static void typeMismatch(@Nullable Object keyId, @Nonnull Class<?> type, @Nullable TypeToken<?> entryType) {
+		Installed current = installed;
+		if (current != null) {
+			current.listener.onTypeMismatch(keyId, TypeTokens.of(type), entryType);
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface of getters (and optionally setters) from which the jtyped-processor annotation processor
+ * generates a field-backed {@link FieldTypedMap} implementation.
+ * 
+ * For an interface <code>Foo</code>, the processor generates <code>FooTypedMap</code> in the same package, with one
+ * key constant per property (named after the property in upper snake case, with the property name as key ID), a
+ * shared {@link TypedMapLayout}, and direct getters and setters.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface TypedMapFacade {
+
+	/**
+	 * @return the simple name of the generated class, or empty to append <code>TypedMap</code> to the interface name
+	 */
+	String value() default "";
+
+}
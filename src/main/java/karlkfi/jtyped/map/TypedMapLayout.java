@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * An immutable, ordered assignment of typed key IDs to slot indexes that can be shared by many typed maps.
+ * 
+ * Key IDs are indexed with open addressing over flat arrays. Because the type of each slot is fixed by the layout,
+ * a key can be {@link #bind(TypedKey) bound} to a slot once, checking its type a single time, and then be used to look
+ * up values in any map sharing this layout without hashing or type checking.
+ * 
+ * Layouts are compared by identity; maps only share a layout if they were created from the same instance.
+ * 
+ * @param <ID> the key ID type
+ */
+@Immutable
+public final class TypedMapLayout<ID> {
+
+	private final Object[] ids;
+	private final TypeToken<?>[] types;
+
+	/**
+	 * Open addressing table of slot index + 1, where 0 marks an empty bucket.
+	 */
+	private final int[] table;
+	private final int mask;
+
+	private TypedMapLayout(Object[] ids, TypeToken<?>[] types) {
+		this.ids = ids;
+		this.types = types;
+		int capacity = tableSize(ids.length);
+		this.table = new int[capacity];
+		this.mask = capacity - 1;
+		for (int slot = 0; slot < ids.length; slot++) {
+			int bucket = smear(ids[slot].hashCode()) & mask;
+			while (table[bucket] != 0) {
+				if (ids[table[bucket] - 1].equals(ids[slot])) {
+					throw new IllegalArgumentException("duplicate key id: " + ids[slot]);
+				}
+				bucket = (bucket + 1) & mask;
+			}
+			table[bucket] = slot + 1;
+		}
+	}
+
+	/**
+	 * Creates a layout with one slot per key, in iteration order.
+	 * 
+	 * @param keys the typed keys
+	 * @return a new layout
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapLayout<I> of(@Nonnull Iterable<? extends TypedKey<?, ? extends I>> keys) {
+		List<? extends TypedKey<?, ? extends I>> keyList = ImmutableList.copyOf(keys);
+		Object[] ids = new Object[keyList.size()];
+		TypeToken<?>[] types = new TypeToken<?>[keyList.size()];
+		for (int slot = 0; slot < ids.length; slot++) {
+			TypedKey<?, ? extends I> key = keyList.get(slot);
+			ids[slot] = key.getId();
+			types[slot] = key.getType();
+		}
+		return create(ids, types);
+	}
+
+	/**
+	 * Creates a layout that takes ownership of the provided arrays. Types are replaced with their canonical instances
+	 * so that each distinct type is only referenced once.
+	 *
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	static <I> TypedMapLayout<I> create(Object[] ids, TypeToken<?>[] types) {
+		for (int slot = 0; slot < ids.length; slot++) {
+			Preconditions.checkNotNull(ids[slot], "id is null for type=%s", types[slot]);
+			types[slot] = TypeTokens.intern(Preconditions.checkNotNull(types[slot], "type is null for id=%s", ids[slot]));
+		}
+		return new TypedMapLayout<I>(ids, types);
+	}
+
+	/**
+	 * Creates a layout with a single slot.
+	 */
+	@Nonnull
+	public static <I> TypedMapLayout<I> of(@Nonnull TypedKey<?, ? extends I> k1) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1));
+	}
+
+	/**
+	 * Creates a layout with one slot per key, in argument order.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapLayout<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2));
+	}
+
+	/**
+	 * Creates a layout with one slot per key, in argument order.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapLayout<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3));
+	}
+
+	/**
+	 * Creates a layout with one slot per key, in argument order.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapLayout<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3, @Nonnull TypedKey<?, ? extends I> k4) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3, k4));
+	}
+
+	/**
+	 * Creates a layout with one slot per key, in argument order.
+	 * Use {@link #of(Iterable)} for more keys.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapLayout<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3, @Nonnull TypedKey<?, ? extends I> k4, @Nonnull TypedKey<?, ? extends I> k5) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3, k4, k5));
+	}
+
+	/**
+	 * @return the number of slots in this layout
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Gets the slot index of a key ID.
+	 * 
+	 * @param id the key ID
+	 * @return the slot index, or -1 if the ID is not part of this layout
+	 */
+	public int indexOf(@Nullable Object id) {
+		if (id == null) {
+			return -1;
+		}
+		int bucket = smear(id.hashCode()) & mask;
+		int entry;
+		while ((entry = table[bucket]) != 0) {
+			Object candidate = ids[entry - 1];
+			if (candidate == id || candidate.equals(id)) {
+				return entry - 1;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param slot the slot index
+	 * @return the key ID of the slot
+	 */
+	@Nonnull
+	public ID getId(int slot) {
+		@SuppressWarnings("unchecked")
+		ID id = (ID) ids[slot];
+		return id;
+	}
+
+	/**
+	 * @param slot the slot index
+	 * @return the value type of the slot
+	 */
+	@Nonnull
+	public TypeToken<Object> getType(int slot) {
+		@SuppressWarnings("unchecked")
+		TypeToken<Object> type = (TypeToken<Object>) types[slot];
+		return type;
+	}
+
+	/**
+	 * Binds a typed key to its slot in this layout, checking its type once.
+	 * 
+	 * @param typedKey the typed key
+	 * @return a key that can be used for unchecked slot lookups in maps sharing this layout
+	 * @throws EntryNotFoundException if the key ID is not part of this layout
+	 * @throws ClassCastException if the key type is not assignable from the slot type
+	 */
+	@Nonnull
+	public <T> BoundTypedKey<T, ID> bind(@Nonnull TypedKey<T, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
+		int slot = indexOf(typedKey.getId());
+		if (slot < 0) {
+			throw EntryNotFoundException.of("Layout does not contain the key: %s", typedKey);
+		}
+		if (!AssignabilityCache.isAssignable(typedKey.getType(), types[slot])) {
+			TypedMapEvents.typeMismatch(typedKey.getId(), typedKey.getType(), types[slot]);
+			throw new ClassCastException("Key type is not assignable from the layout slot type.");
+		}
+		return new BoundTypedKey<T, ID>(this, slot, typedKey.getType(), getId(slot));
+	}
+
+	/**
+	 * Creates an immutable typed map with this layout.
+	 * 
+	 * @param suppliers the value suppliers, in slot order
+	 * @return a new immutable typed map
+	 * @throws IllegalArgumentException if the number of suppliers does not match the number of slots
+	 * @throws ClassCastException if a slot type is not assignable from the corresponding supplier type
+	 */
+	@Nonnull
+	public ImmutableTypedMap<ID> newImmutableMap(@Nonnull TypedSupplier<?>... suppliers) throws IllegalArgumentException, ClassCastException {
+		Preconditions.checkArgument(suppliers.length == ids.length, "expected %s suppliers but found %s", ids.length, suppliers.length);
+		TypedSupplier<?>[] slots = new TypedSupplier<?>[suppliers.length];
+		for (int slot = 0; slot < slots.length; slot++) {
+			TypedSupplier<?> supplier = Preconditions.checkNotNull(suppliers[slot], "supplier is null for id=%s", ids[slot]);
+			AbstractTypedMap.checkValueType(types[slot], supplier, ids[slot]);
+			slots[slot] = supplier;
+		}
+		return new SlottedImmutableTypedMap<ID>(this, slots);
+	}
+
+	/**
+	 * Spreads higher bits to lower, as done by {@link java.util.HashMap}.
+	 */
+	static int smear(int hashCode) {
+		hashCode ^= (hashCode >>> 20) ^ (hashCode >>> 12);
+		return hashCode ^ (hashCode >>> 7) ^ (hashCode >>> 4);
+	}
+
+	/**
+	 * @return the smallest power of two table size that keeps the load factor at or below 0.5
+	 */
+	static int tableSize(int size) {
+		int capacity = 2;
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+}
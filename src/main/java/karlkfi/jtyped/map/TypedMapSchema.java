@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A fixed set of typed keys, declared once, that produces typed maps backed by a dense array indexed by key ordinal.
+ * 
+ * The slot of each key ID and its type are resolved when the schema is created, so maps created by the same schema
+ * share a single {@link TypedMapLayout}. Keys {@link #bind(TypedKey) bound} to the schema are read from those maps
+ * with an array load and no type check.
+ * 
+ * By default, maps only accept schema keys. A schema created with {@link #withOverflow()} produces mutable maps that
+ * store any other keys in an overflow hash map.
+ * 
+ * @param <ID> the key ID type
+ */
+@Immutable
+public final class TypedMapSchema<ID> {
+
+	private final TypedMapLayout<ID> layout;
+	private final boolean overflow;
+
+	private TypedMapSchema(TypedMapLayout<ID> layout, boolean overflow) {
+		this.layout = layout;
+		this.overflow = overflow;
+	}
+
+	/**
+	 * Creates a schema with one slot per key, in iteration order.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapSchema<I> of(@Nonnull Iterable<? extends TypedKey<?, ? extends I>> keys) {
+		return new TypedMapSchema<I>(TypedMapLayout.<I>of(keys), false);
+	}
+
+	/**
+	 * Creates a schema with a single slot.
+	 */
+	@Nonnull
+	public static <I> TypedMapSchema<I> of(@Nonnull TypedKey<?, ? extends I> k1) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1));
+	}
+
+	/**
+	 * Creates a schema with one slot per key, in argument order.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapSchema<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2));
+	}
+
+	/**
+	 * Creates a schema with one slot per key, in argument order.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapSchema<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3));
+	}
+
+	/**
+	 * Creates a schema with one slot per key, in argument order.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapSchema<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3, @Nonnull TypedKey<?, ? extends I> k4) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3, k4));
+	}
+
+	/**
+	 * Creates a schema with one slot per key, in argument order.
+	 * Use {@link #of(Iterable)} for more keys.
+	 * 
+	 * @throws IllegalArgumentException if duplicate key IDs are provided
+	 */
+	@Nonnull
+	public static <I> TypedMapSchema<I> of(@Nonnull TypedKey<?, ? extends I> k1, @Nonnull TypedKey<?, ? extends I> k2, @Nonnull TypedKey<?, ? extends I> k3, @Nonnull TypedKey<?, ? extends I> k4, @Nonnull TypedKey<?, ? extends I> k5) {
+		return of(ImmutableList.<TypedKey<?, ? extends I>>of(k1, k2, k3, k4, k5));
+	}
+
+	/**
+	 * Returns a schema with the same layout whose mutable maps store non-schema keys in an overflow map instead of
+	 * rejecting them.
+	 */
+	@Nonnull
+	public TypedMapSchema<ID> withOverflow() {
+		return overflow ? this : new TypedMapSchema<ID>(layout, true);
+	}
+
+	/**
+	 * @return true if mutable maps of this schema accept non-schema keys
+	 */
+	public boolean allowsOverflow() {
+		return overflow;
+	}
+
+	/**
+	 * @return the layout shared by all maps of this schema
+	 */
+	@Nonnull
+	public TypedMapLayout<ID> getLayout() {
+		return layout;
+	}
+
+	/**
+	 * @return the number of keys in this schema
+	 */
+	public int size() {
+		return layout.size();
+	}
+
+	/**
+	 * Binds a typed key to its slot in this schema, checking its type once.
+	 * 
+	 * @see TypedMapLayout#bind(TypedKey)
+	 */
+	@Nonnull
+	public <T> BoundTypedKey<T, ID> bind(@Nonnull TypedKey<T, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
+		return layout.bind(typedKey);
+	}
+
+	/**
+	 * Creates a new empty mutable map of this schema.
+	 */
+	@Nonnull
+	public MutableTypedMap<ID> newMap() {
+		return new SchemaTypedMap<ID>(layout, overflow);
+	}
+
+	/**
+	 * Creates an immutable map of this schema.
+	 * 
+	 * @param values the values, in slot order
+	 * @return a new immutable typed map
+	 * @throws IllegalArgumentException if the number of values does not match the number of keys
+	 * @throws NullPointerException if any value is null
+	 * @throws ClassCastException if a value is not an instance of its slot type
+	 */
+	@Nonnull
+	public ImmutableTypedMap<ID> newImmutableMap(@Nonnull Object... values) throws IllegalArgumentException, NullPointerException, ClassCastException {
+		Preconditions.checkArgument(values.length == layout.size(), "expected %s values but found %s", layout.size(), values.length);
+		Object[] slots = values.clone();
+		for (int slot = 0; slot < slots.length; slot++) {
+			Preconditions.checkNotNull(slots[slot], "value is null for id=%s", layout.getId(slot));
+			SchemaTypedMap.checkInstance(layout, slot, slots[slot]);
+		}
+		return new CompactImmutableTypedMap<ID>(layout, slots);
+	}
+
+}
@@ -15,10 +15,15 @@
  ******************************************************************************/
 package karlkfi.jtyped.map;
 
-import com.google.common.base.Preconditions;
-import com.google.common.base.Joiner;
-import com.google.common.base.Joiner.MapJoiner;
-import com.google.common.primitives.Ints;
+import javax.annotation.Nullable;
+
+import karlkfi.jtyped.AtomicTypedSupplier;
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.MutableTypedSupplier;
+import karlkfi.jtyped.PrimitiveTypedSupplier;
+import karlkfi.jtyped.TypedSupplier;
+
+import com.google.common.reflect.TypeToken;
 
 final class TypedMaps {
 
@@ -34,30 +39,90 @@ final class TypedMaps {
 		}
 		if (object instanceof TypedMap) {
 			TypedMap<?> o = (TypedMap<?>) object;
+			if (map.size() != o.size()) {
+				return false;
+			}
+			if (hasCachedHashCode(map) && hasCachedHashCode(o) && map.hashCode() != o.hashCode()) {
+				return false;
+			}
 			return map.entries().equals(o.entries());
 		}
 		return false;
 	}
 
 	/**
-	 * An implementation of {@link TypedMap#toString}.
+	 * @return true if the hash code of the map is cached or maintained, rather than recomputed on every call
 	 */
-	static String toStringImpl(TypedMap<?> map) {
-		StringBuilder sb = newStringBuilderForCollection(map.size()).append('{');
-		STANDARD_JOINER.appendTo(sb, map.entries());
-		return sb.append('}').toString();
+	static boolean hasCachedHashCode(TypedMap<?> map) {
+		if (map instanceof SuppliedTypedMap) {
+			return ((SuppliedTypedMap<?>) map).isHashCodeCached();
+		}
+		if (map instanceof ImmutableTypedMap) {
+			return ((ImmutableTypedMap<?>) map).isHashCodeCached();
+		}
+		if (map instanceof CopyOnWriteTypedMap) {
+			return ((CopyOnWriteTypedMap<?>) map).snapshot().isHashCodeCached();
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the supplier holds its value, so that reading it is cheap and has no side effects, unlike
+	 *         suppliers that compute or decode their value on demand
+	 */
+	static boolean holdsValue(TypedSupplier<?> valueSupplier) {
+		if (valueSupplier instanceof MappedTypedMap.EntrySupplier) {
+			return ((MappedTypedMap<?>.EntrySupplier) valueSupplier).isDecoded();
+		}
+		return isValueFixed(valueSupplier)
+				|| valueSupplier instanceof MutableTypedSupplier
+				|| valueSupplier instanceof AtomicTypedSupplier
+				|| valueSupplier instanceof PrimitiveTypedSupplier;
+	}
+
+	/**
+	 * @return true if the value of the supplier never changes, unlike mutable suppliers that anyone holding them may
+	 *         update and suppliers that compute their value on demand
+	 */
+	static boolean isValueFixed(TypedSupplier<?> valueSupplier) {
+		return valueSupplier instanceof ImmutableTypedSupplier
+				|| valueSupplier instanceof ConcurrentTypedMap.EntryValue
+				|| valueSupplier instanceof MappedTypedMap.EntrySupplier;
 	}
 
 	/**
-	 * Returns best-effort-sized StringBuilder based on the given collection size.
-	 * 
-	 * Based on {@link com.google.common.collect.Collections2}
+	 * An implementation of {@link TypedKey#equals}.
 	 */
-	static StringBuilder newStringBuilderForCollection(int size) {
-		Preconditions.checkArgument(size >= 0, "size must be non-negative");
-		return new StringBuilder((int) Math.min(size * 8L, Ints.MAX_POWER_OF_TWO));
+	static boolean keyEqualsImpl(TypedKey<?, ?> key, @Nullable Object object) {
+		if (key == object) {
+			return true;
+		}
+		if (object instanceof TypedKey) {
+			TypedKey<?, ?> o = (TypedKey<?, ?>) object;
+			return key.getId().equals(o.getId()) && key.getType().equals(o.getType());
+		}
+		return false;
+	}
+
+	/**
+	 * An implementation of {@link TypedKey#hashCode}.
+	 */
+	static int keyHashCode(Object id, TypeToken<?> type) {
+		return 31 * id.hashCode() + type.hashCode();
 	}
 
-	static final MapJoiner STANDARD_JOINER = Joiner.on(", ").useForNull("null").withKeyValueSeparator("=");
+	/**
+	 * @return the hash code of a typed map entry, as defined by {@link java.util.Map.Entry#hashCode()}
+	 */
+	static int entryHashCode(Object id, TypeToken<?> type, @Nullable Object value) {
+		return keyHashCode(id, type) ^ (value == null ? 0 : value.hashCode());
+	}
+
+	/**
+	 * An implementation of {@link TypedMap#toString}, bounded by {@link TypedMapDumper#standard()}.
+	 */
+	static String toStringImpl(TypedMap<?> map) {
+		return TypedMapDumper.standard().toString(map);
+	}
 
 }
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map.metrics;
+
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.map.BooleanTypedKey;
+import karlkfi.jtyped.map.DoubleTypedKey;
+import karlkfi.jtyped.map.EntryNotFoundException;
+import karlkfi.jtyped.map.ImmutableEntryException;
+import karlkfi.jtyped.map.IntTypedKey;
+import karlkfi.jtyped.map.LongTypedKey;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.TypedKey;
+import karlkfi.jtyped.map.TypedMap;
+import karlkfi.jtyped.map.metrics.TypedMapListener.Outcome;
+
+/**
+ * Instrumented MutableTypedMap, created by {@link InstrumentedTypedMap#ofMutable(MutableTypedMap, TypedMapListener)}.
+ * 
+ * A mutation that fails on the entry type is reported as a {@link Outcome#MISMATCH mismatch}, and a removal of a
+ * missing entry as a {@link Outcome#MISS miss}. Mutations of immutable entries are not reported.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+final class InstrumentedMutableTypedMap<ID> extends InstrumentedTypedMap<ID> implements MutableTypedMap<ID> {
+
+	private final MutableTypedMap<ID> delegate;
+
+	InstrumentedMutableTypedMap(MutableTypedMap<ID> delegate, TypedMapListener listener) {
+		super(delegate, listener);
+		this.delegate = delegate;
+	}
+
+	@Override
+	@Nonnull
+	public MutableTypedMap<ID> getDelegate() {
+		return delegate;
+	}
+
+	public <TT> void setType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException {
+		long start = System.nanoTime();
+		try {
+			delegate.setType(typedKey);
+		} catch (ClassCastException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(typedKey.getId(), typedKey.getType(), Outcome.MUTATION, start);
+	}
+
+	@Nullable
+	public <TT> TT put(@Nonnull TypedKey<TT, ? extends ID> typedKey, @Nonnull TT value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		TT oldValue;
+		try {
+			oldValue = delegate.put(typedKey, value);
+		} catch (ClassCastException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(typedKey.getId(), typedKey.getType(), Outcome.MUTATION, start);
+		return oldValue;
+	}
+
+	public void putInt(@Nonnull IntTypedKey<? extends ID> key, int value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		try {
+			delegate.putInt(key, value);
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.MUTATION, start);
+	}
+
+	public void putLong(@Nonnull LongTypedKey<? extends ID> key, long value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		try {
+			delegate.putLong(key, value);
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.MUTATION, start);
+	}
+
+	public void putDouble(@Nonnull DoubleTypedKey<? extends ID> key, double value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		try {
+			delegate.putDouble(key, value);
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.MUTATION, start);
+	}
+
+	public void putBoolean(@Nonnull BooleanTypedKey<? extends ID> key, boolean value) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		try {
+			delegate.putBoolean(key, value);
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.MUTATION, start);
+	}
+
+	/**
+	 * Puts all entries of another typed map, reporting a mutation per entry with a share of the duration once they are
+	 * all put.
+	 */
+	public void putAll(@Nonnull TypedMap<? extends ID> m) throws NullPointerException, IllegalArgumentException, ClassCastException {
+		long start = System.nanoTime();
+		delegate.putAll(m);
+		long nanos = System.nanoTime() - start;
+		Set<? extends TypedKey<Object, ? extends ID>> keys = m.keys();
+		if (keys.isEmpty()) {
+			return;
+		}
+		long share = nanos / keys.size();
+		for (TypedKey<Object, ? extends ID> typedKey : keys) {
+			listener.onAccess(typedKey.getId(), typedKey.getType(), Outcome.MUTATION, share);
+		}
+	}
+
+	@Nullable
+	public <TT> TT remove(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		TT oldValue;
+		try {
+			oldValue = delegate.remove(typedKey);
+		} catch (EntryNotFoundException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(typedKey.getId(), typedKey.getType(), Outcome.MUTATION, start);
+		return oldValue;
+	}
+
+	@Nullable
+	public <TT> TT remove(@Nonnull Class<TT> valueType, @Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		TT oldValue;
+		try {
+			oldValue = delegate.remove(valueType, keyId);
+		} catch (EntryNotFoundException e) {
+			report(keyId, TypeTokens.of(valueType), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(keyId, TypeTokens.of(valueType), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(keyId, TypeTokens.of(valueType), Outcome.MUTATION, start);
+		return oldValue;
+	}
+
+	@Nullable
+	public Object remove(@Nonnull ID keyId) throws NullPointerException, ClassCastException, ImmutableEntryException {
+		long start = System.nanoTime();
+		Object oldValue;
+		try {
+			oldValue = delegate.remove(keyId);
+		} catch (EntryNotFoundException e) {
+			report(keyId, null, Outcome.MISS, start);
+			throw e;
+		}
+		report(keyId, null, Outcome.MUTATION, start);
+		return oldValue;
+	}
+
+	public void clear() {
+		delegate.clear();
+	}
+
+}
@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map.metrics;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.map.BooleanTypedKey;
+import karlkfi.jtyped.map.BoundTypedKey;
+import karlkfi.jtyped.map.DoubleTypedKey;
+import karlkfi.jtyped.map.EntryNotFoundException;
+import karlkfi.jtyped.map.IntTypedKey;
+import karlkfi.jtyped.map.LongTypedKey;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.TypedKey;
+import karlkfi.jtyped.map.TypedKeyGroup;
+import karlkfi.jtyped.map.TypedMap;
+import karlkfi.jtyped.map.metrics.TypedMapListener.Outcome;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * TypedMap decorator that times every keyed access to the delegate map and reports it to a {@link TypedMapListener},
+ * like {@link TypedMapMetrics}.
+ * 
+ * Lookups report a {@link Outcome#HIT hit}, a {@link Outcome#MISS miss} if the entry was not found, or a
+ * {@link Outcome#MISMATCH mismatch} if the requested type was not assignable from the entry type. Lookups that return
+ * null instead of throwing, like {@link #getIfPresent(TypedKey)}, are told apart by checking whether the delegate
+ * contains the key and the key ID, which costs up to two more lookups on that path only; an entry without a value is a
+ * miss. Group lookups report each key of the group,
+ * sharing the duration equally. Mutations report a {@link Outcome#MUTATION mutation} per entry; {@link #clear()} is
+ * not reported. Iteration, equality and hashing are not instrumented.
+ * 
+ * The overhead is two {@link System#nanoTime()} calls and the listener call per access. The decorator is as
+ * thread-safe as the delegate.
+ * 
+ * @param <ID> the key ID type
+ */
+@ThreadSafe
+public class InstrumentedTypedMap<ID> implements TypedMap<ID> {
+
+	private final TypedMap<ID> delegate;
+	final TypedMapListener listener;
+
+	InstrumentedTypedMap(TypedMap<ID> delegate, TypedMapListener listener) {
+		this.delegate = Preconditions.checkNotNull(delegate, "delegate is null");
+		this.listener = Preconditions.checkNotNull(listener, "listener is null");
+	}
+
+	/**
+	 * Instruments a typed map.
+	 * 
+	 * @param map the delegate map
+	 * @param listener the listener to report accesses to
+	 */
+	@Nonnull
+	public static <I> InstrumentedTypedMap<I> of(@Nonnull TypedMap<I> map, @Nonnull TypedMapListener listener) {
+		return new InstrumentedTypedMap<I>(map, listener);
+	}
+
+	/**
+	 * Instruments a mutable typed map, including its mutations.
+	 * 
+	 * @param map the delegate map
+	 * @param listener the listener to report accesses to
+	 */
+	@Nonnull
+	public static <I> MutableTypedMap<I> ofMutable(@Nonnull MutableTypedMap<I> map, @Nonnull TypedMapListener listener) {
+		return new InstrumentedMutableTypedMap<I>(map, listener);
+	}
+
+	/**
+	 * @return the instrumented map
+	 */
+	@Nonnull
+	public TypedMap<ID> getDelegate() {
+		return delegate;
+	}
+
+	final void report(Object keyId, @Nullable TypeToken<?> type, Outcome outcome, long start) {
+		listener.onAccess(keyId, type, outcome, System.nanoTime() - start);
+	}
+
+	/**
+	 * Reports a lookup that returned null as a miss, or a mismatch if the entry exists.
+	 */
+	final void reportAbsent(Object keyId, @Nullable TypeToken<?> type, long start) {
+		long nanos = System.nanoTime() - start;
+		listener.onAccess(keyId, type, containsId(keyId) ? Outcome.MISMATCH : Outcome.MISS, nanos);
+	}
+
+	/**
+	 * Reports a lookup that returned a value as a hit. A null value is a miss if the entry exists without a value, which
+	 * a typed contains check finds, and is otherwise reported like {@link #reportAbsent}.
+	 */
+	private void reportValue(TypedKey<?, ? extends ID> typedKey, @Nullable Object value, long start) {
+		if (value != null) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.HIT, start);
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		Outcome outcome;
+		if (delegate.contains(typedKey)) {
+			outcome = Outcome.MISS;
+		} else {
+			outcome = containsId(typedKey.getId()) ? Outcome.MISMATCH : Outcome.MISS;
+		}
+		listener.onAccess(typedKey.getId(), typedKey.getType(), outcome, nanos);
+	}
+
+	private void reportValue(Class<?> valueType, ID keyId, @Nullable Object value, long start) {
+		if (value != null) {
+			report(keyId, TypeTokens.of(valueType), Outcome.HIT, start);
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		Outcome outcome;
+		if (delegate.contains(valueType, keyId)) {
+			outcome = Outcome.MISS;
+		} else {
+			outcome = containsId(keyId) ? Outcome.MISMATCH : Outcome.MISS;
+		}
+		listener.onAccess(keyId, TypeTokens.of(valueType), outcome, nanos);
+	}
+
+	/**
+	 * Reports a lookup of a boolean result as a hit or a miss.
+	 */
+	private void reportFound(Object keyId, @Nullable TypeToken<?> type, boolean found, long start) {
+		if (found) {
+			report(keyId, type, Outcome.HIT, start);
+		} else {
+			reportAbsent(keyId, type, start);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean containsId(Object keyId) {
+		return delegate.contains((ID) keyId);
+	}
+
+	/**
+	 * Reports every key of a group with a share of the duration: hits if the lookup succeeded, otherwise whether each
+	 * key is found, missing or mismatched.
+	 */
+	private void reportGroup(TypedKeyGroup<? extends ID> keys, boolean succeeded, long start) {
+		long nanos = System.nanoTime() - start;
+		List<? extends TypedKey<?, ? extends ID>> keyList = keys.getKeys();
+		if (keyList.isEmpty()) {
+			return;
+		}
+		long share = nanos / keyList.size();
+		for (TypedKey<?, ? extends ID> typedKey : keyList) {
+			Outcome outcome;
+			if (succeeded || delegate.contains(typedKey)) {
+				outcome = Outcome.HIT;
+			} else {
+				outcome = containsId(typedKey.getId()) ? Outcome.MISMATCH : Outcome.MISS;
+			}
+			listener.onAccess(typedKey.getId(), typedKey.getType(), outcome, share);
+		}
+	}
+
+	public int size() {
+		return delegate.size();
+	}
+
+	public boolean isEmpty() {
+		return delegate.isEmpty();
+	}
+
+	public <T> boolean contains(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		long start = System.nanoTime();
+		boolean found = delegate.contains(typedKey);
+		reportFound(typedKey.getId(), typedKey.getType(), found, start);
+		return found;
+	}
+
+	public <T> boolean contains(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		long start = System.nanoTime();
+		boolean found = delegate.contains(valueType, keyId);
+		reportFound(keyId, TypeTokens.of(valueType), found, start);
+		return found;
+	}
+
+	public <T> boolean contains(@Nonnull ID keyId) {
+		long start = System.nanoTime();
+		boolean found = delegate.contains(keyId);
+		report(keyId, null, found ? Outcome.HIT : Outcome.MISS, start);
+		return found;
+	}
+
+	public <TT> void checkType(@Nonnull TypedKey<TT, ? extends ID> typedKey) throws NullPointerException, EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		try {
+			delegate.checkType(typedKey);
+		} catch (EntryNotFoundException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(typedKey.getId(), typedKey.getType(), Outcome.HIT, start);
+	}
+
+	public <T> T get(@Nonnull TypedKey<T, ? extends ID> typedKey) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		T value;
+		try {
+			value = delegate.get(typedKey);
+		} catch (EntryNotFoundException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(typedKey.getId(), typedKey.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(typedKey.getId(), typedKey.getType(), Outcome.HIT, start);
+		return value;
+	}
+
+	public <T> T get(@Nonnull BoundTypedKey<T, ? extends ID> boundKey) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		T value;
+		try {
+			value = delegate.get(boundKey);
+		} catch (EntryNotFoundException e) {
+			report(boundKey.getId(), boundKey.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(boundKey.getId(), boundKey.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(boundKey.getId(), boundKey.getType(), Outcome.HIT, start);
+		return value;
+	}
+
+	public <T> T get(@Nonnull Class<T> valueType, @Nonnull ID keyId) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		T value;
+		try {
+			value = delegate.get(valueType, keyId);
+		} catch (EntryNotFoundException e) {
+			report(keyId, TypeTokens.of(valueType), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(keyId, TypeTokens.of(valueType), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(keyId, TypeTokens.of(valueType), Outcome.HIT, start);
+		return value;
+	}
+
+	@Nullable
+	public <T> T getIfPresent(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		long start = System.nanoTime();
+		T value = delegate.getIfPresent(typedKey);
+		reportValue(typedKey, value, start);
+		return value;
+	}
+
+	@Nullable
+	public <T> T getIfPresent(@Nonnull Class<T> valueType, @Nonnull ID keyId) {
+		long start = System.nanoTime();
+		T value = delegate.getIfPresent(valueType, keyId);
+		reportValue(valueType, keyId, value, start);
+		return value;
+	}
+
+	@Nullable
+	public <T> T getOrDefault(@Nonnull TypedKey<T, ? extends ID> typedKey, @Nullable T defaultValue) {
+		T value = getIfPresent(typedKey);
+		return (value == null) ? defaultValue : value;
+	}
+
+	@Nonnull
+	public <T> Optional<T> find(@Nonnull TypedKey<T, ? extends ID> typedKey) {
+		return Optional.fromNullable(getIfPresent(typedKey));
+	}
+
+	public Object get(@Nonnull ID keyId) throws EntryNotFoundException {
+		long start = System.nanoTime();
+		Object value;
+		try {
+			value = delegate.get(keyId);
+		} catch (EntryNotFoundException e) {
+			report(keyId, null, Outcome.MISS, start);
+			throw e;
+		}
+		report(keyId, null, Outcome.HIT, start);
+		return value;
+	}
+
+	@Nonnull
+	public Object[] getAll(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException {
+		Object[] result = new Object[keys.size()];
+		getAll(keys, result);
+		return result;
+	}
+
+	public void getAll(@Nonnull TypedKeyGroup<? extends ID> keys, @Nonnull Object[] result) throws IllegalArgumentException, EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		try {
+			delegate.getAll(keys, result);
+		} catch (EntryNotFoundException e) {
+			reportGroup(keys, false, start);
+			throw e;
+		} catch (ClassCastException e) {
+			reportGroup(keys, false, start);
+			throw e;
+		}
+		reportGroup(keys, true, start);
+	}
+
+	public boolean containsAll(@Nonnull TypedKeyGroup<? extends ID> keys) {
+		long start = System.nanoTime();
+		boolean found = delegate.containsAll(keys);
+		reportGroup(keys, found, start);
+		return found;
+	}
+
+	public void checkTypes(@Nonnull TypedKeyGroup<? extends ID> keys) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		try {
+			delegate.checkTypes(keys);
+		} catch (EntryNotFoundException e) {
+			reportGroup(keys, false, start);
+			throw e;
+		} catch (ClassCastException e) {
+			reportGroup(keys, false, start);
+			throw e;
+		}
+		reportGroup(keys, true, start);
+	}
+
+	public int getInt(@Nonnull IntTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		int value;
+		try {
+			value = delegate.getInt(key);
+		} catch (EntryNotFoundException e) {
+			report(key.getId(), key.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.HIT, start);
+		return value;
+	}
+
+	public long getLong(@Nonnull LongTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		long value;
+		try {
+			value = delegate.getLong(key);
+		} catch (EntryNotFoundException e) {
+			report(key.getId(), key.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.HIT, start);
+		return value;
+	}
+
+	public double getDouble(@Nonnull DoubleTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		double value;
+		try {
+			value = delegate.getDouble(key);
+		} catch (EntryNotFoundException e) {
+			report(key.getId(), key.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.HIT, start);
+		return value;
+	}
+
+	public boolean getBoolean(@Nonnull BooleanTypedKey<? extends ID> key) throws EntryNotFoundException, ClassCastException {
+		long start = System.nanoTime();
+		boolean value;
+		try {
+			value = delegate.getBoolean(key);
+		} catch (EntryNotFoundException e) {
+			report(key.getId(), key.getType(), Outcome.MISS, start);
+			throw e;
+		} catch (ClassCastException e) {
+			report(key.getId(), key.getType(), Outcome.MISMATCH, start);
+			throw e;
+		}
+		report(key.getId(), key.getType(), Outcome.HIT, start);
+		return value;
+	}
+
+	@Nonnull
+	public Set<TypedKey<Object, ID>> keys() {
+		return delegate.keys();
+	}
+
+	@Nonnull
+	public Set<Entry<TypedKey<Object, ID>, Object>> entries() {
+		return delegate.entries();
+	}
+
+	@Override
+	public boolean equals(@Nullable Object object) {
+		return object == this || delegate.equals(object);
+	}
+
+	@Override
+	public int hashCode() {
+		return delegate.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, with fixed log-linear buckets: each power of two is split into 8
+ * buckets, so recorded values are reported within 12.5% of their true value. Recording is a single atomic increment,
+ * and the buckets take about 4 KB.
+ * 
+ * Like {@link StripedCounter}, the buckets are striped by thread once concurrent recordings contend, taking another
+ * 4 KB per stripe in use. Reading sums the stripes, and is not an atomic snapshot.
+ */
+@ThreadSafe
+public final class LatencyHistogram {
+
+	/**
+	 * Linear buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/**
+	 * The buckets shared by all threads until recordings contend.
+	 */
+	private final AtomicLongArray base = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * The buckets of each stripe, created on first use, or null while recordings have not contended.
+	 */
+	private volatile AtomicReferenceArray<AtomicLongArray> stripes;
+
+	/**
+	 * Records a latency. Negative values are recorded as 0.
+	 * 
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		int bucket = bucket(Math.max(nanos, 0L));
+		AtomicReferenceArray<AtomicLongArray> stripes = this.stripes;
+		if (stripes == null) {
+			long count = base.get(bucket);
+			if (base.compareAndSet(bucket, count, count + 1)) {
+				return;
+			}
+			stripes = contended();
+		}
+		int stripe = StripedCounter.stripe();
+		AtomicLongArray counts = stripes.get(stripe);
+		if (counts == null) {
+			stripes.compareAndSet(stripe, null, new AtomicLongArray(BUCKETS));
+			counts = stripes.get(stripe);
+		}
+		counts.incrementAndGet(bucket);
+	}
+
+	private synchronized AtomicReferenceArray<AtomicLongArray> contended() {
+		if (stripes == null) {
+			stripes = new AtomicReferenceArray<AtomicLongArray>(StripedCounter.STRIPES);
+		}
+		return stripes;
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		long count = 0;
+		for (long bucketCount : snapshot()) {
+			count += bucketCount;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the counts of each bucket, summed over the stripes
+	 */
+	private long[] snapshot() {
+		long[] snapshot = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++) {
+			snapshot[b] = base.get(b);
+		}
+		AtomicReferenceArray<AtomicLongArray> stripes = this.stripes;
+		if (stripes != null) {
+			for (int stripe = 0; stripe < stripes.length(); stripe++) {
+				AtomicLongArray counts = stripes.get(stripe);
+				if (counts != null) {
+					for (int b = 0; b < BUCKETS; b++) {
+						snapshot[b] += counts.get(b);
+					}
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the upper bound of the bucket holding the latency at the percentile, in nanoseconds, or 0 if nothing was
+	 *         recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100");
+		long[] snapshot = snapshot();
+		long total = 0;
+		for (long bucketCount : snapshot) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += snapshot[b];
+			if (seen >= rank) {
+				return upperBound(b);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the largest value recorded in the bucket
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A counter that spreads increments over several cache-line padded cells, chosen by thread, so that threads counting
+ * the same event rarely contend on the same cell. Reading the count sums the cells.
+ * 
+ * A counter takes up to 1 KB, for 16 cells.
+ * 
+ * The sum is not an atomic snapshot: increments made while summing may or may not be included.
+ */
+@ThreadSafe
+public final class StripedCounter {
+
+	/**
+	 * Longs per cell, so that each cell is on its own 64 byte cache line.
+	 */
+	private static final int PADDING = 8;
+
+	static final int STRIPES = stripes();
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * @return the smallest power of two at least the number of processors, up to 16
+	 */
+	private static int stripes() {
+		int processors = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+		int stripes = 1;
+		while (stripes < processors) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+	public void increment() {
+		add(1L);
+	}
+
+	public void add(long delta) {
+		cells.getAndAdd(cell(), delta);
+	}
+
+	/**
+	 * @return the sum of all increments
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			sum += cells.get(stripe * PADDING);
+		}
+		return sum;
+	}
+
+	private static int cell() {
+		return stripe() * PADDING;
+	}
+
+	/**
+	 * @return the stripe of the current thread, from 0 to {@link #STRIPES} - 1
+	 */
+	static int stripe() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (hash >>> 16) & (STRIPES - 1);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Receives every access to an {@link InstrumentedTypedMap}. This is the extension point for bridging typed map usage
+ * to a metrics system; {@link TypedMapMetrics} is the standard implementation.
+ * 
+ * Listeners are called on the accessing thread, after the access, so they must be thread-safe and fast.
+ */
+public interface TypedMapListener {
+
+	/**
+	 * The result of an access.
+	 */
+	enum Outcome {
+		/**
+		 * A value was found with an assignable type.
+		 */
+		HIT,
+		/**
+		 * No value was found for the key ID.
+		 */
+		MISS,
+		/**
+		 * A value was found, but the requested type was not assignable from its type.
+		 */
+		MISMATCH,
+		/**
+		 * An entry was added, updated or removed.
+		 */
+		MUTATION
+	}
+
+	/**
+	 * @param keyId the accessed key ID
+	 * @param type the requested type, or null if the access was untyped, like {@link karlkfi.jtyped.map.TypedMap#get(Object)}
+	 * @param outcome the result of the access
+	 * @param nanos the duration of the access, including any supplier call, in nanoseconds
+	 */
+	void onAccess(@Nonnull Object keyId, @Nullable TypeToken<?> type, @Nonnull Outcome outcome, long nanos);
+
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright 2013 Karl Isenberg
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package karlkfi.jtyped.map.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * A registry of typed map access counters and latency histograms, per key ID and per requested {@link TypeToken}.
+ * 
+ * To bound memory, at most a fixed number of key IDs and of types are tracked individually, taking about 9 KB each,
+ * plus 4 KB per latency stripe once concurrent accesses contend; accesses to other key IDs and types are combined in
+ * {@link #getOtherKeyStats()} and {@link #getOtherTypeStats()}.
+ * 
+ * <pre>
+ * TypedMapMetrics metrics = TypedMapMetrics.create();
+ * MutableTypedMap&lt;String&gt; map = InstrumentedTypedMap.ofMutable(SuppliedTypedMap.&lt;String&gt;of(), metrics);
+ * ...
+ * long misses = metrics.getTotalStats().getMisses();
+ * </pre>
+ */
+@ThreadSafe
+public final class TypedMapMetrics implements TypedMapListener {
+
+	/**
+	 * Counters and latencies of the accesses to a key ID or type.
+	 */
+	@ThreadSafe
+	public static final class Stats {
+
+		private final StripedCounter hits = new StripedCounter();
+		private final StripedCounter misses = new StripedCounter();
+		private final StripedCounter mismatches = new StripedCounter();
+		private final StripedCounter mutations = new StripedCounter();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		Stats() {
+		}
+
+		void record(Outcome outcome, long nanos) {
+			switch (outcome) {
+			case HIT:
+				hits.increment();
+				break;
+			case MISS:
+				misses.increment();
+				break;
+			case MISMATCH:
+				mismatches.increment();
+				break;
+			case MUTATION:
+				mutations.increment();
+				break;
+			default:
+				throw new AssertionError(outcome);
+			}
+			latency.record(nanos);
+		}
+
+		public long getHits() {
+			return hits.sum();
+		}
+
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		public long getMismatches() {
+			return mismatches.sum();
+		}
+
+		public long getMutations() {
+			return mutations.sum();
+		}
+
+		/**
+		 * @return the latencies of all accesses
+		 */
+		@Nonnull
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + getHits() + ", misses=" + getMisses() + ", mismatches=" + getMismatches() + ", mutations="
+					+ getMutations() + ", p99Nanos=" + latency.getValueAtPercentile(99);
+		}
+
+	}
+
+	private final int maxKeys;
+	private final AtomicInteger keyCount = new AtomicInteger();
+	private final AtomicInteger typeCount = new AtomicInteger();
+	private final ConcurrentMap<Object, Stats> keyStats = Maps.newConcurrentMap();
+	private final ConcurrentMap<TypeToken<?>, Stats> typeStats = Maps.newConcurrentMap();
+	private final Stats otherKeyStats = new Stats();
+	private final Stats otherTypeStats = new Stats();
+	private final Stats untypedStats = new Stats();
+	private final Stats totalStats = new Stats();
+
+	private TypedMapMetrics(int maxKeys) {
+		this.maxKeys = maxKeys;
+	}
+
+	/**
+	 * Creates metrics that track up to 256 key IDs and 256 types individually.
+	 */
+	@Nonnull
+	public static TypedMapMetrics create() {
+		return create(256);
+	}
+
+	/**
+	 * @param maxKeys the maximum number of key IDs, and of types, to track individually
+	 */
+	@Nonnull
+	public static TypedMapMetrics create(int maxKeys) {
+		Preconditions.checkArgument(maxKeys >= 0, "maxKeys must be non-negative");
+		return new TypedMapMetrics(maxKeys);
+	}
+
+	public void onAccess(@Nonnull Object keyId, @Nullable TypeToken<?> type, @Nonnull Outcome outcome, long nanos) {
+		totalStats.record(outcome, nanos);
+		getOrCreateKeyStats(keyId).record(outcome, nanos);
+		getOrCreateTypeStats(type).record(outcome, nanos);
+	}
+
+	private Stats getOrCreateKeyStats(Object keyId) {
+		return getOrCreate(keyStats, keyCount, keyId, otherKeyStats);
+	}
+
+	private Stats getOrCreateTypeStats(@Nullable TypeToken<?> type) {
+		if (type == null) {
+			return untypedStats;
+		}
+		return getOrCreate(typeStats, typeCount, type, otherTypeStats);
+	}
+
+	/**
+	 * @return the stats of the key in the map, which are added if fewer than the maximum are tracked, or else the
+	 *         other stats
+	 */
+	private <K> Stats getOrCreate(ConcurrentMap<K, Stats> statsMap, AtomicInteger count, K key, Stats otherStats) {
+		Stats stats = statsMap.get(key);
+		if (stats != null) {
+			return stats;
+		}
+		// reserve a slot before adding, so that racing threads cannot exceed the limit
+		if (count.incrementAndGet() > maxKeys) {
+			count.decrementAndGet();
+			return otherStats;
+		}
+		Stats newStats = new Stats();
+		stats = statsMap.putIfAbsent(key, newStats);
+		if (stats != null) {
+			count.decrementAndGet();
+			return stats;
+		}
+		return newStats;
+	}
+
+	/**
+	 * @return the stats of every individually tracked key ID
+	 */
+	@Nonnull
+	public Map<Object, Stats> getKeyStats() {
+		return ImmutableMap.copyOf(keyStats);
+	}
+
+	/**
+	 * @return the stats of accesses to key IDs beyond the tracked maximum
+	 */
+	@Nonnull
+	public Stats getOtherKeyStats() {
+		return otherKeyStats;
+	}
+
+	/**
+	 * @return the stats of every individually tracked type
+	 */
+	@Nonnull
+	public Map<TypeToken<?>, Stats> getTypeStats() {
+		return ImmutableMap.copyOf(typeStats);
+	}
+
+	/**
+	 * @return the stats of accesses with types beyond the tracked maximum
+	 */
+	@Nonnull
+	public Stats getOtherTypeStats() {
+		return otherTypeStats;
+	}
+
+	/**
+	 * @return the stats of untyped accesses
+	 */
+	@Nonnull
+	public Stats getUntypedStats() {
+		return untypedStats;
+	}
+
+	/**
+	 * @return the stats of all accesses
+	 */
+	@Nonnull
+	public Stats getTotalStats() {
+		return totalStats;
+	}
+
+	@Override
+	public String toString() {
+		return "TypedMapMetrics{" + totalStats + "}";
+	}
+
+}
@@ -0,0 +1,98 @@
+package karlkfi.jtyped;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class AtomicTypedSupplierTest {
+
+	static final Function<Integer, Integer> INCREMENT = new Function<Integer, Integer>() {
+		public Integer apply(Integer input) {
+			return Integer.valueOf(input.intValue() + 1);
+		}
+	};
+
+	static final AtomicTypedSupplier.Accumulator<Integer> SUM = new AtomicTypedSupplier.Accumulator<Integer>() {
+		public Integer apply(Integer current, Integer x) {
+			return Integer.valueOf(current.intValue() + x.intValue());
+		}
+	};
+
+	@Test
+	public void testCompareAndSet() {
+		String a = "a";
+		AtomicTypedSupplier<String> supplier = AtomicTypedSupplier.of(TypeToken.of(String.class), a);
+		assertFalse(supplier.compareAndSet("b", "c"));
+		assertTrue(supplier.compareAndSet(a, "c"));
+		assertThat(supplier.get(), equalTo("c"));
+	}
+
+	@Test
+	public void testGetAndSet() {
+		AtomicTypedSupplier<String> supplier = AtomicTypedSupplier.of(TypeToken.of(String.class), "a");
+		assertThat(supplier.getAndSet("b"), equalTo("a"));
+		assertThat(supplier.get(), equalTo("b"));
+	}
+
+	@Test
+	public void testUpdateAndAccumulate() {
+		AtomicTypedSupplier<Integer> supplier = AtomicTypedSupplier.nonnull(TypeToken.of(Integer.class), Integer.valueOf(1));
+		assertThat(supplier.updateAndGet(INCREMENT), equalTo(2));
+		assertThat(supplier.accumulateAndGet(Integer.valueOf(3), SUM), equalTo(5));
+	}
+
+	@Test
+	public void testConcurrentUpdate() throws Exception {
+		final AtomicTypedSupplier<Integer> supplier = AtomicTypedSupplier.nonnull(TypeToken.of(Integer.class), Integer.valueOf(0));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = Lists.newArrayList();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						for (int i = 0; i < 1000; i++) {
+							supplier.updateAndGet(INCREMENT);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertThat(supplier.get(), equalTo(4000));
+	}
+
+	@Test
+	public void testSuppliedTypedMap() {
+		ImmutableTypedKey<String, String> key = ImmutableTypedKey.of(String.class, "a");
+		AtomicTypedSupplier<String> supplier = AtomicTypedSupplier.of(TypeToken.of(String.class), "1");
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of("a", supplier);
+		assertThat(tmap.put(key, "2"), equalTo("1"));
+		assertThat(supplier.get(), equalTo("2"));
+		assertThat(tmap.remove(key), equalTo("2"));
+		assertNull(supplier.get());
+	}
+
+}
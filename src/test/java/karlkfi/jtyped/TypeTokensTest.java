@@ -0,0 +1,87 @@
+package karlkfi.jtyped;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Multimap;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class TypeTokensTest {
+
+	@Test
+	public void testRaw() {
+		assertSame(TypeTokens.raw("a"), TypeTokens.raw("b"));
+		assertSame(TypeTokens.raw("a"), TypeTokens.of(String.class));
+		assertEquals(TypeToken.of(Long.class), TypeTokens.raw(Long.valueOf(1L)));
+	}
+
+	@Test
+	public void testListOf() {
+		assertSame(TypeTokens.listOf(String.class), TypeTokens.listOf(String.class));
+		assertSame(TypeTokens.listOf(String.class), TypeTokens.listOf(TypeToken.of(String.class)));
+		assertEquals(new TypeToken<List<String>>() {
+			private static final long serialVersionUID = 1L;
+		}, TypeTokens.listOf(String.class));
+	}
+
+	@Test
+	public void testMapOf() {
+		assertSame(TypeTokens.mapOf(String.class, Integer.class), TypeTokens.mapOf(String.class, Integer.class));
+		assertSame(TypeTokens.mapOf(TypeToken.of(String.class), TypeToken.of(Integer.class)), TypeTokens.mapOf(String.class, Integer.class));
+		assertFalse(TypeTokens.mapOf(String.class, Long.class).equals(TypeTokens.mapOf(String.class, Integer.class)));
+		assertEquals(new TypeToken<Map<String, Integer>>() {
+			private static final long serialVersionUID = 1L;
+		}, TypeTokens.mapOf(String.class, Integer.class));
+	}
+
+	@Test
+	public void testNested() {
+		TypeToken<Map<String, List<Integer>>> type = TypeTokens.mapOf(TypeTokens.of(String.class), TypeTokens.listOf(Integer.class));
+		assertSame(type, TypeTokens.mapOf(TypeTokens.of(String.class), TypeTokens.listOf(Integer.class)));
+		assertEquals(new TypeToken<Map<String, List<Integer>>>() {
+			private static final long serialVersionUID = 1L;
+		}, type);
+	}
+
+	@Test
+	public void testArrayOf() {
+		assertSame(TypeTokens.arrayOf(String.class), TypeTokens.arrayOf(String.class));
+		assertEquals(String[].class, TypeTokens.arrayOf(String.class).getRawType());
+		assertEquals(new TypeToken<List<String>[]>() {
+			private static final long serialVersionUID = 1L;
+		}, TypeTokens.arrayOf(TypeTokens.listOf(String.class)));
+	}
+
+	@Test
+	public void testOptionalOf() {
+		assertSame(TypeTokens.optionalOf(String.class), TypeTokens.optionalOf(String.class));
+		assertEquals(new TypeToken<Optional<String>>() {
+			private static final long serialVersionUID = 1L;
+		}, TypeTokens.optionalOf(String.class));
+	}
+
+	@Test
+	public void testMultimapOf() {
+		assertSame(TypeTokens.multimapOf(String.class, Long.class), TypeTokens.multimapOf(String.class, Long.class));
+		assertEquals(new TypeToken<Multimap<String, Long>>() {
+			private static final long serialVersionUID = 1L;
+		}, TypeTokens.multimapOf(String.class, Long.class));
+	}
+
+	@Test
+	public void testIntern() {
+		TypeToken<List<String>> type = new TypeToken<List<String>>() {
+			private static final long serialVersionUID = 1L;
+		};
+		assertSame(TypeTokens.listOf(String.class), TypeTokens.intern(type));
+	}
+
+}
@@ -0,0 +1,202 @@
+package karlkfi.jtyped.codec;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.ImmutableTypedMap;
+import karlkfi.jtyped.map.TypedMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class TypedCodecRegistryTest {
+
+	private static final TypedCodec<String> IDS = TypedCodecRegistry.standard().resolveExact(String.class);
+
+	private static final ImmutableTypedKey<Integer, String> INT = ImmutableTypedKey.of(Integer.class, "int");
+	private static final ImmutableTypedKey<String, String> STRING = ImmutableTypedKey.of(String.class, "string");
+	private static final ImmutableTypedKey<List<String>, String> LIST = ImmutableTypedKey.of(TypeTokens.listOf(String.class), "list");
+	private static final ImmutableTypedKey<Set<Long>, String> SET = ImmutableTypedKey.of(TypeTokens.setOf(Long.class), "set");
+	private static final ImmutableTypedKey<Collection<Double>, String> COLLECTION = ImmutableTypedKey.of(TypeTokens.collectionOf(Double.class), "collection");
+	private static final ImmutableTypedKey<Optional<String>, String> OPTIONAL = ImmutableTypedKey.of(TypeTokens.optionalOf(String.class), "optional");
+	private static final ImmutableTypedKey<Map<String, List<Integer>>, String> MAP = ImmutableTypedKey.of(TypeTokens.mapOf(TypeTokens.of(String.class), TypeTokens.listOf(Integer.class)), "map");
+	private static final ImmutableTypedKey<Multimap<String, Boolean>, String> MULTIMAP = ImmutableTypedKey.of(TypeTokens.multimapOf(String.class, Boolean.class), "multimap");
+	private static final ImmutableTypedKey<String[], String> ARRAY = ImmutableTypedKey.of(String[].class, "array");
+	private static final ImmutableTypedKey<byte[], String> BYTES = ImmutableTypedKey.of(byte[].class, "bytes");
+
+	/**
+	 * A value type without a built-in codec.
+	 */
+	static class Point {
+		final int x;
+		final int y;
+
+		Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	static final class Point3 extends Point {
+		Point3(int x, int y) {
+			super(x, y);
+		}
+	}
+
+	static final TypedCodec<Point> POINT = new TypedCodec<Point>() {
+		public TypeToken<Point> getType() {
+			return TypeTokens.of(Point.class);
+		}
+
+		public void write(Point value, DataOutput out) throws IOException {
+			out.writeInt(value.x);
+			out.writeInt(value.y);
+		}
+
+		public Point read(DataInput in) throws IOException {
+			return new Point(in.readInt(), in.readInt());
+		}
+	};
+
+	private static ImmutableTypedMap<String> newMap() {
+		return ImmutableTypedMap.<String>builder()
+				.put(INT, Integer.valueOf(1))
+				.put(STRING, "été")
+				.put(LIST, Lists.newArrayList("a", null, "c"))
+				.put(SET, (Set<Long>) ImmutableSet.of(Long.valueOf(2L), Long.valueOf(3L)))
+				.put(COLLECTION, (Collection<Double>) Arrays.asList(Double.valueOf(0.5)))
+				.put(OPTIONAL, Optional.<String>absent())
+				.put(MAP, (Map<String, List<Integer>>) ImmutableMap.<String, List<Integer>>of("k", Arrays.asList(Integer.valueOf(4))))
+				.put(MULTIMAP, (Multimap<String, Boolean>) ImmutableListMultimap.of("m", Boolean.TRUE, "m", Boolean.FALSE))
+				.put(ARRAY, new String[] { "x", "y" })
+				.put(BYTES, new byte[] { 5, 6 })
+				.build();
+	}
+
+	private static void assertRoundTrip(TypedMap<String> copy) {
+		assertThat(copy.size(), equalTo(10));
+		assertThat(copy.get(INT), equalTo(Integer.valueOf(1)));
+		assertThat(copy.get(STRING), equalTo("été"));
+		assertThat(copy.get(LIST), contains("a", null, "c"));
+		assertThat(copy.get(SET), contains(Long.valueOf(2L), Long.valueOf(3L)));
+		assertThat(copy.get(COLLECTION), contains(Double.valueOf(0.5)));
+		assertFalse(copy.get(OPTIONAL).isPresent());
+		assertThat(copy.get(MAP).get("k"), contains(Integer.valueOf(4)));
+		assertThat(copy.get(MULTIMAP).get("m"), contains(Boolean.TRUE, Boolean.FALSE));
+		assertThat(copy.get(ARRAY), equalTo(new String[] { "x", "y" }));
+		assertThat(copy.get(BYTES), equalTo(new byte[] { 5, 6 }));
+	}
+
+	@Test
+	public void testStreamRoundTrip() throws IOException {
+		TypedCodecRegistry registry = TypedCodecRegistry.standard();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		registry.writeTo(newMap(), IDS, out);
+		assertRoundTrip(registry.readFrom(IDS, new ByteArrayInputStream(out.toByteArray())));
+	}
+
+	@Test
+	public void testByteBufferRoundTrip() throws IOException {
+		TypedCodecRegistry registry = TypedCodecRegistry.standard();
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		registry.writeTo(newMap(), IDS, buffer);
+		int written = buffer.position();
+		buffer.flip();
+		assertRoundTrip(registry.readFrom(IDS, buffer));
+		assertThat(buffer.position(), equalTo(written));
+	}
+
+	@Test
+	public void testResolveIsCached() {
+		TypedCodecRegistry registry = TypedCodecRegistry.standard();
+		TypeToken<Map<String, List<Integer>>> type = TypeTokens.mapOf(TypeTokens.of(String.class), TypeTokens.listOf(Integer.class));
+		TypedCodec<?> codec = registry.resolve(type);
+		assertThat(codec.getType(), equalTo((Object) type));
+		assertThat(registry.resolve(type), sameInstance((Object) codec));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResolveUnknownType() {
+		TypedCodecRegistry.standard().resolve(TypeTokens.listOf(Point.class));
+	}
+
+	@Test
+	public void testResolveAssignable() throws IOException {
+		TypedCodecRegistry registry = TypedCodecRegistry.builder().register(POINT).build();
+		assertThat(registry.resolve(TypeTokens.of(Point3.class)), sameInstance((Object) POINT));
+		assertThat(registry.resolve(TypeTokens.listOf(Point.class)).getType(), equalTo((Object) TypeTokens.listOf(Point.class)));
+
+		// entries resolved to a supertype codec are read back with its type
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(ImmutableTypedKey.of(Point3.class, "p"), new Point3(1, 2));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		registry.writeTo(tmap, IDS, out);
+		ImmutableTypedMap<String> copy = registry.readFrom(IDS, new ByteArrayInputStream(out.toByteArray()));
+		assertThat(copy.get(Point.class, "p").y, equalTo(2));
+		assertFalse(copy.contains(Point3.class, "p"));
+	}
+
+	@Test
+	public void testLargeByteArrayRoundTrip() throws IOException {
+		TypedCodecRegistry registry = TypedCodecRegistry.standard();
+		byte[] bytes = new byte[20000];
+		bytes[bytes.length - 1] = 7;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		registry.writeTo(ImmutableTypedMap.of(BYTES, bytes), IDS, out);
+		ImmutableTypedMap<String> copy = registry.readFrom(IDS, new ByteArrayInputStream(out.toByteArray()));
+		assertThat(copy.get(BYTES), equalTo(bytes));
+	}
+
+	@Test(expected = EOFException.class)
+	public void testReadTruncatedByteArray() throws IOException {
+		byte[] input = ByteBuffer.allocate(5).putInt(Integer.MAX_VALUE).array();
+		TypedCodecRegistry.standard().resolve(BYTES.getType()).read(new DataInputStream(new ByteArrayInputStream(input)));
+	}
+
+	@Test(expected = EOFException.class)
+	public void testReadTruncatedList() throws IOException {
+		byte[] input = ByteBuffer.allocate(6).putInt(Integer.MAX_VALUE).put((byte) 1).array();
+		TypedCodecRegistry.standard().resolve(LIST.getType()).read(new DataInputStream(new ByteArrayInputStream(input)));
+	}
+
+	@Test(expected = EOFException.class)
+	public void testReadTruncatedArray() throws IOException {
+		byte[] input = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array();
+		TypedCodecRegistry.standard().resolve(ARRAY.getType()).read(new DataInputStream(new ByteArrayInputStream(input)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadUnregisteredCodec() throws IOException {
+		TypedCodecRegistry registry = TypedCodecRegistry.builder().register(POINT).build();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		registry.writeTo(ImmutableTypedMap.of(ImmutableTypedKey.of(Point.class, "p"), new Point(1, 2)), IDS, out);
+		TypedCodecRegistry.standard().readFrom(IDS, new ByteArrayInputStream(out.toByteArray()));
+	}
+
+}
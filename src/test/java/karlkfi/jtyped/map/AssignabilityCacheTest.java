@@ -0,0 +1,86 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import karlkfi.jtyped.TypeTokens;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class AssignabilityCacheTest {
+
+	@Test
+	public void testIdentity() {
+		TypeToken<List<String>> type = TypeTokens.listOf(String.class);
+		CacheStats before = AssignabilityCache.stats();
+		assertTrue(AssignabilityCache.isAssignable(type, type));
+		assertThat(AssignabilityCache.stats().minus(before).requestCount(), equalTo(0L));
+	}
+
+	@Test
+	public void testAssignable() {
+		TypeToken<Collection<String>> keyType = new TypeToken<Collection<String>>() {
+			private static final long serialVersionUID = 1L;
+		};
+		assertTrue(AssignabilityCache.isAssignable(keyType, TypeTokens.listOf(String.class)));
+		assertFalse(AssignabilityCache.isAssignable(keyType, TypeTokens.listOf(Integer.class)));
+		assertFalse(AssignabilityCache.isAssignable(TypeTokens.listOf(String.class), TypeToken.of(List.class)));
+	}
+
+	@Test
+	public void testRawClass() {
+		CacheStats before = AssignabilityCache.stats();
+		assertTrue(AssignabilityCache.isAssignable(Number.class, TypeToken.of(Long.class)));
+		assertFalse(AssignabilityCache.isAssignable(Long.class, TypeToken.of(Number.class)));
+		assertTrue(AssignabilityCache.isAssignable(Collection.class, TypeTokens.listOf(String.class)));
+		assertFalse(AssignabilityCache.isAssignable(Set.class, TypeTokens.listOf(String.class)));
+		assertFalse(AssignabilityCache.isAssignable(Integer.class, TypeToken.of(int.class)));
+		assertThat(AssignabilityCache.stats().minus(before).requestCount(), equalTo(0L));
+	}
+
+	@Test
+	public void testRawClassMatchesTypeToken() {
+		TypeToken<?>[] valueTypes = { TypeToken.of(Long.class), TypeToken.of(int.class), TypeTokens.listOf(String.class),
+				TypeTokens.arrayOf(String.class), TypeToken.of(String[].class), TypeTokens.mapOf(String.class, Long.class) };
+		Class<?>[] keyTypes = { Object.class, Number.class, Long.class, int.class, List.class, Collection.class,
+				Object[].class, String[].class, Map.class };
+		for (Class<?> keyType : keyTypes) {
+			for (TypeToken<?> valueType : valueTypes) {
+				assertThat(keyType + " from " + valueType, AssignabilityCache.isAssignable(keyType, valueType),
+						equalTo(TypeToken.of(keyType).isAssignableFrom(valueType)));
+			}
+		}
+	}
+
+	@Test
+	public void testHitsAndMisses() {
+		AssignabilityCache.invalidateAll();
+		CacheStats before = AssignabilityCache.stats();
+		assertTrue(AssignabilityCache.isAssignable(TypeToken.of(Number.class), TypeToken.of(Long.class)));
+		assertTrue(AssignabilityCache.isAssignable(TypeToken.of(Number.class), TypeToken.of(Long.class)));
+		CacheStats delta = AssignabilityCache.stats().minus(before);
+		assertThat(delta.missCount(), equalTo(1L));
+		assertThat(delta.hitCount(), equalTo(1L));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testCheckValueType() {
+		TypedMap<String> tmap = ImmutableTypedMap.of(ImmutableTypedKey.of(TypeTokens.listOf(String.class), "a"),
+				Lists.newArrayList("1"));
+		tmap.get(ImmutableTypedKey.of(TypeTokens.listOf(Integer.class), "a"));
+	}
+
+}
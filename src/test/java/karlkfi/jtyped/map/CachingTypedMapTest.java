@@ -0,0 +1,242 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.concurrent.TimeUnit;
+
+import karlkfi.jtyped.TypedSupplier;
+import karlkfi.jtyped.TypedSuppliers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class CachingTypedMapTest {
+
+	private static final ImmutableTypedKey<String, String> A = ImmutableTypedKey.of(String.class, "a");
+	private static final ImmutableTypedKey<String, String> B = ImmutableTypedKey.of(String.class, "b");
+	private static final ImmutableTypedKey<String, String> C = ImmutableTypedKey.of(String.class, "c");
+	private static final ImmutableTypedKey<String, String> D = ImmutableTypedKey.of(String.class, "d");
+	private static final ImmutableTypedKey<Integer, String> A_INT = ImmutableTypedKey.of(Integer.class, "a");
+	private static final ImmutableTypedKey<Object, String> A_OBJECT = ImmutableTypedKey.of(Object.class, "a");
+
+	private static final class FakeTicker extends Ticker {
+		long nanos;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+
+		void advance(long duration, TimeUnit unit) {
+			nanos += unit.toNanos(duration);
+		}
+	}
+
+	@Test
+	public void testMaximumSize() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumSize(2).build();
+		tmap.put(A, "1");
+		tmap.put(B, "2");
+		tmap.put(C, "3");
+		assertThat(tmap.size(), equalTo(2));
+		assertThat(tmap.getIfPresent(A), nullValue());
+		assertThat(tmap.get(B), equalTo("2"));
+		assertThat(tmap.get(C), equalTo("3"));
+		assertThat(tmap.stats().evictionCount(), equalTo(1L));
+	}
+
+	@Test
+	public void testScanResistance() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumSize(3).build();
+		tmap.put(A, "1");
+		tmap.put(B, "2");
+		// promote a to the protected segment
+		assertThat(tmap.get(A), equalTo("1"));
+		// entries read once are evicted before a, even though a is older
+		tmap.put(C, "3");
+		tmap.put(D, "4");
+		for (int i = 0; i < 10; i++) {
+			tmap.put(ImmutableTypedKey.of(String.class, "scan" + i), "x");
+		}
+		assertThat(tmap.get(A), equalTo("1"));
+		assertThat(tmap.size(), equalTo(3));
+	}
+
+	@Test
+	public void testWritesAndContainsDoNotPromote() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumSize(3).build();
+		tmap.put(A, "1");
+		tmap.put(B, "2");
+		tmap.put(C, "3");
+		assertTrue(tmap.contains(A));
+		tmap.put(D, "4");
+		assertFalse(tmap.contains(A));
+
+		tmap.put(B, "22");
+		for (int i = 0; i < 3; i++) {
+			tmap.put(ImmutableTypedKey.of(String.class, "scan" + i), "x");
+		}
+		assertFalse(tmap.contains(B));
+		assertThat(tmap.stats().hitCount(), equalTo(0L));
+	}
+
+	@Test
+	public void testWeigher() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumWeight(5).weigher(new CachingTypedMap.Weigher<String>() {
+			public int weigh(String keyId, TypedSupplier<?> supplier) {
+				return ((String) supplier.get()).length();
+			}
+		}).build();
+		tmap.put(A, "12");
+		tmap.put(B, "345");
+		assertThat(tmap.weightedSize(), equalTo(5L));
+		tmap.put(C, "6");
+		assertThat(tmap.weightedSize(), equalTo(4L));
+		assertFalse(tmap.contains("a"));
+		tmap.put(B, "34567");
+		assertThat(tmap.weightedSize(), equalTo(5L));
+		assertThat(tmap.keys(), contains((Object) B));
+	}
+
+	@Test
+	public void testExpireAfterWrite() {
+		FakeTicker ticker = new FakeTicker();
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder()
+				.expireAfterWrite(10, TimeUnit.SECONDS)
+				.expireAfterWrite("b", 1, TimeUnit.MINUTES)
+				.ticker(ticker).build();
+		tmap.put(A, "1");
+		tmap.put(B, "2");
+		ticker.advance(9, TimeUnit.SECONDS);
+		assertThat(tmap.get(A), equalTo("1"));
+		ticker.advance(1, TimeUnit.SECONDS);
+		assertThat(tmap.getIfPresent(A), nullValue());
+		assertThat(tmap.get(B), equalTo("2"));
+		ticker.advance(1, TimeUnit.MINUTES);
+		assertThat(tmap.size(), equalTo(1));
+		tmap.cleanUp();
+		assertThat(tmap.size(), equalTo(0));
+		assertThat(tmap.stats().evictionCount(), equalTo(2L));
+	}
+
+	@Test
+	public void testExpireAfterAccess() {
+		FakeTicker ticker = new FakeTicker();
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder()
+				.expireAfterAccess("a", 10, TimeUnit.SECONDS)
+				.ticker(ticker).build();
+		tmap.put(A, "1");
+		tmap.put(B, "2");
+		for (int i = 0; i < 3; i++) {
+			ticker.advance(9, TimeUnit.SECONDS);
+			assertThat(tmap.get(A), equalTo("1"));
+		}
+		ticker.advance(10, TimeUnit.SECONDS);
+		// iterating removes the expired entry
+		assertThat(tmap.keys(), contains((Object) B));
+		assertThat(tmap.size(), equalTo(1));
+	}
+
+	@Test
+	public void testStats() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumSize(10).build();
+		tmap.put(A, "1");
+		tmap.get(A);
+		tmap.get(A);
+		tmap.getIfPresent(B);
+		CacheStats stats = tmap.stats();
+		assertThat(stats.hitCount(), equalTo(2L));
+		assertThat(stats.missCount(), equalTo(1L));
+		assertThat(stats.hitRate(), closeTo(2.0 / 3, 0.0001));
+	}
+
+	@Test
+	public void testTypeConsistency() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumSize(10).build();
+		tmap.put(A, "1");
+		try {
+			tmap.put(A_INT, Integer.valueOf(1));
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		assertThat(tmap.put(A_OBJECT, "2"), equalTo((Object) "1"));
+		assertThat(tmap.get(A), equalTo("2"));
+		tmap.setType(A_OBJECT);
+		try {
+			tmap.setType(A_INT);
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testPutSupplier() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumSize(10).build();
+		tmap.putSupplier("a", TypedSuppliers.memoize(TypeToken.of(String.class), Suppliers.ofInstance("1")));
+		assertThat(tmap.get(A), equalTo("1"));
+		try {
+			tmap.putSupplier("a", TypedSuppliers.delegate(TypeToken.of(Integer.class), Suppliers.ofInstance(Integer.valueOf(1))));
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRemove() {
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().maximumSize(10).build();
+		tmap.put(A, "1");
+		tmap.put(B, "2");
+		tmap.put(C, "3");
+		assertThat(tmap.remove(A), equalTo("1"));
+		assertFalse(tmap.contains("a"));
+		assertThat(tmap.remove("b"), equalTo((Object) "2"));
+		assertTrue(tmap.invalidate("c"));
+		assertFalse(tmap.invalidate("c"));
+		assertTrue(tmap.isEmpty());
+		try {
+			tmap.remove(A);
+			fail("expected EntryNotFoundException");
+		} catch (EntryNotFoundException e) {
+			// expected
+		}
+		tmap.put(A, "1");
+		tmap.clear();
+		assertTrue(tmap.isEmpty());
+		assertThat(tmap.weightedSize(), equalTo(0L));
+		tmap.put(A_INT, Integer.valueOf(1));
+		assertThat(tmap.get(A_INT), equalTo(Integer.valueOf(1)));
+	}
+
+	@Test
+	public void testBuilder() {
+		try {
+			CachingTypedMap.<String>builder().maximumWeight(10).build();
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			CachingTypedMap.<String>builder().maximumSize(10).maximumWeight(10);
+			fail("expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		CachingTypedMap<String> tmap = CachingTypedMap.<String>builder().build();
+		tmap.put(A, "1");
+		assertThat(tmap.toString(), equalTo("{a=1}"));
+		assertThat(tmap, equalTo((TypedMap<String>) ImmutableTypedMap.of(A, "1")));
+	}
+
+}
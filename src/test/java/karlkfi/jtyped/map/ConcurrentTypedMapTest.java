@@ -0,0 +1,193 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.MutableTypedSupplier;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class ConcurrentTypedMapTest {
+
+	static final ImmutableTypedKey<String, String> NAME = ImmutableTypedKey.of(String.class, "name");
+	static final ImmutableTypedKey<Long, String> COUNT = ImmutableTypedKey.of(Long.class, "count");
+
+	@Test
+	public void testPutGet() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		assertNull(tmap.put(NAME, "a"));
+		assertThat(tmap.put(NAME, "b"), equalTo("a"));
+		assertThat(tmap.get(NAME), equalTo("b"));
+		assertThat(tmap.get(String.class, "name"), equalTo("b"));
+		assertThat(tmap.size(), equalTo(1));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testPutTypeMismatch() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(NAME, "a");
+		tmap.put(ImmutableTypedKey.of(Long.class, "name"), Long.valueOf(1L));
+	}
+
+	@Test
+	public void testSetType() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.setType(COUNT);
+		assertTrue(tmap.contains(COUNT));
+		assertNull(tmap.get(COUNT));
+		tmap.setType(COUNT);
+		assertNull(tmap.put(COUNT, Long.valueOf(2L)));
+		assertThat(tmap.get(COUNT), equalTo(2L));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testSetTypeMismatch() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(NAME, "a");
+		tmap.setType(ImmutableTypedKey.of(Long.class, "name"));
+	}
+
+	@Test
+	public void testRemove() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(NAME, "a");
+		tmap.put(COUNT, Long.valueOf(1L));
+		assertThat(tmap.remove(NAME), equalTo("a"));
+		assertThat(tmap.remove(Long.class, "count"), equalTo(1L));
+		assertNull(tmap.remove("count"));
+		// types are preserved
+		assertTrue(tmap.contains(NAME));
+		assertNull(tmap.get(NAME));
+	}
+
+	@Test(expected=EntryNotFoundException.class)
+	public void testRemoveMissing() {
+		ConcurrentTypedMap.<String>of().remove(NAME);
+	}
+
+	@Test
+	public void testClear() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(NAME, "a");
+		tmap.put(COUNT, Long.valueOf(1L));
+		tmap.clear();
+		assertThat(tmap.size(), equalTo(2));
+		assertNull(tmap.get(NAME));
+		assertNull(tmap.get(COUNT));
+	}
+
+	@Test
+	public void testCopyOf() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.copyOf(ImmutableMap.of(
+				"name", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "a"),
+				"count", ImmutableTypedSupplier.nonnull(TypeToken.of(Long.class), Long.valueOf(1L))));
+		assertThat(tmap.put(NAME, "b"), equalTo("a"));
+		assertThat(tmap.get(COUNT), equalTo(1L));
+	}
+
+	@Test(expected=ImmutableEntryException.class)
+	public void testPutImmutable() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.copyOf(ImmutableMap.of(
+				"count", ImmutableTypedSupplier.nonnull(TypeToken.of(Long.class), Long.valueOf(1L))));
+		tmap.put(COUNT, Long.valueOf(2L));
+	}
+
+	@Test
+	public void testPutAll() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(NAME, "a");
+		tmap.putAll(ImmutableTypedMap.of(NAME, "b", COUNT, Long.valueOf(1L)));
+		assertThat(tmap.get(NAME), equalTo("b"));
+		assertThat(tmap.get(COUNT), equalTo(1L));
+	}
+
+	@Test
+	public void testPutAllSkipsNullValues() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		SuppliedTypedMap<String> source = SuppliedTypedMap.of();
+		source.put(NAME, "a");
+		source.setType(COUNT);
+		tmap.putAll(source);
+		assertThat(tmap.get(NAME), equalTo("a"));
+		assertFalse(tmap.contains(COUNT));
+	}
+
+	@Test
+	public void testPutAllMismatchUnchanged() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(COUNT, Long.valueOf(1L));
+		SuppliedTypedMap<String> source = SuppliedTypedMap.of();
+		source.put(NAME, "a");
+		source.put(ImmutableTypedKey.of(String.class, "count"), "b");
+		try {
+			tmap.putAll(source);
+			fail("Expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		assertFalse(tmap.contains(NAME));
+		assertThat(tmap.get(COUNT), equalTo(1L));
+	}
+
+	@Test
+	public void testKeysNotStale() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(NAME, "a");
+		assertThat(tmap.keys().size(), equalTo(1));
+		tmap.put(COUNT, Long.valueOf(1L));
+		assertThat(tmap.keys().size(), equalTo(2));
+		assertThat(tmap.entries().size(), equalTo(2));
+	}
+
+	@Test
+	public void testConcurrentPut() throws Exception {
+		final ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		final int threads = 4;
+		final int iterations = 1000;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = Lists.newArrayList();
+			for (int t = 0; t < threads; t++) {
+				final ImmutableTypedKey<Long, String> key = ImmutableTypedKey.of(Long.class, "count" + t);
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						start.await();
+						for (int i = 0; i < iterations; i++) {
+							tmap.put(COUNT, Long.valueOf(i));
+							Long previous = tmap.put(key, Long.valueOf(i));
+							assertThat(previous, (i == 0) ? nullValue() : equalTo((Object) Long.valueOf(i - 1)));
+							assertThat(tmap.get(COUNT), notNullValue());
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertThat(tmap.size(), equalTo(threads + 1));
+		assertThat(tmap.get(COUNT), equalTo((long) iterations - 1));
+	}
+
+}
@@ -0,0 +1,129 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CopyOnWriteTypedMapTest {
+
+	private static final ImmutableTypedKey<String, String> A = ImmutableTypedKey.of(String.class, "a");
+	private static final ImmutableTypedKey<Integer, String> B = ImmutableTypedKey.of(Integer.class, "b");
+
+	@Test
+	public void testSnapshotIsNotCopied() {
+		ImmutableTypedMap<String> initial = ImmutableTypedMap.of(A, "1");
+		CopyOnWriteTypedMap<String> tmap = CopyOnWriteTypedMap.of(initial);
+		assertThat(tmap.snapshot(), sameInstance(initial));
+		assertThat(tmap.snapshot(), sameInstance(tmap.snapshot()));
+		assertThat(tmap.get(A), equalTo("1"));
+	}
+
+	@Test
+	public void testPutAndRemove() {
+		CopyOnWriteTypedMap<String> tmap = CopyOnWriteTypedMap.of();
+		ImmutableTypedMap<String> empty = tmap.snapshot();
+
+		assertThat(tmap.put(A, "1"), nullValue());
+		assertThat(tmap.put(A, "2"), equalTo("1"));
+		tmap.put(B, Integer.valueOf(3));
+		assertThat(tmap.size(), equalTo(2));
+		assertThat(tmap.get(B), equalTo(Integer.valueOf(3)));
+		assertThat(empty.size(), equalTo(0));
+
+		ImmutableTypedMap<String> before = tmap.snapshot();
+		assertThat(tmap.remove(A), equalTo("2"));
+		assertFalse(tmap.contains(A));
+		assertThat(tmap.size(), equalTo(1));
+		assertThat(before.get(A), equalTo("2"));
+
+		tmap.clear();
+		assertTrue(tmap.isEmpty());
+		assertThat(before.size(), equalTo(2));
+	}
+
+	@Test
+	public void testUpdateBatch() {
+		CopyOnWriteTypedMap<String> tmap = CopyOnWriteTypedMap.of();
+		ImmutableTypedMap<String> before = tmap.snapshot();
+		tmap.update(new CopyOnWriteTypedMap.Mutation<String>() {
+			public void apply(MutableTypedMap<String> map) {
+				map.put(A, "1");
+				map.put(B, Integer.valueOf(2));
+			}
+		});
+		assertThat(tmap.size(), equalTo(2));
+		assertThat(before.size(), equalTo(0));
+		assertThat(tmap.snapshot().get(A), equalTo("1"));
+		assertThat(tmap.snapshot().get(B), equalTo(Integer.valueOf(2)));
+	}
+
+	@Test
+	public void testFailedUpdateIsNotPublished() {
+		CopyOnWriteTypedMap<String> tmap = CopyOnWriteTypedMap.of(ImmutableTypedMap.of(A, "1"));
+		ImmutableTypedMap<String> before = tmap.snapshot();
+		try {
+			tmap.update(new CopyOnWriteTypedMap.Mutation<String>() {
+				public void apply(MutableTypedMap<String> map) {
+					map.put(B, Integer.valueOf(2));
+					map.put(ImmutableTypedKey.of(Integer.class, "a"), Integer.valueOf(3));
+				}
+			});
+			fail("Expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		assertThat(tmap.snapshot(), sameInstance(before));
+		assertFalse(tmap.contains(B));
+	}
+
+	@Test
+	public void testConcurrentReaders() throws InterruptedException {
+		final CopyOnWriteTypedMap<String> tmap = CopyOnWriteTypedMap.of();
+		final int writes = 1000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					start.await();
+					int last = -1;
+					while (last < writes) {
+						ImmutableTypedMap<String> snapshot = tmap.snapshot();
+						Integer b = snapshot.getIfPresent(B);
+						if (b != null) {
+							// both entries are always published together
+							assertThat(snapshot.get(A), equalTo(b.toString()));
+							assertThat(b.intValue(), greaterThanOrEqualTo(last));
+							last = b.intValue();
+						}
+					}
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		});
+		reader.start();
+		start.countDown();
+		for (int i = 0; i <= writes; i++) {
+			final int value = i;
+			tmap.update(new CopyOnWriteTypedMap.Mutation<String>() {
+				public void apply(MutableTypedMap<String> map) {
+					map.put(A, Integer.toString(value));
+					map.put(B, Integer.valueOf(value));
+				}
+			});
+		}
+		reader.join(10000);
+		assertFalse(reader.isAlive());
+		assertThat(failure.get(), nullValue());
+	}
+
+}
@@ -0,0 +1,77 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class EntryNotFoundExceptionTest {
+
+	@Test
+	public void testLazyMessage() {
+		EntryNotFoundException e = EntryNotFoundException.of("Value does not exist for the key: %s", "a");
+		assertThat(e.getMessage(), equalTo("Value does not exist for the key: a"));
+		assertThat(e.toString(), containsString("Value does not exist for the key: a"));
+	}
+
+	@Test
+	public void testMessageFromMap() {
+		try {
+			ImmutableTypedMap.of(ImmutableTypedKey.of(String.class, "a"), "1").get("b");
+			fail("expected EntryNotFoundException");
+		} catch (EntryNotFoundException e) {
+			assertThat(e.getMessage(), equalTo("Value does not exist for the key ID: b"));
+		}
+	}
+
+	@Test
+	public void testStackless() {
+		EntryNotFoundException e = EntryNotFoundException.stackless("missing %s and %s", "a", "b", "c");
+		assertThat(e.getStackTrace().length, equalTo(0));
+		assertThat(e.getMessage(), equalTo("missing a and b [c]"));
+		assertThat(new EntryNotFoundException("missing").getStackTrace().length, greaterThan(0));
+	}
+
+	@Test
+	public void testSerializeWithoutArgs() throws Exception {
+		Object key = new Object() {
+			@Override
+			public String toString() {
+				return "a";
+			}
+		};
+		EntryNotFoundException e = EntryNotFoundException.of("Value does not exist for the key: %s", key);
+		assertThat(roundTrip(e).getMessage(), equalTo("Value does not exist for the key: a"));
+		ImmutableEntryException e2 = ImmutableEntryException.stackless("Entry is immutable for the key: %s", key);
+		assertThat(roundTrip(e2).getMessage(), equalTo("Entry is immutable for the key: a"));
+	}
+
+	private static <T> T roundTrip(T object) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		@SuppressWarnings("unchecked")
+		T result = (T) in.readObject();
+		return result;
+	}
+
+	@Test
+	public void testImmutableEntryStackless() {
+		ImmutableEntryException e = ImmutableEntryException.stackless("Entry is immutable for the key: %s", "a");
+		assertThat(e.getStackTrace().length, equalTo(0));
+		assertThat(e.getMessage(), equalTo("Entry is immutable for the key: a"));
+	}
+
+}
@@ -6,15 +6,21 @@ import static org.hamcrest.Matchers.*;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.MutableTypedSupplier;
 import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.TypedSuppliers;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
 
 @RunWith(JUnit4.class)
 public class ImmutableTypedMapTest {
@@ -24,6 +30,37 @@ public class ImmutableTypedMapTest {
 		//fail("Not yet implemented");
 	}
 
+	@Test
+	public void testHashCodeAfterProvidedSupplierChanges() {
+		ImmutableTypedKey<String, String> a = ImmutableTypedKey.of(String.class, "a");
+		MutableTypedSupplier<String> supplier = MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1");
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.<String>builder()
+				.putAll(ImmutableMap.of("a", supplier))
+				.build();
+		tmap.hashCode();
+		supplier.set("2");
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+		assertEquals(ImmutableTypedMap.of(a, "2"), tmap);
+	}
+
+	@Test
+	public void testNonThrowingLookups() {
+		ImmutableTypedKey<String, String> a = ImmutableTypedKey.of(String.class, "a");
+		ImmutableTypedKey<Integer, String> b = ImmutableTypedKey.of(Integer.class, "b");
+		ImmutableTypedKey<String, String> missing = ImmutableTypedKey.of(String.class, "c");
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(a, "1", b, Integer.valueOf(2));
+		assertThat(tmap.getIfPresent(a), equalTo("1"));
+		assertThat(tmap.getIfPresent(Number.class, "b"), equalTo((Number) Integer.valueOf(2)));
+		assertNull(tmap.getIfPresent(missing));
+		assertNull(tmap.getIfPresent(ImmutableTypedKey.of(Integer.class, "a")));
+		assertNull(tmap.getIfPresent(String.class, "b"));
+		assertThat(tmap.getOrDefault(missing, "x"), equalTo("x"));
+		assertThat(tmap.getOrDefault(a, "x"), equalTo("1"));
+		assertThat(tmap.find(a).get(), equalTo("1"));
+		assertFalse(tmap.find(missing).isPresent());
+		assertFalse(ImmutableTypedMap.<String>of().find(a).isPresent());
+	}
+
 	@Test
 	public void testOf0() {
 		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of();
@@ -139,6 +176,45 @@ public class ImmutableTypedMapTest {
 			.build();
 	}
 
+	@Test
+	public void testBuilderCompact() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.<String>builder()
+			.put(ImmutableTypedKey.of(String.class, "a"), "1")
+			.putRaw("b", Long.valueOf(2L))
+			.putAll(ImmutableMap.of("c", ImmutableTypedSupplier.of(TypeTokens.listOf(String.class), Lists.newArrayList("3"))))
+			.build();
+		assertThat(tmap, instanceOf(CompactImmutableTypedMap.class));
+		assertThat(tmap.get(String.class, "a"), equalTo("1"));
+		assertThat(tmap.get(ImmutableTypedKey.of(Long.class, "b")), equalTo(2L));
+		assertThat(tmap.get(ImmutableTypedKey.of(TypeTokens.listOf(String.class), "c")), contains("3"));
+		assertThat(tmap.keys().size(), equalTo(3));
+	}
+
+	@Test
+	public void testBuilderSupplied() {
+		final AtomicInteger calls = new AtomicInteger();
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.<String>builder()
+			.put(ImmutableTypedKey.of(String.class, "a"), "1")
+			.putAll(ImmutableMap.of("b", TypedSuppliers.memoize(TypeToken.of(String.class), new Supplier<String>() {
+				public String get() {
+					calls.incrementAndGet();
+					return "2";
+				}
+			})))
+			.build();
+		assertThat(calls.get(), equalTo(0));
+		assertThat(tmap.get(String.class, "a"), equalTo("1"));
+		assertThat(tmap.get(String.class, "b"), equalTo("2"));
+		assertThat(calls.get(), equalTo(1));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testOfDuplicateKeys() {
+		ImmutableTypedMap.of(
+				ImmutableTypedKey.of(String.class, "a"), "1",
+				ImmutableTypedKey.of(Long.class, "a"), Long.valueOf(2L));
+	}
+
 	@Test
 	public void testIsEmpty() {
 		assertTrue(ImmutableTypedMap.of().isEmpty());
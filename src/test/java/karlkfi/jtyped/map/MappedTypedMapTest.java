@@ -0,0 +1,211 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.codec.TypedCodec;
+import karlkfi.jtyped.codec.TypedCodecRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class MappedTypedMapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final TypedCodec<String> IDS = TypedCodecRegistry.standard().resolveExact(String.class);
+
+	private static final ImmutableTypedKey<List<String>, String> LIST = ImmutableTypedKey.of(TypeTokens.listOf(String.class), "list");
+
+	/**
+	 * Value type whose codec counts decodes.
+	 */
+	static final class Counted {
+		final int value;
+
+		Counted(int value) {
+			this.value = value;
+		}
+	}
+
+	final AtomicInteger reads = new AtomicInteger();
+
+	final TypedCodec<Counted> countedCodec = new TypedCodec<Counted>() {
+		public TypeToken<Counted> getType() {
+			return TypeTokens.of(Counted.class);
+		}
+
+		public void write(Counted value, DataOutput out) throws IOException {
+			out.writeInt(value.value);
+		}
+
+		public Counted read(DataInput in) throws IOException {
+			reads.incrementAndGet();
+			return new Counted(in.readInt());
+		}
+	};
+
+	private File writeMap(TypedCodecRegistry codecs, int count) throws IOException {
+		ImmutableTypedMap.Builder<String> builder = ImmutableTypedMap.builder();
+		for (int i = 0; i < count; i++) {
+			builder.put(ImmutableTypedKey.of(Counted.class, "k" + i), new Counted(i));
+		}
+		builder.put(LIST, Lists.newArrayList("a", "b"));
+		File file = folder.newFile("map.bin");
+		MappedTypedMap.write(builder.build(), IDS, codecs, file);
+		return file;
+	}
+
+	@Test
+	public void testLazyDecoding() throws IOException {
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		MappedTypedMap<String> tmap = MappedTypedMap.open(writeMap(codecs, 1000), IDS, codecs);
+
+		assertThat(tmap.size(), equalTo(1001));
+		assertTrue(tmap.contains("k500"));
+		assertTrue(tmap.contains(Counted.class, "k500"));
+		assertFalse(tmap.contains(String.class, "k500"));
+		assertFalse(tmap.contains("k1000"));
+		tmap.checkType(ImmutableTypedKey.of(Counted.class, "k1"));
+		assertThat(reads.get(), equalTo(0));
+
+		assertThat(tmap.get(Counted.class, "k500").value, equalTo(500));
+		assertThat(tmap.get(Counted.class, "k500").value, equalTo(500));
+		assertThat(reads.get(), equalTo(1));
+		assertThat(tmap.get(LIST), contains("a", "b"));
+	}
+
+	@Test
+	public void testUncached() throws IOException {
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		MappedTypedMap<String> tmap = MappedTypedMap.open(writeMap(codecs, 10), IDS, codecs, false);
+		assertThat(tmap.get(Counted.class, "k3").value, equalTo(3));
+		assertThat(tmap.get(Counted.class, "k3").value, equalTo(3));
+		assertThat(reads.get(), equalTo(2));
+	}
+
+	@Test
+	public void testIteration() throws IOException {
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		MappedTypedMap<String> tmap = MappedTypedMap.open(writeMap(codecs, 10), IDS, codecs);
+		assertThat(Lists.newArrayList(tmap.keys()).size(), equalTo(11));
+		assertThat(reads.get(), equalTo(0));
+		for (Entry<TypedKey<Object, String>, Object> entry : tmap.entries()) {
+			assertThat(entry.getValue(), notNullValue());
+		}
+		assertThat(reads.get(), equalTo(10));
+		assertThat(tmap.with(LIST, Lists.newArrayList("c")).get(LIST), contains("c"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnregisteredCodec() throws IOException {
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		MappedTypedMap.open(writeMap(codecs, 1), IDS, TypedCodecRegistry.standard());
+	}
+
+	@Test
+	public void testLookupsDoNotDecodeIds() throws IOException {
+		final AtomicInteger idReads = new AtomicInteger();
+		TypedCodec<String> ids = new TypedCodec<String>() {
+			public TypeToken<String> getType() {
+				return IDS.getType();
+			}
+
+			public void write(String value, DataOutput out) throws IOException {
+				IDS.write(value, out);
+			}
+
+			public String read(DataInput in) throws IOException {
+				idReads.incrementAndGet();
+				return IDS.read(in);
+			}
+		};
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		MappedTypedMap<String> tmap = MappedTypedMap.open(writeMap(codecs, 100), ids, codecs, false);
+		assertTrue(tmap.contains("k50"));
+		assertFalse(tmap.contains("k100"));
+		assertThat(tmap.get(Counted.class, "k50").value, equalTo(50));
+		assertThat(idReads.get(), equalTo(0));
+	}
+
+	@Test
+	public void testCachedLookupsCompareDecodedIds() throws IOException {
+		final AtomicInteger idReads = new AtomicInteger();
+		final AtomicInteger idWrites = new AtomicInteger();
+		TypedCodec<String> ids = new TypedCodec<String>() {
+			public TypeToken<String> getType() {
+				return IDS.getType();
+			}
+
+			public void write(String value, DataOutput out) throws IOException {
+				idWrites.incrementAndGet();
+				IDS.write(value, out);
+			}
+
+			public String read(DataInput in) throws IOException {
+				idReads.incrementAndGet();
+				return IDS.read(in);
+			}
+		};
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		MappedTypedMap<String> tmap = MappedTypedMap.open(writeMap(codecs, 100), ids, codecs, true);
+		assertTrue(tmap.contains("k50"));
+		assertTrue(tmap.contains("k50"));
+		assertThat(tmap.get(Counted.class, "k50").value, equalTo(50));
+		assertThat(idReads.get(), equalTo(1));
+		assertThat(idWrites.get(), equalTo(0));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMalformedBucketCount() throws IOException {
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		File file = writeMap(codecs, 10);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(12);
+			raf.writeInt(3);
+		} finally {
+			raf.close();
+		}
+		MappedTypedMap.open(file, IDS, codecs);
+	}
+
+	@Test(expected = IOException.class)
+	public void testMalformedTypeTableOffset() throws IOException {
+		TypedCodecRegistry codecs = TypedCodecRegistry.builder().register(countedCodec).build();
+		File file = writeMap(codecs, 10);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(16);
+			raf.writeLong(raf.length());
+		} finally {
+			raf.close();
+		}
+		MappedTypedMap.open(file, IDS, codecs);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotATypedMapFile() throws IOException {
+		MappedTypedMap.open(folder.newFile("empty.bin"), IDS, TypedCodecRegistry.standard());
+	}
+
+}
@@ -0,0 +1,117 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Maps;
+
+@RunWith(JUnit4.class)
+public class PersistentTypedMapTest {
+
+	private static final ImmutableTypedKey<String, String> A = ImmutableTypedKey.of(String.class, "a");
+	private static final ImmutableTypedKey<Integer, String> B = ImmutableTypedKey.of(Integer.class, "b");
+
+	/**
+	 * Key ID with a controllable hash code, to force trie collisions.
+	 */
+	private static final class Id {
+		final int value;
+		final int hash;
+
+		Id(int value, int hash) {
+			this.value = value;
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Id && ((Id) o).value == value;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	@Test
+	public void testWithDoesNotModifyOriginal() {
+		ImmutableTypedMap<String> original = ImmutableTypedMap.of(A, "1");
+		ImmutableTypedMap<String> changed = original.with(B, Integer.valueOf(2));
+		assertThat(original.size(), equalTo(1));
+		assertFalse(original.contains(B));
+		assertThat(changed.size(), equalTo(2));
+		assertThat(changed.get(A), equalTo("1"));
+		assertThat(changed.get(B), equalTo(Integer.valueOf(2)));
+		assertThat(changed.getInt(IntTypedKey.of("b")), equalTo(2));
+	}
+
+	@Test
+	public void testWithReplacesEntry() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.<String>of().with(A, "1").with(A, "2");
+		assertThat(tmap.size(), equalTo(1));
+		assertThat(tmap.get(A), equalTo("2"));
+
+		ImmutableTypedMap<String> retyped = tmap.with(ImmutableTypedKey.of(Long.class, "a"), Long.valueOf(3L));
+		assertThat(retyped.size(), equalTo(1));
+		assertThat(retyped.get(Long.class, "a"), equalTo(Long.valueOf(3L)));
+		assertThat(tmap.get(A), equalTo("2"));
+	}
+
+	@Test
+	public void testWithout() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(A, "1", B, Integer.valueOf(2));
+		ImmutableTypedMap<String> removed = tmap.without("a");
+		assertThat(removed.size(), equalTo(1));
+		assertFalse(removed.contains("a"));
+		assertThat(removed.get(B), equalTo(Integer.valueOf(2)));
+		assertThat(tmap.size(), equalTo(2));
+
+		assertThat(removed.without("a"), sameInstance(removed));
+		assertThat(removed.without(B), sameInstance(ImmutableTypedMap.<String>of()));
+	}
+
+	@Test(expected = ClassCastException.class)
+	public void testWithoutTypeMismatch() {
+		ImmutableTypedMap.of(A, "1").without(ImmutableTypedKey.of(Integer.class, "a"));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testWithNullValue() {
+		ImmutableTypedMap.of(A, "1").with(B, null);
+	}
+
+	@Test
+	public void testRandomChangesMatchHashMap() {
+		Random random = new Random(42);
+		Map<Id, Integer> expected = Maps.newHashMap();
+		ImmutableTypedMap<Id> tmap = ImmutableTypedMap.of();
+		for (int i = 0; i < 5000; i++) {
+			// a small hash range forces collision nodes, a large one forces deep tries
+			int value = random.nextInt(500);
+			Id id = new Id(value, (value % 3 == 0) ? value % 7 : value * 0x9E3779B9);
+			if (random.nextInt(3) == 0) {
+				expected.remove(id);
+				tmap = tmap.without(id);
+			} else {
+				expected.put(id, Integer.valueOf(i));
+				tmap = tmap.with(ImmutableTypedKey.of(Integer.class, id), Integer.valueOf(i));
+			}
+			assertThat(tmap.size(), equalTo(expected.size()));
+		}
+		for (int value = 0; value < 500; value++) {
+			Id id = new Id(value, (value % 3 == 0) ? value % 7 : value * 0x9E3779B9);
+			assertThat(tmap.getIfPresent(Integer.class, id), equalTo(expected.get(id)));
+		}
+		assertThat(tmap.entries().size(), equalTo(expected.size()));
+	}
+
+}
@@ -0,0 +1,141 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import karlkfi.jtyped.LongTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.TypedSupplier;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Maps;
+
+@RunWith(JUnit4.class)
+public class PrimitiveTypedKeyTest {
+
+	static final IntTypedKey<String> SIZE = IntTypedKey.of("size");
+	static final LongTypedKey<String> COUNT = LongTypedKey.of("count");
+	static final DoubleTypedKey<String> RATIO = DoubleTypedKey.of("ratio");
+	static final BooleanTypedKey<String> ENABLED = BooleanTypedKey.of("enabled");
+
+	@Test
+	public void testPutGet() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.putInt(SIZE, 3);
+		tmap.putLong(COUNT, 1L);
+		tmap.putDouble(RATIO, 0.5d);
+		tmap.putBoolean(ENABLED, true);
+		tmap.putLong(COUNT, 2L);
+		assertThat(tmap.getInt(SIZE), equalTo(3));
+		assertThat(tmap.getLong(COUNT), equalTo(2L));
+		assertThat(tmap.getDouble(RATIO), equalTo(0.5d));
+		assertTrue(tmap.getBoolean(ENABLED));
+		// primitive keys are ordinary typed keys
+		assertThat(tmap.get(COUNT), equalTo(2L));
+		assertThat(tmap.get(Long.class, "count"), equalTo(2L));
+	}
+
+	@Test
+	public void testKeyEquality() {
+		assertEquals(ImmutableTypedKey.of(Integer.class, "size"), SIZE);
+		assertEquals(SIZE, ImmutableTypedKey.of(Integer.class, "size"));
+		assertThat(SIZE.hashCode(), equalTo(ImmutableTypedKey.of(Integer.class, "size").hashCode()));
+		assertFalse(SIZE.equals(ImmutableTypedKey.of(Long.class, "size")));
+	}
+
+	@Test
+	public void testPrimitiveHashCode() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		assertThat(tmap.hashCode(), equalTo(0));
+		tmap.putInt(SIZE, 3);
+		tmap.putLong(COUNT, -1L);
+		tmap.putDouble(RATIO, 0.5d);
+		tmap.putBoolean(ENABLED, true);
+		tmap.putLong(COUNT, Long.MAX_VALUE);
+		tmap.putDouble(RATIO, -0.25d);
+		tmap.putBoolean(ENABLED, false);
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+		tmap.remove(RATIO);
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+	}
+
+	@Test
+	public void testPrimitiveStorage() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.putLong(COUNT, 1L);
+		assertThat(tmap.delegate().get("count"), instanceOf(LongTypedSupplier.class));
+		tmap.put(COUNT, Long.valueOf(2L));
+		assertThat(tmap.delegate().get("count"), instanceOf(LongTypedSupplier.class));
+		assertThat(tmap.getLong(COUNT), equalTo(2L));
+		tmap.setType(LongTypedKey.of("other"));
+		assertThat(tmap.delegate().get("other"), instanceOf(LongTypedSupplier.class));
+	}
+
+	@Test
+	public void testKeysAndEntries() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.putLong(COUNT, 7L);
+		Entry<TypedKey<Object, String>, Object> entry = tmap.entries().iterator().next();
+		assertThat(entry.getKey().getId(), equalTo("count"));
+		assertThat(entry.getKey().getType(), equalTo((Object) TypeTokens.of(Long.class)));
+		assertThat(entry.getValue(), equalTo((Object) Long.valueOf(7L)));
+		assertThat(tmap.keys().iterator().next().getType(), equalTo((Object) TypeTokens.of(Long.class)));
+	}
+
+	@Test
+	public void testRemove() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.putLong(COUNT, 7L);
+		assertThat(tmap.remove(COUNT), equalTo(7L));
+		assertTrue(tmap.contains(COUNT));
+		assertNull(tmap.get(COUNT));
+	}
+
+	@Test(expected=EntryNotFoundException.class)
+	public void testGetRemoved() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.putLong(COUNT, 7L);
+		tmap.remove(COUNT);
+		tmap.getLong(COUNT);
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testPutTypeMismatch() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.put(ImmutableTypedKey.of(String.class, "count"), "a");
+		tmap.putLong(COUNT, 1L);
+	}
+
+	@Test
+	public void testGetBoxed() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.put(ImmutableTypedKey.of(Long.class, "count"), Long.valueOf(3L));
+		assertThat(tmap.getLong(COUNT), equalTo(3L));
+	}
+
+	@Test
+	public void testImmutableMap() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(COUNT, Long.valueOf(4L), ENABLED, Boolean.FALSE);
+		assertThat(tmap.getLong(COUNT), equalTo(4L));
+		assertFalse(tmap.getBoolean(ENABLED));
+	}
+
+	@Test
+	public void testConcurrentMap() {
+		Map<String, TypedSupplier<?>> m = Maps.newHashMap();
+		m.put("count", LongTypedSupplier.of(1L));
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.copyOf(m);
+		tmap.putLong(COUNT, 5L);
+		tmap.putInt(SIZE, 2);
+		assertThat(tmap.getLong(COUNT), equalTo(5L));
+		assertThat(tmap.getInt(SIZE), equalTo(2));
+	}
+
+}
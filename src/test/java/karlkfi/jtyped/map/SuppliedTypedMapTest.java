@@ -3,15 +3,25 @@ package karlkfi.jtyped.map;
 import static org.junit.Assert.*;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import karlkfi.jtyped.ImmutableTypedSupplier;
 import karlkfi.jtyped.MutableTypedSupplier;
 import karlkfi.jtyped.TypeTokens;
+import karlkfi.jtyped.TypedSuppliers;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.reflect.TypeToken;
 
 @RunWith(JUnit4.class)
@@ -19,7 +29,37 @@ public class SuppliedTypedMapTest {
 
 	@Test
 	public void testHashCode() {
-		//fail("Not yet implemented");
+		ImmutableTypedKey<String, String> a = ImmutableTypedKey.of(String.class, "a");
+		IntTypedKey<String> b = IntTypedKey.of("b");
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		assertThat(tmap.hashCode(), equalTo(0));
+
+		// maintained by every mutation once computed
+		tmap.put(a, "1");
+		tmap.putInt(b, 2);
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+		assertThat(tmap.hashCode(), equalTo(ImmutableTypedMap.of(a, "1", b, Integer.valueOf(2)).hashCode()));
+		tmap.put(a, "3");
+		tmap.putInt(b, 4);
+		assertThat(tmap.hashCode(), equalTo(ImmutableTypedMap.of(a, "3", b, Integer.valueOf(4)).hashCode()));
+		tmap.remove(b);
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+		tmap.clear();
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+		tmap.putAll(ImmutableTypedMap.of(a, "5"));
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+	}
+
+	@Test
+	public void testHashCodeAfterProvidedSupplierChanges() {
+		ImmutableTypedKey<String, String> a = ImmutableTypedKey.of(String.class, "a");
+		MutableTypedSupplier<String> supplier = MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1");
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of("a", supplier);
+		tmap.hashCode();
+		supplier.set("2");
+		assertThat(tmap.hashCode(), equalTo(tmap.entries().hashCode()));
+		assertEquals(ImmutableTypedMap.of(a, "2"), tmap);
+		assertFalse(tmap.isHashCodeCached());
 	}
 
 	@Test
@@ -73,6 +113,141 @@ public class SuppliedTypedMapTest {
 		assertThat(tmap.size(), equalTo(5));
 	}
 
+	@Test
+	public void testClassLookups() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", MutableTypedSupplier.nonnull(TypeToken.of(Long.class), Long.valueOf(1L)),
+				"b", MutableTypedSupplier.nonnull(TypeTokens.listOf(String.class), Lists.newArrayList("2")));
+		assertTrue(tmap.contains(Number.class, "a"));
+		assertFalse(tmap.contains(String.class, "a"));
+		assertFalse(tmap.contains(Number.class, "c"));
+		assertThat(tmap.get(Number.class, "a"), equalTo((Number) Long.valueOf(1L)));
+		assertThat(tmap.remove(Iterable.class, "b").iterator().next(), equalTo((Object) "2"));
+		assertTrue(tmap.contains(Iterable.class, "b"));
+	}
+
+	@Test
+	public void testLiveViews() {
+		final int[] calls = new int[1];
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", TypedSuppliers.delegate(TypeToken.of(String.class), new Supplier<String>() {
+					public String get() {
+						calls[0]++;
+						return "1";
+					}
+				}));
+		Set<TypedKey<Object, String>> keys = tmap.keys();
+		Set<Entry<TypedKey<Object, String>, Object>> entries = tmap.entries();
+		assertThat(keys.iterator().next().getId(), equalTo("a"));
+		Entry<TypedKey<Object, String>, Object> entry = entries.iterator().next();
+		assertThat(calls[0], equalTo(0));
+		assertThat(entry.getValue(), equalTo((Object) "1"));
+		assertThat(calls[0], equalTo(1));
+
+		ImmutableTypedKey<Integer, String> b = ImmutableTypedKey.of(Integer.class, "b");
+		tmap.put(b, Integer.valueOf(2));
+		assertThat(keys.size(), equalTo(2));
+		assertThat(entries.size(), equalTo(2));
+		assertTrue(keys.contains(b));
+		assertFalse(keys.contains(ImmutableTypedKey.of(Number.class, "b")));
+		assertTrue(entries.contains(Maps.immutableEntry(b, Integer.valueOf(2))));
+		assertFalse(entries.contains(Maps.immutableEntry(b, Integer.valueOf(3))));
+		assertThat(tmap.entries(), sameInstance(entries));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testViewsAreReadOnly() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1"));
+		Iterator<TypedKey<Object, String>> keys = tmap.keys().iterator();
+		keys.next();
+		keys.remove();
+	}
+
+	@Test
+	public void testPutReturnsOldValue() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1"));
+		assertThat(tmap.put(ImmutableTypedKey.of(String.class, "a"), "2"), equalTo("1"));
+		assertThat(tmap.put(ImmutableTypedKey.of(String.class, "a"), "3"), equalTo("2"));
+		assertThat(tmap.get(String.class, "a"), equalTo("3"));
+	}
+
+	@Test
+	public void testPutAll() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1"));
+		tmap.putAll(ImmutableTypedMap.of(ImmutableTypedKey.of(String.class, "a"), "2", ImmutableTypedKey.of(Long.class, "b"), Long.valueOf(3L)));
+		assertThat(tmap.get(String.class, "a"), equalTo("2"));
+		assertThat(tmap.get(Long.class, "b"), equalTo(3L));
+		MutableTypedMap<String> schemaMap = TypedMapSchema.of(ImmutableTypedKey.of(String.class, "c")).newMap();
+		schemaMap.put(ImmutableTypedKey.of(String.class, "c"), "4");
+		tmap.putAll(schemaMap);
+		assertThat(tmap.get(String.class, "c"), equalTo("4"));
+		assertThat(tmap.size(), equalTo(3));
+	}
+
+	@Test
+	public void testPutAllReadsEachValueOnce() {
+		final int[] calls = new int[1];
+		SuppliedTypedMap<String> source = SuppliedTypedMap.of(
+				"a", TypedSuppliers.delegate(TypeToken.of(String.class), new Supplier<String>() {
+					public String get() {
+						calls[0]++;
+						return "1";
+					}
+				}));
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.putAll(source);
+		assertThat(calls[0], equalTo(1));
+		assertThat(tmap.get(String.class, "a"), equalTo("1"));
+	}
+
+	@Test
+	public void testPutAllTypeMismatchIsAtomic() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1"),
+				"c", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "3"));
+		try {
+			tmap.putAll(ImmutableTypedMap.of(ImmutableTypedKey.of(String.class, "a"), "2", ImmutableTypedKey.of(Long.class, "b"), Long.valueOf(3L),
+					ImmutableTypedKey.of(Long.class, "c"), Long.valueOf(4L)));
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		assertThat(tmap.get(String.class, "a"), equalTo("1"));
+		assertFalse(tmap.contains("b"));
+		assertThat(tmap.size(), equalTo(2));
+	}
+
+	@Test
+	public void testPutAllImmutableEntryIsAtomic() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1"),
+				"b", ImmutableTypedSupplier.of(TypeToken.of(String.class), "2"));
+		try {
+			tmap.putAll(ImmutableTypedMap.of(ImmutableTypedKey.of(String.class, "a"), "3", ImmutableTypedKey.of(String.class, "b"), "4"));
+			fail("expected ImmutableEntryException");
+		} catch (ImmutableEntryException e) {
+			// expected
+		}
+		assertThat(tmap.get(String.class, "a"), equalTo("1"));
+	}
+
+	@Test
+	public void testClearImmutableEntryIsAtomic() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"a", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "1"),
+				"b", ImmutableTypedSupplier.of(TypeToken.of(String.class), "2"));
+		try {
+			tmap.clear();
+			fail("expected ImmutableEntryException");
+		} catch (ImmutableEntryException e) {
+			// expected
+		}
+		assertThat(tmap.get(String.class, "a"), equalTo("1"));
+	}
+
 	@Test
 	public void testBuilder() {
 		SuppliedTypedMap.<String>builder()
@@ -154,7 +329,45 @@ public class SuppliedTypedMapTest {
 
 	@Test
 	public void testEqualsObject() {
-		//fail("Not yet implemented");
+		ImmutableTypedKey<String, String> a = ImmutableTypedKey.of(String.class, "a");
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of();
+		tmap.put(a, "1");
+		ImmutableTypedMap<String> other = ImmutableTypedMap.of(a, "1");
+		assertThat(tmap.hashCode(), equalTo(other.hashCode()));
+		assertEquals(other, tmap);
+		assertEquals(tmap, other);
+
+		tmap.put(a, "2");
+		assertFalse(tmap.equals(other));
+		assertFalse(other.equals(tmap));
+		assertFalse(tmap.equals(ImmutableTypedMap.of(a, "2", ImmutableTypedKey.of(String.class, "b"), "3")));
+		assertEquals(ImmutableTypedMap.of(a, "2"), tmap);
+	}
+
+	@Test
+	public void testEqualsLazySupplier() {
+		ImmutableTypedKey<String, String> a = ImmutableTypedKey.of(String.class, "a");
+		final AtomicReference<String> value = new AtomicReference<String>("1");
+		Supplier<String> supplier = new Supplier<String>() {
+			public String get() {
+				return value.get();
+			}
+		};
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of("a", TypedSuppliers.delegate(TypeToken.of(String.class), supplier));
+		ImmutableTypedMap<String> lazy = ImmutableTypedMap.<String>builder()
+				.putAll(ImmutableMap.of("a", TypedSuppliers.delegate(TypeToken.of(String.class), supplier))).build();
+		assertThat(tmap.hashCode(), equalTo(ImmutableTypedMap.of(a, "1").hashCode()));
+		assertThat(lazy.hashCode(), equalTo(ImmutableTypedMap.of(a, "1").hashCode()));
+
+		// hash codes of maps with lazy suppliers are not cached, so equals follows the current values
+		value.set("2");
+		ImmutableTypedMap<String> other = ImmutableTypedMap.of(a, "2");
+		other.hashCode();
+		assertEquals(tmap, other);
+		assertEquals(lazy, other);
+		assertEquals(other, lazy);
+		assertThat(tmap.hashCode(), equalTo(other.hashCode()));
+		assertThat(lazy.hashCode(), equalTo(other.hashCode()));
 	}
 
 	@Test
@@ -0,0 +1,96 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+
+import karlkfi.jtyped.MutableTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class TypedKeyGroupTest {
+
+	static final ImmutableTypedKey<String, String> NAME = ImmutableTypedKey.of(String.class, "name");
+	static final ImmutableTypedKey<Long, String> COUNT = ImmutableTypedKey.of(Long.class, "count");
+	static final ImmutableTypedKey<List<String>, String> TAGS = ImmutableTypedKey.of(TypeTokens.listOf(String.class), "tags");
+
+	static final TypedKeyGroup<String> GROUP = TypedKeyGroup.of(NAME, COUNT);
+
+	@Test
+	public void testImmutableMap() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(NAME, "a", COUNT, Long.valueOf(1L), TAGS, Lists.newArrayList("x"));
+		Object[] values = tmap.getAll(GROUP);
+		assertThat(GROUP.get(values, 0, NAME), equalTo("a"));
+		assertThat(GROUP.get(values, 1, COUNT), equalTo(1L));
+		assertTrue(tmap.containsAll(GROUP));
+		tmap.checkTypes(GROUP);
+	}
+
+	@Test
+	public void testSuppliedMap() {
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of(
+				"name", MutableTypedSupplier.nonnull(TypeToken.of(String.class), "a"),
+				"count", MutableTypedSupplier.nonnull(TypeToken.of(Long.class), Long.valueOf(1L)));
+		Object[] values = new Object[2];
+		tmap.getAll(GROUP, values);
+		tmap.getAll(GROUP, values);
+		assertThat(values[0], equalTo((Object) "a"));
+		assertThat(values[1], equalTo((Object) Long.valueOf(1L)));
+		assertTrue(tmap.containsAll(GROUP));
+		tmap.remove(COUNT);
+		assertThat(tmap.getAll(GROUP)[1], nullValue());
+	}
+
+	@Test
+	public void testBoundSchemaMap() {
+		TypedMapSchema<String> schema = TypedMapSchema.of(NAME, COUNT).withOverflow();
+		TypedKeyGroup<String> group = TypedKeyGroup.of(NAME, COUNT, TAGS).bind(schema.getLayout());
+		assertSame(schema.getLayout(), group.getLayout());
+		MutableTypedMap<String> tmap = schema.newMap();
+		tmap.put(NAME, "a");
+		tmap.put(COUNT, Long.valueOf(2L));
+		assertFalse(tmap.containsAll(group));
+		tmap.put(TAGS, Lists.newArrayList("x"));
+		assertTrue(tmap.containsAll(group));
+		Object[] values = tmap.getAll(group);
+		assertThat(group.get(values, 1, COUNT), equalTo(2L));
+		assertThat(group.get(values, 2, TAGS), contains("x"));
+	}
+
+	@Test
+	public void testContainsAllMismatch() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(NAME, "a", ImmutableTypedKey.of(String.class, "count"), "1");
+		assertFalse(tmap.containsAll(GROUP));
+		assertFalse(tmap.containsAll(GROUP.bind(TypedMapLayout.of(NAME, ImmutableTypedKey.of(String.class, "count")))));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testCheckTypesMismatch() {
+		ImmutableTypedMap.of(NAME, "a", ImmutableTypedKey.of(String.class, "count"), "1").checkTypes(GROUP);
+	}
+
+	@Test(expected=EntryNotFoundException.class)
+	public void testGetAllMissing() {
+		ImmutableTypedMap.of(NAME, "a").getAll(GROUP);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testGetAllResultTooSmall() {
+		ImmutableTypedMap.of(NAME, "a", COUNT, Long.valueOf(1L)).getAll(GROUP, new Object[1]);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testGetWrongKey() {
+		GROUP.get(new Object[2], 0, COUNT);
+	}
+
+}
@@ -0,0 +1,124 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import karlkfi.jtyped.TypedSupplier;
+import karlkfi.jtyped.TypedSuppliers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class TypedMapDumperTest {
+
+	private static final ImmutableTypedKey<String, String> A = ImmutableTypedKey.of(String.class, "a");
+	private static final ImmutableTypedKey<Integer, String> B = ImmutableTypedKey.of(Integer.class, "b");
+	private static final ImmutableTypedKey<Long, String> C = ImmutableTypedKey.of(Long.class, "c");
+
+	@Test
+	public void testToString() {
+		assertThat(ImmutableTypedMap.of(A, "1", B, Integer.valueOf(2)).toString(), equalTo("{a=1, b=2}"));
+		assertThat(CopyOnWriteTypedMap.of(ImmutableTypedMap.of(A, "1")).toString(), equalTo("{a=1}"));
+	}
+
+	@Test
+	public void testConcurrentTypedMap() {
+		ConcurrentTypedMap<String> tmap = ConcurrentTypedMap.of();
+		tmap.put(A, "1");
+		assertThat(tmap.toString(), equalTo("{a=1}"));
+	}
+
+	@Test
+	public void testLimitEntries() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(A, "1", B, Integer.valueOf(2), C, Long.valueOf(3L));
+		assertThat(TypedMapDumper.standard().limitEntries(2).toString(tmap), equalTo("{a=1, b=2, ...}"));
+		assertThat(TypedMapDumper.standard().limitEntries(0).toString(tmap), equalTo("{...}"));
+		assertThat(TypedMapDumper.standard().limitEntries(3).toString(tmap), equalTo("{a=1, b=2, c=3}"));
+	}
+
+	@Test
+	public void testLimitLength() {
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(A, Strings.repeat("x", 100), B, Integer.valueOf(2));
+		assertThat(TypedMapDumper.standard().limitLength(10).toString(tmap), equalTo("{a=xxxxxxxx...}"));
+		assertThat(TypedMapDumper.unlimited().toString(tmap).length(), equalTo(109));
+	}
+
+	@Test
+	public void testLimitLengthOfLargeValues() {
+		final AtomicInteger calls = new AtomicInteger();
+		Object element = new Object() {
+			@Override
+			public String toString() {
+				calls.incrementAndGet();
+				return "x";
+			}
+		};
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.<String>builder()
+				.putRaw("a", Collections.nCopies(1000000, element))
+				.build();
+		assertThat(TypedMapDumper.standard().limitLength(10).toString(tmap), equalTo("{a=[x, x, x...}"));
+		assertThat(calls.get(), lessThan(10));
+		ImmutableTypedMap<String> nested = ImmutableTypedMap.<String>builder()
+				.putRaw("b", Maps.newHashMap(ImmutableMap.of("k", element)))
+				.build();
+		assertThat(nested.toString(), equalTo("{b={k=x}}"));
+	}
+
+	@Test
+	public void testLazySuppliers() {
+		final AtomicInteger calls = new AtomicInteger();
+		TypedSupplier<String> lazy = TypedSuppliers.delegate(TypeToken.of(String.class), new Supplier<String>() {
+			public String get() {
+				calls.incrementAndGet();
+				return "computed";
+			}
+		});
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.<String>builder()
+				.putAll(ImmutableMap.of("a", lazy))
+				.build();
+
+		assertThat(tmap.toString(), equalTo("{a=" + TypedMapDumper.LAZY_VALUE + "}"));
+		assertThat(calls.get(), equalTo(0));
+		assertThat(TypedMapDumper.standard().forceSuppliers(true).toString(tmap), equalTo("{a=computed}"));
+		assertThat(calls.get(), equalTo(1));
+	}
+
+	@Test
+	public void testFormatters() {
+		TypedMapDumper dumper = TypedMapDumper.standard()
+				.withFormatter(Number.class, new TypedMapDumper.ValueFormatter() {
+					public void format(Appendable out, TypeToken<?> type, Object value) throws IOException {
+						out.append('#').append(value.toString());
+					}
+				})
+				.withFormatter(Long.class, new TypedMapDumper.ValueFormatter() {
+					public void format(Appendable out, TypeToken<?> type, Object value) throws IOException {
+						out.append(value.toString()).append('L');
+					}
+				});
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(A, "1", B, Integer.valueOf(2), C, Long.valueOf(3L));
+		assertThat(dumper.toString(tmap), equalTo("{a=1, b=#2, c=3L}"));
+	}
+
+	@Test
+	public void testAppendTo() throws IOException {
+		StringBuilder sb = new StringBuilder("map: ");
+		Appendable out = sb;
+		assertThat(TypedMapDumper.standard().appendTo(out, ImmutableTypedMap.of(A, "1")), sameInstance(out));
+		assertThat(sb.toString(), equalTo("map: {a=1}"));
+	}
+
+}
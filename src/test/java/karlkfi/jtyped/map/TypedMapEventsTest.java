@@ -0,0 +1,159 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import karlkfi.jtyped.TypedSuppliers;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class TypedMapEventsTest {
+
+	private static final ImmutableTypedKey<String, String> A = ImmutableTypedKey.of(String.class, "a");
+	private static final ImmutableTypedKey<Integer, String> A_INT = ImmutableTypedKey.of(Integer.class, "a");
+	private static final ImmutableTypedKey<String, String> B = ImmutableTypedKey.of(String.class, "b");
+
+	private static final class RecordingListener implements TypedMapEvents.Listener {
+
+		final List<String> events = Lists.newArrayList();
+
+		public void onSlowSupplier(Object keyId, TypeToken<?> type, long nanos) {
+			events.add("slow " + keyId + " " + type);
+		}
+
+		public void onMemoizedComputation(Object keyId, TypeToken<?> type, long nanos) {
+			events.add("memoized " + keyId + " " + type);
+		}
+
+		public void onEntryNotFound(@Nullable Object keyId, @Nullable TypeToken<?> type) {
+			events.add("missing " + keyId + " " + type);
+		}
+
+		public void onTypeMismatch(@Nullable Object keyId, TypeToken<?> type, @Nullable TypeToken<?> entryType) {
+			events.add("mismatch " + keyId + " " + type + " " + entryType);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		TypedMapEvents.uninstall();
+	}
+
+	@Test
+	public void testSlowSupplier() {
+		RecordingListener listener = new RecordingListener();
+		TypedMapEvents.install(listener, 0, TimeUnit.NANOSECONDS);
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of("a", TypedSuppliers.delegate(TypeToken.of(String.class), Suppliers.ofInstance("1")));
+		assertThat(tmap.get(A), equalTo("1"));
+		assertThat(tmap.get("a"), equalTo((Object) "1"));
+		assertThat(listener.events, contains("slow a java.lang.String", "slow a java.lang.String"));
+
+		TypedMapEvents.install(listener, 1, TimeUnit.HOURS);
+		assertThat(tmap.get(A), equalTo("1"));
+		assertThat(listener.events, hasSize(2));
+	}
+
+	@Test
+	public void testMemoizedComputation() {
+		RecordingListener listener = new RecordingListener();
+		TypedMapEvents.install(listener, 1, TimeUnit.HOURS);
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of("a", TypedSuppliers.memoize(TypeToken.of(String.class), new Supplier<String>() {
+			public String get() {
+				return new String("1");
+			}
+		}));
+		String value = tmap.get(A);
+		assertThat(tmap.get(A), sameInstance(value));
+		assertThat(listener.events, contains("memoized a java.lang.String"));
+	}
+
+	@Test
+	public void testEntryNotFound() {
+		RecordingListener listener = new RecordingListener();
+		TypedMapEvents.install(listener, 1, TimeUnit.HOURS);
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(A, "1");
+		try {
+			tmap.get(B);
+			fail("expected EntryNotFoundException");
+		} catch (EntryNotFoundException e) {
+			// expected
+		}
+		try {
+			tmap.get("c");
+			fail("expected EntryNotFoundException");
+		} catch (EntryNotFoundException e) {
+			// expected
+		}
+		assertThat(listener.events, contains("missing b java.lang.String", "missing c null"));
+	}
+
+	@Test
+	public void testEntryNotFoundOnlyOnLookups() {
+		RecordingListener listener = new RecordingListener();
+		TypedMapEvents.install(listener, 1, TimeUnit.HOURS);
+		EntryNotFoundException.of("Layout %s does not contain %s", "x", "y");
+		try {
+			ImmutableTypedMap.of(A, "1").get(Integer.class, "c");
+			fail("expected EntryNotFoundException");
+		} catch (EntryNotFoundException e) {
+			// expected
+		}
+		assertThat(listener.events, contains("missing c java.lang.Integer"));
+	}
+
+	@Test
+	public void testTypeMismatch() {
+		RecordingListener listener = new RecordingListener();
+		TypedMapEvents.install(listener, 1, TimeUnit.HOURS);
+		ImmutableTypedMap<String> tmap = ImmutableTypedMap.of(A, "1");
+		try {
+			tmap.get(A_INT);
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		try {
+			tmap.get(Integer.class, "a");
+			fail("expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		assertThat(listener.events, contains("mismatch a java.lang.Integer java.lang.String", "mismatch a java.lang.Integer java.lang.String"));
+	}
+
+	@Test
+	public void testUninstall() {
+		RecordingListener listener = new RecordingListener();
+		TypedMapEvents.install(listener, 0, TimeUnit.NANOSECONDS);
+		assertThat(TypedMapEvents.getListener(), sameInstance((TypedMapEvents.Listener) listener));
+		assertFalse(TypedMapEvents.uninstall(new RecordingListener()));
+		assertTrue(TypedMapEvents.uninstall(listener));
+		assertThat(TypedMapEvents.getListener(), nullValue());
+
+		SuppliedTypedMap<String> tmap = SuppliedTypedMap.of("a", TypedSuppliers.delegate(TypeToken.of(String.class), Suppliers.ofInstance("1")));
+		assertThat(tmap.get(A), equalTo("1"));
+		try {
+			tmap.get(B);
+			fail("expected EntryNotFoundException");
+		} catch (EntryNotFoundException e) {
+			// expected
+		}
+		assertThat(listener.events, empty());
+	}
+
+}
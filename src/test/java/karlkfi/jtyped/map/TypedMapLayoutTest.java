@@ -0,0 +1,113 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Collection;
+import java.util.List;
+
+import karlkfi.jtyped.ImmutableTypedSupplier;
+import karlkfi.jtyped.TypeTokens;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class TypedMapLayoutTest {
+
+	static final ImmutableTypedKey<String, String> NAME = ImmutableTypedKey.of(String.class, "name");
+	static final ImmutableTypedKey<Long, String> COUNT = ImmutableTypedKey.of(Long.class, "count");
+	static final ImmutableTypedKey<List<String>, String> TAGS = ImmutableTypedKey.of(TypeTokens.listOf(String.class), "tags");
+
+	static final TypedMapLayout<String> LAYOUT = TypedMapLayout.of(ImmutableList.of(NAME, COUNT, TAGS));
+
+	private static ImmutableTypedMap<String> newMap(String name, long count, List<String> tags) {
+		return LAYOUT.newImmutableMap(
+				ImmutableTypedSupplier.nonnull(NAME.getType(), name),
+				ImmutableTypedSupplier.nonnull(COUNT.getType(), Long.valueOf(count)),
+				ImmutableTypedSupplier.nonnull(TAGS.getType(), tags));
+	}
+
+	@Test
+	public void testIndexOf() {
+		assertThat(LAYOUT.size(), equalTo(3));
+		assertThat(LAYOUT.indexOf("name"), equalTo(0));
+		assertThat(LAYOUT.indexOf("count"), equalTo(1));
+		assertThat(LAYOUT.indexOf("tags"), equalTo(2));
+		assertThat(LAYOUT.indexOf("missing"), equalTo(-1));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDuplicateIds() {
+		TypedMapLayout.of(ImmutableList.of(NAME, ImmutableTypedKey.of(Long.class, "name")));
+	}
+
+	@Test
+	public void testBoundGet() {
+		BoundTypedKey<String, String> name = LAYOUT.bind(NAME);
+		BoundTypedKey<Long, String> count = LAYOUT.bind(COUNT);
+		ImmutableTypedMap<String> a = newMap("a", 1L, Lists.newArrayList("x"));
+		ImmutableTypedMap<String> b = newMap("b", 2L, Lists.<String>newArrayList());
+		assertThat(a.get(name), equalTo("a"));
+		assertThat(b.get(name), equalTo("b"));
+		assertThat(a.get(count), equalTo(1L));
+		assertThat(b.get(count), equalTo(2L));
+	}
+
+	@Test
+	public void testBoundGetAssignable() {
+		TypeToken<Collection<String>> type = new TypeToken<Collection<String>>() {
+			private static final long serialVersionUID = 1L;
+		};
+		BoundTypedKey<Collection<String>, String> tags = LAYOUT.bind(ImmutableTypedKey.of(type, "tags"));
+		assertThat(newMap("a", 1L, Lists.newArrayList("x")).get(tags), contains("x"));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testBindMismatch() {
+		LAYOUT.bind(ImmutableTypedKey.of(Integer.class, "count"));
+	}
+
+	@Test(expected=EntryNotFoundException.class)
+	public void testBindMissing() {
+		LAYOUT.bind(ImmutableTypedKey.of(String.class, "missing"));
+	}
+
+	@Test
+	public void testBoundGetOtherLayout() {
+		BoundTypedKey<String, String> name = LAYOUT.bind(NAME);
+		ImmutableTypedMap<String> other = ImmutableTypedMap.of(NAME, "c");
+		assertThat(other.get(name), equalTo("c"));
+	}
+
+	@Test(expected=EntryNotFoundException.class)
+	public void testBoundGetOtherLayoutMissing() {
+		BoundTypedKey<String, String> name = LAYOUT.bind(NAME);
+		ImmutableTypedMap.of(COUNT, Long.valueOf(1L)).get(name);
+	}
+
+	@Test
+	public void testSlottedMap() {
+		ImmutableTypedMap<String> tmap = newMap("a", 1L, Lists.newArrayList("x"));
+		assertThat(tmap.size(), equalTo(3));
+		assertTrue(tmap.contains(NAME));
+		assertFalse(tmap.contains(ImmutableTypedKey.of(Integer.class, "count")));
+		assertThat(tmap.get(Long.class, "count"), equalTo(1L));
+		assertThat(tmap.keys().size(), equalTo(3));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testNewImmutableMapMismatch() {
+		LAYOUT.newImmutableMap(
+				ImmutableTypedSupplier.nonnull(TypeToken.of(Integer.class), Integer.valueOf(1)),
+				ImmutableTypedSupplier.nonnull(COUNT.getType(), Long.valueOf(1L)),
+				ImmutableTypedSupplier.nonnull(TAGS.getType(), Lists.<String>newArrayList()));
+	}
+
+}
@@ -0,0 +1,166 @@
+package karlkfi.jtyped.map;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+
+import karlkfi.jtyped.TypeTokens;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.collect.Lists;
+
+@RunWith(JUnit4.class)
+public class TypedMapSchemaTest {
+
+	static final ImmutableTypedKey<String, String> NAME = ImmutableTypedKey.of(String.class, "name");
+	static final LongTypedKey<String> COUNT = LongTypedKey.of("count");
+	static final ImmutableTypedKey<List<String>, String> TAGS = ImmutableTypedKey.of(TypeTokens.listOf(String.class), "tags");
+	static final ImmutableTypedKey<String, String> OTHER = ImmutableTypedKey.of(String.class, "other");
+
+	static final TypedMapSchema<String> SCHEMA = TypedMapSchema.of(NAME, COUNT, TAGS);
+
+	@Test
+	public void testPutGet() {
+		MutableTypedMap<String> tmap = SCHEMA.newMap();
+		assertTrue(tmap.isEmpty());
+		assertNull(tmap.put(NAME, "a"));
+		assertThat(tmap.put(NAME, "b"), equalTo("a"));
+		tmap.putLong(COUNT, 3L);
+		assertThat(tmap.size(), equalTo(2));
+		assertThat(tmap.get(NAME), equalTo("b"));
+		assertThat(tmap.getLong(COUNT), equalTo(3L));
+		assertThat(tmap.get(String.class, "name"), equalTo("b"));
+		assertTrue(tmap.contains(NAME));
+		assertFalse(tmap.contains(TAGS));
+		assertThat(tmap.keys().size(), equalTo(2));
+	}
+
+	@Test
+	public void testBoundKeys() {
+		BoundTypedKey<String, String> name = SCHEMA.bind(NAME);
+		MutableTypedMap<String> a = SCHEMA.newMap();
+		MutableTypedMap<String> b = SCHEMA.newMap();
+		a.put(name, "a");
+		b.put(NAME, "b");
+		assertThat(a.get(name), equalTo("a"));
+		assertThat(b.get(name), equalTo("b"));
+	}
+
+	@Test
+	public void testClassLookups() {
+		MutableTypedMap<String> tmap = SCHEMA.newMap();
+		tmap.put(NAME, "a");
+		tmap.put(TAGS, Lists.newArrayList("x"));
+		assertTrue(tmap.contains(CharSequence.class, "name"));
+		assertFalse(tmap.contains(Integer.class, "name"));
+		assertFalse(tmap.contains(Long.class, "count"));
+		assertTrue(tmap.contains(List.class, "tags"));
+		assertThat(tmap.get(CharSequence.class, "name"), equalTo((CharSequence) "a"));
+		assertThat(tmap.remove(List.class, "tags").size(), equalTo(1));
+		assertNull(tmap.get(TAGS));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testGetClassMismatch() {
+		MutableTypedMap<String> tmap = SCHEMA.newMap();
+		tmap.put(NAME, "a");
+		tmap.get(Integer.class, "name");
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testPutTypeMismatch() {
+		SCHEMA.newMap().put(ImmutableTypedKey.of(Integer.class, "name"), Integer.valueOf(1));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testPutSupertypeKeyMismatch() {
+		SCHEMA.newMap().put(ImmutableTypedKey.of(CharSequence.class, "name"), new StringBuilder("a"));
+	}
+
+	@Test
+	public void testPutAll() {
+		SuppliedTypedMap<String> source = SuppliedTypedMap.of();
+		source.put(NAME, "a");
+		source.setType(TAGS);
+		MutableTypedMap<String> tmap = SCHEMA.newMap();
+		tmap.putAll(source);
+		assertThat(tmap.get(NAME), equalTo("a"));
+		assertFalse(tmap.contains(TAGS));
+	}
+
+	@Test
+	public void testPutAllMismatchUnchanged() {
+		SuppliedTypedMap<String> source = SuppliedTypedMap.of();
+		source.put(NAME, "a");
+		source.put(ImmutableTypedKey.of(String.class, "count"), "b");
+		MutableTypedMap<String> tmap = SCHEMA.newMap();
+		try {
+			tmap.putAll(source);
+			fail("Expected ClassCastException");
+		} catch (ClassCastException e) {
+			// expected
+		}
+		assertTrue(tmap.isEmpty());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPutNonSchemaKey() {
+		SCHEMA.newMap().put(OTHER, "x");
+	}
+
+	@Test
+	public void testOverflow() {
+		MutableTypedMap<String> tmap = SCHEMA.withOverflow().newMap();
+		tmap.put(NAME, "a");
+		tmap.put(OTHER, "x");
+		assertThat(tmap.size(), equalTo(2));
+		assertThat(tmap.get(OTHER), equalTo("x"));
+		assertThat(tmap.keys().size(), equalTo(2));
+		assertThat(tmap.remove(OTHER), equalTo("x"));
+	}
+
+	@Test
+	public void testRemoveAndClear() {
+		MutableTypedMap<String> tmap = SCHEMA.newMap();
+		tmap.put(NAME, "a");
+		tmap.put(TAGS, Lists.newArrayList("x"));
+		assertThat(tmap.remove(NAME), equalTo("a"));
+		assertTrue(tmap.contains(NAME));
+		assertNull(tmap.get(NAME));
+		tmap.clear();
+		assertThat(tmap.size(), equalTo(2));
+		assertNull(tmap.get(TAGS));
+	}
+
+	@Test(expected=EntryNotFoundException.class)
+	public void testGetMissing() {
+		SCHEMA.newMap().get(NAME);
+	}
+
+	@Test
+	public void testSetType() {
+		MutableTypedMap<String> tmap = SCHEMA.newMap();
+		tmap.setType(NAME);
+		assertThat(tmap.size(), equalTo(1));
+		assertNull(tmap.get(NAME));
+	}
+
+	@Test
+	public void testNewImmutableMap() {
+		ImmutableTypedMap<String> tmap = SCHEMA.newImmutableMap("a", Long.valueOf(1L), Lists.newArrayList("x"));
+		assertThat(tmap.get(SCHEMA.bind(NAME)), equalTo("a"));
+		assertThat(tmap.getLong(COUNT), equalTo(1L));
+		assertThat(tmap.size(), equalTo(3));
+	}
+
+	@Test(expected=ClassCastException.class)
+	public void testNewImmutableMapMismatch() {
+		SCHEMA.newImmutableMap("a", "b", Lists.newArrayList("x"));
+	}
+
+}
@@ -0,0 +1,172 @@
+package karlkfi.jtyped.map.metrics;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import karlkfi.jtyped.map.EntryNotFoundException;
+import karlkfi.jtyped.map.ImmutableTypedKey;
+import karlkfi.jtyped.map.ImmutableTypedMap;
+import karlkfi.jtyped.map.IntTypedKey;
+import karlkfi.jtyped.map.MutableTypedMap;
+import karlkfi.jtyped.map.SuppliedTypedMap;
+import karlkfi.jtyped.map.TypedKeyGroup;
+import karlkfi.jtyped.map.TypedMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.common.reflect.TypeToken;
+
+@RunWith(JUnit4.class)
+public class InstrumentedTypedMapTest {
+
+	private static final ImmutableTypedKey<String, String> NAME = ImmutableTypedKey.of(String.class, "name");
+	private static final ImmutableTypedKey<Long, String> NAME_AS_LONG = ImmutableTypedKey.of(Long.class, "name");
+	private static final ImmutableTypedKey<String, String> MISSING = ImmutableTypedKey.of(String.class, "missing");
+	private static final IntTypedKey<String> SIZE = IntTypedKey.of("size");
+
+	@Test
+	public void testLookups() {
+		TypedMapMetrics metrics = TypedMapMetrics.create();
+		TypedMap<String> tmap = InstrumentedTypedMap.of(ImmutableTypedMap.of(NAME, "a"), metrics);
+
+		assertThat(tmap.get(NAME), equalTo("a"));
+		assertThat(tmap.get(String.class, "name"), equalTo("a"));
+		try {
+			tmap.get(MISSING);
+			fail();
+		} catch (EntryNotFoundException expected) {
+		}
+		try {
+			tmap.get(NAME_AS_LONG);
+			fail();
+		} catch (ClassCastException expected) {
+		}
+		assertThat(tmap.getIfPresent(MISSING), nullValue());
+		assertThat(tmap.getIfPresent(NAME_AS_LONG), nullValue());
+		assertTrue(tmap.contains(NAME));
+
+		TypedMapMetrics.Stats name = metrics.getKeyStats().get("name");
+		assertThat(name.getHits(), equalTo(3L));
+		assertThat(name.getMismatches(), equalTo(2L));
+		assertThat(metrics.getKeyStats().get("missing").getMisses(), equalTo(2L));
+
+		TypedMapMetrics.Stats strings = metrics.getTypeStats().get(TypeToken.of(String.class));
+		assertThat(strings.getHits(), equalTo(3L));
+		assertThat(strings.getMisses(), equalTo(2L));
+		assertThat(metrics.getTypeStats().get(TypeToken.of(Long.class)).getMismatches(), equalTo(2L));
+
+		TypedMapMetrics.Stats total = metrics.getTotalStats();
+		assertThat(total.getLatency().getCount(), equalTo(7L));
+		assertThat(total.getLatency().getValueAtPercentile(100), greaterThanOrEqualTo(total.getLatency().getValueAtPercentile(50)));
+	}
+
+	@Test
+	public void testNullValueIsMiss() {
+		TypedMapMetrics metrics = TypedMapMetrics.create();
+		SuppliedTypedMap<String> delegate = SuppliedTypedMap.of();
+		delegate.setType(NAME);
+		TypedMap<String> tmap = InstrumentedTypedMap.of(delegate, metrics);
+		assertThat(tmap.getIfPresent(NAME), nullValue());
+		assertThat(tmap.getIfPresent(String.class, "name"), nullValue());
+		assertThat(tmap.getIfPresent(NAME_AS_LONG), nullValue());
+
+		TypedMapMetrics.Stats name = metrics.getKeyStats().get("name");
+		assertThat(name.getMisses(), equalTo(2L));
+		assertThat(name.getMismatches(), equalTo(1L));
+	}
+
+	@Test
+	public void testGroupLookups() {
+		TypedMapMetrics metrics = TypedMapMetrics.create();
+		TypedMap<String> tmap = InstrumentedTypedMap.of(ImmutableTypedMap.of(NAME, "a"), metrics);
+		assertFalse(tmap.containsAll(TypedKeyGroup.of(NAME, MISSING)));
+		assertThat(metrics.getKeyStats().get("name").getHits(), equalTo(1L));
+		assertThat(metrics.getKeyStats().get("missing").getMisses(), equalTo(1L));
+	}
+
+	@Test
+	public void testMutations() {
+		TypedMapMetrics metrics = TypedMapMetrics.create();
+		MutableTypedMap<String> tmap = InstrumentedTypedMap.ofMutable(SuppliedTypedMap.<String>of(), metrics);
+		tmap.put(NAME, "a");
+		tmap.putInt(SIZE, 1);
+		tmap.remove(NAME);
+		try {
+			tmap.put(NAME_AS_LONG, Long.valueOf(1L));
+			fail();
+		} catch (ClassCastException expected) {
+		}
+		assertThat(metrics.getKeyStats().get("name").getMutations(), equalTo(2L));
+		assertThat(metrics.getKeyStats().get("name").getMismatches(), equalTo(1L));
+		assertThat(metrics.getKeyStats().get("size").getMutations(), equalTo(1L));
+		assertThat(tmap.getInt(SIZE), equalTo(1));
+		assertThat(metrics.getKeyStats().get("size").getHits(), equalTo(1L));
+	}
+
+	@Test
+	public void testMaxKeys() {
+		TypedMapMetrics metrics = TypedMapMetrics.create(1);
+		TypedMap<String> tmap = InstrumentedTypedMap.of(ImmutableTypedMap.of(NAME, "a"), metrics);
+		tmap.getIfPresent(NAME);
+		tmap.getIfPresent(MISSING);
+		tmap.getIfPresent(MISSING);
+		assertThat(metrics.getKeyStats().keySet(), contains((Object) "name"));
+		assertThat(metrics.getOtherKeyStats().getMisses(), equalTo(2L));
+		assertThat(metrics.getTotalStats().getHits(), equalTo(1L));
+	}
+
+	@Test
+	public void testMaxTypes() {
+		TypedMapMetrics metrics = TypedMapMetrics.create(1);
+		TypedMap<String> tmap = InstrumentedTypedMap.of(ImmutableTypedMap.of(NAME, "a"), metrics);
+		tmap.getIfPresent(NAME);
+		tmap.getIfPresent(Integer.class, "name");
+		tmap.getIfPresent(Long.class, "name");
+		assertThat(metrics.getTypeStats().keySet(), contains((Object) TypeToken.of(String.class)));
+		assertThat(metrics.getOtherTypeStats().getMismatches(), equalTo(2L));
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertThat(histogram.getValueAtPercentile(99), equalTo(0L));
+		for (long nanos = 1; nanos <= 1000; nanos++) {
+			histogram.record(nanos);
+		}
+		assertThat(histogram.getCount(), equalTo(1000L));
+		assertThat((double) histogram.getValueAtPercentile(50), closeTo(500, 500 * 0.125));
+		assertThat((double) histogram.getValueAtPercentile(99), closeTo(990, 990 * 0.125));
+		assertThat(histogram.getValueAtPercentile(100), greaterThanOrEqualTo(1000L));
+		for (long value : new long[] { 0, 7, 8, 9, 1000, 123456789, Long.MAX_VALUE }) {
+			int bucket = LatencyHistogram.bucket(value);
+			assertThat(LatencyHistogram.upperBound(bucket), greaterThanOrEqualTo(value));
+			assertThat(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < value, is(true));
+		}
+	}
+
+	@Test
+	public void testLatencyHistogramConcurrentRecords() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (long nanos = 0; nanos < 10000; nanos++) {
+						histogram.record(nanos);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(histogram.getCount(), equalTo(80000L));
+		assertThat(histogram.getValueAtPercentile(100), greaterThanOrEqualTo(9999L));
+	}
+
+}